@@ -54,6 +54,19 @@ final class Arguments extends IdScriptableObject
     private static final String FTAG = "Arguments";
 
     public Arguments(NativeCall activation)
+    {
+        init(activation);
+    }
+
+    /**
+     * Create an arguments object to be initialized later with
+     * {@link #init(NativeCall)}, see {@link ScopeSnapshot}.
+     */
+    Arguments()
+    {
+    }
+
+    void init(NativeCall activation)
     {
         this.activation = activation;
 
@@ -88,6 +101,11 @@ final class Arguments extends IdScriptableObject
         return FTAG;
     }
 
+    NativeCall getActivation()
+    {
+        return activation;
+    }
+
     private Object arg(int index) {
       if (index < 0 || args.length <= index) return NOT_FOUND;
       return args[index];
@@ -461,6 +461,26 @@ public class BaseFunction extends IdScriptableObject implements Function
         return result;
     }
 
+    /**
+     * Return the stored value of the prototype property, which is null
+     * until the default prototype is created. Used by {@link ScopeSnapshot}.
+     */
+    final Object getRawPrototypeProperty()
+    {
+        return prototypeProperty;
+    }
+
+    final int getPrototypePropertyAttributes()
+    {
+        return prototypePropertyAttributes;
+    }
+
+    final void setRawPrototypeProperty(Object value, int attributes)
+    {
+        prototypeProperty = value;
+        prototypePropertyAttributes = attributes;
+    }
+
     private void setupDefaultPrototype()
     {
         NativeObject obj = new NativeObject();
@@ -555,8 +575,8 @@ public class BaseFunction extends IdScriptableObject implements Function
 
         // Compile with explicit interpreter instance to force interpreter
         // mode.
-        return cx.compileFunction(global, source, evaluator, reporter,
-                                  sourceURI, 1, null);
+        return cx.compileEval(global, source, (Interpreter)evaluator,
+                              reporter, sourceURI, true);
     }
 
     @Override
@@ -40,7 +40,7 @@
 package org.mozilla.javascript;
 
 import java.util.Map;
-import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.io.Serializable;
 
 /**
@@ -56,9 +56,12 @@ public class ClassCache implements Serializable
     private static final long serialVersionUID = -8866246036237312215L;
     private static final Object AKEY = "ClassCache";
     private volatile boolean cachingIsEnabled = true;
-    private transient HashMap<Class<?>,JavaMembers> classTable;
-    private transient HashMap<JavaAdapter.JavaAdapterSignature,Class<?>> classAdapterCache;
-    private transient HashMap<Class<?>,Object> interfaceAdapterCache;
+    // The maps are concurrent so that a cache associated with a sealed
+    // standard library scope can be shared by threads running in different
+    // top-level scopes built on top of it.
+    private transient volatile Map<Class<?>,JavaMembers> classTable;
+    private transient volatile Map<JavaAdapter.JavaAdapterSignature,Class<?>> classAdapterCache;
+    private transient volatile Map<Class<?>,Object> interfaceAdapterCache;
     private int generatedClassSerial;
     private Scriptable associatedScope; 
 
@@ -160,18 +163,34 @@ public class ClassCache implements Serializable
      * @return a map from classes to associated JavaMembers objects
      */
     Map<Class<?>,JavaMembers> getClassCacheMap() {
-        if (classTable == null) {
-            classTable = new HashMap<Class<?>,JavaMembers>();
+        // only lock to create the map, as this is called for every wrapped
+        // Java object
+        Map<Class<?>,JavaMembers> map = classTable;
+        if (map == null) {
+            synchronized (this) {
+                map = classTable;
+                if (map == null) {
+                    map = new ConcurrentHashMap<Class<?>,JavaMembers>();
+                    classTable = map;
+                }
+            }
         }
-        return classTable;
+        return map;
     }
     
     Map<JavaAdapter.JavaAdapterSignature,Class<?>> getInterfaceAdapterCacheMap()
     {
-        if (classAdapterCache == null) {
-            classAdapterCache = new HashMap<JavaAdapter.JavaAdapterSignature,Class<?>>();
+        Map<JavaAdapter.JavaAdapterSignature,Class<?>> map = classAdapterCache;
+        if (map == null) {
+            synchronized (this) {
+                map = classAdapterCache;
+                if (map == null) {
+                    map = new ConcurrentHashMap<JavaAdapter.JavaAdapterSignature,Class<?>>();
+                    classAdapterCache = map;
+                }
+            }
         }
-        return classAdapterCache;
+        return map;
     }
     
     /**
@@ -208,16 +227,15 @@ public class ClassCache implements Serializable
 
     Object getInterfaceAdapter(Class<?> cl)
     {
-        return interfaceAdapterCache == null 
-                    ? null 
-                    : interfaceAdapterCache.get(cl);
+        Map<Class<?>,Object> cache = interfaceAdapterCache;
+        return cache == null ? null : cache.get(cl);
     }
 
     synchronized void cacheInterfaceAdapter(Class<?> cl, Object iadapter)
     {
         if (cachingIsEnabled) {
             if (interfaceAdapterCache == null) {
-                interfaceAdapterCache = new HashMap<Class<?>,Object>();
+                interfaceAdapterCache = new ConcurrentHashMap<Class<?>,Object>();
             }
             interfaceAdapterCache.put(cl, iadapter);
         }
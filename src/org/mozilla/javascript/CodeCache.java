@@ -0,0 +1,568 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is Rhino code, released
+ * May 6, 1999.
+ *
+ * The Initial Developer of the Original Code is
+ * Netscape Communications Corporation.
+ * Portions created by the Initial Developer are Copyright (C) 1997-1999
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * the GNU General Public License Version 2 or later (the "GPL"), in which
+ * case the provisions of the GPL are applicable instead of those above. If
+ * you wish to allow use of your version of this file only under the terms of
+ * the GPL and not to allow others to use your version of this file under the
+ * MPL, indicate your decision by deleting the provisions above and replacing
+ * them with the notice and other provisions required by the GPL. If you do
+ * not delete the provisions above, a recipient may use your version of this
+ * file under either the MPL or the GPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.mozilla.javascript;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.JarURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+/**
+ * Persistent cache of the class files generated for scripts.
+ * <p>
+ * When a CodeCache is installed with
+ * {@link Context#setCodeCache(CodeCache)} and the optimization level is 0
+ * or higher, compiling a script or function from source first looks for
+ * the class file generated for the same source in the cache directory. On
+ * a hit the class is loaded directly and parsing and code generation are
+ * skipped entirely; on a miss the generated class is stored for the next
+ * run.
+ * <p>
+ * Entries are keyed by a SHA-256 digest of the source text, its name and
+ * first line number, the {@link CompilerEnvirons} settings that affect code
+ * generation and the Rhino version, which includes a digest of all classes
+ * of the compiler, class file and runtime packages. Every entry carries a
+ * digest of its contents which is verified on load, so truncated or
+ * damaged entries are discarded and compiled again. The cache directory
+ * must only be writable by trusted users since the classes it holds are
+ * loaded without further checks.
+ * <p>
+ * The total size of the entries is capped by
+ * {@link #setMaximumSize(long)}; the least recently used entries are deleted
+ * when a new entry would exceed it. Several threads and processes may share
+ * one cache directory.
+ */
+public class CodeCache
+{
+    private static final int MAGIC = 0x52484343; // "RHCC"
+    private static final int FORMAT_VERSION = 1;
+    private static final String SUFFIX = ".rcc";
+
+    // one class of each package that generates code or that generated
+    // code links against; all classes of these packages are digested
+    private static final String[] RUNTIME_PACKAGE_CLASSES = {
+        "org/mozilla/classfile/ClassFileWriter.class",
+        "org/mozilla/javascript/ScriptRuntime.class",
+        "org/mozilla/javascript/ast/AstNode.class",
+        "org/mozilla/javascript/optimizer/Codegen.class"
+    };
+
+    private static String runtimeVersion;
+
+    private final File directory;
+    private volatile long maximumSize = 64L * 1024 * 1024;
+    private long size = -1;
+
+    private final AtomicInteger hitCount = new AtomicInteger();
+    private final AtomicInteger missCount = new AtomicInteger();
+    private final AtomicInteger storeCount = new AtomicInteger();
+    private final AtomicInteger evictionCount = new AtomicInteger();
+    private final AtomicInteger corruptCount = new AtomicInteger();
+
+    /**
+     * Create a cache keeping its entries in the given directory, which is
+     * created if it does not exist.
+     */
+    public CodeCache(File directory)
+    {
+        if (directory == null) throw new IllegalArgumentException();
+        this.directory = directory;
+    }
+
+    public File getDirectory()
+    {
+        return directory;
+    }
+
+    /**
+     * Return the maximum total size of the entries in bytes.
+     */
+    public long getMaximumSize()
+    {
+        return maximumSize;
+    }
+
+    /**
+     * Set the maximum total size of the entries in bytes. The default is
+     * 64 megabytes.
+     */
+    public void setMaximumSize(long maximumSize)
+    {
+        if (maximumSize < 0) throw new IllegalArgumentException();
+        this.maximumSize = maximumSize;
+    }
+
+    /**
+     * Return the number of compilations that used a cached class.
+     */
+    public int getHitCount()
+    {
+        return hitCount.get();
+    }
+
+    /**
+     * Return the number of compilations that found no usable entry.
+     */
+    public int getMissCount()
+    {
+        return missCount.get();
+    }
+
+    /**
+     * Return the number of entries written.
+     */
+    public int getStoreCount()
+    {
+        return storeCount.get();
+    }
+
+    /**
+     * Return the number of entries deleted to respect the size cap.
+     */
+    public int getEvictionCount()
+    {
+        return evictionCount.get();
+    }
+
+    /**
+     * Return the number of entries that failed the integrity check.
+     */
+    public int getCorruptCount()
+    {
+        return corruptCount.get();
+    }
+
+    /**
+     * Delete all entries.
+     */
+    public synchronized void clear()
+    {
+        File[] files = listEntries();
+        for (int i = 0; i != files.length; ++i) {
+            files[i].delete();
+        }
+        size = 0;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "hits: " + getHitCount()
+            + ", misses: " + getMissCount()
+            + ", stores: " + getStoreCount()
+            + ", evictions: " + getEvictionCount()
+            + ", corrupt: " + getCorruptCount();
+    }
+
+    /**
+     * Compute the key of the code generated for the given source.
+     */
+    byte[] makeKey(String source, String sourceName, int lineno,
+                   boolean returnFunction, CompilerEnvirons compilerEnv)
+    {
+        StringBuilder settings = new StringBuilder();
+        settings.append(getRuntimeVersion()).append('\n')
+            .append(sourceName).append('\n')
+            .append(lineno).append(' ')
+            .append(returnFunction).append(' ')
+            .append(compilerEnv.getFingerprint()).append('\n');
+        MessageDigest digest = newDigest();
+        digest.update(toBytes(settings.toString()));
+        digest.update(toBytes(source));
+        return digest.digest();
+    }
+
+    /**
+     * Return the class name and bytes stored under the key in the form
+     * returned by the Codegen compiler, or null.
+     */
+    Object[] load(byte[] key)
+    {
+        File file = getFile(key);
+        if (!file.isFile()) {
+            missCount.incrementAndGet();
+            return null;
+        }
+        Object[] bytecode = null;
+        try {
+            bytecode = read(file, key);
+        } catch (IOException e) {
+            // handled as damaged entry
+        }
+        if (bytecode == null) {
+            corruptCount.incrementAndGet();
+            missCount.incrementAndGet();
+            remove(file);
+            return null;
+        }
+        // keep track of use for eviction
+        file.setLastModified(System.currentTimeMillis());
+        hitCount.incrementAndGet();
+        return bytecode;
+    }
+
+    /**
+     * Store the class generated for the key. Failures to write are
+     * ignored as the cache is only an optimization.
+     */
+    void store(byte[] key, Object bytecode)
+    {
+        Object[] nameBytesPair = (Object[])bytecode;
+        String className = (String)nameBytesPair[0];
+        byte[] classBytes = (byte[])nameBytesPair[1];
+        try {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream(
+                classBytes.length + 128);
+            DataOutputStream out = new DataOutputStream(buffer);
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.write(key);
+            out.writeUTF(className);
+            out.writeInt(classBytes.length);
+            out.write(classBytes);
+            out.flush();
+            byte[] contents = buffer.toByteArray();
+            MessageDigest digest = newDigest();
+            digest.update(contents);
+            out.write(digest.digest());
+            out.close();
+            byte[] entry = buffer.toByteArray();
+
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                return;
+            }
+            File file = getFile(key);
+            File temp = File.createTempFile("entry", ".tmp", directory);
+            FileOutputStream fos = new FileOutputStream(temp);
+            try {
+                fos.write(entry);
+            } finally {
+                fos.close();
+            }
+            long oldLength = file.length();
+            if (!temp.renameTo(file)) {
+                // another thread or process may have stored it first
+                file.delete();
+                if (!temp.renameTo(file)) {
+                    temp.delete();
+                    return;
+                }
+            }
+            storeCount.incrementAndGet();
+            added(entry.length - oldLength);
+        } catch (IOException e) {
+            // the entry is not stored
+        }
+    }
+
+    private Object[] read(File file, byte[] key) throws IOException
+    {
+        long length = file.length();
+        if (length > Integer.MAX_VALUE) {
+            return null;
+        }
+        byte[] entry = new byte[(int)length];
+        InputStream in = new FileInputStream(file);
+        try {
+            int offset = 0;
+            while (offset != entry.length) {
+                int n = in.read(entry, offset, entry.length - offset);
+                if (n < 0) {
+                    return null;
+                }
+                offset += n;
+            }
+        } finally {
+            in.close();
+        }
+        int digestLength = newDigest().getDigestLength();
+        if (entry.length < digestLength) {
+            return null;
+        }
+        MessageDigest digest = newDigest();
+        digest.update(entry, 0, entry.length - digestLength);
+        byte[] expected = digest.digest();
+        for (int i = 0; i != digestLength; ++i) {
+            if (entry[entry.length - digestLength + i] != expected[i]) {
+                return null;
+            }
+        }
+        DataInputStream data = new DataInputStream(
+            new java.io.ByteArrayInputStream(entry, 0,
+                                             entry.length - digestLength));
+        if (data.readInt() != MAGIC || data.readInt() != FORMAT_VERSION) {
+            return null;
+        }
+        byte[] storedKey = new byte[key.length];
+        data.readFully(storedKey);
+        if (!Arrays.equals(key, storedKey)) {
+            return null;
+        }
+        String className = data.readUTF();
+        int classLength = data.readInt();
+        if (classLength < 0 || classLength > data.available()) {
+            return null;
+        }
+        byte[] classBytes = new byte[classLength];
+        data.readFully(classBytes);
+        return new Object[] { className, classBytes };
+    }
+
+    private File getFile(byte[] key)
+    {
+        StringBuilder name = new StringBuilder(key.length * 2 + 4);
+        appendHex(name, key);
+        name.append(SUFFIX);
+        return new File(directory, name.toString());
+    }
+
+    /**
+     * Append the bytes as two lowercase hex digits each.
+     */
+    private static void appendHex(StringBuilder sb, byte[] bytes)
+    {
+        for (int i = 0; i != bytes.length; ++i) {
+            int b = bytes[i] & 0xFF;
+            sb.append(Character.forDigit(b >> 4, 16));
+            sb.append(Character.forDigit(b & 0xF, 16));
+        }
+    }
+
+    private File[] listEntries()
+    {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return new File[0];
+        }
+        int count = 0;
+        for (int i = 0; i != files.length; ++i) {
+            if (files[i].getName().endsWith(SUFFIX)) {
+                files[count++] = files[i];
+            }
+        }
+        File[] entries = new File[count];
+        System.arraycopy(files, 0, entries, 0, count);
+        return entries;
+    }
+
+    private synchronized void remove(File file)
+    {
+        long length = file.length();
+        if (file.delete() && size >= 0) {
+            size -= length;
+        }
+    }
+
+    /**
+     * Account for a stored entry and evict the least recently used
+     * entries while the cache is over its size cap.
+     */
+    private synchronized void added(long delta)
+    {
+        if (size < 0) {
+            // first store: measure what earlier runs left behind
+            size = 0;
+            File[] files = listEntries();
+            for (int i = 0; i != files.length; ++i) {
+                size += files[i].length();
+            }
+        } else {
+            size += delta;
+        }
+        if (size <= maximumSize) {
+            return;
+        }
+        File[] files = listEntries();
+        final long[] used = new long[files.length];
+        Integer[] order = new Integer[files.length];
+        size = 0;
+        for (int i = 0; i != files.length; ++i) {
+            used[i] = files[i].lastModified();
+            order[i] = Integer.valueOf(i);
+            size += files[i].length();
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                long x = used[a.intValue()], y = used[b.intValue()];
+                return x < y ? -1 : (x == y ? 0 : 1);
+            }
+        });
+        for (int i = 0; i != order.length && size > maximumSize; ++i) {
+            File file = files[order[i].intValue()];
+            long length = file.length();
+            if (file.delete()) {
+                size -= length;
+                evictionCount.incrementAndGet();
+            }
+        }
+    }
+
+    private static synchronized String getRuntimeVersion()
+    {
+        if (runtimeVersion == null) {
+            MessageDigest digest = newDigest();
+            ClassLoader loader = CodeCache.class.getClassLoader();
+            try {
+                for (int i = 0; i != RUNTIME_PACKAGE_CLASSES.length; ++i) {
+                    String name = RUNTIME_PACKAGE_CLASSES[i];
+                    URL url = (loader == null)
+                        ? ClassLoader.getSystemResource(name)
+                        : loader.getResource(name);
+                    if (url != null) {
+                        digestPackage(digest, url, name);
+                    }
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            StringBuilder sb = new StringBuilder(
+                ScriptRuntime.getMessage0("implementation.version"));
+            sb.append(' ');
+            appendHex(sb, digest.digest());
+            runtimeVersion = sb.toString();
+        }
+        return runtimeVersion;
+    }
+
+    /**
+     * Digest the names and contents of the classes in the package of the
+     * given class, which is loaded from url. Only the class itself is
+     * digested when its package can not be listed.
+     */
+    private static void digestPackage(MessageDigest digest, URL url,
+                                      String className)
+        throws IOException
+    {
+        String packagePath =
+            className.substring(0, className.lastIndexOf('/') + 1);
+        byte[] buffer = new byte[8192];
+        if ("file".equals(url.getProtocol())) {
+            File dir;
+            try {
+                dir = new File(url.toURI()).getParentFile();
+            } catch (URISyntaxException e) {
+                throw new RuntimeException(e);
+            }
+            String[] names = dir.list();
+            if (names != null) {
+                Arrays.sort(names);
+                for (int i = 0; i != names.length; ++i) {
+                    if (names[i].endsWith(".class")) {
+                        digest.update(toBytes(packagePath + names[i]));
+                        digestStream(digest, new FileInputStream(
+                            new File(dir, names[i])), buffer);
+                    }
+                }
+                return;
+            }
+        } else if ("jar".equals(url.getProtocol())) {
+            JarFile jar =
+                ((JarURLConnection)url.openConnection()).getJarFile();
+            List<String> names = new ArrayList<String>();
+            Enumeration<JarEntry> entries = jar.entries();
+            while (entries.hasMoreElements()) {
+                String name = entries.nextElement().getName();
+                if (name.startsWith(packagePath) && name.endsWith(".class")
+                    && name.indexOf('/', packagePath.length()) < 0)
+                {
+                    names.add(name);
+                }
+            }
+            Collections.sort(names);
+            for (String name : names) {
+                digest.update(toBytes(name));
+                digestStream(digest,
+                             jar.getInputStream(jar.getJarEntry(name)),
+                             buffer);
+            }
+            return;
+        }
+        digest.update(toBytes(className));
+        digestStream(digest, url.openStream(), buffer);
+    }
+
+    private static void digestStream(MessageDigest digest, InputStream in,
+                                     byte[] buffer)
+        throws IOException
+    {
+        try {
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, n);
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private static MessageDigest newDigest()
+    {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static byte[] toBytes(String s)
+    {
+        try {
+            return s.getBytes("UTF-8");
+        } catch (java.io.UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -134,9 +134,16 @@ class CodeGenerator extends Icode {
 
         itsData.itsFunctionType = theFunction.getFunctionType();
         itsData.itsNeedsActivation = theFunction.requiresActivation();
+        itsData.itsSourceStart = theFunction.getAbsolutePosition();
+        itsData.itsSourceEnd = itsData.itsSourceStart
+                               + theFunction.getLength();
+        itsData.itsSourceLine = theFunction.getBaseLineno();
         if (theFunction.getFunctionName() != null) {
             itsData.itsName = theFunction.getName();
         }
+        if (theFunction.getProp(Node.LAZY_BODY_PROP) != null) {
+            itsData.itsLazy = true;
+        }
         if (!theFunction.getIgnoreDynamicScope()) {
             if (compilerEnv.isUseDynamicScope()) {
                 itsData.useDynamicScope = true;
@@ -549,8 +556,14 @@ class CodeGenerator extends Icode {
             {
                 int fnIndex = node.getExistingIntProp(Node.FUNCTION_PROP);
                 FunctionNode fn = scriptOrFn.getFunctionNode(fnIndex);
-                // See comments in visitStatement for Token.FUNCTION case
-                if (fn.getFunctionType() != FunctionNode.FUNCTION_EXPRESSION) {
+                // See comments in visitStatement for Token.FUNCTION case.
+                // Function statements of functions without activation are
+                // assigned to their variables as expressions.
+                int fnType = fn.getFunctionType();
+                if (fnType != FunctionNode.FUNCTION_EXPRESSION
+                    && (fnType != FunctionNode.FUNCTION_STATEMENT
+                        || itsData.itsNeedsActivation))
+                {
                     throw Kit.codeBug();
                 }
                 addIndexOp(Icode_CLOSURE_EXPR, fnIndex);
@@ -678,6 +691,9 @@ class CodeGenerator extends Icode {
             visitExpression(child, 0);
             child = child.getNext();
             addStringOp(type, child.getString());
+            if (type == Token.GETPROP) {
+                addPropertyCacheIndex();
+            }
             break;
 
           case Token.GETELEM:
@@ -742,11 +758,13 @@ class CodeGenerator extends Icode {
                     addIcode(Icode_DUP);
                     stackChange(1);
                     addStringOp(Token.GETPROP, property);
+                    addPropertyCacheIndex();
                     // Compensate for the following USE_STACK
                     stackChange(-1);
                 }
                 visitExpression(child, 0);
                 addStringOp(Token.SETPROP, property);
+                addPropertyCacheIndex();
                 stackChange(-1);
             }
             break;
@@ -1023,6 +1041,7 @@ class CodeGenerator extends Icode {
                 String property = id.getString();
                 // stack: ... target -> ... function thisObj
                 addStringOp(Icode_PROP_AND_THIS, property);
+                addPropertyCacheIndex();
                 stackChange(1);
             } else {
                 visitExpression(id, 0);
@@ -1384,6 +1403,23 @@ class CodeGenerator extends Icode {
         }
     }
 
+    /**
+     * Add the index of the inline cache used by the property access
+     * instruction just added, see {@link PropertyCache}.
+     */
+    private void addPropertyCacheIndex()
+    {
+        int index = itsData.itsPropertyCacheCount;
+        if (!compilerEnv.isPropertyCaches()) {
+            index = Interpreter.NO_PROPERTY_CACHE;
+        } else if (index < Interpreter.NO_PROPERTY_CACHE) {
+            itsData.itsPropertyCacheCount = index + 1;
+        } else {
+            index = Interpreter.NO_PROPERTY_CACHE;
+        }
+        addUint16(index);
+    }
+
     private void addIndexOp(int op, int index)
     {
         addIndexPrefix(index);
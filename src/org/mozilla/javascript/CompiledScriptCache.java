@@ -0,0 +1,348 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is Rhino code, released
+ * May 6, 1999.
+ *
+ * The Initial Developer of the Original Code is
+ * Netscape Communications Corporation.
+ * Portions created by the Initial Developer are Copyright (C) 1997-1999
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * the GNU General Public License Version 2 or later (the "GPL"), in which
+ * case the provisions of the GPL are applicable instead of those above. If
+ * you wish to allow use of your version of this file only under the terms of
+ * the GPL and not to allow others to use your version of this file under the
+ * MPL, indicate your decision by deleting the provisions above and replacing
+ * them with the notice and other provisions required by the GPL. If you do
+ * not delete the provisions above, a recipient may use your version of this
+ * file under either the MPL or the GPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+// API class
+
+package org.mozilla.javascript;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * In-memory cache of compiled scripts shared by all Contexts of a
+ * {@link ContextFactory}.
+ * <p>
+ * When a cache is installed with
+ * {@link ContextFactory#setCompiledScriptCache(CompiledScriptCache)},
+ * {@link Context#compileString(String, String, int, Object)},
+ * {@link Context#compileReader(java.io.Reader, String, int, Object)} and
+ * the evaluate methods built on them first look for a script compiled
+ * from the same source, source name and first line number with the same
+ * {@link CompilerEnvirons} settings, and return it instead of parsing and
+ * compiling the source again. Compiled scripts do not keep state between
+ * executions, so one script may run in any number of scopes and threads
+ * at the same time.
+ * <p>
+ * The cache holds the scripts through soft references so the garbage
+ * collector may reclaim them when memory runs low, and drops the least
+ * recently used ones once the estimated size of the cached code exceeds
+ * {@link #getMaximumSize()}. The estimate counts the source text and the
+ * generated bytecode.
+ * <p>
+ * Sources are compiled without the cache when a security domain is given,
+ * while {@link Context#FEATURE_STRICT_MODE} is on so that warnings are
+ * reported each time and while a debugger is attached so that it is
+ * notified of every compiled script. Threads missing the same source at the
+ * same time each compile it, and one of the results is kept.
+ */
+public class CompiledScriptCache
+{
+    private final Object lock = new Object();
+    private final ReferenceQueue<Script> queue = new ReferenceQueue<Script>();
+    private final LinkedHashMap<String,Entry> entries =
+        new LinkedHashMap<String,Entry>(16, 0.75f, true);
+
+    private long maximumSize;
+    private long size;
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+    private long collectedCount;
+
+    private static final class Entry extends SoftReference<Script>
+    {
+        final String key;
+        final long size;
+
+        Entry(String key, Script script, long size,
+              ReferenceQueue<Script> queue)
+        {
+            super(script, queue);
+            this.key = key;
+            this.size = size;
+        }
+    }
+
+    /**
+     * Create a cache keeping compiled scripts with an estimated size of up
+     * to 16 megabytes.
+     */
+    public CompiledScriptCache()
+    {
+        this(16L * 1024 * 1024);
+    }
+
+    /**
+     * Create a cache keeping compiled scripts with an estimated size of up
+     * to the given number of bytes.
+     */
+    public CompiledScriptCache(long maximumSize)
+    {
+        if (maximumSize < 0) throw new IllegalArgumentException();
+        this.maximumSize = maximumSize;
+    }
+
+    /**
+     * Return the maximum estimated size of the cached scripts in bytes.
+     */
+    public long getMaximumSize()
+    {
+        synchronized (lock) {
+            return maximumSize;
+        }
+    }
+
+    /**
+     * Set the maximum estimated size of the cached scripts in bytes,
+     * dropping the least recently used scripts if needed. Zero turns the
+     * cache off.
+     */
+    public void setMaximumSize(long maximumSize)
+    {
+        if (maximumSize < 0) throw new IllegalArgumentException();
+        synchronized (lock) {
+            this.maximumSize = maximumSize;
+            trim();
+        }
+    }
+
+    /**
+     * Return the estimated size of the cached scripts in bytes.
+     */
+    public long getSize()
+    {
+        synchronized (lock) {
+            expunge();
+            return size;
+        }
+    }
+
+    /**
+     * Return the number of cached scripts.
+     */
+    public int getScriptCount()
+    {
+        synchronized (lock) {
+            expunge();
+            return entries.size();
+        }
+    }
+
+    /**
+     * Return the number of compilations avoided so far.
+     */
+    public long getHitCount()
+    {
+        synchronized (lock) {
+            return hitCount;
+        }
+    }
+
+    /**
+     * Return the number of sources compiled while the cache was on.
+     */
+    public long getMissCount()
+    {
+        synchronized (lock) {
+            return missCount;
+        }
+    }
+
+    /**
+     * Return the number of scripts dropped to respect the maximum size.
+     */
+    public long getEvictionCount()
+    {
+        synchronized (lock) {
+            return evictionCount;
+        }
+    }
+
+    /**
+     * Return the number of scripts reclaimed by the garbage collector.
+     */
+    public long getCollectedCount()
+    {
+        synchronized (lock) {
+            expunge();
+            return collectedCount;
+        }
+    }
+
+    /**
+     * Drop all scripts and reset the counts.
+     */
+    public void clear()
+    {
+        synchronized (lock) {
+            entries.clear();
+            while (queue.poll() != null) { }
+            size = 0;
+            hitCount = missCount = evictionCount = collectedCount = 0;
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return "hits: " + getHitCount()
+            + ", misses: " + getMissCount()
+            + ", evictions: " + getEvictionCount()
+            + ", collected: " + getCollectedCount();
+    }
+
+    Script get(String key)
+    {
+        synchronized (lock) {
+            expunge();
+            Entry entry = entries.get(key);
+            Script script = (entry == null) ? null : entry.get();
+            if (script != null) {
+                ++hitCount;
+            } else {
+                ++missCount;
+            }
+            return script;
+        }
+    }
+
+    void put(String key, Script script, long scriptSize)
+    {
+        synchronized (lock) {
+            if (scriptSize > maximumSize) {
+                return;
+            }
+            expunge();
+            Entry old = entries.put(key,
+                new Entry(key, script, scriptSize, queue));
+            if (old != null) {
+                size -= old.size;
+                old.clear();
+            }
+            size += scriptSize;
+            trim();
+        }
+    }
+
+    private void trim()
+    {
+        Iterator<Entry> iter = entries.values().iterator();
+        while (size > maximumSize && iter.hasNext()) {
+            Entry eldest = iter.next();
+            iter.remove();
+            size -= eldest.size;
+            ++evictionCount;
+        }
+    }
+
+    /**
+     * Drop the entries of scripts reclaimed by the garbage collector.
+     */
+    private void expunge()
+    {
+        Object ref;
+        while ((ref = queue.poll()) != null) {
+            Entry entry = (Entry)ref;
+            // the entry may have been evicted or replaced already
+            if (entries.get(entry.key) == entry) {
+                entries.remove(entry.key);
+                size -= entry.size;
+                ++collectedCount;
+            }
+        }
+    }
+
+    /**
+     * Return the key of the script compiled for the given source.
+     */
+    static String makeKey(String source, String sourceName, int lineno,
+                          CompilerEnvirons compilerEnv)
+    {
+        String settings = compilerEnv.getFingerprint();
+        StringBuilder sb = new StringBuilder(settings.length()
+            + sourceName.length() + source.length() + 16);
+        sb.append(settings).append('\n');
+        sb.append(sourceName).append('\n');
+        sb.append(lineno).append('\n');
+        sb.append(source);
+        return sb.toString();
+    }
+
+    /**
+     * Estimate the memory used by a script compiled from the source into
+     * the given bytecode.
+     */
+    static long estimateSize(String source, Object bytecode)
+    {
+        // the key keeps the source
+        long estimate = 2L * source.length() + 128;
+        if (bytecode instanceof InterpreterData) {
+            estimate += estimateSize((InterpreterData)bytecode);
+        } else if (bytecode instanceof Object[]) {
+            // Codegen returns the class name and bytes; loaded classes
+            // take about twice the size of their class files
+            Object[] nameBytesPair = (Object[])bytecode;
+            estimate += 2L * ((byte[])nameBytesPair[1]).length;
+        }
+        return estimate;
+    }
+
+    private static long estimateSize(InterpreterData idata)
+    {
+        long estimate = 256;
+        if (idata.itsICode != null) {
+            estimate += idata.itsICode.length;
+        }
+        if (idata.itsStringTable != null) {
+            for (String s : idata.itsStringTable) {
+                estimate += 40 + 2L * s.length();
+            }
+        }
+        if (idata.itsDoubleTable != null) {
+            estimate += 8L * idata.itsDoubleTable.length;
+        }
+        if (idata.itsNestedFunctions != null) {
+            for (InterpreterData nested : idata.itsNestedFunctions) {
+                estimate += estimateSize(nested);
+            }
+        }
+        return estimate;
+    }
+}
@@ -41,6 +41,7 @@
 package org.mozilla.javascript;
 
 import java.util.Set;
+import java.util.TreeSet;
 
 import org.mozilla.javascript.ast.ErrorCollector;
 
@@ -61,6 +62,8 @@ public class CompilerEnvirons
         warningAsError = false;
         generateObserverCount = false;
         allowSharpComments = false;
+        lazyFunctionBodies = false;
+        propertyCaches = false;
     }
 
     public void initFromContext(Context cx)
@@ -79,6 +82,7 @@ public class CompilerEnvirons
         warningAsError = cx.hasFeature(Context.FEATURE_WARNING_AS_ERROR);
         xmlAvailable
             = cx.hasFeature(Context.FEATURE_E4X);
+        propertyCaches = cx.hasFeature(Context.FEATURE_PROPERTY_CACHE);
 
         optimizationLevel = cx.getOptimizationLevel();
 
@@ -296,6 +300,60 @@ public class CompilerEnvirons
         return allowSharpComments;
     }
 
+    /**
+     * Returns whether the parser only checks the bodies of nested functions
+     * for syntax errors, leaving them to be compiled by the interpreter when
+     * first called. Only the interpreter supports such functions.
+     * @see Context#FEATURE_LAZY_FUNCTION_PARSING
+     */
+    public boolean isLazyFunctionBodies() {
+        return lazyFunctionBodies;
+    }
+
+    public void setLazyFunctionBodies(boolean flag) {
+        lazyFunctionBodies = flag;
+    }
+
+    /**
+     * Returns whether property accesses with a constant name get an inline
+     * cache.
+     * @see Context#FEATURE_PROPERTY_CACHE
+     */
+    public boolean isPropertyCaches() {
+        return propertyCaches;
+    }
+
+    public void setPropertyCaches(boolean flag) {
+        propertyCaches = flag;
+    }
+
+    /**
+     * Returns a string describing the settings that affect the code
+     * generated for a source, so that caches of compiled code can tell
+     * whether code compiled earlier may be reused.
+     */
+    String getFingerprint() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(languageVersion).append(' ')
+            .append(optimizationLevel).append(' ')
+            .append(generateDebugInfo ? 'D' : '-')
+            .append(useDynamicScope ? 'S' : '-')
+            .append(reservedKeywordAsIdentifier ? 'K' : '-')
+            .append(allowMemberExprAsFunctionName ? 'M' : '-')
+            .append(xmlAvailable ? 'X' : '-')
+            .append(generatingSource ? 'G' : '-')
+            .append(strictMode ? 'T' : '-')
+            .append(warningAsError ? 'E' : '-')
+            .append(generateObserverCount ? 'O' : '-')
+            .append(allowSharpComments ? '#' : '-')
+            .append(lazyFunctionBodies ? 'L' : '-')
+            .append(propertyCaches ? 'P' : '-');
+        if (activationNames != null) {
+            sb.append(' ').append(new TreeSet<String>(activationNames));
+        }
+        return sb.toString();
+    }
+
     /**
      * Returns a {@code CompilerEnvirons} suitable for using Rhino
      * in an IDE environment.  Most features are enabled by default.
@@ -333,5 +391,7 @@ public class CompilerEnvirons
     private boolean warnTrailingComma;
     private boolean ideMode;
     private boolean allowSharpComments;
+    private boolean lazyFunctionBodies;
+    private boolean propertyCaches;
     Set<String> activationNames;
 }
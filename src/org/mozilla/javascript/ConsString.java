@@ -0,0 +1,166 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is Rhino code, released
+ * May 6, 1999.
+ *
+ * The Initial Developer of the Original Code is
+ * Netscape Communications Corporation.
+ * Portions created by the Initial Developer are Copyright (C) 1997-1999
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * the GNU General Public License Version 2 or later (the "GPL"), in which
+ * case the provisions of the GPL are applicable instead of those above. If
+ * you wish to allow use of your version of this file only under the terms of
+ * the GPL and not to allow others to use your version of this file under the
+ * MPL, indicate your decision by deleting the provisions above and replacing
+ * them with the notice and other provisions required by the GPL. If you do
+ * not delete the provisions above, a recipient may use your version of this
+ * file under either the MPL or the GPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.mozilla.javascript;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+
+/**
+ * A JavaScript string value made by concatenating two other strings
+ * without copying their characters.
+ * <p>
+ * The string operator + produces instances of this class once the result
+ * is long enough, so building a large string piece by piece takes linear
+ * instead of quadratic time. The characters are copied into a single
+ * java.lang.String the first time {@link #toString()} is called and the
+ * parts are then released.
+ * <p>
+ * Code that receives JavaScript values should test for
+ * {@link CharSequence} rather than String to recognize string values and use
+ * {@link ScriptRuntime#toString(Object)} or {@link #toString()} to get the
+ * characters.
+ */
+public final class ConsString implements CharSequence, Serializable
+{
+    static final long serialVersionUID = -8432806714471372570L;
+
+    /**
+     * Results of + shorter than this are plain strings since copying them
+     * is cheaper than flattening a tree later.
+     */
+    static final int MIN_LENGTH = 256;
+
+    private CharSequence left, right;
+    private final int length;
+
+    public ConsString(CharSequence left, CharSequence right)
+    {
+        this.left = left;
+        this.right = right;
+        this.length = left.length() + right.length();
+    }
+
+    /**
+     * Concatenate two JavaScript strings, returning a ConsString if the
+     * result is at least {@link #MIN_LENGTH} characters long.
+     */
+    public static CharSequence concat(CharSequence left, CharSequence right)
+    {
+        if (left.length() + right.length() < MIN_LENGTH) {
+            return left.toString().concat(right.toString());
+        }
+        if (left.length() == 0) {
+            return right;
+        }
+        if (right.length() == 0) {
+            return left;
+        }
+        return new ConsString(left, right);
+    }
+
+    // Serialize the flat string so readers do not need this class.
+    private Object writeReplace()
+    {
+        return toString();
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        if (right != null) {
+            left = flatten();
+            right = null;
+        }
+        return (String)left;
+    }
+
+    /**
+     * Copy the characters of the tree into one string. The tree is walked
+     * with an explicit stack since strings built by a loop make it as deep
+     * as the number of iterations. The caller holds the lock of this
+     * string; the lock of each part is only held while reading its fields
+     * so the locks are taken in the order the parts were created.
+     */
+    private String flatten()
+    {
+        char[] chars = new char[length];
+        int pos = 0;
+        ArrayList<CharSequence> stack = new ArrayList<CharSequence>();
+        stack.add(right);
+        stack.add(left);
+        while (!stack.isEmpty()) {
+            CharSequence part = stack.remove(stack.size() - 1);
+            if (part instanceof ConsString) {
+                ConsString cons = (ConsString)part;
+                synchronized (cons) {
+                    if (cons.right != null) {
+                        stack.add(cons.right);
+                        stack.add(cons.left);
+                        continue;
+                    }
+                    part = cons.left;
+                }
+            }
+            int partLength = part.length();
+            if (part instanceof String) {
+                ((String)part).getChars(0, partLength, chars, pos);
+            } else {
+                for (int i = 0; i != partLength; ++i) {
+                    chars[pos + i] = part.charAt(i);
+                }
+            }
+            pos += partLength;
+        }
+        return new String(chars);
+    }
+
+    public int length()
+    {
+        return length;
+    }
+
+    public char charAt(int index)
+    {
+        return toString().charAt(index);
+    }
+
+    public CharSequence subSequence(int start, int end)
+    {
+        return toString().substring(start, end);
+    }
+}
@@ -55,6 +55,8 @@ import java.util.HashMap;
 import java.util.Set;
 import java.util.HashSet;
 import java.util.Locale;
+import java.util.Timer;
+import java.util.TimerTask;
 
 import org.mozilla.javascript.ast.AstRoot;
 import org.mozilla.javascript.ast.ScriptNode;
@@ -315,6 +317,50 @@ public class Context
      */
     public static final int FEATURE_ENHANCED_JAVA_ACCESS = 13;
 
+    /**
+     * Defers the compilation of function bodies until the functions are
+     * first called.
+     * <p>
+     * When the feature is on and scripts are compiled for the interpreter,
+     * the parser still checks the whole script for syntax errors, so these
+     * are reported as before, but the syntax trees of function bodies are
+     * dropped right away and the functions are compiled from their source
+     * text on their first call. Code that is loaded but never run thus
+     * does not pay for code generation and does not keep its compiled form
+     * in memory. The decompiled source of such functions as returned by
+     * toString() keeps the original text of their bodies.
+     * <p>
+     * The feature has no effect when compiling to Java class files or with
+     * a debugger attached. Generators, expression closures, functions with
+     * destructuring parameters and functions in strict mode code are always
+     * compiled up front.
+     * <p>
+     * By default {@link #hasFeature(int)} returns false.
+     */
+    public static final int FEATURE_LAZY_FUNCTION_PARSING = 14;
+
+    /**
+     * Control if the class files generated for scripts compiled with an
+     * optimization level of 0 or higher are kept in memory for as long as
+     * their classes are loaded. {@link ScopeSnapshot} can only write
+     * functions with compiled code when their class file is available.
+     * <p>
+     * By default {@link #hasFeature(int)} returns false.
+     */
+    public static final int FEATURE_RETAIN_CLASS_FILES = 15;
+
+    /**
+     * Control if property reads, method lookups and stores with a constant
+     * name remember where they found the property on the objects they were
+     * last used with, see {@link PropertyCache}. A cache refers only to
+     * property layouts and not to the objects themselves.
+     * <p>
+     * The feature applies to code compiled while it is on.
+     * <p>
+     * By default {@link #hasFeature(int)} returns false.
+     */
+    public static final int FEATURE_PROPERTY_CACHE = 16;
+
     public static final String languageVersionProperty = "language version";
     public static final String errorReporterProperty   = "error reporter";
 
@@ -1076,6 +1122,49 @@ public class Context
         return ScriptRuntime.initStandardObjects(this, scope, sealed);
     }
 
+    /**
+     * Create a sealed scope with all the standard objects that can be
+     * shared by any number of top-level scopes and threads.
+     *
+     * The returned scope is not meant to run scripts itself. Pass it to
+     * {@link #newOverlayScope(ScriptableObject)} to get a scope that sees
+     * the standard objects through its prototype and keeps its own global
+     * variables. Building a scope this way is much cheaper than calling
+     * {@link #initStandardObjects()} for each one, and the standard objects
+     * and the {@link ClassCache} are kept in memory only once.<p>
+     *
+     * All standard constructors are loaded up front and every standard
+     * object is sealed, so scripts can neither add properties to them nor
+     * replace their methods. Global bindings such as <code>Object</code> can
+     * still be reassigned, but only in the overlay scope doing so.
+     *
+     * @return the sealed scope with the standard objects
+     * @see #newOverlayScope(ScriptableObject)
+     */
+    public ScriptableObject initSharedStandardObjects()
+    {
+        return ScriptRuntime.initSharedStandardObjects(this);
+    }
+
+    /**
+     * Create a new top-level scope that inherits the standard objects
+     * from a scope created by {@link #initSharedStandardObjects()}.
+     *
+     * Variables and functions declared by scripts running in the new
+     * scope are stored in it and are not visible in other scopes sharing
+     * the same standard objects.
+     *
+     * This method does not affect the Context it is called upon.
+     *
+     * @param sharedScope the top-level scope with the standard objects
+     * @return the new top-level scope
+     * @see #initSharedStandardObjects()
+     */
+    public ScriptableObject newOverlayScope(ScriptableObject sharedScope)
+    {
+        return ScriptRuntime.newOverlayScope(sharedScope);
+    }
+
     /**
      * Get the singleton object that represents the JavaScript Undefined value.
      */
@@ -1393,21 +1482,11 @@ public class Context
     public final Function compileFunction(Scriptable scope, String source,
                                           String sourceName, int lineno,
                                           Object securityDomain)
-    {
-        return compileFunction(scope, source, null, null, sourceName, lineno,
-                               securityDomain);
-    }
-
-    final Function compileFunction(Scriptable scope, String source,
-                                   Evaluator compiler,
-                                   ErrorReporter compilationErrorReporter,
-                                   String sourceName, int lineno,
-                                   Object securityDomain)
     {
         try {
             return (Function) compileImpl(scope, null, source, sourceName,
                                           lineno, securityDomain, true,
-                                          compiler, compilationErrorReporter);
+                                          null, null);
         }
         catch (IOException ioe) {
             // Should never happen because we just made the reader
@@ -1416,6 +1495,56 @@ public class Context
         }
     }
 
+    /**
+     * Compile the source of <code>eval</code> or, if
+     * <code>returnFunction</code> is true, of the <code>Function</code>
+     * constructor with the interpreter, reusing the code compiled earlier
+     * for the same source if the factory's {@link EvalCache} has it.
+     */
+    final Object compileEval(Scriptable scope, String source,
+                             Interpreter interpreter,
+                             ErrorReporter compilationErrorReporter,
+                             String sourceName, boolean returnFunction)
+    {
+        EvalCache cache = factory.getEvalCache();
+        String key = null;
+        if (debugger == null && !hasFeature(FEATURE_STRICT_MODE)
+            && cache.getMaximumSize() != 0)
+        {
+            CompilerEnvirons compilerEnv = new CompilerEnvirons();
+            compilerEnv.initFromContext(this);
+            if (hasFeature(FEATURE_LAZY_FUNCTION_PARSING)) {
+                compilerEnv.setLazyFunctionBodies(true);
+            }
+            key = EvalCache.makeKey(source, sourceName, returnFunction,
+                                    compilerEnv);
+            InterpreterData idata = cache.get(key);
+            if (idata != null) {
+                if (returnFunction) {
+                    return InterpretedFunction.createFunction(this, scope,
+                                                              idata, null);
+                }
+                return InterpretedFunction.createScript(idata, null);
+            }
+        }
+        Object result;
+        try {
+            result = compileImpl(scope, null, source, sourceName, 1, null,
+                                 returnFunction, interpreter,
+                                 compilationErrorReporter);
+        } catch (IOException ex) {
+            // Should not happen when dealing with source as string
+            throw new RuntimeException();
+        }
+        if (!returnFunction) {
+            interpreter.setEvalScriptFlag((Script)result);
+        }
+        if (key != null) {
+            cache.put(key, ((InterpretedFunction)result).idata);
+        }
+        return result;
+    }
+
     /**
      * Decompile the script.
      * <p>
@@ -1700,7 +1829,8 @@ public class Context
      */
     public static Object javaToJS(Object value, Scriptable scope)
     {
-        if (value instanceof String || value instanceof Number
+        if (value instanceof String || value instanceof ConsString
+            || value instanceof Number
             || value instanceof Boolean || value instanceof Scriptable)
         {
             return value;
@@ -1879,6 +2009,65 @@ public class Context
         this.optimizationLevel = optimizationLevel;
     }
 
+    /**
+     * Return the TieredCompiler used to promote hot interpreted functions
+     * to compiled code, or null if tiered execution is off.
+     *
+     * @see #setTieredCompiler(TieredCompiler)
+     */
+    public final TieredCompiler getTieredCompiler()
+    {
+        return tieredCompiler;
+    }
+
+    /**
+     * Turn tiered execution on or off.
+     * <p>
+     * With a TieredCompiler installed and an optimization level of 0 or
+     * higher, scripts compiled from source start out interpreted and only
+     * their hot functions are compiled to class files, in the background
+     * and with the current optimization level. Pass null to compile
+     * everything up front again as the optimization level dictates.
+     *
+     * @param tieredCompiler the compiler for hot functions or null
+     * @see TieredCompiler
+     */
+    public final void setTieredCompiler(TieredCompiler tieredCompiler)
+    {
+        if (sealed) onSealedMutation();
+        this.tieredCompiler = tieredCompiler;
+    }
+
+    /**
+     * Return the CodeCache that keeps generated class files between runs,
+     * or null if compiled scripts are not cached.
+     *
+     * @see #setCodeCache(CodeCache)
+     */
+    public final CodeCache getCodeCache()
+    {
+        return codeCache;
+    }
+
+    /**
+     * Set the cache of generated class files.
+     * <p>
+     * With a CodeCache installed and an optimization level of 0 or higher,
+     * scripts and functions compiled from source reuse the class files
+     * generated for the same source and settings before, even by an
+     * earlier run, instead of parsing and compiling the source again. The
+     * cache is not used with a debugger, a {@link SecurityController} or
+     * tiered execution.
+     *
+     * @param codeCache the cache of generated classes or null
+     * @see CodeCache
+     */
+    public final void setCodeCache(CodeCache codeCache)
+    {
+        if (sealed) onSealedMutation();
+        this.codeCache = codeCache;
+    }
+
     public static boolean isValidOptimizationLevel(int optimizationLevel)
     {
         return -1 <= optimizationLevel && optimizationLevel <= 9;
@@ -2186,6 +2375,9 @@ public class Context
      * @see #FEATURE_STRICT_MODE
      * @see #FEATURE_WARNING_AS_ERROR
      * @see #FEATURE_ENHANCED_JAVA_ACCESS
+     * @see #FEATURE_LAZY_FUNCTION_PARSING
+     * @see #FEATURE_RETAIN_CLASS_FILES
+     * @see #FEATURE_PROPERTY_CACHE
      */
     public boolean hasFeature(int featureIndex)
     {
@@ -2284,6 +2476,100 @@ public class Context
         f.observeInstructionCount(this, instructionCount);
     }
 
+    /**
+     * Ask the scripts running with this Context to stop.
+     * The request is delivered the next time a script enters a function or
+     * jumps back to the start of a loop, in both interpreted and compiled
+     * code, by calling {@link #observeInterrupt()}. Checking for a request
+     * costs a read of a volatile field, so unlike instruction counting it
+     * does not need code compiled differently and does not slow down
+     * scripts that are not interrupted.
+     * <p>
+     * This method can be called from any thread.
+     *
+     * @see #setExecutionTimeout(long)
+     */
+    public final void requestInterrupt()
+    {
+        interruptRequested = true;
+    }
+
+    /**
+     * Return true if {@link #requestInterrupt()} was called and the
+     * request has not been delivered or cleared yet.
+     */
+    public final boolean isInterruptRequested()
+    {
+        return interruptRequested;
+    }
+
+    /**
+     * Withdraw a pending interrupt request and cancel the timeout set with
+     * {@link #setExecutionTimeout(long)}.
+     */
+    public final void clearInterruptRequest()
+    {
+        setExecutionTimeout(0);
+        interruptRequested = false;
+    }
+
+    /**
+     * Request an interrupt after the given time has passed, see
+     * {@link #requestInterrupt()}. The time is measured by a shared timer
+     * thread, so scripts never read the clock. A new timeout replaces the
+     * previous one and a timeout of zero cancels it.
+     *
+     * @param timeoutMillis the time in milliseconds after which scripts
+     *        running with this Context are interrupted, or 0
+     */
+    public final void setExecutionTimeout(long timeoutMillis)
+    {
+        if (timeoutMillis < 0) throw new IllegalArgumentException();
+        TimerTask task;
+        synchronized (this) {
+            if (interruptTask != null) {
+                interruptTask.cancel();
+                interruptTask = null;
+            }
+            if (timeoutMillis == 0) {
+                return;
+            }
+            task = new TimerTask() {
+                @Override
+                public void run() {
+                    requestInterrupt();
+                }
+            };
+            interruptTask = task;
+        }
+        getInterruptTimer().schedule(task, timeoutMillis);
+    }
+
+    private static synchronized Timer getInterruptTimer()
+    {
+        if (interruptTimer == null) {
+            interruptTimer = new Timer("Rhino interrupt timer", true);
+        }
+        return interruptTimer;
+    }
+
+    /**
+     * Deliver an interrupt request, see {@link #requestInterrupt()}.
+     * The request is cleared before this method is called.
+     * <p>
+     * The default implementation calls
+     * {@link ContextFactory#observeInterrupt(Context cx)}, which throws
+     * {@link ScriptInterruptedError}.
+     *
+     * @throws Error to terminate the script, or a RuntimeException such as
+     *         an {@link EvaluatorException} that scripts can catch
+     */
+    protected void observeInterrupt()
+    {
+        ContextFactory f = getFactory();
+        f.observeInterrupt(this);
+    }
+
     /**
      * Create class loader for generated classes.
      * The method calls {@link ContextFactory#createClassLoader(ClassLoader)}
@@ -2385,13 +2671,76 @@ public class Context
             compilationErrorReporter = compilerEnv.getErrorReporter();
         }
 
-        if (debugger != null) {
+        boolean tiered = tieredCompiler != null && compiler == null
+            && optimizationLevel >= 0 && debugger == null
+            && getSecurityController() == null;
+        // a cache hit would skip the warnings of strict mode
+        boolean cached = codeCache != null && !tiered && compiler == null
+            && optimizationLevel >= 0 && codegenClass != null
+            && debugger == null && getSecurityController() == null
+            && !compilerEnv.isStrictMode();
+        if (hasFeature(FEATURE_LAZY_FUNCTION_PARSING) && debugger == null) {
+            // only the interpreter compiles functions separately
+            compilerEnv.setLazyFunctionBodies((compiler == null)
+                ? tiered || optimizationLevel < 0
+                : compiler instanceof Interpreter);
+        }
+        CompiledScriptCache scriptCache = factory.getCompiledScriptCache();
+        if (scriptCache != null) {
+            if (returnFunction || compiler != null || securityDomain != null
+                || debugger != null || compilerEnv.isStrictMode())
+            {
+                scriptCache = null;
+            }
+        }
+        if (debugger != null || tiered || cached || scriptCache != null
+            || compilerEnv.isLazyFunctionBodies())
+        {
             if (sourceReader != null) {
                 sourceString = Kit.readReader(sourceReader);
                 sourceReader = null;
             }
         }
 
+        String scriptKey = null;
+        if (scriptCache != null) {
+            scriptKey = CompiledScriptCache.makeKey(sourceString, sourceName,
+                                                    lineno, compilerEnv);
+            Script script = scriptCache.get(scriptKey);
+            if (script != null) {
+                return script;
+            }
+        }
+
+        byte[] cacheKey = null;
+        if (cached) {
+            cacheKey = codeCache.makeKey(sourceString, sourceName, lineno,
+                                         returnFunction, compilerEnv);
+            Object bytecode = codeCache.load(cacheKey);
+            if (bytecode != null) {
+                compiler = createCompiler();
+                try {
+                    Object result;
+                    if (returnFunction) {
+                        result = compiler.createFunctionObject(this, scope,
+                                                               bytecode, null);
+                    } else {
+                        result = compiler.createScriptObject(bytecode, null);
+                    }
+                    retainClassFile(result, bytecode);
+                    if (scriptKey != null) {
+                        scriptCache.put(scriptKey, (Script)result,
+                            CompiledScriptCache.estimateSize(sourceString,
+                                                             bytecode));
+                    }
+                    return result;
+                } catch (RuntimeException e) {
+                    // not loadable after all: compile from source
+                    compiler = null;
+                }
+            }
+        }
+
         Parser p = new Parser(compilerEnv, compilationErrorReporter);
         if (returnFunction) {
             p.calledByCompileFunction = true;
@@ -2423,13 +2772,24 @@ public class Context
         ast = null;
         irf = null;
 
-        if (compiler == null) {
+        if (tiered) {
+            compiler = createInterpreter();
+        } else if (compiler == null) {
             compiler = createCompiler();
         }
 
         Object bytecode = compiler.compile(compilerEnv,
                                            tree, tree.getEncodedSource(),
                                            returnFunction);
+        if (compilerEnv.isLazyFunctionBodies()) {
+            Interpreter.setLazySource((InterpreterData)bytecode, sourceString);
+        }
+        if (tiered) {
+            tieredCompiler.register((InterpreterData)bytecode, sourceString);
+        }
+        if (cacheKey != null) {
+            codeCache.store(cacheKey, bytecode);
+        }
         if (debugger != null) {
             if (sourceString == null) Kit.codeBug();
             if (bytecode instanceof DebuggableScript) {
@@ -2446,10 +2806,25 @@ public class Context
         } else {
             result = compiler.createScriptObject(bytecode, securityDomain);
         }
+        retainClassFile(result, bytecode);
+        if (scriptKey != null) {
+            scriptCache.put(scriptKey, (Script)result,
+                CompiledScriptCache.estimateSize(sourceString, bytecode));
+        }
 
         return result;
     }
 
+    private void retainClassFile(Object result, Object bytecode)
+    {
+        // Codegen returns the class name and bytes, see ScopeSnapshot
+        if (bytecode instanceof Object[]
+            && hasFeature(FEATURE_RETAIN_CLASS_FILES))
+        {
+            ScopeSnapshot.retainClassFile(result.getClass(), bytecode);
+        }
+    }
+
     private static void notifyDebugger_r(Context cx, DebuggableScript dscript,
                                          String debugSource)
     {
@@ -2465,6 +2840,11 @@ public class Context
                              "org.mozilla.javascript.Interpreter");
 
     private Evaluator createCompiler()
+    {
+        return createCompiler(optimizationLevel);
+    }
+
+    static Evaluator createCompiler(int optimizationLevel)
     {
         Evaluator result = null;
         if (optimizationLevel >= 0 && codegenClass != null) {
@@ -2639,6 +3019,8 @@ public class Context
     boolean useDynamicScope;
     private int optimizationLevel;
     private int maximumInterpreterStackDepth;
+    private TieredCompiler tieredCompiler;
+    private CodeCache codeCache;
     private WrapFactory wrapFactory;
     Debugger debugger;
     private Object debuggerData;
@@ -2664,6 +3046,11 @@ public class Context
     int instructionCount;
     int instructionThreshold;
 
+    // Polled at function entry and loop back-edges, see requestInterrupt()
+    volatile boolean interruptRequested;
+    private TimerTask interruptTask;
+    private static Timer interruptTimer;
+
     // It can be used to return the second index-like result from function
     int scratchIndex;
 
@@ -150,6 +150,8 @@ public class ContextFactory
     private volatile Object listeners;
     private boolean disabledListening;
     private ClassLoader applicationClassLoader;
+    private final EvalCache evalCache = new EvalCache();
+    private volatile CompiledScriptCache compiledScriptCache;
 
     /**
      * Listener of {@link Context} creation and release events.
@@ -311,6 +313,15 @@ public class ContextFactory
 
           case Context.FEATURE_ENHANCED_JAVA_ACCESS:
             return false;
+
+          case Context.FEATURE_LAZY_FUNCTION_PARSING:
+            return false;
+
+          case Context.FEATURE_RETAIN_CLASS_FILES:
+            return false;
+
+          case Context.FEATURE_PROPERTY_CACHE:
+            return false;
         }
         // It is a bug to call the method with unknown featureIndex
         throw new IllegalArgumentException(String.valueOf(featureIndex));
@@ -412,6 +423,36 @@ public class ContextFactory
         this.applicationClassLoader = loader;
     }
 
+    /**
+     * Get the cache of the code compiled for <code>eval</code> and the
+     * <code>Function</code> constructor by Contexts of this factory.
+     */
+    public final EvalCache getEvalCache()
+    {
+        return evalCache;
+    }
+
+    /**
+     * Get the cache of compiled scripts shared by Contexts of this factory
+     * or null if scripts are not cached, which is the default.
+     */
+    public final CompiledScriptCache getCompiledScriptCache()
+    {
+        return compiledScriptCache;
+    }
+
+    /**
+     * Set the cache of compiled scripts shared by Contexts of this factory.
+     * Null turns caching off.
+     *
+     * @see CompiledScriptCache
+     */
+    public final void setCompiledScriptCache(CompiledScriptCache cache)
+    {
+        checkNotSealed();
+        compiledScriptCache = cache;
+    }
+
     /**
      * Execute top call to script or function.
      * When the runtime is about to execute a script or function that will
@@ -435,6 +476,16 @@ public class ContextFactory
     protected void observeInstructionCount(Context cx, int instructionCount) {
     }
 
+    /**
+     * Implementation of {@link Context#observeInterrupt()}.
+     * The default implementation throws {@link ScriptInterruptedError};
+     * override it to throw an exception that scripts can catch instead.
+     */
+    protected void observeInterrupt(Context cx) {
+        throw new ScriptInterruptedError(
+            ScriptRuntime.getMessage0("msg.script.interrupted"));
+    }
+
     protected void onContextCreated(Context cx)
     {
         Object listeners = this.listeners;
@@ -0,0 +1,198 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is Rhino code, released
+ * May 6, 1999.
+ *
+ * The Initial Developer of the Original Code is
+ * Netscape Communications Corporation.
+ * Portions created by the Initial Developer are Copyright (C) 1997-1999
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * the GNU General Public License Version 2 or later (the "GPL"), in which
+ * case the provisions of the GPL are applicable instead of those above. If
+ * you wish to allow use of your version of this file only under the terms of
+ * the GPL and not to allow others to use your version of this file under the
+ * MPL, indicate your decision by deleting the provisions above and replacing
+ * them with the notice and other provisions required by the GPL. If you do
+ * not delete the provisions above, a recipient may use your version of this
+ * file under either the MPL or the GPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+// API class
+
+package org.mozilla.javascript;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache of the code compiled for <code>eval</code> and the
+ * <code>Function</code> constructor.
+ * <p>
+ * Each {@link ContextFactory} has one cache, see
+ * {@link ContextFactory#getEvalCache()}, which is shared by the Contexts it
+ * creates. The interpreted code is looked up by the source text, the name
+ * that identifies the calling script and line and the compiler settings
+ * of the Context, so evaluating the same string again only creates a new
+ * script or function object for the code compiled the first time. The least
+ * recently used entries are dropped once the cache holds
+ * {@link #getMaximumSize()} of them.
+ * <p>
+ * Source is compiled without the cache while
+ * {@link Context#FEATURE_STRICT_MODE} is on so that warnings are reported
+ * each time, and while a debugger is attached so that it is notified of
+ * every compiled script.
+ */
+public final class EvalCache
+{
+    private int maximumSize = 256;
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+
+    private final LinkedHashMap<String,InterpreterData> cache =
+        new LinkedHashMap<String,InterpreterData>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(
+                Map.Entry<String,InterpreterData> e)
+            {
+                if (size() > maximumSize) {
+                    ++evictionCount;
+                    return true;
+                }
+                return false;
+            }
+        };
+
+    EvalCache()
+    {
+    }
+
+    /**
+     * Return the maximum number of compiled sources kept.
+     */
+    public synchronized int getMaximumSize()
+    {
+        return maximumSize;
+    }
+
+    /**
+     * Set the maximum number of compiled sources kept. The default is 256.
+     * Zero turns the cache off.
+     */
+    public synchronized void setMaximumSize(int size)
+    {
+        if (size < 0) throw new IllegalArgumentException();
+        maximumSize = size;
+        while (cache.size() > size) {
+            String eldest = cache.keySet().iterator().next();
+            cache.remove(eldest);
+            ++evictionCount;
+        }
+    }
+
+    /**
+     * Return the number of compiled sources currently kept.
+     */
+    public synchronized int getSize()
+    {
+        return cache.size();
+    }
+
+    /**
+     * Return the number of compilations avoided so far.
+     */
+    public synchronized long getHitCount()
+    {
+        return hitCount;
+    }
+
+    /**
+     * Return the number of sources compiled while the cache was on.
+     */
+    public synchronized long getMissCount()
+    {
+        return missCount;
+    }
+
+    /**
+     * Return the number of compiled sources dropped to respect the maximum
+     * size.
+     */
+    public synchronized long getEvictionCount()
+    {
+        return evictionCount;
+    }
+
+    /**
+     * Drop all compiled sources and reset the counts.
+     */
+    public synchronized void clear()
+    {
+        cache.clear();
+        hitCount = missCount = evictionCount = 0;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "hits: " + getHitCount()
+            + ", misses: " + getMissCount()
+            + ", evictions: " + getEvictionCount();
+    }
+
+    synchronized InterpreterData get(String key)
+    {
+        InterpreterData idata = cache.get(key);
+        if (idata != null) {
+            ++hitCount;
+        } else {
+            ++missCount;
+        }
+        return idata;
+    }
+
+    synchronized void put(String key, InterpreterData idata)
+    {
+        if (maximumSize != 0) {
+            cache.put(key, idata);
+        }
+    }
+
+    /**
+     * Return the key of the code compiled for the source of a script or,
+     * if <code>returnFunction</code> is true, a function.
+     */
+    static String makeKey(String source, String sourceName,
+                          boolean returnFunction, CompilerEnvirons compilerEnv)
+    {
+        String settings = compilerEnv.getFingerprint();
+        StringBuilder sb = new StringBuilder(settings.length()
+            + sourceName.length() + source.length() + 3);
+        sb.append(returnFunction ? 'f' : 's');
+        sb.append(settings).append('\n');
+        sb.append(sourceName).append('\n');
+        sb.append(source);
+        return sb.toString();
+    }
+}
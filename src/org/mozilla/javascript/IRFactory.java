@@ -555,6 +555,12 @@ public final class IRFactory extends Parser
             fn.removeProp(Node.DESTRUCTURING_PARAMS);
 
             int lineno = fn.getBody().getLineno();
+            String lazyBody = (String)fn.getProp(Node.LAZY_BODY_PROP);
+            if (lazyBody != null) {
+                // the body was dropped by the parser, keep its text
+                decompiler.addName(lazyBody);
+                decompiler.addToken(Token.EOL);
+            }
             ++nestingOfFunction;  // only for body, not params
             Node body = transform(fn.getBody());
 
@@ -1258,12 +1264,6 @@ public final class IRFactory extends Parser
         fnNode.setFunctionType(functionType);
         fnNode.addChildToBack(statements);
 
-        int functionCount = fnNode.getFunctionCount();
-        if (functionCount != 0) {
-            // Functions containing other functions require activation objects
-            fnNode.setRequiresActivation();
-        }
-
         if (functionType == FunctionNode.FUNCTION_EXPRESSION) {
             Name name = fnNode.getFunctionName();
             if (name != null && name.length() != 0
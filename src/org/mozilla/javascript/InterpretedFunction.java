@@ -50,6 +50,8 @@ final class InterpretedFunction extends NativeFunction implements Script
     SecurityController securityController;
     Object securityDomain;
     Scriptable[] functionRegExps;
+    // compiled code promoted by TieredCompiler
+    private transient volatile Function compiledFunction;
 
     private InterpretedFunction(InterpreterData idata,
                                 Object staticSecurityDomain)
@@ -161,9 +163,29 @@ final class InterpretedFunction extends NativeFunction implements Script
         if (!ScriptRuntime.hasTopCall(cx)) {
             return ScriptRuntime.doTopCall(this, cx, scope, thisObj, args);
         }
+        Function compiled = getCompiledFunction(cx);
+        if (compiled != null) {
+            return compiled.call(cx, scope, thisObj, args);
+        }
         return Interpreter.interpret(this, cx, scope, thisObj, args);
     }
 
+    /**
+     * Count an invocation for tiered compilation and return the compiled
+     * code to call instead of interpreting the function, or null.
+     */
+    final Function getCompiledFunction(Context cx)
+    {
+        TieredCompiler tieredCompiler = idata.itsTieredCompiler;
+        if (tieredCompiler == null) {
+            return null;
+        }
+        if (compiledFunction == null) {
+            compiledFunction = tieredCompiler.countInvocation(cx, this);
+        }
+        return compiledFunction;
+    }
+
     public Object exec(Context cx, Scriptable scope)
     {
         if (!isScript()) {
@@ -51,6 +51,7 @@ import java.io.Serializable;
 import java.util.List;
 import java.util.ArrayList;
 
+import org.mozilla.javascript.ast.AstRoot;
 import org.mozilla.javascript.ast.FunctionNode;
 import org.mozilla.javascript.ast.ScriptNode;
 import org.mozilla.javascript.ScriptRuntime.NoSuchMethodShim;
@@ -71,6 +72,9 @@ public final class Interpreter extends Icode implements Evaluator
     //            exception local and scope local
     static final int EXCEPTION_SLOT_SIZE       = 6;
 
+    // operand of property access instructions without an inline cache
+    static final int NO_PROPERTY_CACHE = 0xFFFF;
+
     /**
      * Class to hold data corresponding to one interpreted call stack frame.
      */
@@ -260,6 +264,85 @@ public final class Interpreter extends Icode implements Evaluator
                                                   staticSecurityDomain);
     }
 
+    /**
+     * Read the inline cache index operand of a property access instruction,
+     * advance pc past it and return the cache or null if the instruction
+     * has no cache.
+     */
+    private static PropertyCache getPropertyCache(CallFrame frame)
+    {
+        InterpreterData idata = frame.idata;
+        int index = getIndex(idata.itsICode, frame.pc);
+        frame.pc += 2;
+        if (index == NO_PROPERTY_CACHE) {
+            return null;
+        }
+        PropertyCache[] caches = idata.itsPropertyCaches;
+        if (caches == null) {
+            caches = PropertyCache.createCaches(idata.itsPropertyCacheCount);
+            idata.itsPropertyCaches = caches;
+        }
+        return caches[index];
+    }
+
+    /**
+     * Return the array index that the element id on the stack denotes, or -1
+     * if it is not a number that is a valid int index.
+     */
+    private static int getArrayIndex(Object id, double dblId)
+    {
+        if (id != UniqueTag.DOUBLE_MARK) {
+            if (!(id instanceof Double || id instanceof Integer)) {
+                return -1;
+            }
+            dblId = ((Number)id).doubleValue();
+        }
+        int index = (int)dblId;
+        return (index == dblId) ? index : -1;
+    }
+
+    /**
+     * Read a number element of a plain array without boxing it. The array
+     * and the element id are at stackTop and stackTop + 1; on success the
+     * element replaces the array as a double on the stack. This is kept out
+     * of interpretLoop which is too large for the JIT to compile.
+     */
+    private static boolean getNumberElem(Object lhs, Object[] stack,
+                                         double[] sDbl, int stackTop)
+    {
+        if (lhs.getClass() != NativeArray.class) {
+            return false;
+        }
+        NativeArray array = (NativeArray)lhs;
+        int index = getArrayIndex(stack[stackTop + 1], sDbl[stackTop + 1]);
+        if (!array.isDoubleElement(index)) {
+            return false;
+        }
+        stack[stackTop] = UniqueTag.DOUBLE_MARK;
+        sDbl[stackTop] = array.getDoubleElement(index);
+        return true;
+    }
+
+    /**
+     * Store a double from stackTop + 2 into a plain array at stackTop
+     * without boxing it, leaving the stored value as the result.
+     */
+    private static boolean setNumberElem(Object lhs, Object[] stack,
+                                         double[] sDbl, int stackTop)
+    {
+        if (lhs.getClass() != NativeArray.class) {
+            return false;
+        }
+        int index = getArrayIndex(stack[stackTop + 1], sDbl[stackTop + 1]);
+        double d = sDbl[stackTop + 2];
+        if (!((NativeArray)lhs).putDoubleElement(index, d)) {
+            return false;
+        }
+        stack[stackTop] = UniqueTag.DOUBLE_MARK;
+        sDbl[stackTop] = d;
+        return true;
+    }
+
     private static int getShort(byte[] iCode, int pc) {
         return (iCode[pc] << 8) | (iCode[pc + 1] & 0xFF);
     }
@@ -367,6 +450,15 @@ public final class Interpreter extends Icode implements Evaluator
                 break;
               }
 
+              case Token.GETPROP :
+              case Token.SETPROP :
+              case Icode_PROP_AND_THIS : {
+                int cacheIndex = getIndex(iCode, pc);
+                out.println(tname + " cache " + cacheIndex);
+                pc += 2;
+                break;
+              }
+
               case Icode_CALLSPECIAL : {
                 int callType = iCode[pc] & 0xFF;
                 boolean isNew =  (iCode[pc + 1] != 0);
@@ -564,6 +656,12 @@ public final class Interpreter extends Icode implements Evaluator
                 // type of ++/--
                 return 1 + 1;
 
+            case Token.GETPROP:
+            case Token.SETPROP:
+            case Icode_PROP_AND_THIS:
+                // inline cache index
+                return 1 + 2;
+
             case Icode_SHORTNUMBER :
                 // short number
                 return 1 + 2;
@@ -810,6 +908,52 @@ public final class Interpreter extends Icode implements Evaluator
         return list.toArray(new ScriptStackElement[list.size()][]);
     }
 
+    /**
+     * Return the script frames of a Context that may be running on another
+     * thread, grouped like {@link #getScriptStackElements(RhinoException)}.
+     * The frames are read without synchronization, so the result is only
+     * an approximation for {@link SamplingProfiler}.
+     *
+     * @return the frames or null if no interpreted code is running
+     */
+    static ScriptStackElement[][] sampleScriptStackElements(Context cx)
+    {
+        Object last = cx.lastInterpreterFrame;
+        if (!(last instanceof CallFrame)) {
+            return null;
+        }
+        ObjArray previous = cx.previousInterpreterInvocations;
+        Object[] invocations = (previous == null) ? new Object[0]
+                                                  : previous.toArray();
+        int count = invocations.length;
+        if (count != 0 && invocations[count - 1] == last) {
+            // pushed but not replaced yet, see captureStackInfo
+            --count;
+        }
+        ScriptStackElement[][] result = new ScriptStackElement[count + 1][];
+        for (int i = 0; i <= count; ++i) {
+            CallFrame frame = (CallFrame)(i == 0 ? last
+                                                 : invocations[count - i]);
+            List<ScriptStackElement> group = new ArrayList<ScriptStackElement>();
+            for (; frame != null; frame = frame.parentFrame) {
+                InterpreterData idata = frame.idata;
+                int pc = frame.pcSourceLineStart;
+                int lineNumber = -1;
+                if (pc >= 0 && pc + 2 < idata.itsICode.length) {
+                    lineNumber = getIndex(idata.itsICode, pc);
+                }
+                String functionName = null;
+                if (idata.itsName != null && idata.itsName.length() != 0) {
+                    functionName = idata.itsName;
+                }
+                group.add(new ScriptStackElement(idata.itsSourceFile,
+                                                 functionName, lineNumber));
+            }
+            result[i] = group.toArray(new ScriptStackElement[group.size()]);
+        }
+        return result;
+    }
+
     static String getEncodedSource(InterpreterData idata)
     {
         if (idata.encodedSource == null) {
@@ -819,6 +963,95 @@ public final class Interpreter extends Icode implements Evaluator
                                              idata.encodedSourceEnd);
     }
 
+    /**
+     * Record the source text that the functions of idata whose bodies
+     * were not compiled are compiled from on their first call.
+     */
+    static void setLazySource(InterpreterData idata, String source)
+    {
+        InterpreterData[] nested = idata.itsNestedFunctions;
+        if (nested == null) {
+            return;
+        }
+        for (int i = 0; i != nested.length; ++i) {
+            if (nested[i].itsLazy) {
+                nested[i].itsLazySource = source;
+            } else {
+                setLazySource(nested[i], source);
+            }
+        }
+    }
+
+    /**
+     * Compile the body of a function that the parser only checked for
+     * errors and fill in its code, keeping its name, type and decompiled
+     * source. Functions nested in the body stay lazy in turn.
+     */
+    private static void compileLazily(Context cx, InterpreterData idata)
+    {
+        synchronized (idata) {
+            if (!idata.itsLazy) {
+                return;
+            }
+            String source = idata.itsLazySource.substring(
+                idata.itsSourceStart, idata.itsSourceEnd);
+            CompilerEnvirons compilerEnv = new CompilerEnvirons();
+            compilerEnv.initFromContext(cx);
+            compilerEnv.setLanguageVersion(idata.languageVersion);
+            compilerEnv.setGeneratingSource(idata.encodedSource != null);
+            compilerEnv.setLazyFunctionBodies(true);
+            // syntax errors and warnings were reported when the script
+            // containing the function was compiled
+            compilerEnv.setErrorReporter(DefaultErrorReporter.instance);
+            Parser p = new Parser(compilerEnv, compilerEnv.getErrorReporter());
+            p.calledByCompileFunction = true;
+            AstRoot ast = p.parse(source, idata.itsSourceFile,
+                                  idata.itsSourceLine);
+            // Only function expressions bind their own name.
+            ((FunctionNode)ast.getFirstChild()).setFunctionType(
+                idata.itsFunctionType);
+            IRFactory irf = new IRFactory(compilerEnv,
+                                          compilerEnv.getErrorReporter());
+            ScriptNode tree = irf.transformTree(ast);
+            InterpreterData code = new CodeGenerator().compile(
+                compilerEnv, tree, tree.getEncodedSource(), true);
+
+            idata.itsNeedsActivation = code.itsNeedsActivation;
+            idata.itsStringTable = code.itsStringTable;
+            idata.itsDoubleTable = code.itsDoubleTable;
+            idata.itsRegExpLiterals = code.itsRegExpLiterals;
+            idata.itsICode = code.itsICode;
+            idata.itsPropertyCacheCount = code.itsPropertyCacheCount;
+            idata.itsExceptionTable = code.itsExceptionTable;
+            idata.itsMaxVars = code.itsMaxVars;
+            idata.itsMaxLocals = code.itsMaxLocals;
+            idata.itsMaxStack = code.itsMaxStack;
+            idata.itsMaxFrameArray = code.itsMaxFrameArray;
+            idata.argNames = code.argNames;
+            idata.argIsConst = code.argIsConst;
+            idata.argCount = code.argCount;
+            idata.itsMaxCalleeArgs = code.itsMaxCalleeArgs;
+            idata.literalIds = code.literalIds;
+            idata.longJumps = code.longJumps;
+            idata.firstLinePC = code.firstLinePC;
+            InterpreterData[] nested = code.itsNestedFunctions;
+            if (nested != null) {
+                for (int i = 0; i != nested.length; ++i) {
+                    nested[i].parentData = idata;
+                }
+                setLazySource(code, source);
+                if (idata.itsTieredCompiler != null) {
+                    for (int i = 0; i != nested.length; ++i) {
+                        idata.itsTieredCompiler.register(nested[i], source);
+                    }
+                }
+            }
+            idata.itsNestedFunctions = nested;
+            idata.itsLazySource = null;
+            idata.itsLazy = false;
+        }
+    }
+
     private static void initFunction(Context cx, Scriptable scope,
                                      InterpretedFunction parent, int index)
     {
@@ -1395,7 +1628,14 @@ switch (op) {
     case Token.GETPROP : {
         Object lhs = stack[stackTop];
         if (lhs == DBL_MRK) lhs = ScriptRuntime.wrapNumber(sDbl[stackTop]);
-        stack[stackTop] = ScriptRuntime.getObjectProp(lhs, stringReg, cx, frame.scope);
+        PropertyCache cache = getPropertyCache(frame);
+        if (cache != null) {
+            stack[stackTop] = cache.getObjectProp(lhs, stringReg, cx,
+                                                  frame.scope);
+        } else {
+            stack[stackTop] = ScriptRuntime.getObjectProp(lhs, stringReg,
+                                                          cx, frame.scope);
+        }
         continue Loop;
     }
     case Token.SETPROP : {
@@ -1404,8 +1644,13 @@ switch (op) {
         --stackTop;
         Object lhs = stack[stackTop];
         if (lhs == DBL_MRK) lhs = ScriptRuntime.wrapNumber(sDbl[stackTop]);
-        stack[stackTop] = ScriptRuntime.setObjectProp(lhs, stringReg, rhs,
-                                                      cx);
+        PropertyCache cache = getPropertyCache(frame);
+        if (cache != null) {
+            stack[stackTop] = cache.setObjectProp(lhs, stringReg, rhs, cx);
+        } else {
+            stack[stackTop] = ScriptRuntime.setObjectProp(lhs, stringReg,
+                                                          rhs, cx);
+        }
         continue Loop;
     }
     case Icode_PROP_INC_DEC : {
@@ -1424,6 +1669,11 @@ switch (op) {
         }
         Object value;
         Object id = stack[stackTop + 1];
+        if (lhs instanceof NativeArray
+            && getNumberElem(lhs, stack, sDbl, stackTop))
+        {
+            continue Loop;
+        }
         if (id != DBL_MRK) {
             value = ScriptRuntime.getObjectElem(lhs, id, cx, frame.scope);
         } else {
@@ -1436,10 +1686,15 @@ switch (op) {
     case Token.SETELEM : {
         stackTop -= 2;
         Object rhs = stack[stackTop + 2];
+        Object lhs = stack[stackTop];
+        if (rhs == DBL_MRK && lhs instanceof NativeArray
+            && setNumberElem(lhs, stack, sDbl, stackTop))
+        {
+            continue Loop;
+        }
         if (rhs == DBL_MRK) {
             rhs = ScriptRuntime.wrapNumber(sDbl[stackTop + 2]);
         }
-        Object lhs = stack[stackTop];
         if (lhs == DBL_MRK) {
             lhs = ScriptRuntime.wrapNumber(sDbl[stackTop]);
         }
@@ -1511,8 +1766,14 @@ switch (op) {
         Object obj = stack[stackTop];
         if (obj == DBL_MRK) obj = ScriptRuntime.wrapNumber(sDbl[stackTop]);
         // stringReg: property
-        stack[stackTop] = ScriptRuntime.getPropFunctionAndThis(obj, stringReg,
-                                                               cx, frame.scope);
+        PropertyCache cache = getPropertyCache(frame);
+        if (cache != null) {
+            stack[stackTop] = cache.getPropFunctionAndThis(obj, stringReg,
+                                                           cx, frame.scope);
+        } else {
+            stack[stackTop] = ScriptRuntime.getPropFunctionAndThis(
+                obj, stringReg, cx, frame.scope);
+        }
         ++stackTop;
         stack[stackTop] = ScriptRuntime.lastStoredScriptable(cx);
         continue Loop;
@@ -1599,7 +1860,9 @@ switch (op) {
         }
         if (fun instanceof InterpretedFunction) {
             InterpretedFunction ifun = (InterpretedFunction)fun;
-            if (frame.fnOrScript.securityDomain == ifun.securityDomain) {
+            if (frame.fnOrScript.securityDomain == ifun.securityDomain
+                && ifun.getCompiledFunction(cx) == null)
+            {
                 CallFrame callParentFrame = frame;
                 CallFrame calleeFrame = new CallFrame();
                 if (op == Icode_TAIL_CALL) {
@@ -1667,7 +1930,9 @@ switch (op) {
                 Callable applyCallable = ScriptRuntime.getCallable(funThisObj);
                 if (applyCallable instanceof InterpretedFunction) {
                     InterpretedFunction iApplyCallable = (InterpretedFunction)applyCallable;
-                    if (frame.fnOrScript.securityDomain == iApplyCallable.securityDomain) {
+                    if (frame.fnOrScript.securityDomain == iApplyCallable.securityDomain
+                        && iApplyCallable.getCompiledFunction(cx) == null)
+                    {
                         frame = initFrameForApplyOrCall(cx, frame, indexReg,
                                 stack, sDbl, stackTop, op, calleeScope, ifun,
                                 iApplyCallable);
@@ -1686,7 +1951,9 @@ switch (op) {
             // if the method is in fact an InterpretedFunction
             if (noSuchMethodMethod instanceof InterpretedFunction) {
                 InterpretedFunction ifun = (InterpretedFunction) noSuchMethodMethod;
-                if (frame.fnOrScript.securityDomain == ifun.securityDomain) {
+                if (frame.fnOrScript.securityDomain == ifun.securityDomain
+                    && ifun.getCompiledFunction(cx) == null)
+                {
                     frame = initFrameForNoSuchMethod(cx, frame, indexReg, stack, sDbl,
                                              stackTop, op, funThisObj, calleeScope,
                                              noSuchMethodShim, ifun);
@@ -1714,7 +1981,9 @@ switch (op) {
         Object lhs = stack[stackTop];
         if (lhs instanceof InterpretedFunction) {
             InterpretedFunction f = (InterpretedFunction)lhs;
-            if (frame.fnOrScript.securityDomain == f.securityDomain) {
+            if (frame.fnOrScript.securityDomain == f.securityDomain
+                && f.getCompiledFunction(cx) == null)
+            {
                 Scriptable newInstance = f.createObject(cx, frame.scope);
                 CallFrame calleeFrame = new CallFrame();
                 initFrame(cx, frame.scope, newInstance, stack, sDbl,
@@ -2196,6 +2465,13 @@ switch (op) {
                         addInstructionCount(cx, frame, 2);
                     }
                     int offset = getShort(iCode, frame.pc);
+                    if (offset < 0 && frame.idata.itsTieredCompiler != null) {
+                        ++frame.idata.itsBackwardBranchCount;
+                    }
+                    if (offset <= 0 && cx.interruptRequested) {
+                        // loop back-edge or long jump
+                        ScriptRuntime.checkInterrupt(cx);
+                    }
                     if (offset != 0) {
                         // -1 accounts for pc pointing to jump opcode + 1
                         frame.pc += offset - 1;
@@ -2652,7 +2928,13 @@ switch (op) {
                                   InterpretedFunction fnOrScript,
                                   CallFrame parentFrame, CallFrame frame)
     {
+        if (cx.interruptRequested) {
+            ScriptRuntime.checkInterrupt(cx);
+        }
         InterpreterData idata = fnOrScript.idata;
+        if (idata.itsLazy) {
+            compileLazily(cx, idata);
+        }
 
         boolean useActivation = idata.itsNeedsActivation;
         DebugFrame debuggerFrame = null;
@@ -2691,9 +2973,11 @@ switch (op) {
                                      fnOrScript.idata.evalScriptFlag);
         }
 
-        if (idata.itsNestedFunctions != null) {
-            if (idata.itsFunctionType != 0 && !idata.itsNeedsActivation)
-                Kit.codeBug();
+        // Function statements of functions without activation are assigned
+        // to their variables by the function body
+        if (idata.itsNestedFunctions != null
+            && (idata.itsFunctionType == 0 || idata.itsNeedsActivation))
+        {
             for (int i = 0; i < idata.itsNestedFunctions.length; i++) {
                 InterpreterData fdata = idata.itsNestedFunctions[i];
                 if (fdata.itsFunctionType == FunctionNode.FUNCTION_STATEMENT) {
@@ -2710,6 +2994,12 @@ switch (op) {
             // the regexps re-wrapped during each script execution
             if (idata.itsFunctionType != 0) {
                 scriptRegExps = fnOrScript.functionRegExps;
+                if (scriptRegExps == null) {
+                    // created before its body was compiled lazily
+                    scriptRegExps = fnOrScript.createRegExpWraps(
+                        cx, fnOrScript.getParentScope());
+                    fnOrScript.functionRegExps = scriptRegExps;
+                }
             } else {
                 scriptRegExps = fnOrScript.createRegExpWraps(cx, scope);
             }
@@ -3037,14 +3327,14 @@ switch (op) {
         } else {
             if (lhs instanceof Scriptable || rhs instanceof Scriptable) {
                 stack[stackTop] = ScriptRuntime.add(lhs, rhs, cx);
-            } else if (lhs instanceof String) {
-                String lstr = (String)lhs;
-                String rstr = ScriptRuntime.toString(rhs);
-                stack[stackTop] = lstr.concat(rstr);
-            } else if (rhs instanceof String) {
-                String lstr = ScriptRuntime.toString(lhs);
-                String rstr = (String)rhs;
-                stack[stackTop] = lstr.concat(rstr);
+            } else if (lhs instanceof CharSequence) {
+                CharSequence lstr = (CharSequence)lhs;
+                CharSequence rstr = ScriptRuntime.toCharSequence(rhs);
+                stack[stackTop] = ConsString.concat(lstr, rstr);
+            } else if (rhs instanceof CharSequence) {
+                CharSequence lstr = ScriptRuntime.toCharSequence(lhs);
+                CharSequence rstr = (CharSequence)rhs;
+                stack[stackTop] = ConsString.concat(lstr, rstr);
             } else {
                 double lDbl = (lhs instanceof Number)
                     ? ((Number)lhs).doubleValue() : ScriptRuntime.toNumber(lhs);
@@ -3065,13 +3355,13 @@ switch (op) {
                 rhs = tmp;
             }
             stack[stackTop] = ScriptRuntime.add(lhs, rhs, cx);
-        } else if (lhs instanceof String) {
-            String lstr = (String)lhs;
-            String rstr = ScriptRuntime.toString(d);
+        } else if (lhs instanceof CharSequence) {
+            CharSequence lstr = (CharSequence)lhs;
+            CharSequence rstr = ScriptRuntime.toString(d);
             if (leftRightOrder) {
-                stack[stackTop] = lstr.concat(rstr);
+                stack[stackTop] = ConsString.concat(lstr, rstr);
             } else {
-                stack[stackTop] = rstr.concat(lstr);
+                stack[stackTop] = ConsString.concat(rstr, lstr);
             }
         } else {
             double lDbl = (lhs instanceof Number)
@@ -72,6 +72,14 @@ final class InterpreterData implements Serializable, DebuggableScript
         init();
     }
 
+    /**
+     * Create an empty instance whose fields are filled in by
+     * {@link ScopeSnapshot}.
+     */
+    InterpreterData()
+    {
+    }
+
     private void init()
     {
         itsICode = new byte[INITIAL_MAX_ICODE_LENGTH];
@@ -90,6 +98,11 @@ final class InterpreterData implements Serializable, DebuggableScript
 
     byte[] itsICode;
 
+    // number of inline caches used by property access instructions
+    int itsPropertyCacheCount;
+    // allocated on first execution
+    transient PropertyCache[] itsPropertyCaches;
+
     int[] itsExceptionTable;
 
     int itsMaxVars;
@@ -120,6 +133,22 @@ final class InterpreterData implements Serializable, DebuggableScript
 
     int firstLinePC = -1; // PC for the first LINE icode
 
+    // position of the function in the script source and its line
+    int itsSourceStart = -1;
+    int itsSourceEnd;
+    int itsSourceLine;
+
+    // tiered compilation state, see TieredCompiler
+    transient TieredCompiler itsTieredCompiler;
+    transient String itsSource;
+    int itsInvocationCount;
+    int itsBackwardBranchCount;
+    transient volatile Object itsCompiledCode;
+
+    // body compiled on first call, see Interpreter.compileLazily
+    volatile boolean itsLazy;
+    String itsLazySource;
+
     InterpreterData parentData;
 
     boolean evalScriptFlag; // true if script corresponds to eval() code
@@ -0,0 +1,353 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is Rhino code, released
+ * May 6, 1998.
+ *
+ * The Initial Developer of the Original Code is
+ * Netscape Communications Corporation.
+ * Portions created by the Initial Developer are Copyright (C) 1997-1999
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * the GNU General Public License Version 2 or later (the "GPL"), in which
+ * case the provisions of the GPL are applicable instead of those above. If
+ * you wish to allow use of your version of this file only under the terms of
+ * the GPL and not to allow others to use your version of this file under the
+ * MPL, indicate your decision by deleting the provisions above and replacing
+ * them with the notice and other provisions required by the GPL. If you do
+ * not delete the provisions above, a recipient may use your version of this
+ * file under either the MPL or the GPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+package org.mozilla.javascript;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+import org.mozilla.classfile.ByteCode;
+import org.mozilla.classfile.ClassFileWriter;
+
+/**
+ * Generates subclasses of {@link MemberAccessor} that call a Java method
+ * or constructor with plain bytecode.
+ * <p>
+ * A member called {@link #COMPILE_THRESHOLD} times through reflection by
+ * a context with an optimization level of 0 or more gets an accessor, see
+ * {@link MemberBox}. This saves the access checks, argument copies and
+ * exception wrapping of reflective calls. Only public members of public
+ * classes whose parameter types are public as well can be called this
+ * way; everything else stays with reflection.
+ */
+final class MemberAccessorCompiler
+{
+    /** Number of reflective calls of a member before compiling it. */
+    static final int COMPILE_THRESHOLD = 20;
+
+    private static final String ACCESSOR_CLASS =
+        "org.mozilla.javascript.MemberAccessor";
+    private static final String INVOKE_SIGNATURE =
+        "(Ljava/lang/Object;[Ljava/lang/Object;)Ljava/lang/Object;";
+
+    private static int globalSerial;
+
+    // Class.getModule() and Module.isExported(String) on Java 9 and later
+    private static final Method getModule;
+    private static final Method isExported;
+
+    static {
+        Method module = null, exported = null;
+        try {
+            module = Class.class.getMethod("getModule");
+            exported = module.getReturnType().getMethod("isExported",
+                                                        String.class);
+        } catch (Exception e) {
+            // no modules
+            module = null;
+        }
+        getModule = module;
+        isExported = exported;
+    }
+
+    private MemberAccessorCompiler()
+    {
+    }
+
+    /**
+     * Generate the accessor of a method or constructor.
+     *
+     * @return the accessor or null if the member has to be called through
+     * reflection
+     */
+    static MemberAccessor compile(Member member)
+    {
+        Class<?> owner = member.getDeclaringClass();
+        Class<?>[] params;
+        Class<?> returnType;
+        if (member instanceof Method) {
+            Method method = (Method)member;
+            if (owner.isInterface() && Modifier.isStatic(member.getModifiers())) {
+                return null;
+            }
+            params = method.getParameterTypes();
+            returnType = method.getReturnType();
+        } else if (member instanceof Constructor) {
+            if (Modifier.isAbstract(owner.getModifiers())) {
+                return null;
+            }
+            params = ((Constructor<?>)member).getParameterTypes();
+            returnType = owner;
+        } else {
+            return null;
+        }
+        if (!Modifier.isPublic(member.getModifiers()) || !isPublic(owner)) {
+            return null;
+        }
+        for (int i = 0; i != params.length; ++i) {
+            if (!isPublic(params[i])) {
+                return null;
+            }
+        }
+        Class<?>[] types = new Class<?>[params.length + 2];
+        System.arraycopy(params, 0, types, 0, params.length);
+        types[params.length] = owner;
+        types[params.length + 1] = returnType;
+        ClassLoader parent = getParentLoader(types);
+        if (parent == null) {
+            return null;
+        }
+
+        int serial;
+        synchronized (MemberAccessorCompiler.class) {
+            serial = ++globalSerial;
+        }
+        String name = "org.mozilla.javascript.gen.JavaAccessor_" + serial;
+        try {
+            byte[] classBytes = generate(name, member, params, returnType);
+            GeneratedClassLoader loader =
+                SecurityController.createLoader(parent, null);
+            Class<?> cl = loader.defineClass(name, classBytes);
+            loader.linkClass(cl);
+            return (MemberAccessor)cl.getDeclaredConstructor().newInstance();
+        } catch (RuntimeException e) {
+        } catch (LinkageError e) {
+        } catch (InstantiationException e) {
+        } catch (IllegalAccessException e) {
+        } catch (InvocationTargetException e) {
+        } catch (NoSuchMethodException e) {
+        }
+        return null;
+    }
+
+    /**
+     * Return true if generated code may refer to the class.
+     */
+    private static boolean isPublic(Class<?> c)
+    {
+        while (c.isArray()) {
+            c = c.getComponentType();
+        }
+        if (c.isPrimitive()) {
+            return true;
+        }
+        for (Class<?> k = c; k != null; k = k.getDeclaringClass()) {
+            if (!Modifier.isPublic(k.getModifiers())) {
+                return false;
+            }
+        }
+        if (getModule != null) {
+            String packageName = c.getName();
+            int lastDot = packageName.lastIndexOf('.');
+            packageName = lastDot < 0 ? "" : packageName.substring(0, lastDot);
+            try {
+                Object module = getModule.invoke(c);
+                return Boolean.TRUE.equals(isExported.invoke(module,
+                                                             packageName));
+            } catch (Exception e) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Return a class loader that sees MemberAccessor and the given classes
+     * as they are, or null if there is none.
+     */
+    private static ClassLoader getParentLoader(Class<?>[] types)
+    {
+        ClassLoader rhinoLoader = MemberAccessorCompiler.class.getClassLoader();
+        ClassLoader ownerLoader = types[types.length - 2].getClassLoader();
+        if (rhinoLoader != null && isVisible(rhinoLoader, types)) {
+            return rhinoLoader;
+        }
+        if (ownerLoader != null && ownerLoader != rhinoLoader
+            && isVisible(ownerLoader, types)
+            && isVisible(ownerLoader, new Class<?>[] { MemberAccessor.class }))
+        {
+            return ownerLoader;
+        }
+        return null;
+    }
+
+    private static boolean isVisible(ClassLoader loader, Class<?>[] types)
+    {
+        for (int i = 0; i != types.length; ++i) {
+            Class<?> c = types[i];
+            if (c.isPrimitive()) {
+                continue;
+            }
+            try {
+                if (Class.forName(c.getName(), false, loader) != c) {
+                    return false;
+                }
+            } catch (ClassNotFoundException e) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] generate(String name, Member member,
+                                   Class<?>[] params, Class<?> returnType)
+    {
+        ClassFileWriter cfw = new ClassFileWriter(name, ACCESSOR_CLASS, null);
+
+        cfw.startMethod("<init>", "()V", ClassFileWriter.ACC_PUBLIC);
+        cfw.addALoad(0);
+        cfw.addInvoke(ByteCode.INVOKESPECIAL, ACCESSOR_CLASS, "<init>", "()V");
+        cfw.add(ByteCode.RETURN);
+        cfw.stopMethod((short)1);
+
+        cfw.startMethod("invoke", INVOKE_SIGNATURE, ClassFileWriter.ACC_PUBLIC);
+        Class<?> owner = member.getDeclaringClass();
+        String ownerName = owner.getName();
+        StringBuilder signature = new StringBuilder("(");
+        boolean isStatic = Modifier.isStatic(member.getModifiers());
+        boolean isCtor = member instanceof Constructor;
+        if (isCtor) {
+            cfw.add(ByteCode.NEW, ownerName);
+            cfw.add(ByteCode.DUP);
+        } else if (!isStatic) {
+            cfw.addALoad(1);
+            cfw.add(ByteCode.CHECKCAST, ownerName);
+        }
+        for (int i = 0; i != params.length; ++i) {
+            cfw.addALoad(2);
+            cfw.addPush(i);
+            cfw.add(ByteCode.AALOAD);
+            unbox(cfw, params[i]);
+            signature.append(descriptor(params[i]));
+        }
+        signature.append(')');
+        if (isCtor) {
+            signature.append('V');
+            cfw.addInvoke(ByteCode.INVOKESPECIAL, ownerName, "<init>",
+                          signature.toString());
+        } else {
+            signature.append(descriptor(returnType));
+            int opcode = isStatic ? ByteCode.INVOKESTATIC
+                       : owner.isInterface() ? ByteCode.INVOKEINTERFACE
+                       : ByteCode.INVOKEVIRTUAL;
+            cfw.addInvoke(opcode, ownerName, member.getName(),
+                          signature.toString());
+            box(cfw, returnType);
+        }
+        cfw.add(ByteCode.ARETURN);
+        cfw.stopMethod((short)3);
+        return cfw.toByteArray();
+    }
+
+    /**
+     * Convert the argument on the stack to the parameter type.
+     */
+    private static void unbox(ClassFileWriter cfw, Class<?> type)
+    {
+        if (!type.isPrimitive()) {
+            if (type != ScriptRuntime.ObjectClass) {
+                cfw.add(ByteCode.CHECKCAST, type.getName());
+            }
+        } else if (type == Boolean.TYPE) {
+            cfw.add(ByteCode.CHECKCAST, "java/lang/Boolean");
+            cfw.addInvoke(ByteCode.INVOKEVIRTUAL, "java/lang/Boolean",
+                          "booleanValue", "()Z");
+        } else if (type == Character.TYPE) {
+            cfw.add(ByteCode.CHECKCAST, "java/lang/Character");
+            cfw.addInvoke(ByteCode.INVOKEVIRTUAL, "java/lang/Character",
+                          "charValue", "()C");
+        } else {
+            cfw.add(ByteCode.CHECKCAST, "java/lang/Number");
+            cfw.addInvoke(ByteCode.INVOKEVIRTUAL, "java/lang/Number",
+                          type.getName() + "Value", "()" + descriptor(type));
+        }
+    }
+
+    /**
+     * Convert the result on the stack to an object.
+     */
+    private static void box(ClassFileWriter cfw, Class<?> type)
+    {
+        if (type == Void.TYPE) {
+            cfw.add(ByteCode.ACONST_NULL);
+        } else if (type.isPrimitive()) {
+            String wrapper;
+            if (type == Boolean.TYPE) {
+                wrapper = "java/lang/Boolean";
+            } else if (type == Character.TYPE) {
+                wrapper = "java/lang/Character";
+            } else if (type == Integer.TYPE) {
+                wrapper = "java/lang/Integer";
+            } else if (type == Long.TYPE) {
+                wrapper = "java/lang/Long";
+            } else if (type == Double.TYPE) {
+                wrapper = "java/lang/Double";
+            } else if (type == Float.TYPE) {
+                wrapper = "java/lang/Float";
+            } else if (type == Short.TYPE) {
+                wrapper = "java/lang/Short";
+            } else {
+                wrapper = "java/lang/Byte";
+            }
+            cfw.addInvoke(ByteCode.INVOKESTATIC, wrapper, "valueOf",
+                          "(" + descriptor(type) + ")L" + wrapper + ";");
+        }
+    }
+
+    private static String descriptor(Class<?> type)
+    {
+        if (type.isPrimitive()) {
+            if (type == Boolean.TYPE) return "Z";
+            if (type == Character.TYPE) return "C";
+            if (type == Byte.TYPE) return "B";
+            if (type == Short.TYPE) return "S";
+            if (type == Integer.TYPE) return "I";
+            if (type == Long.TYPE) return "J";
+            if (type == Float.TYPE) return "F";
+            if (type == Double.TYPE) return "D";
+            return "V";
+        }
+        if (type.isArray()) {
+            return type.getName().replace('.', '/');
+        }
+        return ClassFileWriter.classNameToSignature(type.getName());
+    }
+}
@@ -61,6 +61,10 @@ final class MemberBox implements Serializable
     transient Object delegateTo;
     transient boolean vararg;
 
+    // reflective calls so far, or -1 if the member has no accessor
+    private transient int invokeCount;
+    private transient volatile MemberAccessor accessor;
+
 
     MemberBox(Method method)
     {
@@ -155,6 +159,10 @@ final class MemberBox implements Serializable
 
     Object invoke(Object target, Object[] args)
     {
+        MemberAccessor accessor = getAccessor();
+        if (accessor != null) {
+            return invokeAccessor(accessor, target, args);
+        }
         Method method = method();
         try {
             try {
@@ -188,6 +196,10 @@ final class MemberBox implements Serializable
 
     Object newInstance(Object[] args)
     {
+        MemberAccessor accessor = getAccessor();
+        if (accessor != null) {
+            return invokeAccessor(accessor, null, args);
+        }
         Constructor<?> ctor = ctor();
         try {
             try {
@@ -203,6 +215,50 @@ final class MemberBox implements Serializable
         }
     }
 
+    /**
+     * Return the generated accessor of the member once it has been called
+     * often enough, or null to call it through reflection.
+     */
+    private MemberAccessor getAccessor()
+    {
+        MemberAccessor accessor = this.accessor;
+        if (accessor != null || invokeCount < 0) {
+            return accessor;
+        }
+        if (++invokeCount < MemberAccessorCompiler.COMPILE_THRESHOLD) {
+            return null;
+        }
+        Context cx = Context.getCurrentContext();
+        if (cx == null || cx.getOptimizationLevel() < 0) {
+            invokeCount = 0;
+            return null;
+        }
+        synchronized (this) {
+            if (this.accessor == null && invokeCount >= 0) {
+                accessor = MemberAccessorCompiler.compile(memberObject);
+                if (accessor == null) {
+                    invokeCount = -1;
+                } else {
+                    this.accessor = accessor;
+                }
+            }
+            return this.accessor;
+        }
+    }
+
+    private static Object invokeAccessor(MemberAccessor accessor,
+                                         Object target, Object[] args)
+    {
+        try {
+            return accessor.invoke(target, args);
+        } catch (ContinuationPending e) {
+            // Must allow ContinuationPending exceptions to propagate unhindered
+            throw e;
+        } catch (Throwable e) {
+            throw Context.throwAsScriptRuntimeEx(e);
+        }
+    }
+
     private static Method searchAccessibleMethod(Method method, Class<?>[] params)
     {
         int modifiers = method.getModifiers();
@@ -41,6 +41,7 @@
 package org.mozilla.javascript;
 
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Comparator;
 import java.util.Iterator;
@@ -95,8 +96,8 @@ public class NativeArray extends IdScriptableObject implements List
             int intLength = (int) lengthArg;
             if (intLength < DEFAULT_INITIAL_CAPACITY)
                 intLength = DEFAULT_INITIAL_CAPACITY;
-            dense = new Object[intLength];
-            Arrays.fill(dense, Scriptable.NOT_FOUND);
+            denseDoubles = new double[intLength];
+            Arrays.fill(denseDoubles, HOLE);
         }
         length = lengthArg;
     }
@@ -104,7 +105,12 @@ public class NativeArray extends IdScriptableObject implements List
     public NativeArray(Object[] array)
     {
         denseOnly = true;
-        dense = array;
+        denseDoubles = toDoubleElements(array);
+        if (denseDoubles == null) {
+            dense = array;
+        } else {
+            denseIntegers = findIntegers(array);
+        }
         length = array.length;
     }
 
@@ -356,21 +362,331 @@ public class NativeArray extends IdScriptableObject implements List
     {
         if (!denseOnly && isGetterOrSetter(null, index, false))
             return super.get(index, start);
-        if (dense != null && 0 <= index && index < dense.length)
-            return dense[index];
+        if (dense != null) {
+            if (0 <= index && index < dense.length)
+                return dense[index];
+        } else if (denseDoubles != null) {
+            if (0 <= index && index < denseDoubles.length) {
+                double d = denseDoubles[index];
+                return isHole(d) ? NOT_FOUND : wrapElement(index, d);
+            }
+        }
         return super.get(index, start);
     }
 
+    /**
+     * Return the number stored at the given index without boxing it. Only
+     * valid if {@link #isDoubleElement(int)} returned true for the index.
+     */
+    final double getDoubleElement(int index)
+    {
+        return denseDoubles[index];
+    }
+
+    /**
+     * Return true if the element at the given index is present and stored
+     * unboxed so {@link #getDoubleElement(int)} can be used.
+     */
+    final boolean isDoubleElement(int index)
+    {
+        double[] doubles = denseDoubles;
+        return doubles != null && 0 <= index && index < doubles.length
+            && !isHole(doubles[index])
+            && (denseOnly || !isGetterOrSetter(null, index, false));
+    }
+
     @Override
     public boolean has(int index, Scriptable start)
     {
         if (!denseOnly && isGetterOrSetter(null, index, false))
             return super.has(index, start);
-        if (dense != null && 0 <= index && index < dense.length)
-            return dense[index] != NOT_FOUND;
+        if (dense != null) {
+            if (0 <= index && index < dense.length)
+                return dense[index] != NOT_FOUND;
+        } else if (denseDoubles != null) {
+            if (0 <= index && index < denseDoubles.length)
+                return !isHole(denseDoubles[index]);
+        }
         return super.has(index, start);
     }
 
+    private static boolean isHole(double d)
+    {
+        return d != d && Double.doubleToRawLongBits(d) == HOLE_BITS;
+    }
+
+    /**
+     * Return true if the value can be kept in denseDoubles. Only the
+     * wrappers used for JavaScript numbers qualify, and Integer elements
+     * are recorded in denseIntegers so values stored from Java keep their
+     * class.
+     */
+    private static boolean isDoubleValue(Object value)
+    {
+        return value instanceof Double || value instanceof Integer;
+    }
+
+    /**
+     * Box a number read from denseDoubles as the class it was stored with.
+     */
+    private Object wrapElement(int index, double d)
+    {
+        if (denseIntegers != null && denseIntegers.get(index))
+            return Integer.valueOf((int) d);
+        return ScriptRuntime.wrapNumber(d);
+    }
+
+    /**
+     * Record whether the element at the given index of denseDoubles was
+     * stored as an Integer.
+     */
+    private void setIntegerElement(int index, boolean isInteger)
+    {
+        if (isInteger) {
+            if (denseIntegers == null)
+                denseIntegers = new BitSet();
+            denseIntegers.set(index);
+        } else if (denseIntegers != null) {
+            denseIntegers.clear(index);
+        }
+    }
+
+    /**
+     * Return the indexes of the Integer elements, or null if there are
+     * none.
+     */
+    private static BitSet findIntegers(Object[] array)
+    {
+        BitSet integers = null;
+        for (int i = 0; i != array.length; ++i) {
+            if (array[i] instanceof Integer) {
+                if (integers == null)
+                    integers = new BitSet();
+                integers.set(i);
+            }
+        }
+        return integers;
+    }
+
+    private static double toDoubleValue(Object value)
+    {
+        double d = ((Number) value).doubleValue();
+        // keep the hole bit pattern out of the array
+        return d == d ? d : ScriptRuntime.NaN;
+    }
+
+    /**
+     * Return the elements as denseDoubles if all of them are numbers or
+     * missing, otherwise null.
+     */
+    private static double[] toDoubleElements(Object[] array)
+    {
+        if (array.length == 0) {
+            return null;
+        }
+        double[] doubles = new double[array.length];
+        for (int i = 0; i != array.length; ++i) {
+            Object value = array[i];
+            if (value == NOT_FOUND) {
+                doubles[i] = HOLE;
+            } else if (isDoubleValue(value)) {
+                doubles[i] = toDoubleValue(value);
+            } else {
+                return null;
+            }
+        }
+        return doubles;
+    }
+
+    /**
+     * Switch from denseDoubles to dense once an element that is not a
+     * number is stored.
+     */
+    private void convertToObjectElements()
+    {
+        double[] doubles = denseDoubles;
+        Object[] values = new Object[doubles.length];
+        for (int i = 0; i != doubles.length; ++i) {
+            double d = doubles[i];
+            values[i] = isHole(d) ? NOT_FOUND : wrapElement(i, d);
+        }
+        dense = values;
+        denseDoubles = null;
+        denseIntegers = null;
+    }
+
+    /**
+     * Return a copy of the dense storage of this array trimmed to its
+     * length, either an Object[] or, if no element is an Integer, a
+     * double[], or null if the array is not dense. Missing elements keep
+     * their marker. Used by {@link ScopeSnapshot}.
+     */
+    Object getDenseStorage()
+    {
+        if (!denseOnly) {
+            return null;
+        }
+        int n = (int)length;
+        if (dense != null || (denseIntegers != null
+                              && denseIntegers.nextSetBit(0) >= 0))
+        {
+            Object[] copy = new Object[n];
+            for (int i = 0; i != n; ++i) {
+                copy[i] = getDense(i);
+            }
+            return copy;
+        }
+        double[] copy = new double[n];
+        System.arraycopy(denseDoubles, 0, copy, 0, n);
+        return copy;
+    }
+
+    /**
+     * Replace the elements of this array with storage in the format
+     * returned by {@link #getDenseStorage()}, or drop the dense storage if
+     * it is null.
+     */
+    void setStorage(Object storage, long length)
+    {
+        denseIntegers = null;
+        if (storage instanceof double[]) {
+            dense = null;
+            denseDoubles = (double[])storage;
+            denseOnly = true;
+        } else if (storage != null) {
+            dense = (Object[])storage;
+            denseDoubles = null;
+            denseOnly = true;
+        } else {
+            dense = null;
+            denseDoubles = null;
+            denseOnly = false;
+        }
+        this.length = length;
+    }
+
+    /**
+     * Return the capacity of the dense storage, or -1 if there is none.
+     */
+    private int denseCapacity()
+    {
+        if (dense != null)
+            return dense.length;
+        if (denseDoubles != null)
+            return denseDoubles.length;
+        return -1;
+    }
+
+    private Object getDense(int index)
+    {
+        if (dense != null)
+            return dense[index];
+        double d = denseDoubles[index];
+        return isHole(d) ? NOT_FOUND : wrapElement(index, d);
+    }
+
+    /**
+     * Store a value in dense storage which must have room for it.
+     */
+    private void setDense(int index, Object value)
+    {
+        if (dense == null) {
+            if (value != NOT_FOUND && !isDoubleValue(value)) {
+                convertToObjectElements();
+            } else {
+                denseDoubles[index] = (value == NOT_FOUND)
+                                      ? HOLE : toDoubleValue(value);
+                setIntegerElement(index, value instanceof Integer);
+                return;
+            }
+        }
+        dense[index] = value;
+    }
+
+    /**
+     * Clear the dense elements from start to end, exclusive.
+     */
+    private void fillHoles(int start, int end)
+    {
+        if (dense != null) {
+            Arrays.fill(dense, start, end, NOT_FOUND);
+        } else {
+            Arrays.fill(denseDoubles, start, end, HOLE);
+            if (denseIntegers != null)
+                denseIntegers.clear(start, end);
+        }
+    }
+
+    /**
+     * Copy dense elements within this array like System.arraycopy.
+     */
+    private void moveDense(int from, int to, int count)
+    {
+        if (dense != null) {
+            System.arraycopy(dense, from, dense, to, count);
+        } else {
+            System.arraycopy(denseDoubles, from, denseDoubles, to, count);
+            BitSet integers = denseIntegers;
+            if (integers != null) {
+                BitSet moved = integers.get(from, from + count);
+                integers.clear(to, to + count);
+                for (int i = moved.nextSetBit(0); i >= 0;
+                     i = moved.nextSetBit(i + 1))
+                {
+                    integers.set(to + i);
+                }
+            }
+        }
+    }
+
+    /**
+     * Return true if all values can be stored in denseDoubles.
+     */
+    private static boolean areDoubleValues(Object[] values, int start,
+                                           int count)
+    {
+        for (int i = start; i != start + count; ++i) {
+            if (!isDoubleValue(values[i]))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Copy the dense elements of other to this array starting at offset.
+     * This array must have enough capacity.
+     */
+    private void copyDenseFrom(NativeArray other, int offset)
+    {
+        int count = (int) other.length;
+        if (other.denseDoubles != null) {
+            if (dense == null) {
+                System.arraycopy(other.denseDoubles, 0, denseDoubles, offset,
+                                 count);
+                if (denseIntegers != null)
+                    denseIntegers.clear(offset, offset + count);
+                BitSet integers = other.denseIntegers;
+                if (integers != null) {
+                    for (int i = integers.nextSetBit(0); 0 <= i && i < count;
+                         i = integers.nextSetBit(i + 1))
+                    {
+                        setIntegerElement(offset + i, true);
+                    }
+                }
+                return;
+            }
+        } else if (dense == null) {
+            convertToObjectElements();
+        }
+        if (other.dense != null) {
+            System.arraycopy(other.dense, 0, dense, offset, count);
+        } else {
+            for (int i = 0; i != count; ++i) {
+                dense[offset + i] = other.getDense(i);
+            }
+        }
+    }
+
     // if id is an array index (ECMA 15.4.0), return the number,
     // otherwise return -1L
     private static long toArrayIndex(String id)
@@ -405,17 +721,25 @@ public class NativeArray extends IdScriptableObject implements List
 
     private boolean ensureCapacity(int capacity)
     {
-        if (capacity > dense.length) {
+        int oldCapacity = denseCapacity();
+        if (capacity > oldCapacity) {
             if (capacity > MAX_PRE_GROW_SIZE) {
                 denseOnly = false;
                 return false;
             }
-            capacity = Math.max(capacity, (int)(dense.length * GROW_FACTOR));
-            Object[] newDense = new Object[capacity];
-            System.arraycopy(dense, 0, newDense, 0, dense.length);
-            Arrays.fill(newDense, dense.length, newDense.length,
-                        Scriptable.NOT_FOUND);
-            dense = newDense;
+            capacity = Math.max(capacity, (int)(oldCapacity * GROW_FACTOR));
+            if (dense != null) {
+                Object[] newDense = new Object[capacity];
+                System.arraycopy(dense, 0, newDense, 0, oldCapacity);
+                Arrays.fill(newDense, oldCapacity, capacity,
+                            Scriptable.NOT_FOUND);
+                dense = newDense;
+            } else {
+                double[] newDoubles = new double[capacity];
+                System.arraycopy(denseDoubles, 0, newDoubles, 0, oldCapacity);
+                Arrays.fill(newDoubles, oldCapacity, capacity, HOLE);
+                denseDoubles = newDoubles;
+            }
         }
         return true;
     }
@@ -423,18 +747,19 @@ public class NativeArray extends IdScriptableObject implements List
     @Override
     public void put(int index, Scriptable start, Object value)
     {
-        if (start == this && !isSealed() && dense != null && 0 <= index &&
+        int capacity = denseCapacity();
+        if (start == this && !isSealed() && capacity >= 0 && 0 <= index &&
             (denseOnly || !isGetterOrSetter(null, index, true)))
         {
-            if (index < dense.length) {
-                dense[index] = value;
+            if (index < capacity) {
+                setDense(index, value);
                 if (this.length <= index)
                     this.length = (long)index + 1;
                 return;
-            } else if (denseOnly && index < dense.length * GROW_FACTOR &&
+            } else if (denseOnly && index < capacity * GROW_FACTOR &&
                        ensureCapacity(index+1))
             {
-                dense[index] = value;
+                setDense(index, value);
                 this.length = (long)index + 1;
                 return;
             } else {
@@ -451,13 +776,50 @@ public class NativeArray extends IdScriptableObject implements List
         }
     }
 
+    /**
+     * Store a number at the given index like
+     * {@link ScriptableObject#putProperty(Scriptable, int, Object)} but
+     * without boxing it.
+     *
+     * @return false if the caller has to store the boxed number instead
+     */
+    final boolean putDoubleElement(int index, double value)
+    {
+        double[] doubles = denseDoubles;
+        if (doubles == null || !denseOnly || index < 0 || isSealed()) {
+            return false;
+        }
+        if (index >= doubles.length || isHole(doubles[index])) {
+            // a new element, which putProperty() may have to store
+            // through a prototype
+            Scriptable proto = getPrototype();
+            if (proto != null && ScriptableObject.hasProperty(proto, index)) {
+                return false;
+            }
+            if (index >= doubles.length) {
+                if (index >= doubles.length * GROW_FACTOR
+                    || !ensureCapacity(index + 1))
+                {
+                    return false;
+                }
+                doubles = denseDoubles;
+            }
+        }
+        doubles[index] = (value == value) ? value : ScriptRuntime.NaN;
+        setIntegerElement(index, false);
+        if (this.length <= index)
+            this.length = (long)index + 1;
+        return true;
+    }
+
     @Override
     public void delete(int index)
     {
-        if (dense != null && 0 <= index && index < dense.length &&
+        int capacity = denseCapacity();
+        if (capacity >= 0 && 0 <= index && index < capacity &&
             !isSealed() && (denseOnly || !isGetterOrSetter(null, index, true)))
         {
-            dense[index] = NOT_FOUND;
+            setDense(index, NOT_FOUND);
         } else {
             super.delete(index);
         }
@@ -467,8 +829,8 @@ public class NativeArray extends IdScriptableObject implements List
     public Object[] getIds()
     {
         Object[] superIds = super.getIds();
-        if (dense == null) { return superIds; }
-        int N = dense.length;
+        int N = denseCapacity();
+        if (N < 0) { return superIds; }
         long currentLength = length;
         if (N > currentLength) {
             N = (int)currentLength;
@@ -480,7 +842,8 @@ public class NativeArray extends IdScriptableObject implements List
         int presentCount = 0;
         for (int i = 0; i != N; ++i) {
             // Replace existing elements by their indexes
-            if (dense[i] != NOT_FOUND) {
+            if (dense != null ? dense[i] != NOT_FOUND
+                              : !isHole(denseDoubles[i])) {
                 ids[presentCount] = Integer.valueOf(i);
                 ++presentCount;
             }
@@ -541,10 +904,10 @@ public class NativeArray extends IdScriptableObject implements List
 
     @Override
     protected ScriptableObject getOwnPropertyDescriptor(Context cx, Object id) {
-      if (dense != null) {
+      if (dense != null || denseDoubles != null) {
         int index = toIndex(id);
         if (0 <= index && index < length) {
-          Object value = dense[index];
+          Object value = getDense(index);
           return defaultIndexPropertyDescriptor(value);
         }
       }
@@ -553,6 +916,9 @@ public class NativeArray extends IdScriptableObject implements List
 
     @Override
     public void defineOwnProperty(Context cx, Object id, ScriptableObject desc) {
+      if (denseDoubles != null) {
+        convertToObjectElements();
+      }
       if (dense != null) {
         Object[] values = dense;
         dense = null;
@@ -651,7 +1017,7 @@ public class NativeArray extends IdScriptableObject implements List
         if (denseOnly) {
             if (longVal < length) {
                 // downcast okay because denseOnly
-                Arrays.fill(dense, (int) longVal, dense.length, NOT_FOUND);
+                fillHoles((int) longVal, denseCapacity());
                 length = longVal;
                 return;
             } else if (longVal < MAX_PRE_GROW_SIZE &&
@@ -810,8 +1176,8 @@ public class NativeArray extends IdScriptableObject implements List
                     if (toSource) {
                         result.append(ScriptRuntime.uneval(cx, scope, elem));
 
-                    } else if (elem instanceof String) {
-                        String s = (String)elem;
+                    } else if (elem instanceof CharSequence) {
+                        String s = elem.toString();
                         if (toSource) {
                             result.append('\"');
                             result.append(ScriptRuntime.escapeString(s));
@@ -869,6 +1235,20 @@ public class NativeArray extends IdScriptableObject implements List
                            : ScriptRuntime.toString(args[0]);
         if (thisObj instanceof NativeArray) {
             NativeArray na = (NativeArray) thisObj;
+            if (na.denseOnly && na.denseDoubles != null) {
+                StringBuilder sb = new StringBuilder();
+                double[] doubles = na.denseDoubles;
+                for (int i = 0; i < length; i++) {
+                    if (i != 0) {
+                        sb.append(separator);
+                    }
+                    if (i < doubles.length && !isHole(doubles[i])) {
+                        sb.append(ScriptRuntime.numberToString(doubles[i],
+                                                               10));
+                    }
+                }
+                return sb.toString();
+            }
             if (na.denseOnly) {
                 StringBuilder sb = new StringBuilder();
                 for (int i = 0; i < length; i++) {
@@ -923,6 +1303,21 @@ public class NativeArray extends IdScriptableObject implements List
     {
         if (thisObj instanceof NativeArray) {
             NativeArray na = (NativeArray) thisObj;
+            if (na.denseOnly && na.denseDoubles != null) {
+                double[] doubles = na.denseDoubles;
+                BitSet integers = na.denseIntegers;
+                for (int i=0, j=((int)na.length)-1; i < j; i++,j--) {
+                    double temp = doubles[i];
+                    doubles[i] = doubles[j];
+                    doubles[j] = temp;
+                    if (integers != null) {
+                        boolean isInteger = integers.get(i);
+                        integers.set(i, integers.get(j));
+                        integers.set(j, isInteger);
+                    }
+                }
+                return thisObj;
+            }
             if (na.denseOnly) {
                 for (int i=0, j=((int)na.length)-1; i < j; i++,j--) {
                     Object temp = na.dense[i];
@@ -1035,7 +1430,7 @@ public class NativeArray extends IdScriptableObject implements List
                 na.ensureCapacity((int) na.length + args.length))
             {
                 for (int i = 0; i < args.length; i++) {
-                    na.dense[(int)na.length++] = args[i];
+                    na.setDense((int)na.length++, args[i]);
                 }
                 return ScriptRuntime.wrapNumber(na.length);
             }
@@ -1070,8 +1465,8 @@ public class NativeArray extends IdScriptableObject implements List
             NativeArray na = (NativeArray) thisObj;
             if (na.denseOnly && na.length > 0) {
                 na.length--;
-                result = na.dense[(int)na.length];
-                na.dense[(int)na.length] = NOT_FOUND;
+                result = na.getDense((int)na.length);
+                na.setDense((int)na.length, NOT_FOUND);
                 return result;
             }
         }
@@ -1101,9 +1496,9 @@ public class NativeArray extends IdScriptableObject implements List
             NativeArray na = (NativeArray) thisObj;
             if (na.denseOnly && na.length > 0) {
                 na.length--;
-                Object result = na.dense[0];
-                System.arraycopy(na.dense, 1, na.dense, 0, (int)na.length);
-                na.dense[(int)na.length] = NOT_FOUND;
+                Object result = na.getDense(0);
+                na.moveDense(1, 0, (int)na.length);
+                na.setDense((int)na.length, NOT_FOUND);
                 return result;
             }
         }
@@ -1143,10 +1538,14 @@ public class NativeArray extends IdScriptableObject implements List
             if (na.denseOnly &&
                 na.ensureCapacity((int)na.length + args.length))
             {
-                System.arraycopy(na.dense, 0, na.dense, args.length,
-                                 (int) na.length);
+                if (na.denseDoubles != null
+                    && !areDoubleValues(args, 0, args.length))
+                {
+                    na.convertToObjectElements();
+                }
+                na.moveDense(0, args.length, (int) na.length);
                 for (int i = 0; i < args.length; i++) {
-                    na.dense[i] = args[i];
+                    na.setDense(i, args[i]);
                 }
                 na.length += args.length;
                 return ScriptRuntime.wrapNumber(na.length);
@@ -1237,7 +1636,9 @@ public class NativeArray extends IdScriptableObject implements List
             	if (denseMode) {
                     int intLen = (int) (end - begin);
                     Object[] copy = new Object[intLen];
-                    System.arraycopy(na.dense, (int) begin, copy, 0, intLen);
+                    for (int i = 0; i != intLen; ++i) {
+                        copy[i] = na.getDense((int) begin + i);
+                    }
                     result = cx.newArray(scope, copy);
                 } else {
                     Scriptable resultArray = cx.newArray(scope, 0);
@@ -1262,14 +1663,16 @@ public class NativeArray extends IdScriptableObject implements List
         if (denseMode && length + delta < Integer.MAX_VALUE &&
             na.ensureCapacity((int) (length + delta)))
         {
-            System.arraycopy(na.dense, (int) end, na.dense,
-                             (int) (begin + argc), (int) (length - end));
-            if (argc > 0) {
-                System.arraycopy(args, 2, na.dense, (int) begin, argc);
+            if (na.denseDoubles != null && !areDoubleValues(args, 2, argc)) {
+                na.convertToObjectElements();
+            }
+            na.moveDense((int) end, (int) (begin + argc),
+                         (int) (length - end));
+            for (int i = 0; i < argc; i++) {
+                na.setDense((int) begin + i, args[2 + i]);
             }
             if (delta < 0) {
-                Arrays.fill(na.dense, (int) (length + delta), (int) length,
-                            NOT_FOUND);
+                na.fillHoles((int) (length + delta), (int) length);
             }
             na.length = length + delta;
             return result;
@@ -1327,18 +1730,15 @@ public class NativeArray extends IdScriptableObject implements List
                     }
                 }
                 if (canUseDense && denseResult.ensureCapacity(length)) {
-                    System.arraycopy(denseThis.dense, 0, denseResult.dense,
-                                     0, (int) denseThis.length);
+                    denseResult.copyDenseFrom(denseThis, 0);
                     int cursor = (int) denseThis.length;
                     for (int i = 0; i < args.length && canUseDense; i++) {
                         if (args[i] instanceof NativeArray) {
                             NativeArray arg = (NativeArray) args[i];
-                            System.arraycopy(arg.dense, 0,
-                                    denseResult.dense, cursor,
-                                    (int)arg.length);
+                            denseResult.copyDenseFrom(arg, cursor);
                             cursor += (int)arg.length;
                         } else {
-                            denseResult.dense[cursor++] = args[i];
+                            denseResult.setDense(cursor++, args[i]);
                         }
                     }
                     denseResult.length = length;
@@ -1491,6 +1891,28 @@ public class NativeArray extends IdScriptableObject implements List
         }
         if (thisObj instanceof NativeArray) {
             NativeArray na = (NativeArray) thisObj;
+            if (na.denseOnly && na.denseDoubles != null) {
+                if (!(compareTo instanceof Number)) {
+                    return NEGATIVE_ONE;
+                }
+                // NaN is never found, as with shallowEq
+                double d = ((Number) compareTo).doubleValue();
+                double[] doubles = na.denseDoubles;
+                if (isLast) {
+                  for (int i=(int)start; i >= 0; i--) {
+                      if (doubles[i] == d) {
+                          return Long.valueOf(i);
+                      }
+                  }
+                } else {
+                  for (int i=(int)start; i < length; i++) {
+                      if (doubles[i] == d) {
+                          return Long.valueOf(i);
+                      }
+                  }
+                }
+                return NEGATIVE_ONE;
+            }
             if (na.denseOnly) {
                 if (isLast) {
                   for (int i=(int)start; i >= 0; i--) {
@@ -1963,6 +2385,29 @@ public class NativeArray extends IdScriptableObject implements List
      */
     private Object[] dense;
 
+    /**
+     * Fast storage for dense arrays that only hold numbers, used instead of
+     * <code>dense</code> until another value is stored. At most one of the
+     * two is not null.
+     */
+    private double[] denseDoubles;
+
+    /**
+     * Indexes of the elements of <code>denseDoubles</code> that were stored
+     * as Integer, or null if there were none, so the element is read back
+     * with the class it was stored with as the {@link java.util.List}
+     * methods and callers from Java expect.
+     */
+    private BitSet denseIntegers;
+
+    /**
+     * NaN bit pattern that marks missing elements in
+     * <code>denseDoubles</code>. Stored NaN values are always replaced by
+     * {@link ScriptRuntime#NaN}.
+     */
+    private static final long HOLE_BITS = 0x7ff8000000000badL;
+    private static final double HOLE = Double.longBitsToDouble(HOLE_BITS);
+
     /**
      * True if all numeric properties are stored in <code>dense</code>.
      */
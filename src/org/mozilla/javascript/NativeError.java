@@ -100,7 +100,7 @@ final class NativeError extends IdScriptableObject
     {
         // According to spec, Error.prototype.toString() may return undefined. 
         Object toString =  js_toString(this);
-        return toString instanceof String ? (String) toString : super.toString();
+        return toString instanceof CharSequence ? toString.toString() : super.toString();
     }
 
     @Override
@@ -42,9 +42,9 @@ package org.mozilla.javascript;
 
 import org.mozilla.javascript.json.JsonParser;
 
+import java.io.IOException;
+import java.io.Writer;
 import java.util.Stack;
-import java.util.Collection;
-import java.util.Iterator;
 import java.util.Arrays;
 import java.util.List;
 import java.util.LinkedList;
@@ -54,7 +54,7 @@ import java.util.LinkedList;
  * See ECMA 15.12.
  * @author Matthew Crumley, Raphael Speyer
  */
-final class NativeJSON extends IdScriptableObject
+public final class NativeJSON extends IdScriptableObject
 {
     static final long serialVersionUID = -4567599697595654984L;
 
@@ -62,6 +62,11 @@ final class NativeJSON extends IdScriptableObject
 
     private static final int MAX_STRINGIFY_GAP_LENGTH = 10;
 
+    // chars collected before they are passed on to a writer
+    private static final int FLUSH_SIZE = 8192;
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
     static void init(Scriptable scope, boolean sealed)
     {
         NativeJSON obj = new NativeJSON();
@@ -230,10 +235,93 @@ final class NativeJSON extends IdScriptableObject
 
         Context cx;
         Scriptable scope;
+
+        // the text produced so far, or since the last flush to the writer
+        StringBuilder out = new StringBuilder();
+        Writer writer;
+
+        void flushIfFull()
+        {
+            if (writer != null && out.length() >= FLUSH_SIZE) {
+                flush();
+            }
+        }
+
+        void flush()
+        {
+            if (chunk == null) {
+                chunk = new char[FLUSH_SIZE];
+            }
+            try {
+                int length = out.length();
+                for (int i = 0; i < length; i += FLUSH_SIZE) {
+                    int n = Math.min(FLUSH_SIZE, length - i);
+                    out.getChars(i, i + n, chunk, 0);
+                    writer.write(chunk, 0, n);
+                }
+                out.setLength(0);
+            } catch (IOException e) {
+                throw new WriteException(e);
+            }
+        }
+
+        private char[] chunk;
+    }
+
+    /**
+     * Carries a failure of the writer out of the serialization.
+     */
+    private static class WriteException extends RuntimeException
+    {
+        static final long serialVersionUID = 7226397536813542045L;
+
+        WriteException(IOException cause)
+        {
+            super(cause);
+        }
     }
 
     public static Object stringify(Context cx, Scriptable scope, Object value,
                                    Object replacer, Object space)
+    {
+        StringifyState state = newStringifyState(cx, scope, replacer, space);
+        if (!str("", wrap(scope, value), state)) {
+            return Undefined.instance;
+        }
+        return state.out.toString();
+    }
+
+    /**
+     * Write the JSON text for a value to a writer while it is produced
+     * instead of building it in memory first. The text is the same that
+     * JSON.stringify(value, replacer, space) returns. The writer is not
+     * flushed or closed.
+     *
+     * @return false if JSON.stringify returns undefined for the value, in
+     * which case nothing is written
+     */
+    public static boolean stringify(Context cx, Scriptable scope,
+                                    Object value, Object replacer,
+                                    Object space, Writer writer)
+        throws IOException
+    {
+        StringifyState state = newStringifyState(cx, scope, replacer, space);
+        state.writer = writer;
+        try {
+            if (!str("", wrap(scope, value), state)) {
+                return false;
+            }
+            state.flush();
+        } catch (WriteException e) {
+            throw (IOException) e.getCause();
+        }
+        return true;
+    }
+
+    private static StringifyState newStringifyState(Context cx,
+                                                    Scriptable scope,
+                                                    Object replacer,
+                                                    Object space)
     {
         String indent = "";
         String gap = "";
@@ -250,7 +338,9 @@ final class NativeJSON extends IdScriptableObject
             Object v = replacerArray.get(i, replacerArray);
             if (v instanceof String || v instanceof Number) {
               propertyList.add(v);
-            } else if (v instanceof NativeString || v instanceof NativeNumber) {
+            } else if (v instanceof CharSequence
+                       || v instanceof NativeString
+                       || v instanceof NativeNumber) {
               propertyList.add(ScriptRuntime.toString(v)); 
             }
           }
@@ -267,29 +357,53 @@ final class NativeJSON extends IdScriptableObject
             gapLength = Math.min(MAX_STRINGIFY_GAP_LENGTH, gapLength);
             gap = (gapLength > 0) ? repeat(' ', gapLength) : "";
             space = gapLength;
-        } else if (space instanceof String) {
-            gap = (String) space;
+        } else if (space instanceof CharSequence) {
+            gap = space.toString();
             if (gap.length() > MAX_STRINGIFY_GAP_LENGTH) {
               gap = gap.substring(0, MAX_STRINGIFY_GAP_LENGTH);
             }
         }
 
-        StringifyState state = new StringifyState(cx, scope,
+        return new StringifyState(cx, scope,
             indent,
             gap,
             replacerFunction,
             propertyList,
             space);
+    }
 
+    private static Scriptable wrap(Scriptable scope, Object value)
+    {
         ScriptableObject wrapper = new NativeObject();
         wrapper.setParentScope(scope);
         wrapper.setPrototype(ScriptableObject.getObjectPrototype(scope));
         wrapper.defineProperty("", value, 0);
-        return str("", wrapper, state);
+        return wrapper;
     }
 
-    private static Object str(Object key, Scriptable holder,
-                              StringifyState state)
+    /**
+     * Append the JSON text for the property of holder to the output.
+     *
+     * @return false if the property has no JSON representation
+     */
+    private static boolean str(Object key, Scriptable holder,
+                               StringifyState state)
+    {
+        Object value = resolve(key, holder, state);
+        if (value == Undefined.instance) {
+            return false;
+        }
+        write(value, state);
+        return true;
+    }
+
+    /**
+     * Return the value to serialize for the property of holder after
+     * toJSON and the replacer have been applied, or undefined if the
+     * value has no JSON representation.
+     */
+    private static Object resolve(Object key, Scriptable holder,
+                                  StringifyState state)
     {
         Object value = null;
         if (key instanceof String) {
@@ -320,49 +434,50 @@ final class NativeJSON extends IdScriptableObject
             value = ((NativeBoolean) value).getDefaultValue(ScriptRuntime.BooleanClass);
         }
 
-        if (value == null) return "null";
-        if (value.equals(Boolean.TRUE)) return "true";
-        if (value.equals(Boolean.FALSE)) return "false";
-
-        if (value instanceof String) {
-            return quote((String) value);
+        if (value == null
+            || value instanceof Boolean
+            || value instanceof CharSequence
+            || value instanceof Number
+            || (value instanceof Scriptable && !(value instanceof Callable)))
+        {
+            return value;
         }
+        return Undefined.instance;
+    }
 
-        if (value instanceof Number) {
+    private static void write(Object value, StringifyState state)
+    {
+        StringBuilder out = state.out;
+        if (value == null) {
+            out.append("null");
+        } else if (value instanceof Boolean) {
+            out.append(((Boolean) value).booleanValue() ? "true" : "false");
+        } else if (value instanceof CharSequence) {
+            quote(value.toString(), out);
+        } else if (value instanceof Number) {
             double d = ((Number) value).doubleValue();
             if (d == d && d != Double.POSITIVE_INFINITY &&
                 d != Double.NEGATIVE_INFINITY)
             {
-                return ScriptRuntime.toString(value);
+                if (value instanceof Integer) {
+                    out.append(((Integer) value).intValue());
+                } else if (d == (long) d && Math.abs(d) < 1e18) {
+                    // integral values print the same as a long
+                    out.append((long) d);
+                } else {
+                    out.append(ScriptRuntime.numberToString(d, 10));
+                }
             } else {
-                return "null";
+                out.append("null");
             }
+        } else if (value instanceof NativeArray) {
+            ja((NativeArray) value, state);
+        } else {
+            jo((Scriptable) value, state);
         }
-
-        if (value instanceof Scriptable && !(value instanceof Callable)) {
-            if (value instanceof NativeArray) {
-                return ja((NativeArray) value, state);
-            }
-            return jo((Scriptable) value, state);
-        }
-
-        return Undefined.instance;
-    }
-
-    private static String join(Collection<Object> objs, String delimiter) {
-        if (objs == null || objs.isEmpty()) {
-            return "";
-        }
-        Iterator<Object> iter = objs.iterator();
-        if (!iter.hasNext()) return "";
-        StringBuilder builder = new StringBuilder(iter.next().toString());
-        while (iter.hasNext()) {
-            builder.append(delimiter).append(iter.next().toString());
-        }
-        return builder.toString();
     }
 
-    private static String jo(Scriptable value, StringifyState state) {
+    private static void jo(Scriptable value, StringifyState state) {
         if (state.stack.search(value) != -1) {
             throw ScriptRuntime.typeError0("msg.cyclic.value");
         }
@@ -377,41 +492,40 @@ final class NativeJSON extends IdScriptableObject
             k = value.getIds();
         }
 
-        List<Object> partial = new LinkedList<Object>();
-
+        StringBuilder out = state.out;
+        boolean gap = state.gap.length() > 0;
+        boolean empty = true;
+        out.append('{');
         for (Object p : k) {
-            Object strP = str(p, value, state);
-            if (strP != Undefined.instance) {
-                String member = quote(p.toString()) + ":";
-                if (state.gap.length() > 0) {
-                    member = member + " ";
-                }
-                member = member + strP;
-                partial.add(member);
+            Object v = resolve(p, value, state);
+            if (v == Undefined.instance) {
+                continue;
             }
-        }
-
-        final String finalValue;
-
-        if (partial.isEmpty()) {
-            finalValue = "{}";
-        } else {
-            if (state.gap.length() == 0) {
-                finalValue = '{' + join(partial, ",") + '}';
-            } else {
-                String separator = ",\n" + state.indent;
-                String properties = join(partial, separator);
-                finalValue = "{\n" + state.indent + properties + '\n' +
-                    stepback + '}';
+            if (!empty) {
+                out.append(',');
+            }
+            empty = false;
+            if (gap) {
+                out.append('\n').append(state.indent);
             }
+            quote(p.toString(), out);
+            out.append(':');
+            if (gap) {
+                out.append(' ');
+            }
+            write(v, state);
+            state.flushIfFull();
+        }
+        if (!empty && gap) {
+            out.append('\n').append(stepback);
         }
+        out.append('}');
 
         state.stack.pop();
         state.indent = stepback;
-        return finalValue;
     }
 
-    private static String ja(NativeArray value, StringifyState state) {
+    private static void ja(NativeArray value, StringifyState state) {
         if (state.stack.search(value) != -1) {
             throw ScriptRuntime.typeError0("msg.cyclic.value");
         }
@@ -419,43 +533,44 @@ final class NativeJSON extends IdScriptableObject
 
         String stepback = state.indent;
         state.indent = state.indent + state.gap;
-        List<Object> partial = new LinkedList<Object>();
 
+        StringBuilder out = state.out;
+        boolean gap = state.gap.length() > 0;
+        out.append('[');
         int len = (int) value.getLength();
         for (int index = 0; index < len; index++) {
-            Object strP = str(index, value, state);
-            if (strP == Undefined.instance) {
-                partial.add("null");
-            } else {
-                partial.add(strP);
+            if (index > 0) {
+                out.append(',');
             }
-        }
-
-        final String finalValue;
-
-        if (partial.isEmpty()) {
-            finalValue = "[]";
-        } else {
-            if (state.gap.length() == 0) {
-                finalValue = '[' + join(partial, ",") + ']';
-            } else {
-                String separator = ",\n" + state.indent;
-                String properties = join(partial, separator);
-                finalValue = "[\n" + state.indent + properties + '\n' + stepback + ']';
+            if (gap) {
+                out.append('\n').append(state.indent);
+            }
+            if (!str(index, value, state)) {
+                out.append("null");
             }
+            state.flushIfFull();
         }
+        if (len > 0 && gap) {
+            out.append('\n').append(stepback);
+        }
+        out.append(']');
 
         state.stack.pop();
         state.indent = stepback;
-        return finalValue;
     }
 
-    private static String quote(String string) {
-        StringBuffer product = new StringBuffer(string.length()+2); // two extra chars for " on either side
+    private static void quote(String string, StringBuilder product) {
         product.append('"');
         int length = string.length();
+        // characters that need no escape are copied in runs
+        int start = 0;
         for (int i = 0; i < length; i++) {
             char c = string.charAt(i);
+            if (c >= ' ' && c != '"' && c != '\\') {
+                continue;
+            }
+            product.append(string, start, i);
+            start = i + 1;
             switch (c) {
                 case '"':
                     product.append("\\\"");
@@ -479,19 +594,14 @@ final class NativeJSON extends IdScriptableObject
                     product.append("\\t");
                     break;
                 default:
-                    if (c < ' ') {
-                        product.append("\\u");
-                        String hex = String.format("%04x", (int) c);
-                        product.append(hex);
-                    }
-                    else {
-                        product.append(c);
-                    }
+                    product.append("\\u00");
+                    product.append(HEX_DIGITS[c >> 4]);
+                    product.append(HEX_DIGITS[c & 0xF]);
                     break;
             }
         }
+        product.append(string, start, length);
         product.append('"');
-        return product.toString();
     }
 
 // #string_id_map#
@@ -91,7 +91,7 @@ public class NativeJavaMethod extends BaseFunction
                 s = "null";
             } else if (value instanceof Boolean) {
                 s = "boolean";
-            } else if (value instanceof String) {
+            } else if (value instanceof CharSequence) {
                 s = "string";
             } else if (value instanceof Number) {
                 s = "number";
@@ -158,7 +158,7 @@ public class NativeJavaMethod extends BaseFunction
             throw new RuntimeException("No methods defined for call");
         }
 
-        int index = findFunction(cx, methods, args);
+        int index = findCachedFunction(cx, args);
         if (index < 0) {
             Class<?> c = methods[0].method().getDeclaringClass();
             String sig = c.getName() + '.' + getFunctionName() + '(' +
@@ -270,6 +270,107 @@ public class NativeJavaMethod extends BaseFunction
         return wrapped;
     }
 
+    /**
+     * Find the index of the method to call like findFunction() does, but
+     * remember the choice for each signature of argument types so that
+     * later calls of overloaded methods with the same types skip the
+     * resolution.
+     */
+    private int findCachedFunction(Context cx, Object[] args)
+    {
+        if (methods.length == 1) {
+            return findFunction(cx, methods, args);
+        }
+        boolean enhancedAccess =
+            cx.hasFeature(Context.FEATURE_ENHANCED_JAVA_ACCESS);
+        ResolvedOverload[] cache = overloadCache;
+        if (cache != null) {
+            for (int i = 0; i != cache.length; ++i) {
+                if (cache[i].matches(args, enhancedAccess)) {
+                    return cache[i].index;
+                }
+            }
+        }
+        int index = findFunction(cx, methods, args);
+        if (index >= 0) {
+            Class<?>[] types = new Class<?>[args.length];
+            for (int i = 0; i != args.length; ++i) {
+                types[i] = argumentType(args[i]);
+                if (types[i] == null) {
+                    return index;
+                }
+            }
+            int length = (cache == null) ? 0 : cache.length;
+            if (length < MAX_CACHED_OVERLOADS) {
+                // a concurrent addition may get lost, which is harmless
+                ResolvedOverload[] newCache = new ResolvedOverload[length + 1];
+                if (cache != null) {
+                    System.arraycopy(cache, 0, newCache, 0, length);
+                }
+                newCache[length] = new ResolvedOverload(types, enhancedAccess,
+                                                        index);
+                overloadCache = newCache;
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Return the class that determines how findFunction() treats the
+     * argument, or null if the class alone does not and the resolution
+     * must not be cached.
+     */
+    private static Class<?> argumentType(Object arg)
+    {
+        if (arg == null) {
+            return Void.TYPE;
+        }
+        if (arg instanceof Wrapper && !(arg instanceof NativeJavaClass)) {
+            Object javaObject = ((Wrapper)arg).unwrap();
+            if (javaObject == null || javaObject instanceof Scriptable) {
+                return null;
+            }
+            Class<?> type = javaObject.getClass();
+            if (type.isArray() != (arg instanceof NativeJavaArray)) {
+                return null;
+            }
+            return type;
+        }
+        return arg.getClass();
+    }
+
+    /**
+     * The method chosen for one signature of argument types.
+     */
+    private static final class ResolvedOverload
+    {
+        private final Class<?>[] types;
+        private final boolean enhancedAccess;
+        final int index;
+
+        ResolvedOverload(Class<?>[] types, boolean enhancedAccess, int index)
+        {
+            this.types = types;
+            this.enhancedAccess = enhancedAccess;
+            this.index = index;
+        }
+
+        boolean matches(Object[] args, boolean enhancedAccess)
+        {
+            if (args.length != types.length
+                || enhancedAccess != this.enhancedAccess)
+            {
+                return false;
+            }
+            for (int i = 0; i != args.length; ++i) {
+                if (argumentType(args[i]) != types[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
     /**
      * Find the index of the correct function to call given the set of methods
      * or constructors and the arguments.
@@ -550,7 +651,10 @@ public class NativeJavaMethod extends BaseFunction
         }
     }
 
+    private static final int MAX_CACHED_OVERLOADS = 8;
+
     MemberBox[] methods;
     private String functionName;
+    private transient volatile ResolvedOverload[] overloadCache;
 }
 
@@ -449,7 +449,7 @@ WrapFactory#wrap(Context, Scriptable, Object, Class)}
         else if (value == Undefined.instance) {
             return JSTYPE_UNDEFINED;
         }
-        else if (value instanceof String) {
+        else if (value instanceof CharSequence) {
             return JSTYPE_STRING;
         }
         else if (value instanceof Number) {
@@ -558,6 +558,8 @@ WrapFactory#wrap(Context, Scriptable, Object, Class)}
             break;
 
         case JSTYPE_STRING:
+            // Java code gets flat strings, not ConsString
+            value = value.toString();
             if (type == ScriptRuntime.StringClass || type.isInstance(value)) {
                 return value;
             }
@@ -823,8 +825,8 @@ WrapFactory#wrap(Context, Scriptable, Object, Class)}
         if (value instanceof Number) {
             return ((Number)value).doubleValue();
         }
-        else if (value instanceof String) {
-            return ScriptRuntime.toNumber((String)value);
+        else if (value instanceof CharSequence) {
+            return ScriptRuntime.toNumber(value.toString());
         }
         else if (value instanceof Scriptable) {
             if (value instanceof Wrapper) {
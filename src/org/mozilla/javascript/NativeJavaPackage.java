@@ -89,6 +89,10 @@ public class NativeJavaPackage extends ScriptableObject
         return "JavaPackage";
     }
 
+    final String getPackageName() {
+        return packageName;
+    }
+
     @Override
     public boolean has(String id, Scriptable start) {
         return true;
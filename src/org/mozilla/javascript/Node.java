@@ -97,7 +97,8 @@ public class Node implements Iterable<Node>
         JSDOC_PROP           = 24,
         EXPRESSION_CLOSURE_PROP = 25, // JS 1.8 expression closure pseudo-return 
         DESTRUCTURING_SHORTHAND = 26, // JS 1.8 destructuring shorthand
-        LAST_PROP            = 26;
+        LAZY_BODY_PROP       = 27, // source of a function body parsed lazily
+        LAST_PROP            = 27;
 
     // values of ISNUMBER_PROP to specify
     // which of the children are Number types
@@ -448,6 +449,7 @@ public class Node implements Iterable<Node>
                                            return "destructuring_array_length";
                 case DESTRUCTURING_NAMES:  return "destructuring_names";
                 case DESTRUCTURING_PARAMS: return "destructuring_params";
+                case LAZY_BODY_PROP:       return "lazy_body";
 
                 default: Kit.codeBug();
             }
@@ -47,9 +47,12 @@ import org.mozilla.javascript.ast.FunctionNode;
 import org.mozilla.javascript.ast.Jump;
 import org.mozilla.javascript.ast.Scope;
 import org.mozilla.javascript.ast.ScriptNode;
+import org.mozilla.javascript.ast.Symbol;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 /**
  * This class transforms a tree to a lower-level representation for codegen.
@@ -82,10 +85,22 @@ public class NodeTransformer
         // to save against upchecks if no finally blocks are used.
         hasFinally = false;
 
+        if (tree.getType() == Token.FUNCTION) {
+            FunctionNode fn = (FunctionNode)tree;
+            if (fn.getFunctionCount() != 0 && !fn.requiresActivation()
+                && nestedFunctionsNeedActivation(fn))
+            {
+                fn.setRequiresActivation();
+            }
+        }
+
         // Flatten all only if we are not using scope objects for block scope
         boolean createScopeObjects = tree.getType() != Token.FUNCTION ||
                                   ((FunctionNode)tree).requiresActivation();
         tree.flattenSymbolTable(!createScopeObjects);
+        if (!createScopeObjects && tree.getFunctionCount() != 0) {
+            hoistFunctionStatements((FunctionNode)tree);
+        }
 
         //uncomment to print tree before transformation
         if (Token.printTrees) System.out.println(tree.toStringTree(tree));
@@ -556,6 +571,120 @@ public class NodeTransformer
         return result;
     }
 
+    /**
+     * Check if the functions nested in fn may use its variables or
+     * parameters, so that they must live in an activation object the nested
+     * functions get as their parent scope. Otherwise the nested functions
+     * are parented to the scope fn itself runs in and fn keeps its
+     * variables in registers like a function without nested functions.
+     */
+    private static boolean nestedFunctionsNeedActivation(FunctionNode fn)
+    {
+        Node body = fn.getLastChild();
+        int statementCount = 0;
+        for (Node n = body.getFirstChild(); n != null; n = n.getNext()) {
+            if (isFunctionStatement(fn, n)) {
+                ++statementCount;
+            }
+        }
+        Set<String> names = new HashSet<String>();
+        for (int i = 0; i != fn.getFunctionCount(); ++i) {
+            FunctionNode nested = fn.getFunctionNode(i);
+            int type = nested.getFunctionType();
+            if (type == FunctionNode.FUNCTION_STATEMENT) {
+                --statementCount;
+            } else if (type != FunctionNode.FUNCTION_EXPRESSION) {
+                // defined on the activation when executed
+                return true;
+            }
+            if (!collectFreeNames(nested, names)) {
+                return true;
+            }
+        }
+        if (statementCount != 0 || names.contains("eval")) {
+            return true;
+        }
+        for (Symbol symbol : fn.getSymbols()) {
+            if (names.contains(symbol.getName())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Add to names the names fn and the functions nested in it use without
+     * declaring them. Returns false if the body of fn is not known yet.
+     */
+    private static boolean collectFreeNames(FunctionNode fn,
+                                            Set<String> names)
+    {
+        if (fn.getProp(Node.LAZY_BODY_PROP) != null) {
+            return false;
+        }
+        Set<String> used = new HashSet<String>();
+        collectNames(fn, used);
+        for (int i = 0; i != fn.getFunctionCount(); ++i) {
+            if (!collectFreeNames(fn.getFunctionNode(i), used)) {
+                return false;
+            }
+        }
+        for (Symbol symbol : fn.getSymbols()) {
+            used.remove(symbol.getName());
+        }
+        used.remove("arguments");
+        names.addAll(used);
+        return true;
+    }
+
+    private static void collectNames(Node parent, Set<String> names)
+    {
+        for (Node n = parent.getFirstChild(); n != null; n = n.getNext()) {
+            int type = n.getType();
+            if (type == Token.NAME || type == Token.BINDNAME ||
+                type == Token.TYPEOFNAME)
+            {
+                names.add(n.getString());
+            }
+            collectNames(n, names);
+        }
+    }
+
+    private static boolean isFunctionStatement(FunctionNode fn, Node n)
+    {
+        if (n.getType() != Token.FUNCTION) {
+            return false;
+        }
+        int index = n.getExistingIntProp(Node.FUNCTION_PROP);
+        return fn.getFunctionNode(index).getFunctionType()
+               == FunctionNode.FUNCTION_STATEMENT;
+    }
+
+    /**
+     * Without an activation object the function statements nested in fn
+     * can not be defined on it at function entry, so instead assign them
+     * to their variables at the start of the body.
+     */
+    private static void hoistFunctionStatements(FunctionNode fn)
+    {
+        Node body = fn.getLastChild();
+        Node inits = new Node(Token.BLOCK);
+        Node n = body.getFirstChild();
+        while (n != null) {
+            Node next = n.getNext();
+            if (isFunctionStatement(fn, n)) {
+                body.removeChild(n);
+                Node bind = Node.newString(Token.BINDNAME, n.getString());
+                inits.addChildToBack(new Node(Token.EXPR_VOID,
+                    new Node(Token.SETNAME, bind, n)));
+            }
+            n = next;
+        }
+        if (inits.hasChildren()) {
+            body.addChildrenToFront(inits.getFirstChild());
+        }
+    }
+
     private static Node addBeforeCurrent(Node parent, Node previous,
                                          Node current, Node toAdd)
     {
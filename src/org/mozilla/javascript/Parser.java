@@ -99,6 +99,8 @@ public class Parser
     private IdeErrorReporter errorCollector;
     private String sourceURI;
     private char[] sourceChars;
+    // source text kept to record function bodies parsed lazily
+    private String sourceString;
 
     boolean calledByCompileFunction;  // ugly - set directly by Context
     private boolean parseFinished;  // set when finished to prevent reuse
@@ -500,6 +502,8 @@ public class Parser
         this.sourceURI = sourceURI;
         if (compilerEnv.isIdeMode()) {
             this.sourceChars = sourceString.toCharArray();
+        } else if (compilerEnv.isLazyFunctionBodies()) {
+            this.sourceString = sourceString;
         }
         this.ts = new TokenStream(this, null, sourceString, lineno);
         try {
@@ -773,6 +777,7 @@ public class Parser
         int syntheticType = type;
         int baseLineno = ts.lineno;  // line number where source starts
         int functionSourceStart = ts.tokenBeg;  // start of "function" kwd
+        boolean strictAtStart = inUseStrictDirective;
         Name name = null;
         AstNode memberExprNode = null;
 
@@ -868,6 +873,13 @@ public class Parser
         fnNode.setBaseLineno(baseLineno);
         fnNode.setEndLineno(ts.lineno);
 
+        if (sourceString != null && !strictAtStart
+            && memberExprNode == null
+            && (insideFunction() || !calledByCompileFunction))
+        {
+            dropLazyBody(fnNode, functionSourceStart);
+        }
+
         // Set the parent scope.  Needed for finding undeclared vars.
         // Have to wait until after parsing the function to set its parent
         // scope, since defineSymbol needs the defining-scope check to stop
@@ -878,6 +890,44 @@ public class Parser
         return fnNode;
     }
 
+    /**
+     * Replace the body of a function that can be compiled on its first call
+     * by an empty block once it has been checked for errors, recording its
+     * text instead. See {@link Context#FEATURE_LAZY_FUNCTION_PARSING}.
+     */
+    private void dropLazyBody(FunctionNode fnNode, int functionSourceStart)
+    {
+        AstNode body = fnNode.getBody();
+        if (syntaxErrorCount != 0
+            || fnNode.isExpressionClosure()
+            || fnNode.isGenerator()
+            || fnNode.getProp(Node.DESTRUCTURING_PARAMS) != null
+            || !sourceString.startsWith("function", functionSourceStart))
+        {
+            return;
+        }
+        int bodyStart = functionSourceStart + body.getPosition();
+        int bodyEnd = bodyStart + body.getLength();
+        if (bodyEnd > sourceString.length()
+            || sourceString.charAt(bodyStart) != '{'
+            || sourceString.charAt(bodyEnd - 1) != '}')
+        {
+            return;
+        }
+        String text = sourceString.substring(bodyStart + 1, bodyEnd - 1).trim();
+        if (text.length() == 0) {
+            return;
+        }
+        if (fnNode.getChildScopes() != null) {
+            // let the scopes of the body be collected with it
+            fnNode.getChildScopes().clear();
+        }
+        Block stub = new Block(bodyStart, body.getLength());
+        stub.setLineno(body.getLineno());
+        fnNode.setBody(stub);
+        fnNode.putProp(Node.LAZY_BODY_PROP, text);
+    }
+
     // This function does not match the closing RC: the caller matches
     // the RC so it can provide a suitable error message if not matched.
     // This means it's up to the caller to set the length of the node to
@@ -0,0 +1,306 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is Rhino code, released
+ * May 6, 1999.
+ *
+ * The Initial Developer of the Original Code is
+ * Netscape Communications Corporation.
+ * Portions created by the Initial Developer are Copyright (C) 1997-1999
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * the GNU General Public License Version 2 or later (the "GPL"), in which
+ * case the provisions of the GPL are applicable instead of those above. If
+ * you wish to allow use of your version of this file only under the terms of
+ * the GPL and not to allow others to use your version of this file under the
+ * MPL, indicate your decision by deleting the provisions above and replacing
+ * them with the notice and other provisions required by the GPL. If you do
+ * not delete the provisions above, a recipient may use your version of this
+ * file under either the MPL or the GPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.mozilla.javascript;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Inline cache for one property access instruction of the interpreter.
+ * <p>
+ * The cache remembers, for up to {@link #MAX_ENTRIES} receiver layouts
+ * ({@link PropertyMap}s), where the property was found: at a position in the
+ * receiver itself or at a position in its prototype. On a hit the value is
+ * read or written directly in the property values array, skipping
+ * {@link ScriptableObject#getProperty(Scriptable, String)} and the hashtable
+ * lookups. Sites that see more layouts than that become megamorphic and
+ * always take the generic path.
+ * <p>
+ * Caches are only used by code compiled with
+ * {@link Context#FEATURE_PROPERTY_CACHE} enabled. Entries refer to layouts,
+ * never to objects, so caches that are shared along with compiled code do
+ * not keep the scopes the code ran in reachable.
+ * <p>
+ * Only plain {@link NativeObject} instances are cached since other classes
+ * may override property access. Entries are immutable and the entry array
+ * is replaced as a whole, so racing threads at worst lose an update.
+ * Hit and miss counters are not synchronized and are approximate when the
+ * same function runs on several threads.
+ *
+ * <p>
+ * The public static methods are used by classes generated by the optimizer,
+ * which keep one cache per property access site in a static array.
+ *
+ * @see PropertyCacheStats
+ */
+public final class PropertyCache
+{
+    static final int MAX_ENTRIES = 4;
+
+    private static final Entry[] MEGAMORPHIC = new Entry[0];
+
+    private static final class Entry
+    {
+        final PropertyMap map;
+        // layout of the prototype holding the property or null for own
+        // properties; the prototype itself is not kept so that caches
+        // shared between scopes do not keep one of them reachable
+        final PropertyMap holderMap;
+        final int position;
+
+        Entry(PropertyMap map, PropertyMap holderMap, int position)
+        {
+            this.map = map;
+            this.holderMap = holderMap;
+            this.position = position;
+        }
+    }
+
+    private volatile Entry[] entries;
+
+    int hits;
+    int misses;
+
+    boolean isMegamorphic()
+    {
+        return entries == MEGAMORPHIC;
+    }
+
+    PropertyCache()
+    {
+    }
+
+    public static PropertyCache[] createCaches(int count)
+    {
+        PropertyCache[] caches = new PropertyCache[count];
+        for (int i = 0; i != count; ++i) {
+            caches[i] = new PropertyCache();
+        }
+        return caches;
+    }
+
+    public static Object getObjectProp(Object obj, String property,
+                                       Context cx, Scriptable scope,
+                                       PropertyCache cache)
+    {
+        return cache.getObjectProp(obj, property, cx, scope);
+    }
+
+    public static Callable getPropFunctionAndThis(Object obj,
+                                                  String property,
+                                                  Context cx,
+                                                  Scriptable scope,
+                                                  PropertyCache cache)
+    {
+        return cache.getPropFunctionAndThis(obj, property, cx, scope);
+    }
+
+    public static Object setObjectProp(Object obj, String property,
+                                       Object value, Context cx,
+                                       PropertyCache cache)
+    {
+        return cache.setObjectProp(obj, property, value, cx);
+    }
+
+    Object getObjectProp(Object obj, String property, Context cx,
+                         Scriptable scope)
+    {
+        Object value = getCached(obj);
+        if (value != Scriptable.NOT_FOUND) {
+            ++hits;
+            return value;
+        }
+        ++misses;
+        value = ScriptRuntime.getObjectProp(obj, property, cx, scope);
+        update(obj, property, false);
+        return value;
+    }
+
+    Callable getPropFunctionAndThis(Object obj, String property, Context cx,
+                                    Scriptable scope)
+    {
+        Object value = getCached(obj);
+        if (value instanceof Callable) {
+            ++hits;
+            ScriptRuntime.storeScriptable(cx, (Scriptable)obj);
+            return (Callable)value;
+        }
+        ++misses;
+        Callable f = ScriptRuntime.getPropFunctionAndThis(obj, property, cx,
+                                                          scope);
+        update(obj, property, false);
+        return f;
+    }
+
+    Object setObjectProp(Object obj, String property, Object value,
+                         Context cx)
+    {
+        Entry[] array = entries;
+        if (array != null && isPlain(obj)) {
+            ScriptableObject so = (ScriptableObject)obj;
+            PropertyMap map = so.getPropertyMap();
+            for (int i = 0; i != array.length; ++i) {
+                Entry e = array[i];
+                if (e.map == map && e.holderMap == null) {
+                    AtomicReferenceArray<Object> values =
+                        so.getPropertyValues();
+                    if (values != null && !so.isSealed()
+                        && so.storeFastValue(values, e.position, value))
+                    {
+                        ++hits;
+                        return value;
+                    }
+                    break;
+                }
+            }
+        }
+        ++misses;
+        ScriptRuntime.setObjectProp(obj, property, value, cx);
+        update(obj, property, true);
+        return value;
+    }
+
+    private Object getCached(Object obj)
+    {
+        Entry[] array = entries;
+        if (array == null || !isPlain(obj)) {
+            return Scriptable.NOT_FOUND;
+        }
+        ScriptableObject so = (ScriptableObject)obj;
+        PropertyMap map = so.getPropertyMap();
+        for (int i = 0; i != array.length; ++i) {
+            Entry e = array[i];
+            if (e.map != map) {
+                continue;
+            }
+            if (e.holderMap == null) {
+                AtomicReferenceArray<Object> values = so.getPropertyValues();
+                if (values != null) {
+                    return values.get(e.position);
+                }
+            } else {
+                // any plain prototype with the same layout has the
+                // property at the same position
+                Scriptable proto = so.getPrototype();
+                if (isPlain(proto)) {
+                    ScriptableObject holder = (ScriptableObject)proto;
+                    if (holder.getPropertyMap() == e.holderMap) {
+                        AtomicReferenceArray<Object> values =
+                            holder.getPropertyValues();
+                        if (values != null) {
+                            return values.get(e.position);
+                        }
+                    }
+                }
+            }
+            break;
+        }
+        return Scriptable.NOT_FOUND;
+    }
+
+    /**
+     * Record where the property is found on obj after the generic path has
+     * been taken.
+     */
+    private void update(Object obj, String property, boolean isWrite)
+    {
+        Entry[] array = entries;
+        if (array == MEGAMORPHIC || !isPlain(obj)) {
+            return;
+        }
+        ScriptableObject so = (ScriptableObject)obj;
+        PropertyMap map = so.getPropertyMap();
+        if (map == null) {
+            return;
+        }
+        int indexOrHash = property.hashCode();
+        int position = map.find(property, indexOrHash);
+        Entry entry;
+        if (position >= 0) {
+            if (isWrite && (map.getAttributes(position)
+                            & ScriptableObject.READONLY) != 0)
+            {
+                return;
+            }
+            entry = new Entry(map, null, position);
+        } else if (isWrite) {
+            // adding properties is left to the generic path
+            return;
+        } else {
+            Scriptable proto = so.getPrototype();
+            if (!isPlain(proto)) {
+                return;
+            }
+            ScriptableObject holder = (ScriptableObject)proto;
+            PropertyMap holderMap = holder.getPropertyMap();
+            if (holderMap == null) {
+                return;
+            }
+            position = holderMap.find(property, indexOrHash);
+            if (position < 0) {
+                return;
+            }
+            entry = new Entry(map, holderMap, position);
+        }
+        int n = (array == null) ? 0 : array.length;
+        for (int i = 0; i != n; ++i) {
+            if (array[i].map == map) {
+                // replace the stale entry for the same layout
+                Entry[] newArray = array.clone();
+                newArray[i] = entry;
+                entries = newArray;
+                return;
+            }
+        }
+        if (n == MAX_ENTRIES) {
+            entries = MEGAMORPHIC;
+            return;
+        }
+        Entry[] newArray = new Entry[n + 1];
+        if (n != 0) {
+            System.arraycopy(array, 0, newArray, 0, n);
+        }
+        newArray[n] = entry;
+        entries = newArray;
+    }
+
+    private static boolean isPlain(Object obj)
+    {
+        return obj != null && obj.getClass() == NativeObject.class
+            && !((NativeObject)obj).hasPrototypeMap();
+    }
+}
@@ -0,0 +1,186 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is Rhino code, released
+ * May 6, 1999.
+ *
+ * The Initial Developer of the Original Code is
+ * Netscape Communications Corporation.
+ * Portions created by the Initial Developer are Copyright (C) 1997-1999
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * the GNU General Public License Version 2 or later (the "GPL"), in which
+ * case the provisions of the GPL are applicable instead of those above. If
+ * you wish to allow use of your version of this file only under the terms of
+ * the GPL and not to allow others to use your version of this file under the
+ * MPL, indicate your decision by deleting the provisions above and replacing
+ * them with the notice and other provisions required by the GPL. If you do
+ * not delete the provisions above, a recipient may use your version of this
+ * file under either the MPL or the GPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+package org.mozilla.javascript;
+
+/**
+ * Snapshot of the inline property caches of an interpreted script or
+ * function and of its nested functions.
+ * <p>
+ * The interpreter keeps one cache per property get, set and method call
+ * site. The counters are updated without synchronization and are only
+ * indicative when the script runs on several threads at once.
+ *
+ * @see #forScript(Script)
+ */
+public final class PropertyCacheStats
+{
+    private final String functionName;
+    private final String sourceName;
+    private final int siteCount;
+    private final long hits;
+    private final long misses;
+    private final int megamorphicCount;
+    private final PropertyCacheStats[] nestedFunctions;
+
+    private PropertyCacheStats(InterpreterData idata)
+    {
+        functionName = idata.itsName;
+        sourceName = idata.itsSourceFile;
+        siteCount = idata.itsPropertyCacheCount;
+        long hits = 0, misses = 0;
+        int megamorphicCount = 0;
+        PropertyCache[] caches = idata.itsPropertyCaches;
+        if (caches != null) {
+            for (int i = 0; i != caches.length; ++i) {
+                PropertyCache cache = caches[i];
+                hits += cache.hits;
+                misses += cache.misses;
+                if (cache.isMegamorphic()) {
+                    ++megamorphicCount;
+                }
+            }
+        }
+        this.hits = hits;
+        this.misses = misses;
+        this.megamorphicCount = megamorphicCount;
+        int n = idata.getFunctionCount();
+        nestedFunctions = new PropertyCacheStats[n];
+        for (int i = 0; i != n; ++i) {
+            nestedFunctions[i] = new PropertyCacheStats(
+                idata.itsNestedFunctions[i]);
+        }
+    }
+
+    /**
+     * Return the cache statistics of the given script or function or null
+     * if it was not compiled in interpreted mode.
+     */
+    public static PropertyCacheStats forScript(Script script)
+    {
+        if (script instanceof InterpretedFunction) {
+            return new PropertyCacheStats(((InterpretedFunction)script).idata);
+        }
+        return null;
+    }
+
+    /**
+     * Get name of the function or empty string for the top level script.
+     */
+    public String getFunctionName()
+    {
+        return functionName;
+    }
+
+    /**
+     * Get the name of the source (usually filename or URL)
+     * of the script.
+     */
+    public String getSourceName()
+    {
+        return sourceName;
+    }
+
+    /**
+     * Get number of property access sites with an inline cache.
+     */
+    public int getSiteCount()
+    {
+        return siteCount;
+    }
+
+    /**
+     * Get number of property accesses served from an inline cache.
+     */
+    public long getHits()
+    {
+        return hits;
+    }
+
+    /**
+     * Get number of property accesses that took the generic lookup path.
+     */
+    public long getMisses()
+    {
+        return misses;
+    }
+
+    /**
+     * Get the fraction of property accesses served from an inline cache or
+     * 0 if no access happened yet.
+     */
+    public double getHitRate()
+    {
+        long total = hits + misses;
+        return (total == 0) ? 0.0 : (double)hits / total;
+    }
+
+    /**
+     * Get number of sites that saw too many object layouts and no longer
+     * use their cache.
+     */
+    public int getMegamorphicCount()
+    {
+        return megamorphicCount;
+    }
+
+    /**
+     * Get number of nested functions.
+     */
+    public int getFunctionCount()
+    {
+        return nestedFunctions.length;
+    }
+
+    /**
+     * Get the statistics of the nested function with the given index.
+     */
+    public PropertyCacheStats getFunction(int index)
+    {
+        return nestedFunctions[index];
+    }
+
+    @Override
+    public String toString()
+    {
+        return "PropertyCacheStats[" + sourceName + ":" + functionName
+               + " sites=" + siteCount + " hits=" + hits
+               + " misses=" + misses
+               + " megamorphic=" + megamorphicCount + "]";
+    }
+}
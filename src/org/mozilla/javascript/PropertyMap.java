@@ -0,0 +1,308 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is Rhino code, released
+ * May 6, 1999.
+ *
+ * The Initial Developer of the Original Code is
+ * Netscape Communications Corporation.
+ * Portions created by the Initial Developer are Copyright (C) 1997-1999
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * the GNU General Public License Version 2 or later (the "GPL"), in which
+ * case the provisions of the GPL are applicable instead of those above. If
+ * you wish to allow use of your version of this file only under the terms of
+ * the GPL and not to allow others to use your version of this file under the
+ * MPL, indicate your decision by deleting the provisions above and replacing
+ * them with the notice and other provisions required by the GPL. If you do
+ * not delete the provisions above, a recipient may use your version of this
+ * file under either the MPL or the GPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.mozilla.javascript;
+
+import java.lang.ref.WeakReference;
+
+/**
+ * Immutable description of the property layout of a {@link ScriptableObject}
+ * (a "shape" or "hidden class").
+ * <p>
+ * A property map records the keys of an object in the order they were
+ * added together with their attributes. Objects that receive the same
+ * properties in the same order share one property map and keep only the
+ * property values in a compact per-object array indexed by the position of
+ * the key in the map. Maps form a transition tree rooted at {@link #EMPTY}:
+ * adding a property to an object replaces its map by the child map reached
+ * through the transition for that key and attribute set.
+ * <p>
+ * Transitions are held through weak references so that maps created for
+ * keys that are no longer used by any live object can be collected.
+ */
+final class PropertyMap
+{
+    /**
+     * Objects with more properties than this are switched to the
+     * hashtable representation of ScriptableObject.
+     */
+    static final int MAX_FAST_PROPERTIES = 64;
+
+    // maps up to this size are searched linearly
+    private static final int LINEAR_SEARCH_LIMIT = 8;
+
+    // cap on the number of cached transitions from one map
+    private static final int MAX_TRANSITIONS = 64;
+
+    static final PropertyMap EMPTY = new PropertyMap();
+
+    private final PropertyMap parent;
+    private final int size;
+    // key i is names[i] or, if names[i] == null, the array index hashes[i]
+    private final String[] names;
+    private final int[] hashes;
+    private final short[] attributes;
+    // open addressing table of (key position + 1) for large maps
+    private final int[] table;
+
+    // either null, a single Transition or a Transition[]
+    private volatile Object transitions;
+
+    private static final class Transition extends WeakReference<PropertyMap>
+    {
+        final String name;
+        final int indexOrHash;
+        final int attributes;
+
+        Transition(PropertyMap target)
+        {
+            super(target);
+            int last = target.size - 1;
+            this.name = target.names[last];
+            this.indexOrHash = target.hashes[last];
+            this.attributes = target.attributes[last];
+        }
+
+        boolean matches(String name, int indexOrHash, int attributes)
+        {
+            return this.indexOrHash == indexOrHash
+                && this.attributes == attributes
+                && (this.name == name
+                    || (name != null && name.equals(this.name)));
+        }
+    }
+
+    private PropertyMap()
+    {
+        parent = null;
+        size = 0;
+        names = new String[0];
+        hashes = new int[0];
+        attributes = new short[0];
+        table = null;
+    }
+
+    private PropertyMap(PropertyMap parent, String name, int indexOrHash,
+                        int attributes)
+    {
+        this.parent = parent;
+        int n = parent.size;
+        this.size = n + 1;
+        this.names = new String[n + 1];
+        this.hashes = new int[n + 1];
+        this.attributes = new short[n + 1];
+        System.arraycopy(parent.names, 0, this.names, 0, n);
+        System.arraycopy(parent.hashes, 0, this.hashes, 0, n);
+        System.arraycopy(parent.attributes, 0, this.attributes, 0, n);
+        this.names[n] = name;
+        this.hashes[n] = indexOrHash;
+        this.attributes[n] = (short)attributes;
+        if (size > LINEAR_SEARCH_LIMIT) {
+            int tableSize = Integer.highestOneBit(size) << 2;
+            int[] t = new int[tableSize];
+            for (int i = 0; i != size; ++i) {
+                int pos = hashes[i] & (tableSize - 1);
+                while (t[pos] != 0) {
+                    pos = (pos + 1) & (tableSize - 1);
+                }
+                t[pos] = i + 1;
+            }
+            this.table = t;
+        } else {
+            this.table = null;
+        }
+    }
+
+    int size()
+    {
+        return size;
+    }
+
+    String getName(int position)
+    {
+        return names[position];
+    }
+
+    int getIndexOrHash(int position)
+    {
+        return hashes[position];
+    }
+
+    int getAttributes(int position)
+    {
+        return attributes[position];
+    }
+
+    /**
+     * Return the position of the given key in this map or -1 if the map
+     * does not contain the key.
+     *
+     * @param name property name or null for an index key
+     * @param indexOrHash the index or the hash code of the name
+     */
+    int find(String name, int indexOrHash)
+    {
+        int[] t = table;
+        if (t == null) {
+            for (int i = 0; i != size; ++i) {
+                if (hashes[i] == indexOrHash) {
+                    String s = names[i];
+                    if (s == name || (name != null && name.equals(s))) {
+                        return i;
+                    }
+                }
+            }
+            return -1;
+        }
+        int mask = t.length - 1;
+        int pos = indexOrHash & mask;
+        for (;;) {
+            int entry = t[pos];
+            if (entry == 0) {
+                return -1;
+            }
+            int i = entry - 1;
+            if (hashes[i] == indexOrHash) {
+                String s = names[i];
+                if (s == name || (name != null && name.equals(s))) {
+                    return i;
+                }
+            }
+            pos = (pos + 1) & mask;
+        }
+    }
+
+    /**
+     * Return the map that results from adding the given key to this map or
+     * null if objects with that many properties should not use a property
+     * map.
+     */
+    PropertyMap addProperty(String name, int indexOrHash, int attributes)
+    {
+        if (size >= MAX_FAST_PROPERTIES) {
+            return null;
+        }
+        PropertyMap child = findTransition(name, indexOrHash, attributes);
+        if (child != null) {
+            return child;
+        }
+        synchronized (this) {
+            child = findTransition(name, indexOrHash, attributes);
+            if (child == null) {
+                child = new PropertyMap(this, name, indexOrHash, attributes);
+                addTransition(new Transition(child));
+            }
+        }
+        return child;
+    }
+
+    /**
+     * Return the map that results from changing the attributes of the last
+     * added property of this map or null if this map is empty.
+     */
+    PropertyMap setLastAttributes(int attributes)
+    {
+        if (parent == null) {
+            return null;
+        }
+        int last = size - 1;
+        if (this.attributes[last] == attributes) {
+            return this;
+        }
+        return parent.addProperty(names[last], hashes[last], attributes);
+    }
+
+    private PropertyMap findTransition(String name, int indexOrHash,
+                                       int attributes)
+    {
+        Object t = transitions;
+        if (t instanceof Transition) {
+            Transition tr = (Transition)t;
+            if (tr.matches(name, indexOrHash, attributes)) {
+                return tr.get();
+            }
+        } else if (t != null) {
+            Transition[] array = (Transition[])t;
+            for (int i = 0; i != array.length; ++i) {
+                Transition tr = array[i];
+                if (tr.matches(name, indexOrHash, attributes)) {
+                    return tr.get();
+                }
+            }
+        }
+        return null;
+    }
+
+    // Must be inside synchronized (this)
+    private void addTransition(Transition added)
+    {
+        Object t = transitions;
+        if (t == null) {
+            transitions = added;
+            return;
+        }
+        Transition[] old;
+        if (t instanceof Transition) {
+            old = new Transition[] { (Transition)t };
+        } else {
+            old = (Transition[])t;
+        }
+        // drop transitions to collected maps and the one being replaced
+        int live = 0;
+        Transition[] array = new Transition[old.length + 1];
+        for (int i = 0; i != old.length; ++i) {
+            Transition tr = old[i];
+            if (tr.get() != null
+                && !tr.matches(added.name, added.indexOrHash,
+                               added.attributes))
+            {
+                array[live++] = tr;
+            }
+        }
+        if (live >= MAX_TRANSITIONS) {
+            // Too many shapes branch off here, leave the new map unshared.
+            return;
+        }
+        array[live++] = added;
+        if (live != array.length) {
+            Transition[] tmp = new Transition[live];
+            System.arraycopy(array, 0, tmp, 0, live);
+            array = tmp;
+        }
+        transitions = array;
+    }
+}
@@ -273,27 +273,40 @@ public abstract class RhinoException extends RuntimeException
      * @since 1.7R3
      */
     public ScriptStackElement[] getScriptStack() {
-        List<ScriptStackElement> list = new ArrayList<ScriptStackElement>();
         ScriptStackElement[][] interpreterStack = null;
         if (interpreterStackInfo != null) {
             Evaluator interpreter = Context.createInterpreter();
             if (interpreter instanceof Interpreter)
                 interpreterStack = ((Interpreter) interpreter).getScriptStackElements(this);
         }
+        return getScriptStack(getStackTrace(), interpreterStack, false);
+    }
+
+    /**
+     * Merge the script frames found in a Java stack trace with the frames
+     * of the interpreter invocations on the same stack, see
+     * {@link Interpreter#getScriptStackElements(RhinoException)}.
+     * Compiled code only records its source name when it is generated with
+     * debug information; if <code>anySource</code> is true, frames of other
+     * compiled code are included with the class name as the source name.
+     */
+    static ScriptStackElement[] getScriptStack(
+            StackTraceElement[] stack, ScriptStackElement[][] interpreterStack,
+            boolean anySource)
+    {
+        List<ScriptStackElement> list = new ArrayList<ScriptStackElement>();
         int interpreterStackIndex = 0;
-        StackTraceElement[] stack = getStackTrace();
-        // Pattern to recover function name from java method name -
-        // see Codegen.getBodyMethodName()
-        // kudos to Marc Guillemot for coming up with this
-        Pattern pattern = Pattern.compile("_c_(.*)_\\d+");
         for (StackTraceElement e : stack) {
             String fileName = e.getFileName();
+            if (fileName == null && anySource) {
+                fileName = e.getClassName();
+            }
             if (e.getMethodName().startsWith("_c_")
                     && e.getLineNumber() > -1
                     && fileName != null
                     && !fileName.endsWith(".java")) {
                 String methodName = e.getMethodName();
-                Matcher match = pattern.matcher(methodName);
+                Matcher match = BODY_METHOD_PATTERN.matcher(methodName);
                 // the method representing the main script is always "_c_script_0" -
                 // at least we hope so
                 methodName = !"_c_script_0".equals(methodName) && match.find() ?
@@ -311,6 +324,12 @@ public abstract class RhinoException extends RuntimeException
         return list.toArray(new ScriptStackElement[list.size()]);
     }
 
+    // Pattern to recover function name from java method name -
+    // see Codegen.getBodyMethodName()
+    // kudos to Marc Guillemot for coming up with this
+    private static final Pattern BODY_METHOD_PATTERN =
+        Pattern.compile("_c_(.*)_\\d+");
+
 
     @Override
     public void printStackTrace(PrintWriter s)
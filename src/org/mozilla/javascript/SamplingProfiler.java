@@ -0,0 +1,324 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is Rhino code, released
+ * May 6, 1999.
+ *
+ * The Initial Developer of the Original Code is
+ * Netscape Communications Corporation.
+ * Portions created by the Initial Developer are Copyright (C) 1997-1999
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * the GNU General Public License Version 2 or later (the "GPL"), in which
+ * case the provisions of the GPL are applicable instead of those above. If
+ * you wish to allow use of your version of this file only under the terms of
+ * the GPL and not to allow others to use your version of this file under the
+ * MPL, indicate your decision by deleting the provisions above and replacing
+ * them with the notice and other provisions required by the GPL. If you do
+ * not delete the provisions above, a recipient may use your version of this
+ * file under either the MPL or the GPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+// API class
+
+package org.mozilla.javascript;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Low overhead profiler that periodically samples the script stacks of
+ * the threads running Contexts of a {@link ContextFactory}.
+ * <p>
+ * Frames of interpreted functions are read from the interpreter frames of
+ * each Context, and frames of compiled functions from the Java stack trace
+ * of its thread using the line numbers that {@link
+ * org.mozilla.javascript.optimizer.Codegen} records in the generated
+ * classes. Compiled code generated without debug information is reported
+ * with its class name instead of the source name. Unlike the {@link org.mozilla.javascript.debug.Debugger} API,
+ * running scripts are not slowed down, but only a statistical picture is
+ * produced.
+ * <p>
+ * The samples are aggregated into the "folded stacks" format used by
+ * flame graph tools: one line per distinct stack with the frames from the
+ * outermost to the innermost separated by semicolons, followed by the
+ * number of samples.
+ * <pre>
+ * SamplingProfiler profiler = new SamplingProfiler(factory);
+ * profiler.start();
+ * ... run scripts ...
+ * profiler.stop();
+ * profiler.writeFoldedStacks(writer);
+ * </pre>
+ * Only Contexts created after {@link #start()} and the Context entered on
+ * the thread calling {@link #start()} are sampled.
+ */
+public class SamplingProfiler implements ContextFactory.Listener
+{
+    private final ContextFactory factory;
+    private long sampleInterval = 10;
+    private boolean includeLineNumbers;
+
+    private final Map<Context,Thread> contexts =
+        new HashMap<Context,Thread>();
+    private final Map<String,int[]> stacks = new HashMap<String,int[]>();
+    private int sampleCount;
+    private Thread sampler;
+    private volatile boolean running;
+
+    public SamplingProfiler(ContextFactory factory)
+    {
+        if (factory == null) throw new IllegalArgumentException();
+        this.factory = factory;
+    }
+
+    public long getSampleInterval()
+    {
+        return sampleInterval;
+    }
+
+    /**
+     * Set the time between two samples in milliseconds. The default is 10.
+     * Takes effect on the next call to {@link #start()}.
+     */
+    public void setSampleInterval(long millis)
+    {
+        if (millis <= 0) throw new IllegalArgumentException();
+        sampleInterval = millis;
+    }
+
+    public boolean isIncludeLineNumbers()
+    {
+        return includeLineNumbers;
+    }
+
+    /**
+     * Control whether frames are distinguished by the current line number
+     * in addition to the function name and the source name.
+     * The default is false.
+     */
+    public void setIncludeLineNumbers(boolean value)
+    {
+        includeLineNumbers = value;
+    }
+
+    /**
+     * Start sampling.
+     * @throws IllegalStateException if the profiler is already running
+     */
+    public synchronized void start()
+    {
+        if (sampler != null) throw new IllegalStateException();
+        factory.addListener(this);
+        Context cx = Context.getCurrentContext();
+        if (cx != null && cx.getFactory() == factory) {
+            contexts.put(cx, Thread.currentThread());
+        }
+        running = true;
+        sampler = new Thread("Rhino sampling profiler") {
+            @Override
+            public void run()
+            {
+                sampleLoop();
+            }
+        };
+        sampler.setDaemon(true);
+        sampler.start();
+    }
+
+    /**
+     * Stop sampling and wait for the sampling thread to finish. The samples
+     * taken so far are kept.
+     */
+    public void stop()
+    {
+        Thread thread;
+        synchronized (this) {
+            thread = sampler;
+            if (thread == null) {
+                return;
+            }
+            sampler = null;
+            running = false;
+            factory.removeListener(this);
+            contexts.clear();
+        }
+        thread.interrupt();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public synchronized boolean isRunning()
+    {
+        return sampler != null;
+    }
+
+    public void contextCreated(Context cx)
+    {
+        synchronized (this) {
+            contexts.put(cx, Thread.currentThread());
+        }
+    }
+
+    public void contextReleased(Context cx)
+    {
+        synchronized (this) {
+            contexts.remove(cx);
+        }
+    }
+
+    /**
+     * Return the number of samples in which at least one script frame was
+     * found.
+     */
+    public synchronized int getSampleCount()
+    {
+        return sampleCount;
+    }
+
+    /**
+     * Return the folded stacks sampled so far, sorted by stack, with the
+     * number of samples of each.
+     */
+    public synchronized Map<String,Integer> getFoldedStacks()
+    {
+        Map<String,Integer> result = new TreeMap<String,Integer>();
+        for (Map.Entry<String,int[]> e : stacks.entrySet()) {
+            result.put(e.getKey(), Integer.valueOf(e.getValue()[0]));
+        }
+        return result;
+    }
+
+    /**
+     * Write the folded stacks sampled so far, one per line.
+     */
+    public void writeFoldedStacks(Writer out) throws IOException
+    {
+        for (Map.Entry<String,Integer> e : getFoldedStacks().entrySet()) {
+            out.write(e.getKey());
+            out.write(' ');
+            out.write(e.getValue().toString());
+            out.write('\n');
+        }
+        out.flush();
+    }
+
+    /**
+     * Discard the samples taken so far.
+     */
+    public synchronized void reset()
+    {
+        stacks.clear();
+        sampleCount = 0;
+    }
+
+    private void sampleLoop()
+    {
+        while (running) {
+            try {
+                Thread.sleep(sampleInterval);
+            } catch (InterruptedException e) {
+                return;
+            }
+            Context[] cxs;
+            Thread[] threads;
+            synchronized (this) {
+                cxs = contexts.keySet().toArray(new Context[contexts.size()]);
+                threads = new Thread[cxs.length];
+                for (int i = 0; i != cxs.length; ++i) {
+                    threads[i] = contexts.get(cxs[i]);
+                }
+            }
+            for (int i = 0; i != cxs.length; ++i) {
+                String stack;
+                try {
+                    stack = sample(cxs[i], threads[i]);
+                } catch (RuntimeException e) {
+                    // The frames changed while they were read: drop the
+                    // sample rather than disturb the running script
+                    continue;
+                }
+                if (stack != null) {
+                    addSample(stack);
+                }
+            }
+        }
+    }
+
+    private String sample(Context cx, Thread thread)
+    {
+        StackTraceElement[] javaStack = thread.getStackTrace();
+        ScriptStackElement[][] interpreterStack =
+            Interpreter.sampleScriptStackElements(cx);
+        ScriptStackElement[] frames =
+            RhinoException.getScriptStack(javaStack, interpreterStack, true);
+        if (frames.length == 0) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder();
+        for (int i = frames.length - 1; i >= 0; --i) {
+            if (sb.length() != 0) {
+                sb.append(';');
+            }
+            appendFrame(sb, frames[i]);
+        }
+        return sb.toString();
+    }
+
+    private void appendFrame(StringBuilder sb, ScriptStackElement frame)
+    {
+        String name = frame.functionName;
+        if (name == null) {
+            name = "<anonymous>";
+        }
+        int start = sb.length();
+        sb.append(name).append(" (").append(frame.fileName);
+        if (includeLineNumbers && frame.lineNumber > -1) {
+            sb.append(':').append(frame.lineNumber);
+        }
+        sb.append(')');
+        // semicolons separate frames and newlines stacks in folded stacks
+        for (int i = start; i < sb.length(); ++i) {
+            char c = sb.charAt(i);
+            if (c == ';') {
+                sb.setCharAt(i, ',');
+            } else if (c == '\n') {
+                sb.setCharAt(i, ' ');
+            }
+        }
+    }
+
+    private synchronized void addSample(String stack)
+    {
+        int[] count = stacks.get(stack);
+        if (count == null) {
+            count = new int[1];
+            stacks.put(stack, count);
+        }
+        ++count[0];
+        ++sampleCount;
+    }
+}
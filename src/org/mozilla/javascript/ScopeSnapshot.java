@@ -0,0 +1,1916 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is Rhino code, released
+ * May 6, 1999.
+ *
+ * The Initial Developer of the Original Code is
+ * Netscape Communications Corporation.
+ * Portions created by the Initial Developer are Copyright (C) 1997-1999
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * the GNU General Public License Version 2 or later (the "GPL"), in which
+ * case the provisions of the GPL are applicable instead of those above. If
+ * you wish to allow use of your version of this file only under the terms of
+ * the GPL and not to allow others to use your version of this file under the
+ * MPL, indicate your decision by deleting the provisions above and replacing
+ * them with the notice and other provisions required by the GPL. If you do
+ * not delete the provisions above, a recipient may use your version of this
+ * file under either the MPL or the GPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.mozilla.javascript;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.NotSerializableException;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * Binary image of the state of a top-level scope.
+ * <p>
+ * {@link #write(Context, ScriptableObject, OutputStream)} records the
+ * variables and functions that scripts added to a scope, together with all
+ * the objects, closures and code reachable from them, and
+ * {@link #restore(Context, ScriptableObject, InputStream)} recreates them in
+ * another scope much faster than running the scripts again. Like
+ * {@link org.mozilla.javascript.serialize.ScriptableOutputStream}, the
+ * snapshot does not contain the standard objects: they are written as
+ * qualified names such as <code>Array.prototype</code> and looked up in the
+ * scope being restored, which must be initialized with the standard
+ * objects. Properties that scripts added to or replaced in standard
+ * objects are restored as well.
+ * <p>
+ * Unlike Java serialization, the format has no per-object class
+ * descriptors: strings are stored once in a table, the properties of each
+ * object are stored as one array that is added in bulk, and restoring
+ * first allocates all objects and then fills them in.
+ * <p>
+ * The snapshot can contain plain objects, arrays, dates, regular
+ * expressions, Java classes and packages, activation and arguments objects
+ * and functions with interpreted or compiled code. The class files of
+ * compiled functions are only available when scripts are compiled with
+ * {@link Context#FEATURE_RETAIN_CLASS_FILES} enabled, unless their classes
+ * can be loaded from the application class loader. Any other object that
+ * is not a property of a standard object or of the scope itself makes
+ * writing fail with a {@link NotSerializableException}; objects that are
+ * global variables are written as their name and must exist in the scope
+ * being restored. Restored code runs without a security domain.
+ * <p>
+ * As with Java serialization, snapshots must come from a trusted source.
+ * Restoring reads interpreter code and names the classes of compiled
+ * functions, which are loaded and instantiated. Only classes of compiled
+ * scripts and functions are accepted, and class files embedded in the
+ * snapshot are only defined if the caller allows it with
+ * {@link #restore(Context, ScriptableObject, InputStream, boolean)}.
+ */
+public final class ScopeSnapshot
+{
+    private static final int MAGIC = 0x5248534E; // "RHSN"
+    private static final int FORMAT_VERSION = 1;
+
+    // Kinds of objects
+    private static final int
+        OBJECT       = 1,
+        ARRAY        = 2,
+        FUNCTION     = 3,
+        COMPILED     = 4,
+        CALL         = 5,
+        ARGUMENTS    = 6,
+        DATE         = 7,
+        REGEXP       = 8,
+        JAVA_CLASS   = 9,
+        JAVA_PACKAGE = 10;
+
+    // Tags of values
+    private static final int
+        V_UNDEFINED  = 0,
+        V_NULL       = 1,
+        V_TRUE       = 2,
+        V_FALSE      = 3,
+        V_INT        = 4,
+        V_DOUBLE     = 5,
+        V_STRING     = 6,
+        V_OBJECT     = 7,
+        V_WELL_KNOWN = 8,
+        V_NOT_FOUND  = 9,
+        V_NULL_VALUE = 10;
+
+    // Storage of array elements
+    private static final int
+        SPARSE_ELEMENTS = 0,
+        OBJECT_ELEMENTS = 1,
+        DOUBLE_ELEMENTS = 2;
+
+    private static final int SEALED = 1;
+    private static final int NOT_EXTENSIBLE = 2;
+
+    // Standard objects are named up to Object.prototype.toString
+    private static final int MAX_NAME_DEPTH = 3;
+
+    private static final String REGEXP_CLASS =
+        "org.mozilla.javascript.regexp.NativeRegExp";
+
+    private static final Map<Class<?>,byte[]> classFiles =
+        Collections.synchronizedMap(new WeakHashMap<Class<?>,byte[]>());
+
+    private ScopeSnapshot()
+    {
+    }
+
+    /**
+     * Write the state of a top-level scope.
+     *
+     * @param cx the current Context
+     * @param scope the top-level scope
+     * @param out the stream to write to
+     * @throws NotSerializableException if the scope refers to an object
+     *         that cannot be written
+     */
+    public static void write(Context cx, ScriptableObject scope,
+                             OutputStream out)
+        throws IOException
+    {
+        new Writer(cx, scope).write(out);
+    }
+
+    /**
+     * Restore a snapshot into a new scope initialized with
+     * {@link Context#initStandardObjects()}.
+     *
+     * @param cx the current Context
+     * @param in the stream to read from
+     * @return the new top-level scope
+     */
+    public static ScriptableObject restore(Context cx, InputStream in)
+        throws IOException
+    {
+        ScriptableObject scope = cx.initStandardObjects();
+        restore(cx, scope, in);
+        return scope;
+    }
+
+    /**
+     * Restore a snapshot into a top-level scope that has the standard
+     * objects and any other globals the snapshot refers to by name.
+     * Restored variables replace existing ones with the same name.
+     * Class files embedded in the snapshot are refused.
+     *
+     * @param cx the current Context
+     * @param scope the top-level scope
+     * @param in the stream to read from
+     */
+    public static void restore(Context cx, ScriptableObject scope,
+                               InputStream in)
+        throws IOException
+    {
+        restore(cx, scope, in, false);
+    }
+
+    /**
+     * Restore a snapshot like
+     * {@link #restore(Context, ScriptableObject, InputStream)}, optionally
+     * defining the class files of compiled functions that the snapshot
+     * contains, see {@link Context#FEATURE_RETAIN_CLASS_FILES}.
+     *
+     * @param cx the current Context
+     * @param scope the top-level scope
+     * @param in the stream to read from
+     * @param defineClasses whether class files in the snapshot may be
+     *        defined
+     */
+    public static void restore(Context cx, ScriptableObject scope,
+                               InputStream in, boolean defineClasses)
+        throws IOException
+    {
+        byte[] data = Kit.readStream(in, 64 * 1024);
+        new Reader(cx, scope, data, defineClasses).read();
+    }
+
+    /**
+     * Remember the class file of a compiled script or function, see
+     * {@link Context#FEATURE_RETAIN_CLASS_FILES}.
+     */
+    static void retainClassFile(Class<?> cl, Object bytecode)
+    {
+        Object[] nameBytesPair = (Object[])bytecode;
+        if (cl.getName().equals(nameBytesPair[0])) {
+            classFiles.put(cl, (byte[])nameBytesPair[1]);
+        }
+    }
+
+    private static int kindOf(Object obj)
+    {
+        Class<?> cl = obj.getClass();
+        if (cl == NativeObject.class) {
+            return OBJECT;
+        } else if (cl == NativeArray.class) {
+            return ARRAY;
+        } else if (cl == InterpretedFunction.class) {
+            return FUNCTION;
+        } else if (obj instanceof NativeFunction) {
+            return COMPILED;
+        } else if (cl == NativeCall.class) {
+            return CALL;
+        } else if (cl == Arguments.class) {
+            return ARGUMENTS;
+        } else if (cl == NativeDate.class) {
+            return DATE;
+        } else if (cl == NativeJavaClass.class) {
+            return JAVA_CLASS;
+        } else if (cl == NativeJavaPackage.class) {
+            return JAVA_PACKAGE;
+        } else if (cl.getName().equals(REGEXP_CLASS)) {
+            return REGEXP;
+        }
+        return 0;
+    }
+
+    private static ClassInfo getClassInfo(Map<Class<?>,ClassInfo> infos,
+                                          Class<?> cl)
+        throws IOException
+    {
+        ClassInfo info = infos.get(cl);
+        if (info == null) {
+            info = new ClassInfo();
+            ObjArray fields = new ObjArray();
+            try {
+                // _dcp and the direct call targets, see Codegen
+                for (Field field : cl.getDeclaredFields()) {
+                    if (Modifier.isStatic(field.getModifiers())) {
+                        continue;
+                    }
+                    field.setAccessible(true);
+                    if (field.getName().equals("_id")) {
+                        info.idField = field;
+                    } else if (Scriptable.class.isAssignableFrom(
+                                   field.getType())) {
+                        fields.add(field);
+                    }
+                }
+            } catch (SecurityException e) {
+                throw ioException("Cannot access " + cl.getName(), e);
+            }
+            if (info.idField == null) {
+                throw new NotSerializableException(cl.getName());
+            }
+            info.fields = new Field[fields.size()];
+            fields.toArray(info.fields);
+            infos.put(cl, info);
+        }
+        return info;
+    }
+
+    private static IOException ioException(String message, Throwable cause)
+    {
+        IOException e = new IOException(message);
+        e.initCause(cause);
+        return e;
+    }
+
+    private static boolean isAccessor(Scriptable obj, String name)
+    {
+        if (obj instanceof ScriptableObject) {
+            ScriptableObject so = (ScriptableObject)obj;
+            return so.isGetterOrSetter(name, 0, false)
+                || so.isGetterOrSetter(name, 0, true);
+        }
+        return false;
+    }
+
+    private static Object[] getAllIds(Scriptable obj)
+    {
+        if (obj instanceof ScriptableObject) {
+            return ((ScriptableObject)obj).getAllIds();
+        }
+        return obj.getIds();
+    }
+
+    private static Object lookupQualifiedName(Scriptable scope, String name)
+    {
+        Object result = scope;
+        int start = 0;
+        while (start < name.length()) {
+            int end = name.indexOf('.', start);
+            if (end < 0) {
+                end = name.length();
+            }
+            if (!(result instanceof Scriptable)) {
+                return null;
+            }
+            result = ScriptableObject.getProperty((Scriptable)result,
+                                                  name.substring(start, end));
+            start = end + 1;
+        }
+        return result;
+    }
+
+    private static final class ClassInfo
+    {
+        Field idField;
+        Field[] fields;
+    }
+
+    private static final class Writer
+    {
+        private final Context cx;
+        private final ScriptableObject root;
+
+        // standard objects by name and the names actually written
+        private final Map<Object,Integer> wellKnownIds =
+            new IdentityHashMap<Object,Integer>();
+        private final ObjArray wellKnown = new ObjArray();
+        private final ObjArray wellKnownNames = new ObjArray();
+        private int[] wellKnownIndexes;
+        private final ObjArray usedNames = new ObjArray();
+
+        private final Map<Object,Integer> objectIds =
+            new IdentityHashMap<Object,Integer>();
+        private final ObjArray objects = new ObjArray();
+        private final ObjArray kinds = new ObjArray();
+        private final Map<Object,Object[]> slotTables =
+            new IdentityHashMap<Object,Object[]>();
+
+        private final Map<Object,Integer> codeIds =
+            new IdentityHashMap<Object,Integer>();
+        private final ObjArray codes = new ObjArray();
+
+        private final Map<Class<?>,Integer> classIds =
+            new HashMap<Class<?>,Integer>();
+        private final ObjArray classes = new ObjArray();
+        private final Map<Class<?>,ClassInfo> classInfos =
+            new HashMap<Class<?>,ClassInfo>();
+
+        private final Map<String,Integer> stringIds =
+            new HashMap<String,Integer>();
+        private final ObjArray strings = new ObjArray();
+
+        private Object currentKey;
+
+        // fresh standard objects to tell which constants scripts changed
+        private ScriptableObject standardObjects;
+
+        Writer(Context cx, ScriptableObject root)
+        {
+            this.cx = cx;
+            this.root = root;
+        }
+
+        void write(OutputStream stream) throws IOException
+        {
+            nameWellKnownObjects();
+            standardObjects = cx.initStandardObjects();
+
+            // Properties added to the scope and the standard objects
+            ObjArray patches = new ObjArray();
+            for (int i = 0; i != wellKnown.size(); ++i) {
+                Object[] table = getPatch(i);
+                if (table.length != 0) {
+                    patches.add(Integer.valueOf(i));
+                    patches.add(table);
+                }
+            }
+            Output scratch = new Output();
+            for (int i = 0; i != patches.size(); i += 2) {
+                writeSlotTable(scratch, (Object[])patches.get(i + 1));
+            }
+
+            // Find all objects reachable from them
+            for (int i = 0; i != objects.size(); ++i) {
+                scratch.reset();
+                writeContents(scratch, i);
+            }
+
+            Output objectOut = new Output();
+            int count = objects.size();
+            objectOut.writeInt(count);
+            for (int i = 0; i != count; ++i) {
+                writeShell(objectOut, i);
+            }
+            for (int i = 0; i != count; ++i) {
+                writeContents(objectOut, i);
+            }
+            objectOut.writeInt(patches.size() / 2);
+            for (int i = 0; i != patches.size(); i += 2) {
+                int index = ((Integer)patches.get(i)).intValue();
+                objectOut.writeInt(getWellKnownIndex(index));
+                writeSlotTable(objectOut, (Object[])patches.get(i + 1));
+            }
+
+            Output codeOut = new Output();
+            codeOut.writeInt(codes.size());
+            for (int i = 0; i != codes.size(); ++i) {
+                writeCode(codeOut, (InterpreterData)codes.get(i));
+            }
+
+            Output classOut = new Output();
+            classOut.writeInt(classes.size());
+            for (int i = 0; i != classes.size(); ++i) {
+                writeClass(classOut, (Class<?>)classes.get(i));
+            }
+
+            Output nameOut = new Output();
+            nameOut.writeInt(usedNames.size());
+            for (int i = 0; i != usedNames.size(); ++i) {
+                writeString(nameOut, (String)usedNames.get(i));
+            }
+
+            Output out = new Output();
+            out.writeFixedInt(MAGIC);
+            out.writeFixedInt(FORMAT_VERSION);
+            out.writeInt(strings.size());
+            for (int i = 0; i != strings.size(); ++i) {
+                out.writeChars((String)strings.get(i));
+            }
+            out.writeTo(stream);
+            nameOut.writeTo(stream);
+            classOut.writeTo(stream);
+            codeOut.writeTo(stream);
+            objectOut.writeTo(stream);
+            stream.flush();
+        }
+
+        /**
+         * Name the objects that are globals of the scope or its prototypes
+         * and the objects that are members of those, which are the standard
+         * objects and anything else the host defined. Objects that can be
+         * written are only named when they are built-in members such as
+         * <code>Array.prototype</code>.
+         */
+        private void nameWellKnownObjects()
+        {
+            addWellKnown(root, "");
+            // Start with the deepest top-level scope in the prototype chain
+            // so that builtins shared with the scope, see
+            // Context.newOverlayScope(), get their own names.
+            ObjArray chain = new ObjArray();
+            for (Scriptable obj = root; obj != null; obj = obj.getPrototype()) {
+                if (obj == root || obj.getParentScope() == null) {
+                    chain.add(obj);
+                }
+            }
+            Set<String> seen = new HashSet<String>();
+            for (int i = chain.size() - 1; i >= 0; --i) {
+                Scriptable obj = (Scriptable)chain.get(i);
+                for (Object id : getAllIds(obj)) {
+                    if (!(id instanceof String) || !seen.add((String)id)) {
+                        continue;
+                    }
+                    String name = (String)id;
+                    if (isAccessor(obj, name)) {
+                        continue;
+                    }
+                    Object value = obj.get(name, obj);
+                    if (value instanceof Scriptable && kindOf(value) == 0) {
+                        addWellKnown(value, name);
+                    }
+                }
+            }
+            for (int i = 1; i < wellKnown.size(); ++i) {
+                String name = (String)wellKnownNames.get(i);
+                if (depth(name) == MAX_NAME_DEPTH) {
+                    continue;
+                }
+                Scriptable obj = (Scriptable)wellKnown.get(i);
+                Set<Object> slotKeys = getSlotKeys(obj);
+                for (Object id : getAllIds(obj)) {
+                    if (!(id instanceof String) || isAccessor(obj, (String)id)) {
+                        continue;
+                    }
+                    Object value = getBuiltinValue(obj, (String)id);
+                    if (!(value instanceof Scriptable)) {
+                        continue;
+                    }
+                    if (kindOf(value) == 0 || (!slotKeys.contains(id)
+                                               && id.equals("prototype")))
+                    {
+                        addWellKnown(value, name + "." + id);
+                    }
+                }
+            }
+            wellKnownIndexes = new int[wellKnown.size()];
+            java.util.Arrays.fill(wellKnownIndexes, -1);
+        }
+
+        private void addWellKnown(Object obj, String name)
+        {
+            if (!wellKnownIds.containsKey(obj)) {
+                wellKnownIds.put(obj, Integer.valueOf(wellKnown.size()));
+                wellKnown.add(obj);
+                wellKnownNames.add(name);
+            }
+        }
+
+        private static int depth(String name)
+        {
+            int depth = 1;
+            for (int i = name.indexOf('.'); i >= 0;
+                 i = name.indexOf('.', i + 1))
+            {
+                ++depth;
+            }
+            return depth;
+        }
+
+        private static Set<Object> getSlotKeys(Scriptable obj)
+        {
+            Set<Object> keys = new HashSet<Object>();
+            if (obj instanceof ScriptableObject) {
+                Object[] table = ((ScriptableObject)obj).getSlotTable();
+                for (int i = 0; i < table.length; i += 3) {
+                    keys.add(table[i]);
+                }
+            }
+            return keys;
+        }
+
+        private static Object getBuiltinValue(Scriptable obj, String name)
+        {
+            if (obj instanceof BaseFunction && name.equals("prototype")) {
+                // do not create default prototypes of builtin functions
+                Object value = ((BaseFunction)obj).getRawPrototypeProperty();
+                return (value == UniqueTag.NULL_VALUE) ? null : value;
+            }
+            return obj.get(name, obj);
+        }
+
+        private int getWellKnownIndex(int index)
+        {
+            if (wellKnownIndexes[index] < 0) {
+                wellKnownIndexes[index] = usedNames.size();
+                usedNames.add(wellKnownNames.get(index));
+            }
+            return wellKnownIndexes[index];
+        }
+
+        /**
+         * Return the properties that scripts added to a named object or
+         * replaced in it, in the format of
+         * {@link ScriptableObject#getSlotTable()}.
+         */
+        /**
+         * Check if a property has the same value as in the standard
+         * objects, where named objects have the same name.
+         */
+        private boolean isOriginal(Scriptable original, Object key,
+                                   Object value)
+        {
+            Object originalValue;
+            if (key instanceof String) {
+                originalValue = ScriptableObject.getProperty(original,
+                                                             (String)key);
+            } else {
+                originalValue = ScriptableObject.getProperty(original,
+                    ((Integer)key).intValue());
+            }
+            if (value instanceof NativeJavaPackage) {
+                return originalValue instanceof NativeJavaPackage
+                    && ((NativeJavaPackage)value).getPackageName().equals(
+                           ((NativeJavaPackage)originalValue).getPackageName());
+            } else if (value instanceof Scriptable) {
+                Integer id = wellKnownIds.get(value);
+                return id != null && originalValue == lookupQualifiedName(
+                    standardObjects, (String)wellKnownNames.get(id.intValue()));
+            }
+            return value != null && value.equals(originalValue);
+        }
+
+        private Object[] getPatch(int index)
+        {
+            Scriptable obj = (Scriptable)wellKnown.get(index);
+            String name = (String)wellKnownNames.get(index);
+            String prefix = (index == 0) ? "" : name + ".";
+            ObjArray patch = new ObjArray();
+            Set<Object> slotKeys = new HashSet<Object>();
+            Object original = (index == 0)
+                ? standardObjects : lookupQualifiedName(standardObjects, name);
+            if (obj instanceof ScriptableObject) {
+                Object[] table = ((ScriptableObject)obj).getSlotTable();
+                for (int i = 0; i < table.length; i += 3) {
+                    Object key = table[i];
+                    Object value = table[i + 2];
+                    slotKeys.add(key);
+                    Integer id = wellKnownIds.get(value);
+                    if (id != null
+                        && wellKnownNames.get(id.intValue()).equals(
+                               prefix + key))
+                    {
+                        // the property that defines the name
+                        continue;
+                    }
+                    if (original instanceof Scriptable
+                        && isOriginal((Scriptable)original, key, value))
+                    {
+                        // such as NaN or Error.prototype.constructor
+                        continue;
+                    }
+                    patch.add(key);
+                    patch.add(table[i + 1]);
+                    patch.add(value);
+                }
+            }
+            if (index != 0 && obj instanceof IdScriptableObject) {
+                // builtin methods replaced by scripts
+                IdScriptableObject idObj = (IdScriptableObject)obj;
+                for (Object id : getAllIds(obj)) {
+                    if (!(id instanceof String) || slotKeys.contains(id)
+                        || id.equals("prototype")
+                        || isAccessor(obj, (String)id))
+                    {
+                        continue;
+                    }
+                    Object value = obj.get((String)id, obj);
+                    if (value instanceof Scriptable && kindOf(value) != 0
+                        && !wellKnownIds.containsKey(value))
+                    {
+                        patch.add(id);
+                        patch.add(Integer.valueOf(
+                            idObj.getAttributes((String)id)));
+                        patch.add(value);
+                    }
+                }
+            }
+            return patch.toArray();
+        }
+
+        private void reference(Object value) throws IOException
+        {
+            if (wellKnownIds.containsKey(value)
+                || objectIds.containsKey(value))
+            {
+                return;
+            }
+            int kind = kindOf(value);
+            if (kind == 0) {
+                String message = value.getClass().getName();
+                if (currentKey != null) {
+                    message += " in property " + currentKey;
+                }
+                throw new NotSerializableException(message);
+            }
+            if (kind == COMPILED) {
+                addClass(value.getClass());
+            }
+            objectIds.put(value, Integer.valueOf(objects.size()));
+            objects.add(value);
+            kinds.add(Integer.valueOf(kind));
+            if (kind == FUNCTION) {
+                addCode(((InterpretedFunction)value).idata);
+            }
+        }
+
+        private void addCode(InterpreterData idata)
+        {
+            if (idata == null || codeIds.containsKey(idata)) {
+                return;
+            }
+            codeIds.put(idata, Integer.valueOf(codes.size()));
+            codes.add(idata);
+            addCode(idata.parentData);
+            InterpreterData[] nested = idata.itsNestedFunctions;
+            if (nested != null) {
+                for (int i = 0; i != nested.length; ++i) {
+                    addCode(nested[i]);
+                }
+            }
+        }
+
+        private void addClass(Class<?> cl) throws IOException
+        {
+            if (classIds.containsKey(cl)) {
+                return;
+            }
+            getClassInfo(classInfos, cl);
+            if (!classFiles.containsKey(cl)
+                && Kit.classOrNull(cx.getApplicationClassLoader(),
+                                   cl.getName()) != cl)
+            {
+                throw new NotSerializableException(cl.getName()
+                    + ": class file not retained, see"
+                    + " Context.FEATURE_RETAIN_CLASS_FILES");
+            }
+            classIds.put(cl, Integer.valueOf(classes.size()));
+            classes.add(cl);
+        }
+
+        private void writeClass(Output out, Class<?> cl) throws IOException
+        {
+            writeString(out, cl.getName());
+            byte[] bytes = classFiles.get(cl);
+            if (bytes == null) {
+                // loaded by name
+                out.writeInt(-1);
+            } else {
+                out.writeInt(bytes.length);
+                out.writeBytes(bytes);
+            }
+            Field[] fields = getClassInfo(classInfos, cl).fields;
+            out.writeInt(fields.length);
+            for (int i = 0; i != fields.length; ++i) {
+                writeString(out, fields[i].getName());
+            }
+        }
+
+        private void writeShell(Output out, int id) throws IOException
+        {
+            Object obj = objects.get(id);
+            int kind = ((Integer)kinds.get(id)).intValue();
+            out.writeByte(kind);
+            switch (kind) {
+              case FUNCTION:
+                out.writeInt(codeIds.get(((InterpretedFunction)obj).idata)
+                             .intValue());
+                break;
+              case COMPILED: {
+                ClassInfo info = getClassInfo(classInfos, obj.getClass());
+                out.writeInt(classIds.get(obj.getClass()).intValue());
+                try {
+                    out.writeInt(info.idField.getInt(obj));
+                } catch (IllegalAccessException e) {
+                    throw ioException(obj.getClass().getName(), e);
+                }
+                break;
+              }
+              case DATE:
+                out.writeDouble(((NativeDate)obj).getJSTimeValue());
+                break;
+              case REGEXP: {
+                Scriptable re = (Scriptable)obj;
+                writeString(out, ScriptRuntime.toString(
+                    ScriptableObject.getProperty(re, "source")));
+                writeString(out, getRegExpFlags(re));
+                out.writeDouble(ScriptRuntime.toNumber(
+                    ScriptableObject.getProperty(re, "lastIndex")));
+                break;
+              }
+              case JAVA_CLASS:
+                writeString(out,
+                    ((NativeJavaClass)obj).getClassObject().getName());
+                break;
+              case JAVA_PACKAGE:
+                writeString(out, ((NativeJavaPackage)obj).getPackageName());
+                break;
+            }
+        }
+
+        private void writeContents(Output out, int id) throws IOException
+        {
+            Object obj = objects.get(id);
+            int kind = ((Integer)kinds.get(id)).intValue();
+            switch (kind) {
+              case DATE:
+              case REGEXP:
+              case JAVA_CLASS:
+              case JAVA_PACKAGE:
+                // recreated in the scope being restored
+                return;
+            }
+            ScriptableObject so = (ScriptableObject)obj;
+            currentKey = null;
+            writeValue(out, so.getPrototype());
+            writeValue(out, so.getParentScope());
+            int flags = 0;
+            if (so.isSealed()) {
+                flags |= SEALED;
+            }
+            if (!so.isExtensible()) {
+                flags |= NOT_EXTENSIBLE;
+            }
+            out.writeByte(flags);
+            switch (kind) {
+              case ARRAY: {
+                NativeArray array = (NativeArray)obj;
+                Object storage = array.getDenseStorage();
+                out.writeDouble(array.getLength());
+                if (storage instanceof double[]) {
+                    double[] elements = (double[])storage;
+                    out.writeByte(DOUBLE_ELEMENTS);
+                    out.writeInt(elements.length);
+                    for (int i = 0; i != elements.length; ++i) {
+                        // keeps the bit pattern of holes
+                        out.writeLong(Double.doubleToRawLongBits(elements[i]));
+                    }
+                } else if (storage != null) {
+                    out.writeByte(OBJECT_ELEMENTS);
+                    writeValues(out, (Object[])storage);
+                } else {
+                    out.writeByte(SPARSE_ELEMENTS);
+                }
+                break;
+              }
+              case FUNCTION:
+              case COMPILED: {
+                BaseFunction f = (BaseFunction)obj;
+                writeValue(out, f.getRawPrototypeProperty());
+                out.writeInt(f.getPrototypePropertyAttributes());
+                if (kind == COMPILED) {
+                    Field[] fields = getClassInfo(classInfos,
+                                                  obj.getClass()).fields;
+                    try {
+                        for (int i = 0; i != fields.length; ++i) {
+                            writeValue(out, fields[i].get(obj));
+                        }
+                    } catch (IllegalAccessException e) {
+                        throw ioException(obj.getClass().getName(), e);
+                    }
+                }
+                break;
+              }
+              case CALL: {
+                NativeCall call = (NativeCall)obj;
+                writeValue(out, call.function);
+                writeValues(out, call.originalArgs);
+                List<String> paramNames = call.getParamNames();
+                out.writeInt(paramNames.size());
+                for (String name : paramNames) {
+                    writeString(out, name);
+                }
+                break;
+              }
+              case ARGUMENTS:
+                writeValue(out, ((Arguments)obj).getActivation());
+                break;
+            }
+            // the discovery pass and the final pass write the same table
+            Object[] table = slotTables.get(so);
+            if (table == null) {
+                table = so.getSlotTable();
+                slotTables.put(so, table);
+            }
+            writeSlotTable(out, table);
+        }
+
+        private String getRegExpFlags(Scriptable re)
+        {
+            StringBuilder flags = new StringBuilder(3);
+            if (ScriptRuntime.toBoolean(
+                    ScriptableObject.getProperty(re, "global")))
+            {
+                flags.append('g');
+            }
+            if (ScriptRuntime.toBoolean(
+                    ScriptableObject.getProperty(re, "ignoreCase")))
+            {
+                flags.append('i');
+            }
+            if (ScriptRuntime.toBoolean(
+                    ScriptableObject.getProperty(re, "multiline")))
+            {
+                flags.append('m');
+            }
+            return flags.toString();
+        }
+
+        private void writeSlotTable(Output out, Object[] table)
+            throws IOException
+        {
+            out.writeInt(table.length / 3);
+            for (int i = 0; i < table.length; i += 3) {
+                Object key = table[i];
+                currentKey = key;
+                if (key instanceof String) {
+                    out.writeByte(0);
+                    writeString(out, (String)key);
+                } else {
+                    out.writeByte(1);
+                    out.writeInt(((Integer)key).intValue());
+                }
+                out.writeInt(((Integer)table[i + 1]).intValue());
+                Object value = table[i + 2];
+                if (value instanceof Object[]) {
+                    Object[] getterSetter = (Object[])value;
+                    out.writeByte(1);
+                    writeValue(out, getterSetter[0]);
+                    writeValue(out, getterSetter[1]);
+                } else {
+                    out.writeByte(0);
+                    writeValue(out, value);
+                }
+            }
+            currentKey = null;
+        }
+
+        private void writeValues(Output out, Object[] values)
+            throws IOException
+        {
+            out.writeInt(values.length);
+            for (int i = 0; i != values.length; ++i) {
+                writeValue(out, values[i]);
+            }
+        }
+
+        private void writeValue(Output out, Object value) throws IOException
+        {
+            if (value == null) {
+                out.writeByte(V_NULL);
+            } else if (value == Undefined.instance) {
+                out.writeByte(V_UNDEFINED);
+            } else if (value instanceof Boolean) {
+                out.writeByte(((Boolean)value).booleanValue()
+                              ? V_TRUE : V_FALSE);
+            } else if (value instanceof Integer) {
+                out.writeByte(V_INT);
+                out.writeInt(((Integer)value).intValue());
+            } else if (value instanceof Number) {
+                out.writeByte(V_DOUBLE);
+                out.writeDouble(((Number)value).doubleValue());
+            } else if (value instanceof CharSequence) {
+                out.writeByte(V_STRING);
+                writeString(out, value.toString());
+            } else if (value == UniqueTag.NOT_FOUND) {
+                out.writeByte(V_NOT_FOUND);
+            } else if (value == UniqueTag.NULL_VALUE) {
+                out.writeByte(V_NULL_VALUE);
+            } else if (value instanceof Scriptable) {
+                reference(value);
+                Integer id = wellKnownIds.get(value);
+                if (id != null) {
+                    out.writeByte(V_WELL_KNOWN);
+                    out.writeInt(getWellKnownIndex(id.intValue()));
+                } else {
+                    out.writeByte(V_OBJECT);
+                    out.writeInt(objectIds.get(value).intValue());
+                }
+            } else {
+                String message = value.getClass().getName();
+                if (currentKey != null) {
+                    message += " in property " + currentKey;
+                }
+                throw new NotSerializableException(message);
+            }
+        }
+
+        private void writeString(Output out, String s)
+        {
+            if (s == null) {
+                out.writeInt(-1);
+                return;
+            }
+            Integer id = stringIds.get(s);
+            if (id == null) {
+                id = Integer.valueOf(strings.size());
+                stringIds.put(s, id);
+                strings.add(s);
+            }
+            out.writeInt(id.intValue());
+        }
+
+        private void writeCode(Output out, InterpreterData idata)
+        {
+            writeString(out, idata.itsName);
+            writeString(out, idata.itsSourceFile);
+            int flags = 0;
+            if (idata.itsNeedsActivation) flags |= 1;
+            if (idata.useDynamicScope) flags |= 2;
+            if (idata.isStrict) flags |= 4;
+            if (idata.topLevel) flags |= 8;
+            if (idata.itsLazy) flags |= 16;
+            if (idata.evalScriptFlag) flags |= 32;
+            out.writeByte(flags);
+            out.writeInt(idata.itsFunctionType);
+            out.writeInt(idata.languageVersion);
+
+            String[] stringTable = idata.itsStringTable;
+            if (stringTable == null) {
+                out.writeInt(-1);
+            } else {
+                out.writeInt(stringTable.length);
+                for (int i = 0; i != stringTable.length; ++i) {
+                    writeString(out, stringTable[i]);
+                }
+            }
+            double[] doubleTable = idata.itsDoubleTable;
+            if (doubleTable == null) {
+                out.writeInt(-1);
+            } else {
+                out.writeInt(doubleTable.length);
+                for (int i = 0; i != doubleTable.length; ++i) {
+                    out.writeDouble(doubleTable[i]);
+                }
+            }
+            InterpreterData[] nested = idata.itsNestedFunctions;
+            if (nested == null) {
+                out.writeInt(-1);
+            } else {
+                out.writeInt(nested.length);
+                for (int i = 0; i != nested.length; ++i) {
+                    out.writeInt(codeIds.get(nested[i]).intValue());
+                }
+            }
+            Object[] regExps = idata.itsRegExpLiterals;
+            if (regExps == null) {
+                out.writeInt(-1);
+            } else {
+                RegExpProxy rep = ScriptRuntime.checkRegExpProxy(cx);
+                out.writeInt(regExps.length);
+                for (int i = 0; i != regExps.length; ++i) {
+                    Scriptable re = rep.wrapRegExp(cx, root, regExps[i]);
+                    writeString(out, ScriptRuntime.toString(
+                        ScriptableObject.getProperty(re, "source")));
+                    writeString(out, getRegExpFlags(re));
+                }
+            }
+            byte[] icode = idata.itsICode;
+            if (icode == null) {
+                out.writeInt(-1);
+            } else {
+                out.writeInt(icode.length);
+                out.writeBytes(icode);
+            }
+            out.writeInt(idata.itsPropertyCacheCount);
+            writeInts(out, idata.itsExceptionTable);
+            out.writeInt(idata.itsMaxVars);
+            out.writeInt(idata.itsMaxLocals);
+            out.writeInt(idata.itsMaxStack);
+            out.writeInt(idata.itsMaxFrameArray);
+
+            String[] argNames = idata.argNames;
+            if (argNames == null) {
+                out.writeInt(-1);
+            } else {
+                out.writeInt(argNames.length);
+                for (int i = 0; i != argNames.length; ++i) {
+                    writeString(out, argNames[i]);
+                    out.writeByte(idata.argIsConst[i] ? 1 : 0);
+                }
+            }
+            out.writeInt(idata.argCount);
+            out.writeInt(idata.itsMaxCalleeArgs);
+
+            writeString(out, idata.encodedSource);
+            out.writeInt(idata.encodedSourceStart);
+            out.writeInt(idata.encodedSourceEnd);
+
+            Object[] literalIds = idata.literalIds;
+            if (literalIds == null) {
+                out.writeInt(-1);
+            } else {
+                out.writeInt(literalIds.length);
+                for (int i = 0; i != literalIds.length; ++i) {
+                    Object literal = literalIds[i];
+                    if (literal instanceof int[]) {
+                        out.writeByte(1);
+                        writeInts(out, (int[])literal);
+                    } else {
+                        Object[] ids = (Object[])literal;
+                        out.writeByte(0);
+                        out.writeInt(ids.length);
+                        for (int j = 0; j != ids.length; ++j) {
+                            if (ids[j] instanceof String) {
+                                out.writeByte(0);
+                                writeString(out, (String)ids[j]);
+                            } else {
+                                out.writeByte(1);
+                                out.writeInt(((Integer)ids[j]).intValue());
+                            }
+                        }
+                    }
+                }
+            }
+            UintMap longJumps = idata.longJumps;
+            if (longJumps == null) {
+                out.writeInt(-1);
+            } else {
+                int[] keys = longJumps.getKeys();
+                out.writeInt(keys.length);
+                for (int i = 0; i != keys.length; ++i) {
+                    out.writeInt(keys[i]);
+                    out.writeInt(longJumps.getExistingInt(keys[i]));
+                }
+            }
+            out.writeInt(idata.firstLinePC);
+            out.writeInt(idata.itsSourceStart);
+            out.writeInt(idata.itsSourceEnd);
+            out.writeInt(idata.itsSourceLine);
+
+            // tiered compilation continues after restoring
+            writeString(out, idata.itsTieredCompiler != null
+                             ? idata.itsSource : null);
+            out.writeInt(idata.itsInvocationCount);
+            out.writeInt(idata.itsBackwardBranchCount);
+            writeString(out, idata.itsLazySource);
+            out.writeInt(idata.parentData == null
+                         ? -1 : codeIds.get(idata.parentData).intValue());
+        }
+
+        private static void writeInts(Output out, int[] array)
+        {
+            if (array == null) {
+                out.writeInt(-1);
+            } else {
+                out.writeInt(array.length);
+                for (int i = 0; i != array.length; ++i) {
+                    out.writeInt(array[i]);
+                }
+            }
+        }
+    }
+
+    private static final class Reader
+    {
+        private final Context cx;
+        private final ScriptableObject root;
+        private final Input in;
+        private final boolean defineClasses;
+
+        private String[] strings;
+        private Object[] wellKnown;
+        private Class<?>[] classes;
+        private Field[][] classFields;
+        private InterpreterData[] codes;
+        private Object[] objects;
+        private int[] kinds;
+        private int[] flags;
+        private NativeCall[] activations;
+
+        Reader(Context cx, ScriptableObject root, byte[] data,
+               boolean defineClasses)
+        {
+            this.cx = cx;
+            this.root = root;
+            this.in = new Input(data);
+            this.defineClasses = defineClasses;
+        }
+
+        void read() throws IOException
+        {
+            if (in.readFixedInt() != MAGIC
+                || in.readFixedInt() != FORMAT_VERSION)
+            {
+                throw new IOException("Not a scope snapshot");
+            }
+            strings = new String[in.readCount()];
+            for (int i = 0; i != strings.length; ++i) {
+                strings[i] = in.readChars();
+            }
+            wellKnown = new Object[in.readCount()];
+            for (int i = 0; i != wellKnown.length; ++i) {
+                String name = readString();
+                Object obj = lookupQualifiedName(root, name);
+                if (!(obj instanceof Scriptable)) {
+                    throw new IOException("Object " + name
+                                          + " not found upon restoring");
+                }
+                wellKnown[i] = obj;
+            }
+            readClasses();
+            readCodes();
+
+            int count = in.readCount();
+            objects = new Object[count];
+            kinds = new int[count];
+            flags = new int[count];
+            for (int i = 0; i != count; ++i) {
+                readShell(i);
+            }
+            for (int i = 0; i != count; ++i) {
+                readContents(i);
+            }
+            int patchCount = in.readCount();
+            for (int i = 0; i != patchCount; ++i) {
+                Scriptable obj = (Scriptable)wellKnown[in.readInt()];
+                applyPatch(obj, readSlotTable());
+            }
+
+            for (int i = 0; i != count; ++i) {
+                if (kinds[i] == ARGUMENTS) {
+                    ((Arguments)objects[i]).init(activations[i]);
+                } else if (kinds[i] == FUNCTION) {
+                    InterpretedFunction f = (InterpretedFunction)objects[i];
+                    if (f.idata.itsRegExpLiterals != null) {
+                        f.functionRegExps = f.createRegExpWraps(cx, root);
+                    }
+                }
+            }
+            for (int i = 0; i != count; ++i) {
+                if ((flags[i] & NOT_EXTENSIBLE) != 0) {
+                    ((ScriptableObject)objects[i]).preventExtensions();
+                }
+                if ((flags[i] & SEALED) != 0) {
+                    ((ScriptableObject)objects[i]).sealObject();
+                }
+            }
+        }
+
+        private void readClasses() throws IOException
+        {
+            int count = in.readCount();
+            classes = new Class<?>[count];
+            classFields = new Field[count][];
+            Map<Class<?>,ClassInfo> infos = new HashMap<Class<?>,ClassInfo>();
+            for (int i = 0; i != count; ++i) {
+                String name = readString();
+                int length = in.readInt();
+                Class<?> cl;
+                if (length < 0) {
+                    cl = Kit.classOrNull(cx.getApplicationClassLoader(), name);
+                    if (cl == null) {
+                        throw new IOException("Class " + name + " not found");
+                    }
+                } else {
+                    if (!defineClasses) {
+                        throw new IOException("Class file of " + name
+                                              + " not allowed");
+                    }
+                    byte[] bytes = in.readBytes(length);
+                    GeneratedClassLoader loader = SecurityController
+                        .createLoader(ScopeSnapshot.class.getClassLoader(),
+                                      null);
+                    try {
+                        cl = loader.defineClass(name, bytes);
+                        loader.linkClass(cl);
+                    } catch (RuntimeException e) {
+                        throw ioException("Cannot define " + name, e);
+                    }
+                    if (cx.hasFeature(Context.FEATURE_RETAIN_CLASS_FILES)) {
+                        classFiles.put(cl, bytes);
+                    }
+                }
+                // checked before anything is instantiated
+                if (!NativeFunction.class.isAssignableFrom(cl)
+                    && !Script.class.isAssignableFrom(cl))
+                {
+                    throw new IOException(name
+                        + " is not a compiled script or function");
+                }
+                classes[i] = cl;
+                Field[] known = getClassInfo(infos, cl).fields;
+                Field[] fields = new Field[in.readCount()];
+                for (int j = 0; j != fields.length; ++j) {
+                    String fieldName = readString();
+                    // only the fields that writing would have named
+                    for (Field field : known) {
+                        if (field.getName().equals(fieldName)) {
+                            fields[j] = field;
+                            break;
+                        }
+                    }
+                    if (fields[j] == null) {
+                        throw new IOException("Field " + name + "."
+                                              + fieldName + " not found");
+                    }
+                }
+                classFields[i] = fields;
+            }
+        }
+
+        private void readCodes() throws IOException
+        {
+            int count = in.readCount();
+            codes = new InterpreterData[count];
+            for (int i = 0; i != count; ++i) {
+                codes[i] = new InterpreterData();
+            }
+            TieredCompiler tieredCompiler = cx.getTieredCompiler();
+            for (int i = 0; i != count; ++i) {
+                InterpreterData idata = codes[i];
+                idata.itsName = readString();
+                idata.itsSourceFile = readString();
+                int codeFlags = in.readByte();
+                idata.itsNeedsActivation = (codeFlags & 1) != 0;
+                idata.useDynamicScope = (codeFlags & 2) != 0;
+                idata.isStrict = (codeFlags & 4) != 0;
+                idata.topLevel = (codeFlags & 8) != 0;
+                idata.itsLazy = (codeFlags & 16) != 0;
+                idata.evalScriptFlag = (codeFlags & 32) != 0;
+                idata.itsFunctionType = in.readInt();
+                idata.languageVersion = in.readInt();
+
+                int n = in.readInt();
+                if (n >= 0) {
+                    String[] stringTable = new String[n];
+                    for (int j = 0; j != n; ++j) {
+                        stringTable[j] = readString();
+                    }
+                    idata.itsStringTable = stringTable;
+                }
+                n = in.readInt();
+                if (n >= 0) {
+                    double[] doubleTable = new double[n];
+                    for (int j = 0; j != n; ++j) {
+                        doubleTable[j] = in.readDouble();
+                    }
+                    idata.itsDoubleTable = doubleTable;
+                }
+                n = in.readInt();
+                if (n >= 0) {
+                    InterpreterData[] nested = new InterpreterData[n];
+                    for (int j = 0; j != n; ++j) {
+                        nested[j] = codes[in.readInt()];
+                    }
+                    idata.itsNestedFunctions = nested;
+                }
+                n = in.readInt();
+                if (n >= 0) {
+                    RegExpProxy rep = ScriptRuntime.checkRegExpProxy(cx);
+                    Object[] regExps = new Object[n];
+                    for (int j = 0; j != n; ++j) {
+                        String source = readString();
+                        String reFlags = readString();
+                        regExps[j] = rep.compileRegExp(cx, source, reFlags);
+                    }
+                    idata.itsRegExpLiterals = regExps;
+                }
+                n = in.readInt();
+                if (n >= 0) {
+                    idata.itsICode = in.readBytes(n);
+                }
+                idata.itsPropertyCacheCount = in.readInt();
+                idata.itsExceptionTable = readInts();
+                idata.itsMaxVars = in.readInt();
+                idata.itsMaxLocals = in.readInt();
+                idata.itsMaxStack = in.readInt();
+                idata.itsMaxFrameArray = in.readInt();
+
+                n = in.readInt();
+                if (n >= 0) {
+                    String[] argNames = new String[n];
+                    boolean[] argIsConst = new boolean[n];
+                    for (int j = 0; j != n; ++j) {
+                        argNames[j] = readString();
+                        argIsConst[j] = in.readByte() != 0;
+                    }
+                    idata.argNames = argNames;
+                    idata.argIsConst = argIsConst;
+                }
+                idata.argCount = in.readInt();
+                idata.itsMaxCalleeArgs = in.readInt();
+
+                idata.encodedSource = readString();
+                idata.encodedSourceStart = in.readInt();
+                idata.encodedSourceEnd = in.readInt();
+
+                n = in.readInt();
+                if (n >= 0) {
+                    Object[] literalIds = new Object[n];
+                    for (int j = 0; j != n; ++j) {
+                        if (in.readByte() == 1) {
+                            literalIds[j] = readInts();
+                        } else {
+                            Object[] ids = new Object[in.readCount()];
+                            for (int k = 0; k != ids.length; ++k) {
+                                if (in.readByte() == 0) {
+                                    ids[k] = readString();
+                                } else {
+                                    ids[k] = Integer.valueOf(in.readInt());
+                                }
+                            }
+                            literalIds[j] = ids;
+                        }
+                    }
+                    idata.literalIds = literalIds;
+                }
+                n = in.readInt();
+                if (n >= 0) {
+                    UintMap longJumps = new UintMap(n);
+                    for (int j = 0; j != n; ++j) {
+                        int key = in.readInt();
+                        longJumps.put(key, in.readInt());
+                    }
+                    idata.longJumps = longJumps;
+                }
+                idata.firstLinePC = in.readInt();
+                idata.itsSourceStart = in.readInt();
+                idata.itsSourceEnd = in.readInt();
+                idata.itsSourceLine = in.readInt();
+
+                String source = readString();
+                if (source != null && tieredCompiler != null) {
+                    idata.itsTieredCompiler = tieredCompiler;
+                    idata.itsSource = source;
+                }
+                idata.itsInvocationCount = in.readInt();
+                idata.itsBackwardBranchCount = in.readInt();
+                idata.itsLazySource = readString();
+                int parent = in.readInt();
+                if (parent >= 0) {
+                    idata.parentData = codes[parent];
+                }
+            }
+        }
+
+        private void readShell(int id) throws IOException
+        {
+            int kind = in.readByte();
+            kinds[id] = kind;
+            Object obj;
+            switch (kind) {
+              case OBJECT:
+                obj = new NativeObject();
+                break;
+              case ARRAY:
+                obj = new NativeArray(0);
+                break;
+              case FUNCTION:
+                obj = InterpretedFunction.createScript(codes[in.readInt()],
+                                                       null);
+                break;
+              case COMPILED: {
+                Class<?> cl = classes[in.readInt()];
+                int functionId = in.readInt();
+                try {
+                    if (functionId == 0 && Script.class.isAssignableFrom(cl)) {
+                        obj = cl.getDeclaredConstructor().newInstance();
+                    } else {
+                        obj = cl.getConstructor(Scriptable.class,
+                                                Context.class, Integer.TYPE)
+                            .newInstance(root, cx,
+                                         Integer.valueOf(functionId));
+                    }
+                } catch (Exception e) {
+                    throw ioException("Cannot instantiate " + cl.getName(), e);
+                }
+                break;
+              }
+              case CALL:
+                obj = new NativeCall();
+                break;
+              case ARGUMENTS:
+                obj = new Arguments();
+                if (activations == null) {
+                    activations = new NativeCall[objects.length];
+                }
+                break;
+              case DATE:
+                obj = cx.newObject(root, "Date", new Object[] {
+                    Double.valueOf(in.readDouble()) });
+                break;
+              case REGEXP: {
+                String source = readString();
+                String reFlags = readString();
+                RegExpProxy rep = ScriptRuntime.checkRegExpProxy(cx);
+                Scriptable re = rep.wrapRegExp(cx, root,
+                    rep.compileRegExp(cx, source, reFlags));
+                re.put("lastIndex", re, Double.valueOf(in.readDouble()));
+                obj = re;
+                break;
+              }
+              case JAVA_CLASS: {
+                String name = readString();
+                obj = lookupQualifiedName(root, "Packages." + name);
+                if (!(obj instanceof NativeJavaClass)
+                    || !((NativeJavaClass)obj).getClassObject().getName()
+                           .equals(name))
+                {
+                    Class<?> cl = Kit.classOrNull(
+                        cx.getApplicationClassLoader(), name);
+                    if (cl == null) {
+                        throw new IOException("Class " + name + " not found");
+                    }
+                    obj = new NativeJavaClass(root, cl);
+                }
+                break;
+              }
+              case JAVA_PACKAGE: {
+                String name = readString();
+                obj = lookupQualifiedName(root, "Packages." + name);
+                if (!(obj instanceof NativeJavaPackage)) {
+                    throw new IOException("Package " + name + " not found");
+                }
+                break;
+              }
+              default:
+                throw new IOException("Bad object kind " + kind);
+            }
+            objects[id] = obj;
+        }
+
+        private void readContents(int id) throws IOException
+        {
+            int kind = kinds[id];
+            switch (kind) {
+              case DATE:
+              case REGEXP:
+              case JAVA_CLASS:
+              case JAVA_PACKAGE:
+                return;
+            }
+            ScriptableObject so = (ScriptableObject)objects[id];
+            so.setPrototype((Scriptable)readValue());
+            so.setParentScope((Scriptable)readValue());
+            flags[id] = in.readByte();
+            switch (kind) {
+              case ARRAY: {
+                long length = (long)in.readDouble();
+                Object storage;
+                switch (in.readByte()) {
+                  case DOUBLE_ELEMENTS: {
+                    double[] elements = new double[in.readCount()];
+                    for (int i = 0; i != elements.length; ++i) {
+                        elements[i] = Double.longBitsToDouble(in.readLong());
+                    }
+                    storage = elements;
+                    break;
+                  }
+                  case OBJECT_ELEMENTS:
+                    storage = readValues();
+                    break;
+                  default:
+                    storage = null;
+                }
+                ((NativeArray)so).setStorage(storage, length);
+                break;
+              }
+              case FUNCTION:
+              case COMPILED: {
+                Object prototype = readValue();
+                ((BaseFunction)so).setRawPrototypeProperty(prototype,
+                                                           in.readInt());
+                if (kind == COMPILED) {
+                    Field[] fields = classFields[indexOfClass(so.getClass())];
+                    try {
+                        for (int i = 0; i != fields.length; ++i) {
+                            fields[i].set(so, readValue());
+                        }
+                    } catch (IllegalAccessException e) {
+                        throw ioException(so.getClass().getName(), e);
+                    }
+                }
+                break;
+              }
+              case CALL: {
+                NativeCall call = (NativeCall)so;
+                call.function = (NativeFunction)readValue();
+                call.originalArgs = readValues();
+                int n = in.readCount();
+                for (int i = 0; i != n; ++i) {
+                    call.getParamNames().add(readString());
+                }
+                break;
+              }
+              case ARGUMENTS:
+                activations[id] = (NativeCall)readValue();
+                break;
+            }
+            so.addSlotTable(readSlotTable());
+        }
+
+        private int indexOfClass(Class<?> cl)
+        {
+            for (int i = 0; i != classes.length; ++i) {
+                if (classes[i] == cl) {
+                    return i;
+                }
+            }
+            throw Kit.codeBug();
+        }
+
+        private void applyPatch(Scriptable obj, Object[] table)
+        {
+            for (int i = 0; i < table.length; i += 3) {
+                Object key = table[i];
+                String name = null;
+                int index = 0;
+                if (key instanceof String) {
+                    name = (String)key;
+                } else {
+                    index = ((Integer)key).intValue();
+                }
+                int attributes = ((Integer)table[i + 1]).intValue();
+                Object value = table[i + 2];
+                if (value instanceof Object[]) {
+                    Object[] getterSetter = (Object[])value;
+                    ScriptableObject so = (ScriptableObject)obj;
+                    so.setGetterOrSetter(name, index,
+                                         (Callable)getterSetter[0], false);
+                    so.setGetterOrSetter(name, index,
+                                         (Callable)getterSetter[1], true);
+                    setAttributes(so, name, index, attributes);
+                    continue;
+                }
+                boolean has = (name != null) ? obj.has(name, obj)
+                                             : obj.has(index, obj);
+                if (has) {
+                    Object old = (name != null) ? obj.get(name, obj)
+                                                : obj.get(index, obj);
+                    if (old == value || (old != null && old.equals(value))) {
+                        continue;
+                    }
+                }
+                if (name != null) {
+                    obj.put(name, obj, value);
+                } else {
+                    obj.put(index, obj, value);
+                }
+                if (!has && obj instanceof ScriptableObject) {
+                    setAttributes((ScriptableObject)obj, name, index,
+                                  attributes);
+                }
+            }
+        }
+
+        private static void setAttributes(ScriptableObject obj, String name,
+                                          int index, int attributes)
+        {
+            if (name != null) {
+                obj.setAttributes(name, attributes);
+            } else {
+                obj.setAttributes(index, attributes);
+            }
+        }
+
+        private Object[] readSlotTable() throws IOException
+        {
+            int n = in.readCount();
+            Object[] table = new Object[3 * n];
+            for (int i = 0; i != n; ++i) {
+                if (in.readByte() == 0) {
+                    table[3 * i] = readString();
+                } else {
+                    table[3 * i] = Integer.valueOf(in.readInt());
+                }
+                table[3 * i + 1] = Integer.valueOf(in.readInt());
+                if (in.readByte() == 0) {
+                    table[3 * i + 2] = readValue();
+                } else {
+                    Object getter = readValue();
+                    Object setter = readValue();
+                    table[3 * i + 2] = new Object[] { getter, setter };
+                }
+            }
+            return table;
+        }
+
+        private Object[] readValues() throws IOException
+        {
+            Object[] values = new Object[in.readCount()];
+            for (int i = 0; i != values.length; ++i) {
+                values[i] = readValue();
+            }
+            return values;
+        }
+
+        private Object readValue() throws IOException
+        {
+            int tag = in.readByte();
+            switch (tag) {
+              case V_UNDEFINED:
+                return Undefined.instance;
+              case V_NULL:
+                return null;
+              case V_TRUE:
+                return Boolean.TRUE;
+              case V_FALSE:
+                return Boolean.FALSE;
+              case V_INT:
+                return Integer.valueOf(in.readInt());
+              case V_DOUBLE:
+                return Double.valueOf(in.readDouble());
+              case V_STRING:
+                return readString();
+              case V_OBJECT:
+                return objects[in.readInt()];
+              case V_WELL_KNOWN:
+                return wellKnown[in.readInt()];
+              case V_NOT_FOUND:
+                return UniqueTag.NOT_FOUND;
+              case V_NULL_VALUE:
+                return UniqueTag.NULL_VALUE;
+            }
+            throw new IOException("Bad value tag " + tag);
+        }
+
+        private String readString() throws IOException
+        {
+            int id = in.readInt();
+            return (id < 0) ? null : strings[id];
+        }
+
+        private int[] readInts() throws IOException
+        {
+            int n = in.readInt();
+            if (n < 0) {
+                return null;
+            }
+            int[] array = new int[n];
+            for (int i = 0; i != n; ++i) {
+                array[i] = in.readInt();
+            }
+            return array;
+        }
+    }
+
+    /**
+     * Growable byte buffer. Ints are written as variable length
+     * zigzag-encoded numbers, so small negative values stay short.
+     */
+    private static final class Output
+    {
+        private byte[] buffer = new byte[4096];
+        private int length;
+
+        void reset()
+        {
+            length = 0;
+        }
+
+        void writeByte(int b)
+        {
+            ensure(1);
+            buffer[length++] = (byte)b;
+        }
+
+        void writeInt(int value)
+        {
+            ensure(5);
+            int v = (value << 1) ^ (value >> 31);
+            while ((v & ~0x7F) != 0) {
+                buffer[length++] = (byte)((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            buffer[length++] = (byte)v;
+        }
+
+        void writeFixedInt(int value)
+        {
+            ensure(4);
+            for (int shift = 24; shift >= 0; shift -= 8) {
+                buffer[length++] = (byte)(value >>> shift);
+            }
+        }
+
+        void writeLong(long value)
+        {
+            ensure(8);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                buffer[length++] = (byte)(value >>> shift);
+            }
+        }
+
+        void writeDouble(double value)
+        {
+            writeLong(Double.doubleToLongBits(value));
+        }
+
+        void writeBytes(byte[] bytes)
+        {
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buffer, length, bytes.length);
+            length += bytes.length;
+        }
+
+        void writeChars(String s)
+        {
+            int n = s.length();
+            boolean wide = false;
+            for (int i = 0; i != n; ++i) {
+                if (s.charAt(i) >= 0x80) {
+                    wide = true;
+                    break;
+                }
+            }
+            writeInt(n);
+            writeByte(wide ? 1 : 0);
+            ensure(wide ? 2 * n : n);
+            for (int i = 0; i != n; ++i) {
+                char c = s.charAt(i);
+                if (wide) {
+                    buffer[length++] = (byte)(c >>> 8);
+                }
+                buffer[length++] = (byte)c;
+            }
+        }
+
+        void writeTo(OutputStream out) throws IOException
+        {
+            out.write(buffer, 0, length);
+        }
+
+        private void ensure(int n)
+        {
+            if (length + n > buffer.length) {
+                int size = Math.max(2 * buffer.length, length + n);
+                byte[] newBuffer = new byte[size];
+                System.arraycopy(buffer, 0, newBuffer, 0, length);
+                buffer = newBuffer;
+            }
+        }
+    }
+
+    private static final class Input
+    {
+        private final byte[] buffer;
+        private int position;
+
+        Input(byte[] buffer)
+        {
+            this.buffer = buffer;
+        }
+
+        int readByte() throws IOException
+        {
+            if (position == buffer.length) {
+                throw new EOFException();
+            }
+            return buffer[position++] & 0xFF;
+        }
+
+        int readInt() throws IOException
+        {
+            int v = 0;
+            for (int shift = 0; ; shift += 7) {
+                if (shift > 28) {
+                    throw new IOException("Bad number");
+                }
+                int b = readByte();
+                v |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    break;
+                }
+            }
+            return (v >>> 1) ^ -(v & 1);
+        }
+
+        int readCount() throws IOException
+        {
+            int n = readInt();
+            if (n < 0 || n > buffer.length - position) {
+                // every entry takes at least one byte
+                throw new IOException("Bad count " + n);
+            }
+            return n;
+        }
+
+        int readFixedInt() throws IOException
+        {
+            int v = 0;
+            for (int i = 0; i != 4; ++i) {
+                v = (v << 8) | readByte();
+            }
+            return v;
+        }
+
+        long readLong() throws IOException
+        {
+            if (buffer.length - position < 8) {
+                throw new EOFException();
+            }
+            long v = 0;
+            for (int i = 0; i != 8; ++i) {
+                v = (v << 8) | (buffer[position++] & 0xFF);
+            }
+            return v;
+        }
+
+        double readDouble() throws IOException
+        {
+            return Double.longBitsToDouble(readLong());
+        }
+
+        byte[] readBytes(int n) throws IOException
+        {
+            if (n < 0 || buffer.length - position < n) {
+                throw new EOFException();
+            }
+            byte[] bytes = new byte[n];
+            System.arraycopy(buffer, position, bytes, 0, n);
+            position += n;
+            return bytes;
+        }
+
+        String readChars() throws IOException
+        {
+            int n = readInt();
+            boolean wide = readByte() != 0;
+            if (n < 0 || buffer.length - position < (wide ? 2 * n : n)) {
+                throw new EOFException();
+            }
+            char[] chars = new char[n];
+            for (int i = 0; i != n; ++i) {
+                int c = buffer[position++] & 0xFF;
+                if (wide) {
+                    c = (c << 8) | (buffer[position++] & 0xFF);
+                }
+                chars[i] = (char)c;
+            }
+            return new String(chars);
+        }
+    }
+}
@@ -269,6 +269,27 @@ public class ScriptRuntime {
         return scope;
     }
 
+    public static ScriptableObject initSharedStandardObjects(Context cx)
+    {
+        TopLevel scope = new TopLevel();
+        initStandardObjects(cx, scope, true);
+        // Sealing the scope initializes all lazily loaded constructors,
+        // so no thread ever modifies the shared objects afterwards.
+        scope.sealObject();
+        return scope;
+    }
+
+    public static ScriptableObject newOverlayScope(ScriptableObject sharedScope)
+    {
+        if (sharedScope.getParentScope() != null) {
+            throw new IllegalArgumentException();
+        }
+        TopLevel scope = new TopLevel();
+        scope.setPrototype(sharedScope);
+        scope.cacheBuiltins();
+        return scope;
+    }
+
     public static ScriptableObject getLibraryScopeOrNull(Scriptable scope)
     {
         ScriptableObject libScope;
@@ -356,8 +377,8 @@ public class ScriptRuntime {
                 return ((Boolean) val).booleanValue();
             if (val == null || val == Undefined.instance)
                 return false;
-            if (val instanceof String)
-                return ((String) val).length() != 0;
+            if (val instanceof CharSequence)
+                return ((CharSequence) val).length() != 0;
             if (val instanceof Number) {
                 double d = ((Number) val).doubleValue();
                 return (d == d && d != 0.0);
@@ -397,8 +418,8 @@ public class ScriptRuntime {
                 return +0.0;
             if (val == Undefined.instance)
                 return NaN;
-            if (val instanceof String)
-                return toNumber((String) val);
+            if (val instanceof CharSequence)
+                return toNumber(val.toString());
             if (val instanceof Boolean)
                 return ((Boolean) val).booleanValue() ? 1 : +0.0;
             if (val instanceof Scriptable) {
@@ -782,8 +803,8 @@ public class ScriptRuntime {
             if (val == Undefined.instance) {
                 return "undefined";
             }
-            if (val instanceof String) {
-                return (String)val;
+            if (val instanceof CharSequence) {
+                return val.toString();
             }
             if (val instanceof Number) {
                 // XXX should we just teach NativeNumber.stringValue()
@@ -851,8 +872,8 @@ public class ScriptRuntime {
         if (value == Undefined.instance) {
             return "undefined";
         }
-        if (value instanceof String) {
-            String escaped = escapeString((String)value);
+        if (value instanceof CharSequence) {
+            String escaped = escapeString(value.toString());
             StringBuffer sb = new StringBuffer(escaped.length() + 2);
             sb.append('\"');
             sb.append(escaped);
@@ -1012,8 +1033,8 @@ public class ScriptRuntime {
         if (val instanceof Scriptable) {
             return (Scriptable) val;
         }
-        if (val instanceof String) {
-            NativeString result = new NativeString((String)val);
+        if (val instanceof CharSequence) {
+            NativeString result = new NativeString(val.toString());
             setBuiltinProtoAndParent(result, scope, TopLevel.Builtins.String);
             return result;
         }
@@ -2558,7 +2579,7 @@ public class ScriptRuntime {
         if (args.length < 1)
             return Undefined.instance;
         Object x = args[0];
-        if (!(x instanceof String)) {
+        if (!(x instanceof CharSequence)) {
             if (cx.hasFeature(Context.FEATURE_STRICT_MODE) ||
                 cx.hasFeature(Context.FEATURE_STRICT_EVAL))
             {
@@ -2591,9 +2612,9 @@ public class ScriptRuntime {
 
         // Compile with explicit interpreter instance to force interpreter
         // mode.
-        Script script = cx.compileString((String)x, evaluator,
-                                         reporter, sourceName, 1, null);
-        evaluator.setEvalScriptFlag(script);
+        Script script = (Script)cx.compileEval(null, x.toString(),
+                                               (Interpreter)evaluator,
+                                               reporter, sourceName, false);
         Callable c = (Callable)script;
         return c.call(cx, scope, (Scriptable)thisArg, ScriptRuntime.emptyArgs);
     }
@@ -2611,7 +2632,7 @@ public class ScriptRuntime {
         	return ((ScriptableObject) value).getTypeOf();
         if (value instanceof Scriptable)
             return (value instanceof Callable) ? "function" : "object";
-        if (value instanceof String)
+        if (value instanceof CharSequence)
             return "string";
         if (value instanceof Number)
             return "number";
@@ -2666,23 +2687,48 @@ public class ScriptRuntime {
             val1 = ((Scriptable) val1).getDefaultValue(null);
         if (val2 instanceof Scriptable)
             val2 = ((Scriptable) val2).getDefaultValue(null);
-        if (!(val1 instanceof String) && !(val2 instanceof String))
+        if (!(val1 instanceof CharSequence) && !(val2 instanceof CharSequence))
             if ((val1 instanceof Number) && (val2 instanceof Number))
                 return wrapNumber(((Number)val1).doubleValue() +
                                   ((Number)val2).doubleValue());
             else
                 return wrapNumber(toNumber(val1) + toNumber(val2));
-        return toString(val1).concat(toString(val2));
+        return ConsString.concat(toCharSequence(val1), toCharSequence(val2));
+    }
+
+    public static CharSequence add(CharSequence val1, Object val2) {
+        return ConsString.concat(val1, toCharSequence(val2));
+    }
+
+    public static CharSequence add(Object val1, CharSequence val2) {
+        return ConsString.concat(toCharSequence(val1), val2);
     }
 
+    /**
+     * @deprecated The method is only present for compatibility.
+     */
     public static String add(String val1, Object val2) {
         return val1.concat(toString(val2));
     }
 
+    /**
+     * @deprecated The method is only present for compatibility.
+     */
     public static String add(Object val1, String val2) {
         return toString(val1).concat(val2);
     }
 
+    /**
+     * Convert a primitive value to a string for concatenation, keeping
+     * strings that are not yet flat as they are.
+     */
+    static CharSequence toCharSequence(Object val) {
+        if (val instanceof CharSequence) {
+            return (CharSequence)val;
+        }
+        return toString(val);
+    }
+
     /**
      * @deprecated The method is only present for compatibility.
      */
@@ -2867,8 +2913,8 @@ public class ScriptRuntime {
             return false;
         } else if (x instanceof Number) {
             return eqNumber(((Number)x).doubleValue(), y);
-        } else if (x instanceof String) {
-            return eqString((String)x, y);
+        } else if (x instanceof CharSequence) {
+            return eqString(x.toString(), y);
         } else if (x instanceof Boolean) {
             boolean b = ((Boolean)x).booleanValue();
             if (y instanceof Boolean) {
@@ -2920,8 +2966,8 @@ public class ScriptRuntime {
                 return eqNumber(d, x);
             } else if (y instanceof Number) {
                 return eqNumber(((Number)y).doubleValue(), x);
-            } else if (y instanceof String) {
-                return eqString((String)y, x);
+            } else if (y instanceof CharSequence) {
+                return eqString(y.toString(), x);
             }
             // covers the case when y == Undefined.instance as well
             return false;
@@ -2933,7 +2979,7 @@ public class ScriptRuntime {
     
     public static boolean isPrimitive(Object obj) {
         return obj == null || obj == Undefined.instance || 
-                (obj instanceof Number) || (obj instanceof String) ||
+                (obj instanceof Number) || (obj instanceof CharSequence) ||
                 (obj instanceof Boolean);
     }
 
@@ -2944,7 +2990,7 @@ public class ScriptRuntime {
                 return false;
             } else if (y instanceof Number) {
                 return x == ((Number)y).doubleValue();
-            } else if (y instanceof String) {
+            } else if (y instanceof CharSequence) {
                 return x == toNumber(y);
             } else if (y instanceof Boolean) {
                 return x == (((Boolean)y).booleanValue() ? 1.0 : +0.0);
@@ -2969,8 +3015,8 @@ public class ScriptRuntime {
         for (;;) {
             if (y == null || y == Undefined.instance) {
                 return false;
-            } else if (y instanceof String) {
-                return x.equals(y);
+            } else if (y instanceof CharSequence) {
+                return x.equals(y.toString());
             } else if (y instanceof Number) {
                 return toNumber(x) == ((Number)y).doubleValue();
             } else if (y instanceof Boolean) {
@@ -3006,9 +3052,9 @@ public class ScriptRuntime {
             if (y instanceof Number) {
                 return ((Number)x).doubleValue() == ((Number)y).doubleValue();
             }
-        } else if (x instanceof String) {
-            if (y instanceof String) {
-                return x.equals(y);
+        } else if (x instanceof CharSequence) {
+            if (y instanceof CharSequence) {
+                return x.toString().equals(y.toString());
             }
         } else if (x instanceof Boolean) {
             if (y instanceof Boolean) {
@@ -3094,8 +3140,8 @@ public class ScriptRuntime {
                 val1 = ((Scriptable) val1).getDefaultValue(NumberClass);
             if (val2 instanceof Scriptable)
                 val2 = ((Scriptable) val2).getDefaultValue(NumberClass);
-            if (val1 instanceof String && val2 instanceof String) {
-                return ((String)val1).compareTo((String)val2) < 0;
+            if (val1 instanceof CharSequence && val2 instanceof CharSequence) {
+                return val1.toString().compareTo(val2.toString()) < 0;
             }
             d1 = toNumber(val1);
             d2 = toNumber(val2);
@@ -3114,8 +3160,8 @@ public class ScriptRuntime {
                 val1 = ((Scriptable) val1).getDefaultValue(NumberClass);
             if (val2 instanceof Scriptable)
                 val2 = ((Scriptable) val2).getDefaultValue(NumberClass);
-            if (val1 instanceof String && val2 instanceof String) {
-                return ((String)val1).compareTo((String)val2) <= 0;
+            if (val1 instanceof CharSequence && val2 instanceof CharSequence) {
+                return val1.toString().compareTo(val2.toString()) <= 0;
             }
             d1 = toNumber(val1);
             d2 = toNumber(val2);
@@ -3224,6 +3270,19 @@ public class ScriptRuntime {
         }
     }
 
+    /**
+     * Deliver a pending interrupt request, see
+     * {@link Context#requestInterrupt()}. Called at function entry and
+     * loop back-edges.
+     */
+    public static void checkInterrupt(Context cx)
+    {
+        if (cx.interruptRequested) {
+            cx.interruptRequested = false;
+            cx.observeInterrupt();
+        }
+    }
+
     public static void initScript(NativeFunction funObj, Scriptable thisObj,
                                   Context cx, Scriptable scope,
                                   boolean evalScript)
@@ -4019,7 +4078,7 @@ public class ScriptRuntime {
         return value;
     }
 
-    private static void storeScriptable(Context cx, Scriptable value)
+    static void storeScriptable(Context cx, Scriptable value)
     {
         // The previously stored scratchScriptable should be consumed
         if (cx.scratchScriptable != null)
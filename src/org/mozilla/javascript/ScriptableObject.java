@@ -61,6 +61,7 @@ import java.lang.reflect.Modifier;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import org.mozilla.javascript.debug.DebuggableObject;
 import org.mozilla.javascript.annotations.JSConstructor;
@@ -146,7 +147,20 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
      */
     private Scriptable parentScopeObject;
 
-    private transient Slot[] slots;
+    // Fast representation: a layout shared with other objects that got the
+    // same properties in the same order and the per-object property values
+    // indexed by position in that layout. When propertyMap is null, the
+    // properties are kept in the slots hashtable instead.
+    private transient volatile PropertyMap propertyMap = PropertyMap.EMPTY;
+    private transient volatile AtomicReferenceArray<Object> propertyValues;
+
+    // Reads and stores of existing properties do not lock. Changes that
+    // move properties to a new propertyValues array or a new slots table
+    // make structureStamp odd while they run, see storeFastValue() and
+    // getSlot().
+    private transient volatile int structureStamp;
+
+    private transient volatile Slot[] slots;
     // If count >= 0, it gives number of keys or if count < 0,
     // it indicates sealed object where ~count gives number of keys
     private int count;
@@ -217,7 +231,7 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
             return attributes;
         }
 
-        final synchronized void setAttributes(int value)
+        final void setAttributes(int value)
         {
             checkValidAttributes(value);
             attributes = (short)value;
@@ -401,7 +415,7 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
      */
     public boolean has(String name, Scriptable start)
     {
-        return null != getSlot(name, 0, SLOT_QUERY);
+        return hasImpl(name, 0);
     }
 
     /**
@@ -413,7 +427,7 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
      */
     public boolean has(int index, Scriptable start)
     {
-        return null != getSlot(null, index, SLOT_QUERY);
+        return hasImpl(null, index);
     }
 
     /**
@@ -663,6 +677,8 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
     public void setAttributes(String name, int attributes)
     {
         checkNotSealed(name, 0);
+        if (setFastAttributes(name, 0, attributes))
+            return;
         findAttributeSlot(name, 0, SLOT_MODIFY).setAttributes(attributes);
     }
 
@@ -681,6 +697,8 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
     public void setAttributes(int index, int attributes)
     {
         checkNotSealed(null, index);
+        if (setFastAttributes(null, index, attributes))
+            return;
         findAttributeSlot(null, index, SLOT_MODIFY).setAttributes(attributes);
     }
 
@@ -706,6 +724,7 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
         if (isExtensible()) {
           gslot = (GetterSlot)getSlot(name, index, SLOT_MODIFY_GETTER_SETTER);
         } else {
+          convertToDictionary();
           gslot = (GetterSlot)getSlot(name, index, SLOT_QUERY);
           if (gslot == null)
             return;
@@ -1725,6 +1744,8 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
     }
 
     private void defineOwnProperty(Context cx, Object id, ScriptableObject desc, boolean checkValid) {
+      // the slot found below is updated in place
+      convertToDictionary();
       Slot slot = getSlot(cx, id, SLOT_QUERY);
 
       if (checkValid)
@@ -2501,6 +2522,19 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
 
     private Object getImpl(String name, int index, Scriptable start)
     {
+        PropertyMap map = propertyMap;
+        if (map != null) {
+            int position = map.find(name, (name != null ? name.hashCode()
+                                                        : index));
+            if (position < 0) {
+                return Scriptable.NOT_FOUND;
+            }
+            AtomicReferenceArray<Object> values = propertyValues;
+            if (values != null) {
+                return values.get(position);
+            }
+            // converted to the hashtable by another thread
+        }
         Slot slot = getSlot(name, index, SLOT_QUERY);
         if (slot == null) {
             return Scriptable.NOT_FOUND;
@@ -2522,6 +2556,40 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
     private boolean putImpl(String name, int index, Scriptable start,
                             Object value, int constFlag)
     {
+        PropertyMap map = propertyMap;
+        if (map != null && constFlag == EMPTY) {
+            // Same checks as below, but against the property map
+            int indexOrHash = (name != null ? name.hashCode() : index);
+            int position = map.find(name, indexOrHash);
+            if (position >= 0) {
+                if (this == start && isExtensible()) {
+                    checkNotSealed(name, index);
+                }
+                if ((map.getAttributes(position) & READONLY) != 0) {
+                    return true;
+                }
+                if (this != start) {
+                    return false;
+                }
+                AtomicReferenceArray<Object> values = propertyValues;
+                if (values != null) {
+                    if (storeFastValue(values, position, value)) {
+                        return true;
+                    }
+                    // the values moved, start over
+                    return putImpl(name, index, start, value, constFlag);
+                }
+            } else if (this != start) {
+                return false;
+            } else if (!isExtensible()) {
+                return true;
+            } else {
+                checkNotSealed(name, index);
+                if (addFastProperty(name, indexOrHash, value)) {
+                    return true;
+                }
+            }
+        }
         Slot slot;
         if (this != start) {
             slot = getSlot(name, index, SLOT_QUERY);
@@ -2556,7 +2624,366 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
 
     public boolean hasAttributes(String name)
     {
-        return null != getSlot(name, 0, SLOT_QUERY);
+        return hasImpl(name, 0);
+    }
+
+    private boolean hasImpl(String name, int index)
+    {
+        PropertyMap map = propertyMap;
+        if (map != null) {
+            return map.find(name, (name != null ? name.hashCode()
+                                                : index)) >= 0;
+        }
+        return null != getSlot(name, index, SLOT_QUERY);
+    }
+
+    /**
+     * Add a property that is known to be absent to an object that is in the
+     * fast representation.
+     *
+     * @return false if the object has been switched to the hashtable
+     * representation and the property still has to be added there.
+     */
+    private synchronized boolean addFastProperty(String name, int indexOrHash,
+                                                 Object value)
+    {
+        PropertyMap map = propertyMap;
+        if (map == null) {
+            return false;
+        }
+        int position = map.find(name, indexOrHash);
+        if (position >= 0) {
+            // Another thread just added the same key, see createSlot
+            if ((map.getAttributes(position) & READONLY) == 0) {
+                propertyValues.set(position, value);
+            }
+            return true;
+        }
+        PropertyMap newMap = map.addProperty(name, indexOrHash, EMPTY);
+        if (newMap == null) {
+            convertToDictionary();
+            return false;
+        }
+        position = map.size();
+        AtomicReferenceArray<Object> values = propertyValues;
+        if (values == null) {
+            values = new AtomicReferenceArray<Object>(INITIAL_SLOT_SIZE);
+        } else if (position == values.length()) {
+            beginStructureChange();
+            values = copyValues(values, position, 2 * position);
+        }
+        values.set(position, value);
+        propertyValues = values;
+        if ((structureStamp & 1) != 0) {
+            endStructureChange();
+        }
+        ++count;
+        // publish the map last so readers never see a position beyond
+        // the end of propertyValues
+        propertyMap = newMap;
+        return true;
+    }
+
+    /**
+     * Make room for the given number of properties that are about to be
+     * added to this object, so that its property storage is allocated
+     * once instead of growing while they are added. This is only a hint
+     * and does not change the properties of the object.
+     *
+     * @param count the number of properties to be added
+     */
+    public synchronized void reserveProperties(int count)
+    {
+        PropertyMap map = propertyMap;
+        if (map == null || count <= 0) {
+            return;
+        }
+        int size = map.size() + count;
+        if (size > PropertyMap.MAX_FAST_PROPERTIES) {
+            // the object will switch to the hashtable anyway
+            return;
+        }
+        AtomicReferenceArray<Object> values = propertyValues;
+        if (values == null) {
+            propertyValues = new AtomicReferenceArray<Object>(size);
+        } else if (values.length() < size) {
+            beginStructureChange();
+            propertyValues = copyValues(values, map.size(), size);
+            endStructureChange();
+        }
+    }
+
+    /**
+     * Copy the first count values to a new array of the given capacity.
+     * Called between beginStructureChange() and endStructureChange().
+     */
+    private static AtomicReferenceArray<Object> copyValues(
+        AtomicReferenceArray<Object> values, int count, int capacity)
+    {
+        AtomicReferenceArray<Object> newValues =
+            new AtomicReferenceArray<Object>(capacity);
+        for (int i = 0; i != count; ++i) {
+            newValues.set(i, values.get(i));
+        }
+        return newValues;
+    }
+
+    /**
+     * Return the own properties of this object in the order they were
+     * added as consecutive key, attributes and value entries, see
+     * {@link ScopeSnapshot}. Keys are Strings or Integers. The value of an
+     * accessor property is an Object[] holding its getter and setter.
+     */
+    final synchronized Object[] getSlotTable()
+    {
+        PropertyMap map = propertyMap;
+        if (map != null) {
+            int n = map.size();
+            Object[] table = new Object[3 * n];
+            for (int i = 0; i != n; ++i) {
+                String name = map.getName(i);
+                table[3 * i] = (name != null)
+                               ? (Object)name
+                               : Integer.valueOf(map.getIndexOrHash(i));
+                table[3 * i + 1] = Integer.valueOf(map.getAttributes(i));
+                table[3 * i + 2] = propertyValues.get(i);
+            }
+            return table;
+        }
+        ObjArray table = new ObjArray();
+        for (Slot slot = firstAdded; slot != null; slot = slot.orderedNext) {
+            if (slot.wasDeleted) {
+                continue;
+            }
+            Object value = slot.value;
+            if (slot instanceof GetterSlot) {
+                GetterSlot gslot = (GetterSlot)slot;
+                if (gslot.getter == null && gslot.setter == null) {
+                    // lazily initialized value, see addLazilyInitializedValue
+                    value = slot.getValue(this);
+                } else {
+                    value = new Object[] { gslot.getter, gslot.setter };
+                }
+            }
+            table.add(slot.name != null
+                      ? (Object)slot.name
+                      : Integer.valueOf(slot.indexOrHash));
+            table.add(Integer.valueOf(slot.getAttributes()));
+            table.add(value);
+        }
+        return table.toArray();
+    }
+
+    /**
+     * Add the properties from a table in the format returned by
+     * {@link #getSlotTable()}. An object without properties gets its
+     * layout built in one step.
+     */
+    final synchronized void addSlotTable(Object[] table)
+    {
+        int n = table.length / 3;
+        if (n == 0) {
+            return;
+        }
+        boolean fast = propertyMap == PropertyMap.EMPTY
+                       && n <= PropertyMap.MAX_FAST_PROPERTIES;
+        for (int i = 0; fast && i != n; ++i) {
+            fast = !(table[3 * i + 2] instanceof Object[]);
+        }
+        if (fast) {
+            PropertyMap map = PropertyMap.EMPTY;
+            AtomicReferenceArray<Object> values =
+                new AtomicReferenceArray<Object>(n);
+            for (int i = 0; i != n; ++i) {
+                Object key = table[3 * i];
+                int attributes = ((Integer)table[3 * i + 1]).intValue();
+                checkValidAttributes(attributes);
+                if (key instanceof String) {
+                    map = map.addProperty((String)key, key.hashCode(),
+                                          attributes);
+                } else {
+                    map = map.addProperty(null, ((Integer)key).intValue(),
+                                          attributes);
+                }
+                values.set(i, table[3 * i + 2]);
+            }
+            propertyValues = values;
+            count = n;
+            propertyMap = map;
+            return;
+        }
+        for (int i = 0; i != n; ++i) {
+            Object key = table[3 * i];
+            String name = null;
+            int index = 0;
+            if (key instanceof String) {
+                name = (String)key;
+            } else {
+                index = ((Integer)key).intValue();
+            }
+            int attributes = ((Integer)table[3 * i + 1]).intValue();
+            Object value = table[3 * i + 2];
+            if (value instanceof Object[]) {
+                Object[] getterSetter = (Object[])value;
+                GetterSlot gslot = (GetterSlot)getSlot(name, index,
+                    SLOT_MODIFY_GETTER_SETTER);
+                gslot.setAttributes(attributes);
+                gslot.getter = getterSetter[0];
+                gslot.setter = getterSetter[1];
+            } else {
+                Slot slot = getSlot(name, index, SLOT_MODIFY);
+                slot.setAttributes(attributes);
+                slot.value = value;
+            }
+        }
+    }
+
+    /**
+     * Store a value at the given position of the fast property values
+     * without locking.
+     * <p>
+     * A concurrent addFastProperty() or convertToDictionary() may copy the
+     * values to a new array or to slots while the store happens. The store
+     * and the following read of structureStamp are volatile, as are the
+     * write of structureStamp in beginStructureChange() and the reads of
+     * the copy after it. So either the copy sees the store, or this thread
+     * sees the odd stamp or the new array and the caller has to store
+     * again. Nothing is written besides the value itself, so stores from
+     * several threads to a shared object do not contend on a common field.
+     *
+     * @return false if the value has to be stored again
+     */
+    final boolean storeFastValue(AtomicReferenceArray<Object> values,
+                                 int position, Object value)
+    {
+        values.set(position, value);
+        if ((structureStamp & 1) == 0 && propertyValues == values) {
+            return true;
+        }
+        // wait for the change to complete
+        synchronized (this) {
+            return false;
+        }
+    }
+
+    /**
+     * Must be called inside synchronized (this) before properties are moved
+     * to a new propertyValues array or slots table.
+     */
+    private void beginStructureChange()
+    {
+        structureStamp++;
+    }
+
+    private void endStructureChange()
+    {
+        structureStamp++;
+    }
+
+    /**
+     * Return the property map of this object or null if the object does
+     * not use the fast representation. See {@link PropertyCache}.
+     */
+    final PropertyMap getPropertyMap()
+    {
+        return propertyMap;
+    }
+
+    /**
+     * Return the property values array that goes with the property map
+     * just read by {@link #getPropertyMap()} or null if the object was
+     * switched to the hashtable representation in between.
+     */
+    final AtomicReferenceArray<Object> getPropertyValues()
+    {
+        return propertyValues;
+    }
+
+    /**
+     * Change attributes of a property while staying in the fast
+     * representation. This is possible when the attributes do not change or
+     * when the property is the last one added, which is the case for
+     * {@link #defineProperty(String, Object, int)}.
+     *
+     * @return false if the object has to be switched to the hashtable
+     * representation to change the attributes.
+     */
+    private boolean setFastAttributes(String name, int index, int attributes)
+    {
+        int indexOrHash = (name != null ? name.hashCode() : index);
+        PropertyMap map = propertyMap;
+        if (map != null) {
+            // defineProperty() usually leaves the attributes as they are,
+            // which needs no lock
+            int position = map.find(name, indexOrHash);
+            if (position >= 0 && map.getAttributes(position) == attributes) {
+                checkValidAttributes(attributes);
+                return true;
+            }
+        }
+        synchronized (this) {
+            map = propertyMap;
+            if (map == null) {
+                return false;
+            }
+            int position = map.find(name, indexOrHash);
+            if (position < 0) {
+                return false;
+            }
+            checkValidAttributes(attributes);
+            if (map.getAttributes(position) == attributes) {
+                return true;
+            }
+            if (position != map.size() - 1) {
+                return false;
+            }
+            PropertyMap newMap = map.setLastAttributes(attributes);
+            if (newMap == null) {
+                return false;
+            }
+            propertyMap = newMap;
+            return true;
+        }
+    }
+
+    /**
+     * Switch this object from the fast representation to the slots
+     * hashtable. This is needed for deletions, accessor properties and
+     * attribute changes and when the object gets too many properties.
+     */
+    private synchronized void convertToDictionary()
+    {
+        PropertyMap map = propertyMap;
+        if (map == null) {
+            return;
+        }
+        beginStructureChange();
+        int n = map.size();
+        AtomicReferenceArray<Object> values = propertyValues;
+        int tableSize = INITIAL_SLOT_SIZE;
+        while (4 * n > 3 * tableSize) {
+            tableSize <<= 1;
+        }
+        Slot[] newSlots = new Slot[tableSize];
+        Slot prev = null;
+        for (int i = 0; i != n; ++i) {
+            Slot slot = new Slot(map.getName(i), map.getIndexOrHash(i),
+                                 map.getAttributes(i));
+            slot.value = values.get(i);
+            if (prev == null) {
+                firstAdded = slot;
+            } else {
+                prev.orderedNext = slot;
+            }
+            prev = slot;
+            addKnownAbsentSlot(newSlots, slot,
+                               getSlotIndex(tableSize, slot.indexOrHash));
+        }
+        lastAdded = prev;
+        slots = newSlots;
+        propertyMap = null;
+        propertyValues = null;
+        endStructureChange();
     }
 
     private Slot findAttributeSlot(String name, int index, int accessType)
@@ -2580,8 +3007,28 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
     {
         int indexOrHash = (name != null ? name.hashCode() : index);
 
+        PropertyMap map = propertyMap;
+        if (map != null) {
+            if (accessType == SLOT_QUERY) {
+                int position = map.find(name, indexOrHash);
+                AtomicReferenceArray<Object> values = propertyValues;
+                if (position < 0) {
+                    return null;
+                } else if (values != null) {
+                    // Detached copy: changes to properties always switch
+                    // the object to the hashtable first.
+                    Slot slot = new Slot(name, indexOrHash,
+                                         map.getAttributes(position));
+                    slot.value = values.get(position);
+                    return slot;
+                }
+            }
+            convertToDictionary();
+        }
+
         // Check the hashtable without using synchronization
 
+        int stamp = structureStamp;
         Slot[] slotsLocalRef = slots; // Get stable local reference
         if (slotsLocalRef != null) {
             Slot slot;
@@ -2596,6 +3043,15 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
                     break;
                 }
             }
+            if (slot == null
+                && ((stamp & 1) != 0 || stamp != structureStamp))
+            {
+                // The table was resized while walking the bucket, which
+                // may have hidden the slot. Look again under the lock.
+                synchronized (this) {
+                    return getSlot(name, index, accessType);
+                }
+            }
             switch (accessType) {
                 case SLOT_QUERY:
                     return slot;
@@ -2690,9 +3146,11 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
                 // Check if the table is not too full before inserting.
                 if (4 * (count + 1) > 3 * slotsLocalRef.length) {
                     // table size must be a power of 2, always grow by x2
+                    beginStructureChange();
                     slotsLocalRef = new Slot[slotsLocalRef.length * 2];
                     copyTable(slots, slotsLocalRef, count);
                     slots = slotsLocalRef;
+                    endStructureChange();
                     insertPos = getSlotIndex(slotsLocalRef.length,
                             indexOrHash);
                 }
@@ -2718,6 +3176,17 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
     private synchronized void removeSlot(String name, int index) {
         int indexOrHash = (name != null ? name.hashCode() : index);
 
+        PropertyMap map = propertyMap;
+        if (map != null) {
+            int position = map.find(name, indexOrHash);
+            if (position < 0
+                || (map.getAttributes(position) & PERMANENT) != 0)
+            {
+                return;
+            }
+            convertToDictionary();
+        }
+
         Slot[] slotsLocalRef = slots;
         if (count != 0) {
             int tableSize = slots.length;
@@ -2800,6 +3269,25 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
     }
 
     Object[] getIds(boolean getAll) {
+        PropertyMap map = propertyMap;
+        if (map != null) {
+            int n = map.size();
+            Object[] a = new Object[n];
+            int c = 0;
+            for (int i = 0; i != n; ++i) {
+                if (getAll || (map.getAttributes(i) & DONTENUM) == 0) {
+                    String name = map.getName(i);
+                    a[c++] = name != null
+                                 ? (Object) name
+                                 : Integer.valueOf(map.getIndexOrHash(i));
+                }
+            }
+            if (c == n)
+                return a;
+            Object[] result = new Object[c];
+            System.arraycopy(a, 0, result, 0, c);
+            return result;
+        }
         Slot[] s = slots;
         Object[] a = ScriptRuntime.emptyArgs;
         if (s == null)
@@ -2850,8 +3338,22 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
             // "this" was sealed
             objectsCount = ~objectsCount;
         }
+        PropertyMap map = propertyMap;
         if (objectsCount == 0) {
             out.writeInt(0);
+        } else if (map != null) {
+            // same format as for the hashtable
+            int tableSize = INITIAL_SLOT_SIZE;
+            while (4 * objectsCount > 3 * tableSize) {
+                tableSize <<= 1;
+            }
+            out.writeInt(tableSize);
+            for (int i = 0; i != objectsCount; ++i) {
+                Slot slot = new Slot(map.getName(i), map.getIndexOrHash(i),
+                                     map.getAttributes(i));
+                slot.value = propertyValues.get(i);
+                out.writeObject(slot);
+            }
         } else {
             out.writeInt(slots.length);
             Slot slot = firstAdded; 
@@ -2880,7 +3382,9 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
         in.defaultReadObject();
 
         int tableSize = in.readInt();
-        if (tableSize != 0) {
+        if (tableSize == 0) {
+            propertyMap = PropertyMap.EMPTY;
+        } else {
             // If tableSize is not a power of 2 find the closest 
             // power of 2 >= the original size.
             if ((tableSize & (tableSize - 1)) != 0) {
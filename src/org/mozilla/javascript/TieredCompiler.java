@@ -0,0 +1,414 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is Rhino code, released
+ * May 6, 1999.
+ *
+ * The Initial Developer of the Original Code is
+ * Netscape Communications Corporation.
+ * Portions created by the Initial Developer are Copyright (C) 1997-1999
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * the GNU General Public License Version 2 or later (the "GPL"), in which
+ * case the provisions of the GPL are applicable instead of those above. If
+ * you wish to allow use of your version of this file only under the terms of
+ * the GPL and not to allow others to use your version of this file under the
+ * MPL, indicate your decision by deleting the provisions above and replacing
+ * them with the notice and other provisions required by the GPL. If you do
+ * not delete the provisions above, a recipient may use your version of this
+ * file under either the MPL or the GPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.mozilla.javascript;
+
+import java.lang.reflect.Constructor;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.mozilla.javascript.ast.AstRoot;
+import org.mozilla.javascript.ast.FunctionNode;
+import org.mozilla.javascript.ast.ScriptNode;
+
+/**
+ * Tiered execution of scripts.
+ * <p>
+ * When a TieredCompiler is installed with
+ * {@link Context#setTieredCompiler(TieredCompiler)} and the optimization
+ * level is 0 or higher, scripts are compiled for the interpreter. Each
+ * interpreted function counts its invocations and the backward branches
+ * taken in its loops. Once either count crosses its threshold the function
+ * is compiled to Java bytecode with the Context's optimization level on a
+ * background thread, and the compiled code is called instead of the
+ * interpreter from the next invocation on. Cold code thus never pays for
+ * bytecode generation and class loading while hot code does not stay
+ * interpreted.
+ * <p>
+ * A function is compiled again from its source text, so it is only
+ * promoted when the source is available: scripts must be compiled from
+ * source while the TieredCompiler is installed, without a debugger or
+ * {@link SecurityController}. Named function expressions, getters and
+ * setters, functions that use arguments or call eval() and the functions
+ * of strict mode scripts stay interpreted, as do top-level script code
+ * and code run by eval() or the Function constructor. Continuations can
+ * not be captured in promoted functions.
+ * <p>
+ * One TieredCompiler can be shared by any number of Contexts and threads.
+ * Its compiler thread is a daemon thread started on first use and stopped
+ * by {@link #shutdown()}.
+ */
+public class TieredCompiler
+{
+    /**
+     * Marks functions queued for compilation.
+     */
+    private static final Object QUEUED = new Object();
+
+    /**
+     * Marks functions that could not be compiled.
+     */
+    private static final Object FAILED = new Object();
+
+    private volatile int invocationThreshold = 1000;
+    private volatile int backwardBranchThreshold = 10000;
+
+    private final AtomicInteger queuedCount = new AtomicInteger();
+    private final AtomicInteger promotedCount = new AtomicInteger();
+    private final AtomicInteger failedCount = new AtomicInteger();
+
+    private final BlockingQueue<Request> queue =
+        new LinkedBlockingQueue<Request>();
+    private Thread compilerThread;
+    private boolean shutdown;
+
+    /**
+     * A function waiting for compilation.
+     */
+    private static final class Request
+    {
+        final InterpreterData idata;
+        final CompilerEnvirons compilerEnv;
+        final ContextFactory factory;
+
+        Request(InterpreterData idata, CompilerEnvirons compilerEnv,
+                ContextFactory factory)
+        {
+            this.idata = idata;
+            this.compilerEnv = compilerEnv;
+            this.factory = factory;
+        }
+    }
+
+    /**
+     * Compiled code of a function that is instantiated for each closure.
+     */
+    private static final class CompiledCode
+    {
+        final Evaluator compiler;
+        final Object bytecode;
+        Constructor<?> constructor;
+
+        CompiledCode(Evaluator compiler, Object bytecode)
+        {
+            this.compiler = compiler;
+            this.bytecode = bytecode;
+        }
+    }
+
+    /**
+     * Return the number of invocations after which a function is compiled.
+     */
+    public int getInvocationThreshold()
+    {
+        return invocationThreshold;
+    }
+
+    /**
+     * Set the number of invocations after which a function is compiled.
+     */
+    public void setInvocationThreshold(int threshold)
+    {
+        if (threshold < 1) throw new IllegalArgumentException();
+        invocationThreshold = threshold;
+    }
+
+    /**
+     * Return the number of backward branches taken by the loops of a
+     * function after which it is compiled.
+     */
+    public int getBackwardBranchThreshold()
+    {
+        return backwardBranchThreshold;
+    }
+
+    /**
+     * Set the number of backward branches taken by the loops of a function
+     * after which it is compiled.
+     */
+    public void setBackwardBranchThreshold(int threshold)
+    {
+        if (threshold < 1) throw new IllegalArgumentException();
+        backwardBranchThreshold = threshold;
+    }
+
+    /**
+     * Return the number of functions queued for compilation so far.
+     */
+    public int getQueuedFunctionCount()
+    {
+        return queuedCount.get();
+    }
+
+    /**
+     * Return the number of functions compiled and promoted so far.
+     */
+    public int getPromotedFunctionCount()
+    {
+        return promotedCount.get();
+    }
+
+    /**
+     * Return the number of functions that failed to compile and stay
+     * interpreted.
+     */
+    public int getFailedFunctionCount()
+    {
+        return failedCount.get();
+    }
+
+    /**
+     * Return the number of functions waiting for the compiler thread.
+     */
+    public int getPendingFunctionCount()
+    {
+        return queue.size();
+    }
+
+    /**
+     * Stop the compiler thread. Functions already compiled keep using their
+     * compiled code while functions not yet compiled stay interpreted.
+     */
+    public synchronized void shutdown()
+    {
+        shutdown = true;
+        queue.clear();
+        if (compilerThread != null) {
+            compilerThread.interrupt();
+            compilerThread = null;
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return "queued: " + getQueuedFunctionCount()
+            + ", promoted: " + getPromotedFunctionCount()
+            + ", failed: " + getFailedFunctionCount()
+            + ", pending: " + getPendingFunctionCount();
+    }
+
+    /**
+     * Prepare the functions of code that the interpreter compiled from the
+     * given source for promotion.
+     */
+    void register(InterpreterData idata, String source)
+    {
+        if (idata.isStrict) {
+            // nested functions would not inherit strict mode
+            return;
+        }
+        registerFunctions(idata, source);
+    }
+
+    private void registerFunctions(InterpreterData idata, String source)
+    {
+        if (idata.itsFunctionType != 0 && canPromote(idata, source)) {
+            idata.itsTieredCompiler = this;
+            idata.itsSource = source;
+        }
+        InterpreterData[] nested = idata.itsNestedFunctions;
+        if (nested != null) {
+            for (int i = 0; i != nested.length; ++i) {
+                registerFunctions(nested[i], source);
+            }
+        }
+    }
+
+    private static boolean canPromote(InterpreterData idata, String source)
+    {
+        if (idata.itsFunctionType == FunctionNode.FUNCTION_EXPRESSION
+            && idata.itsName != null && idata.itsName.length() != 0)
+        {
+            // the name is only bound inside the expression
+            return false;
+        }
+        int start = idata.itsSourceStart;
+        return 0 <= start && start < idata.itsSourceEnd
+            && idata.itsSourceEnd <= source.length()
+            && source.startsWith("function", start);
+    }
+
+    private static boolean usesName(InterpreterData idata, String name)
+    {
+        String[] strings = idata.itsStringTable;
+        if (strings != null) {
+            for (int i = 0; i != strings.length; ++i) {
+                if (name.equals(strings[i])) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Count an invocation of the function and return its compiled code
+     * instantiated for its scope once it is available, or null.
+     */
+    Function countInvocation(Context cx, InterpretedFunction f)
+    {
+        InterpreterData idata = f.idata;
+        Object state = idata.itsCompiledCode;
+        if (state == null) {
+            if (++idata.itsInvocationCount >= invocationThreshold
+                || idata.itsBackwardBranchCount >= backwardBranchThreshold)
+            {
+                enqueue(cx, idata);
+            }
+            return null;
+        }
+        if (state instanceof CompiledCode) {
+            return instantiate(cx, f, (CompiledCode)state);
+        }
+        return null;
+    }
+
+    private void enqueue(Context cx, InterpreterData idata)
+    {
+        if (cx.getOptimizationLevel() < 0) {
+            return;
+        }
+        if (usesName(idata, "arguments") || usesName(idata, "eval")) {
+            // arguments.callee would be the compiled copy instead of the
+            // function; the string table of lazy bodies is only known now
+            idata.itsTieredCompiler = null;
+            return;
+        }
+        synchronized (this) {
+            if (shutdown || idata.itsCompiledCode != null) {
+                return;
+            }
+            idata.itsCompiledCode = QUEUED;
+            if (compilerThread == null) {
+                compilerThread = new Thread("Rhino tiered compiler") {
+                    @Override
+                    public void run() {
+                        compileQueued();
+                    }
+                };
+                compilerThread.setDaemon(true);
+                compilerThread.start();
+            }
+        }
+        CompilerEnvirons compilerEnv = new CompilerEnvirons();
+        compilerEnv.initFromContext(cx);
+        compilerEnv.setErrorReporter(DefaultErrorReporter.instance);
+        queuedCount.incrementAndGet();
+        queue.add(new Request(idata, compilerEnv, cx.getFactory()));
+    }
+
+    private void compileQueued()
+    {
+        try {
+            for (;;) {
+                final Request request = queue.take();
+                request.factory.call(new ContextAction() {
+                    public Object run(Context cx) {
+                        compile(request);
+                        return null;
+                    }
+                });
+            }
+        } catch (InterruptedException e) {
+            // shutdown
+        }
+    }
+
+    private void compile(Request request)
+    {
+        InterpreterData idata = request.idata;
+        try {
+            String source = idata.itsSource.substring(idata.itsSourceStart,
+                                                      idata.itsSourceEnd);
+            CompilerEnvirons compilerEnv = request.compilerEnv;
+            Parser p = new Parser(compilerEnv, compilerEnv.getErrorReporter());
+            // Parse function statements as statements so their name keeps
+            // referring to the original function through the scope chain
+            // instead of being bound to the compiled copy.
+            p.calledByCompileFunction =
+                idata.itsFunctionType == FunctionNode.FUNCTION_EXPRESSION;
+            AstRoot ast = p.parse(source, idata.itsSourceFile,
+                                  idata.itsSourceLine);
+            IRFactory irf = new IRFactory(compilerEnv,
+                                          compilerEnv.getErrorReporter());
+            ScriptNode tree = irf.transformTree(ast);
+            Evaluator compiler = Context.createCompiler(
+                compilerEnv.getOptimizationLevel());
+            Object bytecode = compiler.compile(compilerEnv, tree,
+                                               tree.getEncodedSource(), true);
+            idata.itsCompiledCode = new CompiledCode(compiler, bytecode);
+        } catch (RuntimeException e) {
+            idata.itsCompiledCode = FAILED;
+            failedCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Create the compiled function for the scope of f. The first closure
+     * defines the class, later ones only create new instances of it.
+     */
+    private Function instantiate(Context cx, InterpretedFunction f,
+                                 CompiledCode code)
+    {
+        Scriptable scope = f.getParentScope();
+        synchronized (code) {
+            if (code.constructor == null) {
+                Function compiled;
+                try {
+                    compiled = code.compiler.createFunctionObject(
+                        cx, scope, code.bytecode, null);
+                } catch (RuntimeException e) {
+                    f.idata.itsCompiledCode = FAILED;
+                    failedCount.incrementAndGet();
+                    return null;
+                }
+                code.constructor = compiled.getClass().getConstructors()[0];
+                promotedCount.incrementAndGet();
+                return compiled;
+            }
+        }
+        try {
+            // the constructor of functions generated by Codegen
+            return (Function)code.constructor.newInstance(
+                scope, cx, Integer.valueOf(0));
+        } catch (Exception ex) {
+            throw Context.throwAsScriptRuntimeEx(ex);
+        }
+    }
+}
@@ -62,6 +62,7 @@ public class WrapFactory
      * <UL>
      * <LI>java.lang.Boolean</LI>
      * <LI>java.lang.String</LI>
+     * <LI>org.mozilla.javascript.ConsString</LI>
      * <LI>java.lang.Number</LI>
      * <LI>org.mozilla.javascript.Scriptable objects</LI>
      * <LI>The value returned by Context.getUndefinedValue()</LI>
@@ -78,8 +79,9 @@ public class WrapFactory
                        Object obj, Class<?> staticType)
     {
         if (obj == null || obj == Undefined.instance
-            || obj instanceof Scriptable)
+            || obj instanceof Scriptable || obj instanceof ConsString)
         {
+            // already a JavaScript value
             return obj;
         }
         if (staticType != null && staticType.isPrimitive()) {
@@ -350,15 +350,6 @@ public class FunctionNode extends ScriptNode {
         liveLocals.put(node, locals);
     }
 
-    @Override
-    public int addFunction(FunctionNode fnNode) {
-        int result = super.addFunction(fnNode);
-        if (getFunctionCount() > 0) {
-            needsActivation = true;
-        }
-        return result;
-    }
-
     /**
      * Returns the function type (statement, expr, statement expr)
      */
@@ -38,17 +38,24 @@
  *
  * ***** END LICENSE BLOCK ***** */
 
+
 package org.mozilla.javascript.json;
 
 import org.mozilla.javascript.Context;
 import org.mozilla.javascript.Scriptable;
-import org.mozilla.javascript.ScriptRuntime;
+import org.mozilla.javascript.ScriptableObject;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
 
 /**
  * This class converts a stream of JSON tokens into a JSON value.
+ * <p>
+ * The input is read in chunks, so a document can be parsed from a
+ * {@link Reader} without loading it into a String first. Object keys that
+ * repeat within a document or across documents parsed by the same parser
+ * are only created once.
  *
  * See ECMA 15.12.
  * @author Raphael Speyer
@@ -56,12 +63,36 @@ import java.util.List;
  */
 public class JsonParser {
 
+    private static final int BUFFER_SIZE = 8192;
+
+    // longer keys are not interned
+    private static final int MAX_INTERNED_KEY_LENGTH = 64;
+    private static final int MAX_INTERNED_KEYS = 1024;
+
     private Context cx;
     private Scriptable scope;
 
+    // input that is not yet in the buffer comes from the reader or from
+    // the char sequence starting at seqPos
+    private Reader reader;
+    private CharSequence seq;
+    private int seqPos;
+
+    private char[] buf;
     private int pos;
-    private int length;
-    private String src;
+    private int limit;
+    // number of chars read before the start of the buffer
+    private long offset;
+
+    // elements of the arrays and key-value pairs of the objects being read
+    private Object[] stack = new Object[32];
+    private int top;
+
+    // open addressing table of interned keys
+    private String[] keys;
+    private int keyCount;
+
+    private final StringBuilder text = new StringBuilder();
 
     public JsonParser(Context cx, Scriptable scope) {
         this.cx = cx;
@@ -69,67 +100,143 @@ public class JsonParser {
     }
 
     public synchronized Object parseValue(String json) throws ParseException {
+        return parseValue((CharSequence) json);
+    }
+
+    /**
+     * Parse the JSON text held in the given char sequence.
+     */
+    public synchronized Object parseValue(CharSequence json)
+        throws ParseException
+    {
         if (json == null) {
             throw new ParseException("Input string may not be null");
         }
+        seq = json;
+        seqPos = 0;
+        if (buf == null || buf.length < Math.min(json.length(), BUFFER_SIZE)) {
+            buf = new char[Math.min(json.length(), BUFFER_SIZE)];
+        }
+        return parse();
+    }
+
+    /**
+     * Parse the JSON text read from the given reader until its end. The
+     * reader is not closed.
+     *
+     * @throws ParseException if the text is not valid JSON or if reading
+     * fails, in which case the cause is the IOException
+     */
+    public synchronized Object parseStream(Reader json) throws ParseException {
+        if (json == null) {
+            throw new ParseException("Input reader may not be null");
+        }
+        reader = json;
+        if (buf == null || buf.length < BUFFER_SIZE) {
+            buf = new char[BUFFER_SIZE];
+        }
+        return parse();
+    }
+
+    private Object parse() throws ParseException {
         pos = 0;
-        length = json.length();
-        src = json;
-        Object value = readValue();
-        consumeWhitespace();
-        if (pos < length) {
-            throw new ParseException("Expected end of stream at char " + pos);
-        }
-        return value;
+        limit = 0;
+        offset = 0;
+        top = 0;
+        try {
+            Object value = readValue();
+            if (consumeWhitespace()) {
+                throw new ParseException("Expected end of stream at char "
+                                         + (offset + pos));
+            }
+            return value;
+        } finally {
+            reader = null;
+            seq = null;
+            Arrays.fill(stack, 0, top, null);
+        }
     }
 
-    private Object readValue() throws ParseException {
-        consumeWhitespace();
-        while (pos < length) {
-            char c = src.charAt(pos++);
-            switch (c) {
-                case '{':
-                    return readObject();
-                case '[':
-                    return readArray();
-                case 't':
-                    return readTrue();
-                case 'f':
-                    return readFalse();
-                case '"':
-                    return readString();
-                case 'n':
-                    return readNull();
-                case '1':
-                case '2':
-                case '3':
-                case '4':
-                case '5':
-                case '6':
-                case '7':
-                case '8':
-                case '9':
-                case '0':
-                case '-':
-                    return readNumber(c);
-                default:
-                    throw new ParseException("Unexpected token: " + c);
+    /**
+     * Replace the consumed contents of the buffer with the next chunk of
+     * input.
+     *
+     * @return false at the end of the input
+     */
+    private boolean fill() throws ParseException {
+        offset += limit;
+        pos = 0;
+        limit = 0;
+        if (reader != null) {
+            try {
+                int n;
+                do {
+                    n = reader.read(buf, 0, buf.length);
+                } while (n == 0);
+                if (n > 0) {
+                    limit = n;
+                }
+            } catch (IOException e) {
+                throw new ParseException(e);
+            }
+        } else if (seq != null) {
+            int n = Math.min(buf.length, seq.length() - seqPos);
+            if (seq instanceof String) {
+                ((String) seq).getChars(seqPos, seqPos + n, buf, 0);
+            } else {
+                for (int i = 0; i != n; ++i) {
+                    buf[i] = seq.charAt(seqPos + i);
+                }
             }
+            seqPos += n;
+            limit = n;
+        }
+        return limit != 0;
+    }
+
+    private Object readValue() throws ParseException {
+        if (!consumeWhitespace()) {
+            throw new ParseException("Empty JSON string");
+        }
+        char c = buf[pos++];
+        switch (c) {
+            case '{':
+                return readObject();
+            case '[':
+                return readArray();
+            case 't':
+                return readTrue();
+            case 'f':
+                return readFalse();
+            case '"':
+                return readString(false);
+            case 'n':
+                return readNull();
+            case '1':
+            case '2':
+            case '3':
+            case '4':
+            case '5':
+            case '6':
+            case '7':
+            case '8':
+            case '9':
+            case '0':
+            case '-':
+                return readNumber(c);
+            default:
+                throw new ParseException("Unexpected token: " + c);
         }
-        throw new ParseException("Empty JSON string");
     }
 
     private Object readObject() throws ParseException {
-        Scriptable object = cx.newObject(scope);
-        String id;
-        Object value;
+        int base = top;
         boolean needsComma = false;
-        consumeWhitespace();
-        while (pos < length) {
-            char c = src.charAt(pos++);
+        while (consumeWhitespace()) {
+            char c = buf[pos++];
             switch(c) {
                 case '}':
-                    return object;
+                    return newObject(base);
                 case ',':
                     if (!needsComma) {
                         throw new ParseException("Unexpected comma in object literal");
@@ -140,38 +247,49 @@ public class JsonParser {
                     if (needsComma) {
                         throw new ParseException("Missing comma in object literal");
                     }
-                    id = readString();
+                    push(readString(true));
                     consume(':');
-                    value = readValue();
-
-                    double d = ScriptRuntime.toNumber(id);
-                    int index = (int) d;
-                    if (d != index) {
-                      object.put(id, object, value);
-                    } else {
-                      object.put(index, object, value);
-                    }
-
+                    push(readValue());
                     needsComma = true;
                     break;
                 default:
                     throw new ParseException("Unexpected token in object literal");
             }
-            consumeWhitespace();
         }
         throw new ParseException("Unterminated object literal");
     }
 
+    /**
+     * Create an object with the key-value pairs on the stack above base.
+     */
+    private Object newObject(int base) {
+        Scriptable object = cx.newObject(scope);
+        if (object instanceof ScriptableObject) {
+            ((ScriptableObject) object).reserveProperties((top - base) / 2);
+        }
+        for (int i = base; i != top; i += 2) {
+            String id = (String) stack[i];
+            Object value = stack[i + 1];
+            if (isIndex(id)) {
+                object.put(Integer.parseInt(id), object, value);
+            } else {
+                object.put(id, object, value);
+            }
+        }
+        Arrays.fill(stack, base, top, null);
+        top = base;
+        return object;
+    }
+
     private Object readArray() throws ParseException {
-        List<Object> list = new ArrayList<Object>();
+        int base = top;
         boolean needsComma = false;
-        consumeWhitespace();
-        while (pos < length) {
-            char c = src.charAt(pos);
+        while (consumeWhitespace()) {
+            char c = buf[pos];
             switch(c) {
                 case ']':
                     pos += 1;
-                    return cx.newArray(scope, list.toArray());
+                    return cx.newArray(scope, pop(base));
                 case ',':
                     if (!needsComma) {
                         throw new ParseException("Unexpected comma in array literal");
@@ -183,27 +301,63 @@ public class JsonParser {
                     if (needsComma) {
                         throw new ParseException("Missing comma in array literal");
                     }
-                    list.add(readValue());
+                    push(readValue());
                     needsComma = true;
             }
-            consumeWhitespace();
         }
         throw new ParseException("Unterminated array literal");
     }
 
-    private String readString() throws ParseException {
-        StringBuilder b = new StringBuilder();
-        while (pos < length) {
-            char c = src.charAt(pos++);
+    private void push(Object value) {
+        if (top == stack.length) {
+            Object[] newStack = new Object[top * 2];
+            System.arraycopy(stack, 0, newStack, 0, top);
+            stack = newStack;
+        }
+        stack[top++] = value;
+    }
+
+    /**
+     * Remove the values above base from the stack and return them.
+     */
+    private Object[] pop(int base) {
+        Object[] values = new Object[top - base];
+        System.arraycopy(stack, base, values, 0, values.length);
+        Arrays.fill(stack, base, top, null);
+        top = base;
+        return values;
+    }
+
+    private String readString(boolean key) throws ParseException {
+        // most strings have no escapes and lie within the buffer
+        int start = pos;
+        while (pos < limit) {
+            char c = buf[pos];
+            if (c == '"') {
+                String s = key ? internKey(start, pos - start)
+                               : new String(buf, start, pos - start);
+                pos += 1;
+                return s;
+            }
+            if (c == '\\' || c <= '\u001F') {
+                break;
+            }
+            pos += 1;
+        }
+        StringBuilder b = text;
+        b.setLength(0);
+        b.append(buf, start, pos - start);
+        while (pos < limit || fill()) {
+            char c = buf[pos++];
             if (c <= '\u001F') {
                 throw new ParseException("String contains control character");
             }
             switch(c) {
                 case '\\':
-                    if (pos >= length) {
+                    if (pos == limit && !fill()) {
                         throw new ParseException("Unterminated string");
                     }
-                    c = src.charAt(pos++);
+                    c = buf[pos++];
                     switch (c) {
                         case '"':
                             b.append('"');
@@ -230,15 +384,7 @@ public class JsonParser {
                             b.append('\t');
                             break;
                         case 'u':
-                            if (length - pos < 5) {
-                                throw new ParseException("Invalid character code: \\u" + src.substring(pos));
-                            }
-                            try {
-                                b.append((char) Integer.parseInt(src.substring(pos, pos + 4), 16));
-                                pos += 4;
-                            } catch (NumberFormatException nfx) {
-                                throw new ParseException("Invalid character code: " + src.substring(pos, pos + 4));
-                            }
+                            b.append(readCharCode());
                             break;
                         default:
                             throw new ParseException("Unexcpected character in string: '\\" + c + "'");
@@ -254,24 +400,144 @@ public class JsonParser {
         throw new ParseException("Unterminated string literal");
     }
 
+    private char readCharCode() throws ParseException {
+        char[] digits = new char[4];
+        int code = 0;
+        for (int i = 0; i != 4; ++i) {
+            if (pos == limit && !fill()) {
+                throw new ParseException("Invalid character code: \\u"
+                                         + new String(digits, 0, i));
+            }
+            digits[i] = buf[pos++];
+            int digit = Character.digit(digits[i], 16);
+            if (digit < 0) {
+                throw new ParseException("Invalid character code: "
+                                         + new String(digits, 0, i + 1));
+            }
+            code = (code << 4) | digit;
+        }
+        return (char) code;
+    }
+
+    /**
+     * Return the key held in the buffer from start on, reusing the String
+     * created for an earlier occurrence of the same key.
+     */
+    private String internKey(int start, int length) {
+        if (length > MAX_INTERNED_KEY_LENGTH) {
+            return new String(buf, start, length);
+        }
+        int hash = 0;
+        for (int i = 0; i != length; ++i) {
+            hash = 31 * hash + buf[start + i];
+        }
+        String[] table = keys;
+        if (table == null) {
+            table = keys = new String[64];
+        }
+        int mask = table.length - 1;
+        int i = (hash ^ (hash >>> 16)) & mask;
+        for (String k; (k = table[i]) != null; i = (i + 1) & mask) {
+            if (k.hashCode() == hash && k.length() == length
+                && regionMatches(k, start))
+            {
+                return k;
+            }
+        }
+        String key = new String(buf, start, length);
+        if (keyCount < MAX_INTERNED_KEYS) {
+            table[i] = key;
+            if (++keyCount * 2 > table.length) {
+                rehashKeys();
+            }
+        }
+        return key;
+    }
+
+    private boolean regionMatches(String key, int start) {
+        for (int i = key.length() - 1; i >= 0; --i) {
+            if (key.charAt(i) != buf[start + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void rehashKeys() {
+        String[] table = new String[keys.length * 2];
+        int mask = table.length - 1;
+        for (String k : keys) {
+            if (k != null) {
+                int hash = k.hashCode();
+                int i = (hash ^ (hash >>> 16)) & mask;
+                while (table[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                table[i] = k;
+            }
+        }
+        keys = table;
+    }
+
+    /**
+     * Return true if the key is the canonical form of an int, which
+     * property access looks up as an index rather than as a name.
+     */
+    private static boolean isIndex(String id) {
+        int length = id.length();
+        int i = (length > 1 && id.charAt(0) == '-') ? 1 : 0;
+        if (length == i || length - i > 10) {
+            return false;
+        }
+        char c = id.charAt(i);
+        if (c == '0') {
+            // 0 is an index, 00, 01 and -0 are not
+            return length == 1;
+        }
+        long value = 0;
+        for (; i != length; ++i) {
+            c = id.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+            value = 10 * value + (c - '0');
+        }
+        return id.charAt(0) == '-' ? -value >= Integer.MIN_VALUE
+                                   : value <= Integer.MAX_VALUE;
+    }
+
     private Number readNumber(char first) throws ParseException {
-        StringBuilder b = new StringBuilder();
+        StringBuilder b = text;
+        b.setLength(0);
         b.append(first);
-        while (pos < length) {
-            char c = src.charAt(pos);
-            if (!Character.isDigit(c)
-                    && c != '-'
-                    && c != '+'
-                    && c != '.'
-                    && c != 'e'
-                    && c != 'E') {
+        // plain integers of up to 9 digits are converted directly
+        boolean simple = true;
+        int value = first == '-' ? 0 : first - '0';
+        while (pos < limit || fill()) {
+            char c = buf[pos];
+            if (c >= '0' && c <= '9') {
+                value = 10 * value + (c - '0');
+            } else if (Character.isDigit(c)
+                    || c == '-'
+                    || c == '+'
+                    || c == '.'
+                    || c == 'e'
+                    || c == 'E') {
+                simple = false;
+            } else {
                 break;
             }
             pos += 1;
             b.append(c);
         }
+        int numLength = b.length();
+        int digits = first == '-' ? numLength - 1 : numLength;
+        if (simple && digits > 0 && digits <= 9
+            && (b.charAt(numLength - digits) != '0' || digits == 1))
+        {
+            return Integer.valueOf(first == '-' ? -value : value);
+        }
         String num = b.toString();
-        int numLength = num.length();
         try {
             // check for leading zeroes
             for (int i = 0; i < numLength; i++) {
@@ -298,42 +564,40 @@ public class JsonParser {
     }
 
     private Boolean readTrue() throws ParseException {
-        if (length - pos < 3
-                || src.charAt(pos) != 'r'
-                || src.charAt(pos + 1) != 'u'
-                || src.charAt(pos + 2) != 'e') {
-            throw new ParseException("Unexpected token: t");
-        }
-        pos += 3;
+        expect("rue", 't');
         return Boolean.TRUE;
     }
 
     private Boolean readFalse() throws ParseException {
-        if (length - pos < 4
-                || src.charAt(pos) != 'a'
-                || src.charAt(pos + 1) != 'l'
-                || src.charAt(pos + 2) != 's'
-                || src.charAt(pos + 3) != 'e') {
-            throw new ParseException("Unexpected token: f");
-        }
-        pos += 4;
+        expect("alse", 'f');
         return Boolean.FALSE;
     }
 
     private Object readNull() throws ParseException {
-        if (length - pos < 3
-                || src.charAt(pos) != 'u'
-                || src.charAt(pos + 1) != 'l'
-                || src.charAt(pos + 2) != 'l') {
-            throw new ParseException("Unexpected token: n");
-        }
-        pos += 3;
+        expect("ull", 'n');
         return null;
     }
 
-    private void consumeWhitespace() {
-        while (pos < length) {
-            char c = src.charAt(pos);
+    /**
+     * Consume the rest of the literal starting with first.
+     */
+    private void expect(String rest, char first) throws ParseException {
+        for (int i = 0; i != rest.length(); ++i) {
+            if ((pos == limit && !fill()) || buf[pos] != rest.charAt(i)) {
+                throw new ParseException("Unexpected token: " + first);
+            }
+            pos += 1;
+        }
+    }
+
+    /**
+     * Skip whitespace.
+     *
+     * @return false at the end of the input
+     */
+    private boolean consumeWhitespace() throws ParseException {
+        while (pos < limit || fill()) {
+            char c = buf[pos];
             switch (c) {
                 case ' ':
                 case '\t':
@@ -342,17 +606,17 @@ public class JsonParser {
                     pos += 1;
                     break;
                 default:
-                    return;
+                    return true;
             }
         }
+        return false;
     }
 
     private void consume(char token) throws ParseException {
-        consumeWhitespace();
-        if (pos >= length) {
+        if (!consumeWhitespace()) {
             throw new ParseException("Expected " + token + " but reached end of stream");
         }
-        char c = src.charAt(pos++);
+        char c = buf[pos++];
         if (c == token) {
             return;
         } else {
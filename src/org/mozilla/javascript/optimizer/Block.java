@@ -126,9 +126,18 @@ class Block
             }
         }
 
+        boolean[] constDeclarations = fn.fnode.getParamAndVarConst();
         for (int i = paramCount; i != varCount; i++) {
-            if (varTypes[i] == Optimizer.NumberType) {
-                fn.setIsNumberVar(i);
+            int type = varTypes[i];
+            if (constDeclarations[i]) {
+                // const slots keep the plain double/Object layout
+                if (Optimizer.isNumberType(type)) {
+                    fn.setVarType(i, Optimizer.NumberType);
+                }
+            } else if (Optimizer.isNumberType(type)
+                       || type == Optimizer.BooleanType)
+            {
+                fn.setVarType(i, type);
             }
         }
 
@@ -360,7 +369,9 @@ class Block
 
     private static boolean assignType(int[] varTypes, int index, int type)
     {
-        return type != (varTypes[index] |= type);
+        int prev = varTypes[index];
+        varTypes[index] = Optimizer.join(prev, type);
+        return varTypes[index] != prev;
     }
 
     private void markAnyTypeVariables(int[] varTypes)
@@ -461,13 +472,22 @@ class Block
         about are -
             Literals,
             Arithmetic operations - always return a Number
+            Bitwise operations - always return an int32
+            Relational operations - always return a Boolean
+        Anything else may be any type.
     */
     private static int findExpressionType(OptFunctionNode fn, Node n,
                                           int[] varTypes)
     {
         switch (n.getType()) {
-          case Token.NUMBER:
+          case Token.NUMBER: {
+              double d = n.getDouble();
+              int i = (int)d;
+              if (i == d && (i != 0 || 1 / d > 0)) {
+                  return Optimizer.Int32Type;
+              }
               return Optimizer.NumberType;
+          }
 
           case Token.CALL:
           case Token.NEW:
@@ -481,47 +501,99 @@ class Block
               return varTypes[fn.getVarIndex(n)];
 
           case Token.INC:
-          case Token.DEC:
-          case Token.MUL:
-          case Token.DIV:
-          case Token.MOD:
+          case Token.DEC: {
+              // the variable itself becomes IntegerType, see findDefPoints
+              Node child = n.getFirstChild();
+              if (child.getType() == Token.GETVAR
+                  && (varTypes[fn.getVarIndex(child)]
+                      & ~Optimizer.IntegerType) == 0)
+              {
+                  return Optimizer.IntegerType;
+              }
+              return Optimizer.NumberType;
+          }
+
           case Token.BITOR:
           case Token.BITXOR:
           case Token.BITAND:
+          case Token.BITNOT:
           case Token.LSH:
           case Token.RSH:
+              return Optimizer.Int32Type;
+
           case Token.URSH:
-          case Token.SUB:
+          case Token.MUL:
+          case Token.DIV:
+          case Token.MOD:
           case Token.POS:
           case Token.NEG:
               return Optimizer.NumberType;
-          
+
+          case Token.EQ:
+          case Token.NE:
+          case Token.SHEQ:
+          case Token.SHNE:
+          case Token.LT:
+          case Token.LE:
+          case Token.GT:
+          case Token.GE:
+          case Token.IN:
+          case Token.INSTANCEOF:
+          case Token.NOT:
+          case Token.TRUE:
+          case Token.FALSE:
+              return Optimizer.BooleanType;
+
           case Token.ARRAYLIT:
           case Token.OBJECTLIT:
               return Optimizer.AnyType; // XXX: actually, we know it's not
                                         // number, but no type yet for that
 
-          case Token.ADD: {
+          case Token.ADD:
+          case Token.SUB: {
               // if the lhs & rhs are known to be numbers, we can be sure that's
-              // the result, otherwise it could be a string.
+              // the result, otherwise ADD could produce a string.
               Node child = n.getFirstChild();
               int lType = findExpressionType(fn, child, varTypes);
               int rType = findExpressionType(fn, child.getNext(), varTypes);
-              return lType | rType;    // we're not distinguishing strings yet
+              int type = Optimizer.join(lType, rType);
+              if ((type & ~Optimizer.IntegerType) == 0) {
+                  // adding two integers may overflow int32
+                  return type == Optimizer.NoType ? type
+                                                  : Optimizer.IntegerType;
+              }
+              if ((type & ~Optimizer.NumberType) == 0
+                  || n.getType() == Token.SUB)
+              {
+                  return Optimizer.NumberType;
+              }
+              return Optimizer.AnyType; // we're not distinguishing strings yet
           }
-        }
 
-        Node child = n.getFirstChild();
-        if (child == null) {
-            return Optimizer.AnyType;
-        } else {
-            int result = Optimizer.NoType;
-            while (child != null) {
-                result |= findExpressionType(fn, child, varTypes);
-                child = child.getNext();
-            }
-            return result;
+          case Token.SETVAR:
+              return findExpressionType(fn, n.getFirstChild().getNext(),
+                                        varTypes);
+
+          case Token.COMMA:
+              return findExpressionType(fn, n.getLastChild(), varTypes);
+
+          case Token.HOOK: {
+              Node ifTrue = n.getFirstChild().getNext();
+              return Optimizer.join(
+                  findExpressionType(fn, ifTrue, varTypes),
+                  findExpressionType(fn, ifTrue.getNext(), varTypes));
+          }
+
+          case Token.AND:
+          case Token.OR: {
+              Node child = n.getFirstChild();
+              return Optimizer.join(
+                  findExpressionType(fn, child, varTypes),
+                  findExpressionType(fn, child.getNext(), varTypes));
+          }
         }
+
+        return Optimizer.AnyType;
     }
 
     private static boolean findDefPoints(OptFunctionNode fn, Node n,
@@ -539,16 +611,17 @@ class Block
           case Token.DEC :
           case Token.INC :
             if (child.getType() == Token.GETVAR) {
-                // theVar is a Number now
+                // theVar is an integer now, unless it already held
+                // fractions or non-numbers
                 int i = fn.getVarIndex(child);
-                result |= assignType(varTypes, i, Optimizer.NumberType);
+                result |= assignType(varTypes, i, Optimizer.IntegerType);
             }
             break;
           case Token.SETPROP :
           case Token.SETPROP_OP :
             if (child.getType() == Token.GETVAR) {
                 int i = fn.getVarIndex(child);
-                assignType(varTypes, i, Optimizer.AnyType);
+                result |= assignType(varTypes, i, Optimizer.AnyType);
             }
             while (child != null) {
                 result |= findDefPoints(fn, child, varTypes);
@@ -557,6 +630,8 @@ class Block
             break;
           case Token.SETVAR : {
             Node rValue = child.getNext();
+            // the right side may assign other variables first
+            result |= findDefPoints(fn, rValue, varTypes);
             int theType = findExpressionType(fn, rValue, varTypes);
             int i = fn.getVarIndex(n);
             result |= assignType(varTypes, i, theType);
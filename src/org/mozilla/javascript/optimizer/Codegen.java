@@ -192,8 +192,13 @@ public class Codegen implements Evaluator
         this.mainClassSignature
             = ClassFileWriter.classNameToSignature(mainClassName);
 
+        splitBodies = new HashSet<ScriptNode>();
         try {
-            return generateCode(encodedSource);
+            byte[] classBytes;
+            do {
+                classBytes = generateCode(encodedSource);
+            } while (classBytes == null);
+            return classBytes;
         } catch (ClassFileWriter.ClassFileFormatException e) {
             throw reportClassFileFormatException(scriptOrFn, e.getMessage());
         }
@@ -290,8 +295,16 @@ public class Codegen implements Evaluator
         }
     }
 
+    /**
+     * Generate the class file, or return null if the body of a function or
+     * script turned out to be too large for a single method and the class
+     * has to be generated again with that body split into parts.
+     */
     private byte[] generateCode(String encodedSource)
     {
+        itsConstantListSize = 0;
+        propertyCacheCount = 0;
+
         boolean hasScript = (scriptOrFnNodes[0].getType() == Token.SCRIPT);
         boolean hasFunctions = (scriptOrFnNodes.length > 1 || !hasScript);
 
@@ -336,11 +349,19 @@ public class Codegen implements Evaluator
             bodygen.compilerEnv = compilerEnv;
             bodygen.scriptOrFn = n;
             bodygen.scriptOrFnIndex = i;
+            bodygen.splitBody = splitBodies.contains(n);
 
             try {
                 bodygen.generateBodyCode();
             } catch (ClassFileWriter.ClassFileFormatException e) {
-                throw reportClassFileFormatException(n, e.getMessage());
+                if (bodygen.splitBody || !BodyCodegen.canSplit(n)) {
+                    throw reportClassFileFormatException(n, e.getMessage());
+                }
+                splitBodies.add(n);
+                for (int j = 0; j != count; ++j) {
+                    resetLabels(scriptOrFnNodes[j]);
+                }
+                return null;
             }
 
             if (n.getType() == Token.FUNCTION) {
@@ -367,6 +388,17 @@ public class Codegen implements Evaluator
         return cfw.toByteArray();
     }
 
+    private static void resetLabels(Node parent)
+    {
+        for (Node n = parent.getFirstChild(); n != null; n = n.getNext()) {
+            int type = n.getType();
+            if (type == Token.TARGET || type == Token.YIELD) {
+                n.labelId(-1);
+            }
+            resetLabels(n);
+        }
+    }
+
     private void emitDirectConstructor(ClassFileWriter cfw,
                                        OptFunctionNode ofn)
     {
@@ -1067,12 +1099,27 @@ public class Codegen implements Evaluator
     private void emitConstantDudeInitializers(ClassFileWriter cfw)
     {
         int N = itsConstantListSize;
-        if (N == 0)
+        if (N == 0 && propertyCacheCount == 0)
             return;
 
         cfw.startMethod("<clinit>", "()V",
             (short)(ClassFileWriter.ACC_STATIC | ClassFileWriter.ACC_FINAL));
 
+        if (propertyCacheCount != 0) {
+            cfw.addField(PROPERTY_CACHE_FIELD_NAME,
+                         PROPERTY_CACHE_FIELD_TYPE,
+                         (short)(ClassFileWriter.ACC_STATIC
+                                 | ClassFileWriter.ACC_PRIVATE
+                                 | ClassFileWriter.ACC_FINAL));
+            cfw.addPush(propertyCacheCount);
+            cfw.addInvoke(ByteCode.INVOKESTATIC,
+                          "org/mozilla/javascript/PropertyCache",
+                          "createCaches",
+                          "(I)" + PROPERTY_CACHE_FIELD_TYPE);
+            cfw.add(ByteCode.PUTSTATIC, mainClassName,
+                    PROPERTY_CACHE_FIELD_NAME, PROPERTY_CACHE_FIELD_TYPE);
+        }
+
         double[] array = itsConstantList;
         for (int i = 0; i != N; ++i) {
             double num = array[i];
@@ -1100,6 +1147,19 @@ public class Codegen implements Evaluator
         cfw.stopMethod((short)0);
     }
 
+    /**
+     * Allocate the inline cache of a new property access site and push it,
+     * see {@link org.mozilla.javascript.PropertyCache}.
+     */
+    void pushPropertyCache(ClassFileWriter cfw)
+    {
+        int index = propertyCacheCount++;
+        cfw.add(ByteCode.GETSTATIC, mainClassName,
+                PROPERTY_CACHE_FIELD_NAME, PROPERTY_CACHE_FIELD_TYPE);
+        cfw.addPush(index);
+        cfw.add(ByteCode.AALOAD);
+    }
+
     void pushRegExpArray(ClassFileWriter cfw, ScriptNode n,
                          int contextArg, int scopeArg)
     {
@@ -1270,6 +1330,26 @@ public class Codegen implements Evaluator
       return result;
     }
 
+    String getPartMethodName(ScriptNode n, int part)
+    {
+        return getBodyMethodName(n) + "_part" + part;
+    }
+
+    /**
+     * The parts of a split body get the function, the context, the variable
+     * object, this, the arguments and the frame array carrying the variables
+     * between the parts.
+     */
+    String getPartMethodSignature()
+    {
+        return "(" + mainClassSignature
+               + "Lorg/mozilla/javascript/Context;"
+               + "Lorg/mozilla/javascript/Scriptable;"
+               + "Lorg/mozilla/javascript/Scriptable;"
+               + "[Ljava/lang/Object;"
+               + "[Ljava/lang/Object;)Ljava/lang/Object;";
+    }
+
     String getBodyMethodSignature(ScriptNode n)
     {
         StringBuffer sb = new StringBuffer();
@@ -1328,6 +1408,10 @@ public class Codegen implements Evaluator
     static final String REGEXP_ARRAY_FIELD_NAME = "_re";
     static final String REGEXP_ARRAY_FIELD_TYPE = "[Ljava/lang/Object;";
 
+    private static final String PROPERTY_CACHE_FIELD_NAME = "_pc";
+    private static final String PROPERTY_CACHE_FIELD_TYPE
+        = "[Lorg/mozilla/javascript/PropertyCache;";
+
     static final String FUNCTION_INIT_SIGNATURE
         =  "(Lorg/mozilla/javascript/Context;"
            +"Lorg/mozilla/javascript/Scriptable;"
@@ -1343,6 +1427,7 @@ public class Codegen implements Evaluator
     private CompilerEnvirons compilerEnv;
 
     private ObjArray directCallTargets;
+    private Set<ScriptNode> splitBodies;
     ScriptNode[] scriptOrFnNodes;
     private ObjToIntMap scriptOrFnIndexes;
 
@@ -1353,6 +1438,7 @@ public class Codegen implements Evaluator
 
     private double[] itsConstantList;
     private int itsConstantListSize;
+    private int propertyCacheCount;
 }
 
 
@@ -1361,6 +1447,11 @@ class BodyCodegen
     void generateBodyCode()
     {
         isGenerator = Codegen.isGenerator(scriptOrFn);
+
+        if (splitBody) {
+            generateSplitBody();
+            return;
+        }
         
         // generate the body of the current function or script object
         initBodyGeneration();
@@ -1405,6 +1496,365 @@ class BodyCodegen
         }
     }
 
+    /**
+     * Check if the body of a function or script can be split into parts
+     * at its top-level statements.
+     */
+    static boolean canSplit(ScriptNode n)
+    {
+        if (n.getType() == Token.FUNCTION) {
+            if (Codegen.isGenerator(n)) {
+                return false;
+            }
+            for (boolean isConst : n.getParamAndVarConst()) {
+                if (isConst) {
+                    // no room for the has-been-assigned flag in the frame
+                    return false;
+                }
+            }
+        }
+        boolean[] splitPoints = findSplitPoints(getBodyTop(n));
+        for (int i = 0; i < splitPoints.length - 1; i++) {
+            if (splitPoints[i]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Node getBodyTop(ScriptNode n)
+    {
+        return n.getType() == Token.FUNCTION ? n.getLastChild() : n;
+    }
+
+    /**
+     * Return for each top-level statement of a body whether a part may
+     * end after it, which is the case if no jump crosses that point.
+     */
+    private static boolean[] findSplitPoints(Node bodyTop)
+    {
+        Map<Node,Integer> targets = new HashMap<Node,Integer>();
+        int count = 0;
+        for (Node n = bodyTop.getFirstChild(); n != null; n = n.getNext()) {
+            collectTargets(n, count++, targets);
+        }
+        int[] reach = new int[count];
+        int i = 0;
+        for (Node n = bodyTop.getFirstChild(); n != null; n = n.getNext()) {
+            reach[i] = Math.max(reach[i], i);
+            collectJumpReach(n, i, targets, reach);
+            i++;
+        }
+        boolean[] result = new boolean[count];
+        int max = 0;
+        for (i = 0; i != count; i++) {
+            max = Math.max(max, reach[i]);
+            result[i] = max <= i;
+        }
+        return result;
+    }
+
+    private static void collectTargets(Node parent, int statement,
+                                       Map<Node,Integer> targets)
+    {
+        if (parent.getType() == Token.TARGET) {
+            targets.put(parent, Integer.valueOf(statement));
+        }
+        for (Node n = parent.getFirstChild(); n != null; n = n.getNext()) {
+            collectTargets(n, statement, targets);
+        }
+    }
+
+    /**
+     * Record in reach the last statement that the jumps of the given
+     * statement connect to any earlier statement.
+     */
+    private static void collectJumpReach(Node parent, int statement,
+                                         Map<Node,Integer> targets,
+                                         int[] reach)
+    {
+        if (parent instanceof Jump) {
+            Jump jump = (Jump)parent;
+            addJumpReach(jump.target, statement, targets, reach);
+            switch (jump.getType()) {
+              case Token.TRY:
+                addJumpReach(jump.getFinally(), statement, targets, reach);
+                break;
+              case Token.SWITCH:
+                addJumpReach(jump.getDefault(), statement, targets, reach);
+                break;
+              case Token.LOOP:
+                addJumpReach(jump.getContinue(), statement, targets, reach);
+                break;
+            }
+        }
+        for (Node n = parent.getFirstChild(); n != null; n = n.getNext()) {
+            collectJumpReach(n, statement, targets, reach);
+        }
+    }
+
+    private static void addJumpReach(Node target, int statement,
+                                     Map<Node,Integer> targets, int[] reach)
+    {
+        if (target == null) {
+            return;
+        }
+        Integer other = targets.get(target);
+        // a target outside the body keeps the whole body together
+        int to = other == null ? reach.length - 1 : other.intValue();
+        int from = Math.min(statement, to);
+        reach[from] = Math.max(reach[from], Math.max(statement, to));
+    }
+
+    /**
+     * Generate a body that is too large for a single method as a sequence
+     * of part methods, each running a run of top-level statements. The
+     * body method creates the activation or the variables as usual and
+     * calls the parts in turn. Variables kept in registers are carried
+     * from part to part in a frame array, which also holds the result of a
+     * script. A part returns the value of a return statement or
+     * OptRuntime.FALL_THROUGH when its last statement completes.
+     */
+    private void generateSplitBody()
+    {
+        Node bodyTop = getBodyTop(scriptOrFn);
+        boolean[] splitPoints = findSplitPoints(bodyTop);
+        String partSignature = codegen.getPartMethodSignature();
+
+        int partCount = 0;
+        int statement = 0;
+        Node n = bodyTop.getFirstChild();
+        while (n != null) {
+            initBodyGeneration();
+            cfw.startMethod(codegen.getPartMethodName(scriptOrFn, partCount),
+                            partSignature,
+                            (short)(ClassFileWriter.ACC_STATIC
+                                    | ClassFileWriter.ACC_PRIVATE));
+            generatePartPrologue();
+            do {
+                generateStatement(n);
+                n = n.getNext();
+                ++statement;
+            } while (n != null
+                     && (cfw.getCurrentCodeOffset() < PART_SIZE
+                         || !splitPoints[statement - 1]));
+            generatePartEpilogue();
+            cfw.stopMethod((short)(localsMax + 1));
+            ++partCount;
+        }
+
+        initBodyGeneration();
+        cfw.startMethod(codegen.getBodyMethodName(scriptOrFn),
+                        codegen.getBodyMethodSignature(scriptOrFn),
+                        (short)(ClassFileWriter.ACC_STATIC
+                                | ClassFileWriter.ACC_PRIVATE));
+        generatePrologue();
+        int varCount = hasVarsInRegs ? scriptOrFn.getParamAndVarCount() : 0;
+        frameLocal = getNewWordLocal();
+        cfw.addPush(varCount + 1);
+        cfw.add(ByteCode.ANEWARRAY, "java/lang/Object");
+        cfw.addAStore(frameLocal);
+        for (int i = 0; i != varCount; i++) {
+            addVarToFrame(i);
+        }
+        if (fnCurrent == null) {
+            addPopvToFrame(varCount);
+        }
+
+        int returnLabel = fnCurrent != null ? cfw.acquireLabel() : -1;
+        for (int part = 0; part != partCount; part++) {
+            cfw.addALoad(funObjLocal);
+            cfw.addALoad(contextLocal);
+            cfw.addALoad(variableObjectLocal);
+            cfw.addALoad(thisObjLocal);
+            cfw.addALoad(argsLocal);
+            cfw.addALoad(frameLocal);
+            cfw.addInvoke(ByteCode.INVOKESTATIC, codegen.mainClassName,
+                          codegen.getPartMethodName(scriptOrFn, part),
+                          partSignature);
+            if (fnCurrent != null) {
+                cfw.add(ByteCode.DUP);
+                cfw.add(ByteCode.GETSTATIC,
+                        "org/mozilla/javascript/optimizer/OptRuntime",
+                        "FALL_THROUGH", "Ljava/lang/Object;");
+                cfw.add(ByteCode.IF_ACMPNE, returnLabel);
+            }
+            cfw.add(ByteCode.POP);
+        }
+        if (fnCurrent == null) {
+            cfw.addALoad(frameLocal);
+            cfw.addPush(varCount);
+            cfw.add(ByteCode.AALOAD);
+            cfw.addAStore(popvLocal);
+        } else {
+            Codegen.pushUndefined(cfw);
+            cfw.markLabel(returnLabel);
+        }
+        generateEpilogue();
+        cfw.stopMethod((short)(localsMax + 1));
+    }
+
+    private void generatePartPrologue()
+    {
+        argsLocal = firstFreeLocal++;
+        frameLocal = firstFreeLocal++;
+        localsMax = firstFreeLocal;
+        itsLineNumber = 0;
+
+        if (compilerEnv.isGenerateObserverCount())
+            saveCurrentCodeOffset();
+
+        if (hasVarsInRegs) {
+            int paramCount = scriptOrFn.getParamCount();
+            int varCount = scriptOrFn.getParamAndVarCount();
+            if (inDirectCallFunction) {
+                // keep the layout of direct call parameters, see
+                // generatePrologue
+                itsForcedObjectParameters
+                    = !fnCurrent.getParameterNumberContext();
+                for (int i = 0; i != paramCount; ++i) {
+                    varRegisters[i] = firstFreeLocal;
+                    firstFreeLocal += 3;
+                }
+                localsMax = firstFreeLocal;
+            }
+            for (int i = 0; i != varCount; ++i) {
+                short reg;
+                if (i < paramCount && inDirectCallFunction) {
+                    reg = varRegisters[i];
+                } else if (fnCurrent.isInt32Var(i)
+                           || fnCurrent.isBooleanVar(i)) {
+                    reg = getNewWordLocal(false);
+                } else if (fnCurrent.isIntegerVar(i)) {
+                    reg = getNewIntegerLocal();
+                } else if (fnCurrent.isNumberVar(i)) {
+                    reg = getNewWordPairLocal(false);
+                } else {
+                    reg = getNewWordLocal();
+                }
+                varRegisters[i] = reg;
+                addVarFromFrame(i);
+            }
+        }
+
+        if (fnCurrent == null) {
+            if (scriptOrFn.getRegexpCount() != 0) {
+                scriptRegexpLocal = getNewWordLocal();
+                codegen.pushRegExpArray(cfw, scriptOrFn, contextLocal,
+                                        variableObjectLocal);
+                cfw.addAStore(scriptRegexpLocal);
+            }
+            popvLocal = getNewWordLocal();
+            cfw.addALoad(frameLocal);
+            cfw.addPush(0);
+            cfw.add(ByteCode.AALOAD);
+            cfw.addAStore(popvLocal);
+        } else {
+            if (fnCurrent.itsContainsCalls0) {
+                itsZeroArgArray = getNewWordLocal();
+                cfw.add(ByteCode.GETSTATIC,
+                        "org/mozilla/javascript/ScriptRuntime",
+                        "emptyArgs", "[Ljava/lang/Object;");
+                cfw.addAStore(itsZeroArgArray);
+            }
+            if (fnCurrent.itsContainsCalls1) {
+                itsOneArgArray = getNewWordLocal();
+                cfw.addPush(1);
+                cfw.add(ByteCode.ANEWARRAY, "java/lang/Object");
+                cfw.addAStore(itsOneArgArray);
+            }
+        }
+    }
+
+    private void generatePartEpilogue()
+    {
+        if (compilerEnv.isGenerateObserverCount())
+            addInstructionCount();
+        if (hasVarsInRegs) {
+            int varCount = scriptOrFn.getParamAndVarCount();
+            for (int i = 0; i != varCount; i++) {
+                addVarToFrame(i);
+            }
+        }
+        if (fnCurrent == null) {
+            addPopvToFrame(0);
+        }
+        cfw.add(ByteCode.GETSTATIC,
+                "org/mozilla/javascript/optimizer/OptRuntime",
+                "FALL_THROUGH", "Ljava/lang/Object;");
+        cfw.add(ByteCode.ARETURN);
+        if (epilogueLabel != -1) {
+            cfw.markLabel(epilogueLabel, (short)1);
+            cfw.add(ByteCode.ARETURN);
+        }
+    }
+
+    private void addPopvToFrame(int index)
+    {
+        cfw.addALoad(frameLocal);
+        cfw.addPush(index);
+        cfw.addALoad(popvLocal);
+        cfw.add(ByteCode.AASTORE);
+    }
+
+    /**
+     * Store the variable in its register into the frame array, boxing
+     * values kept in int and double registers.
+     */
+    private void addVarToFrame(int varIndex)
+    {
+        short reg = varRegisters[varIndex];
+        cfw.addALoad(frameLocal);
+        cfw.addPush(varIndex);
+        if (varIsDirectCallParameter(varIndex)) {
+            dcpLoadAsObject(reg);
+        } else if (fnCurrent.isInt32Var(varIndex)
+                   || fnCurrent.isBooleanVar(varIndex)) {
+            cfw.addILoad(reg);
+            cfw.addInvoke(ByteCode.INVOKESTATIC, "java/lang/Integer",
+                          "valueOf", "(I)Ljava/lang/Integer;");
+        } else if (fnCurrent.isIntegerVar(varIndex)) {
+            cfw.addDLoad(reg + 1);
+            addDoubleWrap();
+        } else if (fnCurrent.isNumberVar(varIndex)) {
+            cfw.addDLoad(reg);
+            addDoubleWrap();
+        } else {
+            cfw.addALoad(reg);
+        }
+        cfw.add(ByteCode.AASTORE);
+    }
+
+    private void addVarFromFrame(int varIndex)
+    {
+        short reg = varRegisters[varIndex];
+        cfw.addALoad(frameLocal);
+        cfw.addPush(varIndex);
+        cfw.add(ByteCode.AALOAD);
+        if (fnCurrent.isParameter(varIndex)) {
+            // a boxed direct call parameter is a plain object as well
+            cfw.addAStore(reg);
+        } else if (fnCurrent.isInt32Var(varIndex)
+                   || fnCurrent.isBooleanVar(varIndex)) {
+            cfw.add(ByteCode.CHECKCAST, "java/lang/Integer");
+            cfw.addInvoke(ByteCode.INVOKEVIRTUAL, "java/lang/Integer",
+                          "intValue", "()I");
+            cfw.addIStore(reg);
+        } else if (fnCurrent.isIntegerVar(varIndex)) {
+            cfw.add(ByteCode.CHECKCAST, "java/lang/Double");
+            cfw.addInvoke(ByteCode.INVOKEVIRTUAL, "java/lang/Double",
+                          "doubleValue", "()D");
+            addIntegerVarStore(reg);
+        } else if (fnCurrent.isNumberVar(varIndex)) {
+            cfw.add(ByteCode.CHECKCAST, "java/lang/Double");
+            cfw.addInvoke(ByteCode.INVOKEVIRTUAL, "java/lang/Double",
+                          "doubleValue", "()D");
+            cfw.addDStore(reg);
+        } else {
+            cfw.addAStore(reg);
+        }
+    }
+
     // This creates a the user-facing function that returns a NativeGenerator
     // object.
     private void generateGenerator()
@@ -1536,6 +1986,7 @@ class BodyCodegen
         epilogueLabel = -1;
         enterAreaStartLabel = -1;
         generatorStateLocal = -1;
+        markedTargets = new HashSet<Node>();
     }
 
     /**
@@ -1543,6 +1994,7 @@ class BodyCodegen
      */
     private void generatePrologue()
     {
+        addInterruptCheck();
         if (inDirectCallFunction) {
             int directParameterCount = scriptOrFn.getParamCount();
             // 0 is reserved for function Object 'this'
@@ -1682,6 +2134,17 @@ class BodyCodegen
                         cfw.add(ByteCode.AALOAD);
                         cfw.addAStore(reg);
                     }
+                } else if (fnCurrent.isInt32Var(i)
+                           || fnCurrent.isBooleanVar(i)) {
+                    reg = getNewWordLocal(false);
+                    cfw.addPush(0);
+                    cfw.addIStore(reg);
+                } else if (fnCurrent.isIntegerVar(i)) {
+                    reg = getNewIntegerLocal();
+                    cfw.addPush(0);
+                    cfw.addIStore(reg);
+                    cfw.addPush(0.0);
+                    cfw.addDStore(reg + 1);
                 } else if (fnCurrent.isNumberVar(i)) {
                     reg = getNewWordPairLocal(constDeclarations[i]);
                     cfw.addPush(0.0);
@@ -1713,6 +2176,14 @@ class BodyCodegen
                     if (reg < 0) {
                         reg = varRegisters[i];
                     }
+                    if (fnCurrent.isInt32Var(i)) {
+                        type = "I";
+                    } else if (fnCurrent.isBooleanVar(i)) {
+                        type = "Z";
+                    } else if (fnCurrent.isIntegerVar(i)) {
+                        // describe the exact value
+                        reg++;
+                    }
                     cfw.addVariableDescriptor(name, type, startPC, reg);
                 }
             }
@@ -2069,7 +2540,8 @@ class BodyCodegen
                 if (compilerEnv.isGenerateObserverCount())
                     addInstructionCount();
                 if (epilogueLabel == -1) {
-                    if (!hasVarsInRegs) throw Codegen.badTree();
+                    if (!hasVarsInRegs && !splitBody)
+                        throw Codegen.badTree();
                     epilogueLabel = cfw.acquireLabel();
                 }
                 cfw.add(ByteCode.GOTO, epilogueLabel);
@@ -2138,6 +2610,15 @@ class BodyCodegen
                 else if (child.getType() == Token.YIELD) {
                     generateYieldPoint(child, false);
                 }
+                else if (isIntegerVarIncDec(child)) {
+                    // "i++;" needs no value
+                    int varIndex = fnCurrent.getVarIndex(child.getFirstChild());
+                    int incrDecrMask = child.getExistingIntProp(
+                        Node.INCRDECR_PROP);
+                    addIntegerVarIncrement(varRegisters[varIndex],
+                        (incrDecrMask & Node.DECR_FLAG) == 0 ? 1 : -1,
+                        false, false);
+                }
                 else {
                     generateExpression(child, node);
                     if (node.getIntProp(Node.ISNUMBER_PROP, -1) != -1)
@@ -2161,6 +2642,7 @@ class BodyCodegen
                         addInstructionCount();
                     int label = getTargetLabel(node);
                     cfw.markLabel(label);
+                    markedTargets.add(node);
                     if (compilerEnv.isGenerateObserverCount())
                         saveCurrentCodeOffset();
                 }
@@ -2172,6 +2654,12 @@ class BodyCodegen
               case Token.IFNE:
                 if (compilerEnv.isGenerateObserverCount())
                     addInstructionCount(); 
+                if (type != Token.JSR
+                    && markedTargets.contains(((Jump)node).target))
+                {
+                    // loop back-edge
+                    addInterruptCheck();
+                }
                 visitGoto((Jump)node, type, child);
                 break;
 
@@ -2267,10 +2755,15 @@ class BodyCodegen
                     OptFunctionNode ofn = OptFunctionNode.get(scriptOrFn,
                                                              fnIndex);
                     int t = ofn.fnode.getFunctionType();
-                    if (t != FunctionNode.FUNCTION_EXPRESSION) {
+                    // function statements of functions without activation
+                    // are assigned to their variables as expressions
+                    if (t != FunctionNode.FUNCTION_EXPRESSION
+                        && (t != FunctionNode.FUNCTION_STATEMENT
+                            || !hasVarsInRegs))
+                    {
                         throw Codegen.badTree();
                     }
-                    visitFunction(ofn, t);
+                    visitFunction(ofn, FunctionNode.FUNCTION_EXPRESSION);
                 }
                 break;
 
@@ -2440,10 +2933,7 @@ class BodyCodegen
               }
 
               case Token.BITNOT:
-                generateExpression(child, node);
-                addScriptRuntimeInvoke("toInt32", "(Ljava/lang/Object;)I");
-                cfw.addPush(-1);         // implement ~a as (a ^ -1)
-                cfw.add(ByteCode.IXOR);
+                generateInt32(node, parent);
                 cfw.add(ByteCode.I2D);
                 addDoubleWrap();
                 break;
@@ -2523,14 +3013,14 @@ class BodyCodegen
                       default:
                         if (child.getType() == Token.STRING) {
                             addScriptRuntimeInvoke("add",
-                                "(Ljava/lang/String;"
+                                "(Ljava/lang/CharSequence;"
                                 +"Ljava/lang/Object;"
-                                +")Ljava/lang/String;");
+                                +")Ljava/lang/CharSequence;");
                         } else if (child.getNext().getType() == Token.STRING) {
                             addScriptRuntimeInvoke("add",
                                 "(Ljava/lang/Object;"
-                                +"Ljava/lang/String;"
-                                +")Ljava/lang/String;");
+                                +"Ljava/lang/CharSequence;"
+                                +")Ljava/lang/CharSequence;");
                         } else {
                             cfw.addALoad(contextLocal);
                             addScriptRuntimeInvoke("add",
@@ -2630,6 +3120,13 @@ class BodyCodegen
                 break;
 
               case Token.GETELEM:
+                if (node.getIntProp(Node.ISNUMBER_PROP, -1) != -1
+                    && (isInt32Node(child.getNext())
+                        || isIntegerVarGet(child.getNext())))
+                {
+                    visitGetIntIndex(node, child);
+                    break;
+                }
                 generateExpression(child, node); // object
                 generateExpression(child.getNext(), node);  // id
                 cfw.addALoad(contextLocal);
@@ -3031,9 +3528,15 @@ class BodyCodegen
             break;
 
           default:
-            // Generate generic code for non-optimized jump
-            generateExpression(node, parent);
-            addScriptRuntimeInvoke("toBoolean", "(Ljava/lang/Object;)Z");
+            if (type == Token.GETVAR && hasVarsInRegs
+                && fnCurrent.isBooleanVar(fnCurrent.getVarIndex(node)))
+            {
+                cfw.addILoad(varRegisters[fnCurrent.getVarIndex(node)]);
+            } else {
+                // Generate generic code for non-optimized jump
+                generateExpression(node, parent);
+                addScriptRuntimeInvoke("toBoolean", "(Ljava/lang/Object;)Z");
+            }
             cfw.add(ByteCode.IFNE, trueLabel);
             cfw.add(ByteCode.GOTO, falseLabel);
         }
@@ -3643,7 +4146,7 @@ Else pass the JS object in the aReg and 0.0 in the dReg.
                 cfw.addPush(property);
                 cfw.addALoad(contextLocal);
                 cfw.addALoad(variableObjectLocal);
-                addScriptRuntimeInvoke(
+                addPropertyAccessInvoke(
                     "getPropFunctionAndThis",
                     "(Ljava/lang/Object;"
                     +"Ljava/lang/String;"
@@ -3939,6 +4442,8 @@ Else pass the JS object in the aReg and 0.0 in the dReg.
             if (varIndex >= 0) {
                 if (fnCurrent.isNumberVar(varIndex)) {
                     cfw.addPush("number");
+                } else if (fnCurrent.isBooleanVar(varIndex)) {
+                    cfw.addPush("boolean");
                 } else if (varIsDirectCallParameter(varIndex)) {
                     int dcp_register = varRegisters[varIndex];
                     cfw.addALoad(dcp_register);
@@ -4012,6 +4517,16 @@ Else pass the JS object in the aReg and 0.0 in the dReg.
                 +"I)V");
     }
 
+    /**
+     * Generate a call to ScriptRuntime.checkInterrupt to deliver pending
+     * requests from <code>Context.requestInterrupt()</code>.
+     */
+    private void addInterruptCheck() {
+        cfw.addALoad(contextLocal);
+        addScriptRuntimeInvoke("checkInterrupt",
+                "(Lorg/mozilla/javascript/Context;)V");
+    }
+
     private void visitIncDec(Node node)
     {
         int incrDecrMask = node.getExistingIntProp(Node.INCRDECR_PROP);
@@ -4019,7 +4534,13 @@ Else pass the JS object in the aReg and 0.0 in the dReg.
         switch (child.getType()) {
           case Token.GETVAR:
             if (!hasVarsInRegs) Kit.codeBug();
-            if (node.getIntProp(Node.ISNUMBER_PROP, -1) != -1) {
+            if (isIntegerVarIncDec(node)) {
+                boolean post = ((incrDecrMask & Node.POST_FLAG) != 0);
+                int varIndex = fnCurrent.getVarIndex(child);
+                int delta = (incrDecrMask & Node.DECR_FLAG) == 0 ? 1 : -1;
+                addIntegerVarIncrement(varRegisters[varIndex], delta, post,
+                                       true);
+            } else if (node.getIntProp(Node.ISNUMBER_PROP, -1) != -1) {
                 boolean post = ((incrDecrMask & Node.POST_FLAG) != 0);
                 int varIndex = fnCurrent.getVarIndex(child);
                 short reg = varRegisters[varIndex];
@@ -4163,34 +4684,104 @@ Else pass the JS object in the aReg and 0.0 in the dReg.
     private void visitBitOp(Node node, int type, Node child)
     {
         int childNumberFlag = node.getIntProp(Node.ISNUMBER_PROP, -1);
-        generateExpression(child, node);
 
         // special-case URSH; work with the target arg as a long, so
-        // that we can return a 32-bit unsigned value, and call
-        // toUint32 instead of toInt32.
+        // that we can return a 32-bit unsigned value.
         if (type == Token.URSH) {
-            addScriptRuntimeInvoke("toUint32", "(Ljava/lang/Object;)J");
-            generateExpression(child.getNext(), node);
-            addScriptRuntimeInvoke("toInt32", "(Ljava/lang/Object;)I");
+            boolean isNumber = childNumberFlag != -1;
+            generateInt32Operand(child, node, isNumber);
+            cfw.add(ByteCode.I2L);
+            cfw.addPush(0xffffffffL);
+            cfw.add(ByteCode.LAND);
+            generateInt32Operand(child.getNext(), node, isNumber);
             // Looks like we need to explicitly mask the shift to 5 bits -
             // LUSHR takes 6 bits.
             cfw.addPush(31);
             cfw.add(ByteCode.IAND);
             cfw.add(ByteCode.LUSHR);
             cfw.add(ByteCode.L2D);
-            addDoubleWrap();
+            if (!isNumber) {
+                addDoubleWrap();
+            }
             return;
         }
+        generateInt32(node, null);
+        cfw.add(ByteCode.I2D);
         if (childNumberFlag == -1) {
-            addScriptRuntimeInvoke("toInt32", "(Ljava/lang/Object;)I");
-            generateExpression(child.getNext(), node);
-            addScriptRuntimeInvoke("toInt32", "(Ljava/lang/Object;)I");
+            addDoubleWrap();
         }
-        else {
-            addScriptRuntimeInvoke("toInt32", "(D)I");
-            generateExpression(child.getNext(), node);
-            addScriptRuntimeInvoke("toInt32", "(D)I");
+    }
+
+    /**
+     * Check if node is an expression that {@link #generateInt32} can
+     * evaluate to an int32 without going through double or Object.
+     */
+    private boolean isInt32Node(Node node)
+    {
+        switch (node.getType()) {
+          case Token.NUMBER: {
+            double d = node.getDouble();
+            int i = (int)d;
+            return i == d && (i != 0 || 1 / d > 0);
+          }
+          case Token.GETVAR:
+            return hasVarsInRegs
+                && fnCurrent.isInt32Var(fnCurrent.getVarIndex(node));
+          case Token.BITOR:
+          case Token.BITXOR:
+          case Token.BITAND:
+          case Token.BITNOT:
+          case Token.LSH:
+          case Token.RSH:
+            return true;
+          case Token.TO_DOUBLE:
+          case Token.TO_OBJECT:
+            return isInt32Node(node.getFirstChild());
         }
+        return false;
+    }
+
+    private boolean isIntegerVarGet(Node node)
+    {
+        return node.getType() == Token.GETVAR && hasVarsInRegs
+            && fnCurrent.isIntegerVar(fnCurrent.getVarIndex(node));
+    }
+
+    private boolean isIntegerVarIncDec(Node node)
+    {
+        int type = node.getType();
+        return (type == Token.INC || type == Token.DEC)
+            && node.getIntProp(Node.ISNUMBER_PROP, -1) != -1
+            && isIntegerVarGet(node.getFirstChild());
+    }
+
+    /**
+     * Push the int value of a node for which isInt32Node() is true.
+     */
+    private void generateInt32(Node node, Node parent)
+    {
+        int type = node.getType();
+        Node child = node.getFirstChild();
+        switch (type) {
+          case Token.NUMBER:
+            cfw.addPush((int)node.getDouble());
+            return;
+          case Token.GETVAR:
+            cfw.addILoad(varRegisters[fnCurrent.getVarIndex(node)]);
+            return;
+          case Token.TO_DOUBLE:
+          case Token.TO_OBJECT:
+            generateInt32(child, node);
+            return;
+          case Token.BITNOT:
+            generateInt32Operand(child, node, false);
+            cfw.addPush(-1);         // implement ~a as (a ^ -1)
+            cfw.add(ByteCode.IXOR);
+            return;
+        }
+        boolean isNumber = node.getIntProp(Node.ISNUMBER_PROP, -1) != -1;
+        generateInt32Operand(child, node, isNumber);
+        generateInt32Operand(child.getNext(), node, isNumber);
         switch (type) {
           case Token.BITOR:
             cfw.add(ByteCode.IOR);
@@ -4210,9 +4801,49 @@ Else pass the JS object in the aReg and 0.0 in the dReg.
           default:
             throw Codegen.badTree();
         }
-        cfw.add(ByteCode.I2D);
-        if (childNumberFlag == -1) {
-            addDoubleWrap();
+    }
+
+    /**
+     * Push ToInt32 of an operand. If the operand has to be evaluated
+     * normally, isNumber tells whether that gives a double or an Object.
+     */
+    private void generateInt32Operand(Node node, Node parent,
+                                      boolean isNumber)
+    {
+        Node var = node;
+        while (var.getType() == Token.TO_DOUBLE
+               || var.getType() == Token.TO_OBJECT)
+        {
+            var = var.getFirstChild();
+        }
+        if (isInt32Node(node)) {
+            generateInt32(node, parent);
+        } else if (var.getType() == Token.URSH) {
+            // ToInt32 of the uint32 result is the same bits
+            Node child = var.getFirstChild();
+            boolean childIsNumber =
+                var.getIntProp(Node.ISNUMBER_PROP, -1) != -1;
+            generateInt32Operand(child, var, childIsNumber);
+            generateInt32Operand(child.getNext(), var, childIsNumber);
+            cfw.add(ByteCode.IUSHR);
+        } else if (isIntegerVarGet(var)) {
+            short reg = varRegisters[fnCurrent.getVarIndex(var)];
+            int beyond = cfw.acquireLabel();
+            cfw.addILoad(reg);
+            cfw.add(ByteCode.DUP);
+            cfw.addPush(Integer.MIN_VALUE);
+            cfw.add(ByteCode.IF_ICMPNE, beyond);
+            cfw.add(ByteCode.POP);
+            cfw.addDLoad(reg + 1);
+            addScriptRuntimeInvoke("toInt32", "(D)I");
+            cfw.markLabel(beyond);
+        } else {
+            generateExpression(node, parent);
+            if (isNumber) {
+                addScriptRuntimeInvoke("toInt32", "(D)I");
+            } else {
+                addScriptRuntimeInvoke("toInt32", "(Ljava/lang/Object;)I");
+            }
         }
     }
 
@@ -4541,8 +5172,17 @@ Else pass the JS object in the aReg and 0.0 in the dReg.
             } else {
                 dcpLoadAsObject(reg);
             }
+        } else if (fnCurrent.isInt32Var(varIndex)) {
+            cfw.addILoad(reg);
+            cfw.add(ByteCode.I2D);
+        } else if (fnCurrent.isIntegerVar(varIndex)) {
+            cfw.addDLoad(reg + 1);
         } else if (fnCurrent.isNumberVar(varIndex)) {
             cfw.addDLoad(reg);
+        } else if (fnCurrent.isBooleanVar(varIndex)) {
+            cfw.addILoad(reg);
+            addScriptRuntimeInvoke("wrapBoolean",
+                                   "(Z)Ljava/lang/Boolean;");
         } else {
             cfw.addALoad(reg);
         }
@@ -4552,6 +5192,13 @@ Else pass the JS object in the aReg and 0.0 in the dReg.
     {
         if (!hasVarsInRegs) Kit.codeBug();
         int varIndex = fnCurrent.getVarIndex(node);
+        if (fnCurrent.isInt32Var(varIndex)
+            || fnCurrent.isIntegerVar(varIndex)
+            || fnCurrent.isBooleanVar(varIndex))
+        {
+            visitSetIntVar(varIndex, child.getNext(), node, needValue);
+            return;
+        }
         generateExpression(child.getNext(), node);
         boolean isNumber = (node.getIntProp(Node.ISNUMBER_PROP, -1) != -1);
         short reg = varRegisters[varIndex];
@@ -4608,6 +5255,152 @@ Else pass the JS object in the aReg and 0.0 in the dReg.
         }
     }
 
+    /**
+     * Store into a variable kept in an int register, leaving the value
+     * on the stack as a double, or as a Boolean for boolean variables, if
+     * <code>needValue</code> is set.
+     */
+    private void visitSetIntVar(int varIndex, Node rValue, Node parent,
+                                boolean needValue)
+    {
+        short reg = varRegisters[varIndex];
+        if (fnCurrent.isBooleanVar(varIndex)) {
+            // every value assigned is known to be boolean, so its truth
+            // value is the value
+            int trueLabel = cfw.acquireLabel();
+            int falseLabel = cfw.acquireLabel();
+            int beyond = cfw.acquireLabel();
+            generateIfJump(rValue, parent, trueLabel, falseLabel);
+            cfw.markLabel(trueLabel);
+            cfw.addPush(1);
+            cfw.add(ByteCode.GOTO, beyond);
+            cfw.markLabel(falseLabel);
+            cfw.addPush(0);
+            cfw.markLabel(beyond);
+            cfw.adjustStackTop(-1);   // only have 1 of 1/0
+            if (needValue) cfw.add(ByteCode.DUP);
+            cfw.addIStore(reg);
+            if (needValue) {
+                addScriptRuntimeInvoke("wrapBoolean",
+                                       "(Z)Ljava/lang/Boolean;");
+            }
+        } else if (fnCurrent.isInt32Var(varIndex)) {
+            if (isInt32Node(rValue)) {
+                generateInt32(rValue, parent);
+            } else {
+                // every value assigned is known to be an int32
+                generateExpression(rValue, parent);
+                cfw.add(ByteCode.D2I);
+            }
+            if (needValue) cfw.add(ByteCode.DUP);
+            cfw.addIStore(reg);
+            if (needValue) cfw.add(ByteCode.I2D);
+        } else {
+            int delta = getIntegerVarIncrement(varIndex, rValue);
+            if (delta != 0) {
+                addIntegerVarIncrement(reg, delta, false, needValue);
+            } else if (isInt32Node(rValue)) {
+                // MIN_VALUE also means "see the double", which is exact
+                generateInt32(rValue, parent);
+                cfw.add(ByteCode.DUP);
+                cfw.addIStore(reg);
+                cfw.add(ByteCode.I2D);
+                if (needValue) cfw.add(ByteCode.DUP2);
+                cfw.addDStore(reg + 1);
+            } else {
+                generateExpression(rValue, parent);
+                if (needValue) cfw.add(ByteCode.DUP2);
+                addIntegerVarStore(reg);
+            }
+        }
+    }
+
+    /**
+     * Store the double on the stack into the integer variable at reg.
+     */
+    private void addIntegerVarStore(short reg)
+    {
+        cfw.add(ByteCode.DUP2);
+        cfw.addDStore(reg + 1);
+        addOptRuntimeInvoke("toInt32OrMinValue", "(D)I");
+        cfw.addIStore(reg);
+    }
+
+    /**
+     * If rValue is var + k or var - k for the integer variable at
+     * varIndex and a small int literal k, return the increment, else 0.
+     */
+    private int getIntegerVarIncrement(int varIndex, Node rValue)
+    {
+        int type = rValue.getType();
+        if (type != Token.ADD && type != Token.SUB) {
+            return 0;
+        }
+        Node var = rValue.getFirstChild();
+        Node literal = var.getNext();
+        if (type == Token.ADD && var.getType() == Token.NUMBER) {
+            Node tmp = var;
+            var = literal;
+            literal = tmp;
+        }
+        if (var.getType() != Token.GETVAR
+            || fnCurrent.getVarIndex(var) != varIndex
+            || literal.getType() != Token.NUMBER)
+        {
+            return 0;
+        }
+        double d = literal.getDouble();
+        if (d != (short)d) {
+            return 0;
+        }
+        return type == Token.ADD ? (int)d : -(int)d;
+    }
+
+    /**
+     * Add delta to the integer variable at reg using int arithmetic
+     * unless the int register holds MIN_VALUE or the result would
+     * overflow, in which case double arithmetic is used. If needValue is
+     * set the old value (post) or the new value is left as a double.
+     */
+    private void addIntegerVarIncrement(short reg, int delta, boolean post,
+                                        boolean needValue)
+    {
+        if (needValue && post) {
+            cfw.addDLoad(reg + 1);
+        }
+        short stack = cfw.getStackTop();
+        int slowPath = cfw.acquireLabel();
+        int beyond = cfw.acquireLabel();
+        cfw.addILoad(reg);
+        cfw.addPush(Integer.MIN_VALUE);
+        cfw.add(ByteCode.IF_ICMPEQ, slowPath);
+        cfw.addILoad(reg);
+        if (delta > 0) {
+            cfw.addPush(Integer.MAX_VALUE - delta);
+            cfw.add(ByteCode.IF_ICMPGT, slowPath);
+        } else {
+            cfw.addPush(Integer.MIN_VALUE - delta);
+            cfw.add(ByteCode.IF_ICMPLT, slowPath);
+        }
+        cfw.addILoad(reg);
+        cfw.addPush(delta);
+        cfw.add(ByteCode.IADD);
+        cfw.add(ByteCode.DUP);
+        cfw.addIStore(reg);
+        cfw.add(ByteCode.I2D);
+        if (needValue && !post) cfw.add(ByteCode.DUP2);
+        cfw.addDStore(reg + 1);
+        cfw.add(ByteCode.GOTO, beyond);
+
+        cfw.markLabel(slowPath, stack);
+        cfw.addDLoad(reg + 1);
+        cfw.addPush((double)delta);
+        cfw.add(ByteCode.DADD);
+        if (needValue && !post) cfw.add(ByteCode.DUP2);
+        addIntegerVarStore(reg);
+        cfw.markLabel(beyond);
+    }
+
     private void visitSetConstVar(Node node, Node child, boolean needValue)
     {
         if (!hasVarsInRegs) Kit.codeBug();
@@ -4667,30 +5460,15 @@ Else pass the JS object in the aReg and 0.0 in the dReg.
                 +")Ljava/lang/Object;");
             return;
         }
-        /*
-            for 'this.foo' we call getObjectProp(Scriptable...) which can
-            skip some casting overhead.
-        */
-        int childType = child.getType();
-        if (childType == Token.THIS && nameChild.getType() == Token.STRING) {
-            cfw.addALoad(contextLocal);
-            addScriptRuntimeInvoke(
-                "getObjectProp",
-                "(Lorg/mozilla/javascript/Scriptable;"
-                +"Ljava/lang/String;"
-                +"Lorg/mozilla/javascript/Context;"
-                +")Ljava/lang/Object;");
-        } else {
-            cfw.addALoad(contextLocal);
-            cfw.addALoad(variableObjectLocal);
-            addScriptRuntimeInvoke(
-                "getObjectProp",
-                "(Ljava/lang/Object;"
-                +"Ljava/lang/String;"
-                +"Lorg/mozilla/javascript/Context;"
-                +"Lorg/mozilla/javascript/Scriptable;"
-                +")Ljava/lang/Object;");
-        }
+        cfw.addALoad(contextLocal);
+        cfw.addALoad(variableObjectLocal);
+        addPropertyAccessInvoke(
+            "getObjectProp",
+            "(Ljava/lang/Object;"
+            +"Ljava/lang/String;"
+            +"Lorg/mozilla/javascript/Context;"
+            +"Lorg/mozilla/javascript/Scriptable;"
+            +")Ljava/lang/Object;");
     }
 
     private void visitSetProp(int type, Node node, Node child)
@@ -4731,7 +5509,7 @@ Else pass the JS object in the aReg and 0.0 in the dReg.
         }
         generateExpression(child, node);
         cfw.addALoad(contextLocal);
-        addScriptRuntimeInvoke(
+        addPropertyAccessInvoke(
             "setObjectProp",
             "(Ljava/lang/Object;"
             +"Ljava/lang/String;"
@@ -4740,16 +5518,68 @@ Else pass the JS object in the aReg and 0.0 in the dReg.
             +")Ljava/lang/Object;");
     }
 
+    /**
+     * Generate obj[index] for an index that is available as an int.
+     */
+    private void visitGetIntIndex(Node node, Node child)
+    {
+        generateExpression(child, node); // object
+        Node index = child.getNext();
+        if (isInt32Node(index)) {
+            generateInt32(index, node);
+            cfw.addALoad(contextLocal);
+            addOptRuntimeInvoke("getObjectIndex",
+                                "(Ljava/lang/Object;I"
+                                +"Lorg/mozilla/javascript/Context;"
+                                +")Ljava/lang/Object;");
+            return;
+        }
+        // an integer variable: use the int unless it is MIN_VALUE
+        short reg = varRegisters[fnCurrent.getVarIndex(index)];
+        short stack = cfw.getStackTop();
+        int useDouble = cfw.acquireLabel();
+        int beyond = cfw.acquireLabel();
+        cfw.addILoad(reg);
+        cfw.addPush(Integer.MIN_VALUE);
+        cfw.add(ByteCode.IF_ICMPEQ, useDouble);
+        cfw.addILoad(reg);
+        cfw.addALoad(contextLocal);
+        addOptRuntimeInvoke("getObjectIndex",
+                            "(Ljava/lang/Object;I"
+                            +"Lorg/mozilla/javascript/Context;"
+                            +")Ljava/lang/Object;");
+        cfw.add(ByteCode.GOTO, beyond);
+        cfw.markLabel(useDouble, stack);
+        cfw.addDLoad(reg + 1);
+        cfw.addALoad(contextLocal);
+        addScriptRuntimeInvoke("getObjectIndex",
+                               "(Ljava/lang/Object;D"
+                               +"Lorg/mozilla/javascript/Context;"
+                               +")Ljava/lang/Object;");
+        cfw.markLabel(beyond);
+    }
+
     private void visitSetElem(int type, Node node, Node child)
     {
         generateExpression(child, node);
         child = child.getNext();
+        boolean indexIsNumber = (node.getIntProp(Node.ISNUMBER_PROP, -1) != -1);
+        if (type == Token.SETELEM && indexIsNumber && isInt32Node(child)) {
+            generateInt32(child, node);
+            generateExpression(child.getNext(), node);
+            cfw.addALoad(contextLocal);
+            addOptRuntimeInvoke("setObjectIndex",
+                                "(Ljava/lang/Object;I"
+                                +"Ljava/lang/Object;"
+                                +"Lorg/mozilla/javascript/Context;"
+                                +")Ljava/lang/Object;");
+            return;
+        }
         if (type == Token.SETELEM_OP) {
             cfw.add(ByteCode.DUP);
         }
         generateExpression(child, node);
         child = child.getNext();
-        boolean indexIsNumber = (node.getIntProp(Node.ISNUMBER_PROP, -1) != -1);
         if (type == Token.SETELEM_OP) {
             if (indexIsNumber) {
                 // stack: ... object object number
@@ -4912,6 +5742,28 @@ Else pass the JS object in the aReg and 0.0 in the dReg.
                       methodSignature);
     }
 
+    /**
+     * Call a ScriptRuntime property access method, or the PropertyCache
+     * method of the same name with a new inline cache appended to the
+     * arguments if property caches are enabled.
+     */
+    private void addPropertyAccessInvoke(String methodName,
+                                         String methodSignature)
+    {
+        if (!compilerEnv.isPropertyCaches()) {
+            addScriptRuntimeInvoke(methodName, methodSignature);
+            return;
+        }
+        codegen.pushPropertyCache(cfw);
+        int end = methodSignature.indexOf(')');
+        cfw.addInvoke(ByteCode.INVOKESTATIC,
+                      "org.mozilla.javascript.PropertyCache",
+                      methodName,
+                      methodSignature.substring(0, end)
+                      + "Lorg/mozilla/javascript/PropertyCache;"
+                      + methodSignature.substring(end));
+    }
+
     private void addOptRuntimeInvoke(String methodName,
                                      String methodSignature)
     {
@@ -4972,6 +5824,36 @@ Else pass the JS object in the aReg and 0.0 in the dReg.
                                          "(out of locals)");
     }
 
+    /**
+     * Integer variables use an int slot followed by a double pair, see
+     * {@link OptFunctionNode#isIntegerVar(int)}.
+     * @return the register for the int slot
+     */
+    private short getNewIntegerLocal()
+    {
+        short result = getConsecutiveSlots(3, false);
+        if (result < (MAX_LOCALS - 2)) {
+            locals[result] = 1;
+            locals[result + 1] = 1;
+            locals[result + 2] = 1;
+            if (result == firstFreeLocal) {
+                for (int i = firstFreeLocal + 3; i < MAX_LOCALS; i++) {
+                    if (locals[i] == 0) {
+                        firstFreeLocal = (short) i;
+                        if (localsMax < firstFreeLocal)
+                            localsMax = firstFreeLocal;
+                        return result;
+                    }
+                }
+            }
+            else {
+                return result;
+            }
+        }
+        throw Context.reportRuntimeError("Program too complex " +
+                                         "(out of locals)");
+    }
+
     private short getNewWordLocal(boolean isConst)
     {
         short result = getConsecutiveSlots(1, isConst);
@@ -5060,12 +5942,15 @@ Else pass the JS object in the aReg and 0.0 in the dReg.
     CompilerEnvirons compilerEnv;
     ScriptNode scriptOrFn;
     public int scriptOrFnIndex;
+    boolean splitBody;
     private int savedCodeOffset;
 
     private OptFunctionNode fnCurrent;
     private boolean isTopLevel;
 
     private static final int MAX_LOCALS = 256;
+    // code size after which a part of a split body ends
+    private static final int PART_SIZE = 16384;
     private int[] locals;
     private short firstFreeLocal;
     private short localsMax;
@@ -5078,6 +5963,8 @@ Else pass the JS object in the aReg and 0.0 in the dReg.
     private boolean itsForcedObjectParameters;
     private int enterAreaStartLabel;
     private int epilogueLabel;
+    // jumps to these targets are loop back-edges
+    private Set<Node> markedTargets;
 
     // special known locals. If you add a new local here, be sure
     // to initialize it to -1 in initBodyGeneration
@@ -5091,6 +5978,7 @@ Else pass the JS object in the aReg and 0.0 in the dReg.
     private short itsZeroArgArray;
     private short itsOneArgArray;
     private short scriptRegexpLocal;
+    private short frameLocal;
     private short generatorStateLocal;
 
     private boolean isGenerator;
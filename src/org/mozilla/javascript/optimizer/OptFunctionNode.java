@@ -101,24 +101,64 @@ final class OptFunctionNode
     }
 
     boolean isNumberVar(int varIndex)
+    {
+        return Optimizer.isNumberType(getVarType(varIndex));
+    }
+
+    /**
+     * Int32 variables live in a single int register.
+     */
+    boolean isInt32Var(int varIndex)
+    {
+        return getVarType(varIndex) == Optimizer.Int32Type;
+    }
+
+    /**
+     * Integer variables live in an int register followed by a double
+     * register pair that always holds the exact value. The int register
+     * holds the same value while it fits in int32 and Integer.MIN_VALUE
+     * otherwise.
+     */
+    boolean isIntegerVar(int varIndex)
+    {
+        return getVarType(varIndex) == Optimizer.IntegerType;
+    }
+
+    /**
+     * Boolean variables live in an int register holding 0 or 1.
+     */
+    boolean isBooleanVar(int varIndex)
+    {
+        return getVarType(varIndex) == Optimizer.BooleanType;
+    }
+
+    int getVarType(int varIndex)
     {
         varIndex -= fnode.getParamCount();
-        if (varIndex >= 0 && numberVarFlags != null) {
-            return numberVarFlags[varIndex];
+        if (varIndex >= 0 && varTypes != null) {
+            return varTypes[varIndex];
         }
-        return false;
+        return Optimizer.AnyType;
     }
 
     void setIsNumberVar(int varIndex)
+    {
+        setVarType(varIndex, Optimizer.NumberType);
+    }
+
+    void setVarType(int varIndex, int type)
     {
         varIndex -= fnode.getParamCount();
         // Can only be used with non-parameters
         if (varIndex < 0) Kit.codeBug();
-        if (numberVarFlags == null) {
+        if (varTypes == null) {
             int size = fnode.getParamAndVarCount() - fnode.getParamCount();
-            numberVarFlags = new boolean[size];
+            varTypes = new int[size];
+            for (int i = 0; i != size; ++i) {
+                varTypes[i] = Optimizer.AnyType;
+            }
         }
-        numberVarFlags[varIndex] = true;
+        varTypes[varIndex] = type;
     }
 
     int getVarIndex(Node n)
@@ -143,7 +183,7 @@ final class OptFunctionNode
     }
 
     FunctionNode fnode;
-    private boolean[] numberVarFlags;
+    private int[] varTypes;
     private int directTargetIndex = -1;
     private boolean itsParameterNumberContext;
     boolean itsContainsCalls0;
@@ -48,6 +48,12 @@ public final class OptRuntime extends ScriptRuntime
     public static final Double oneObj = new Double(1.0);
     public static final Double minusOneObj = new Double(-1.0);
 
+    /**
+     * Returned by a part of a function body split into several methods
+     * when it completes without executing a return statement.
+     */
+    public static final Object FALL_THROUGH = new Object();
+
     /**
      * Implement ....() call shrinking optimizer code.
      */
@@ -123,18 +129,18 @@ public final class OptRuntime extends ScriptRuntime
     {
         if (val1 instanceof Scriptable)
             val1 = ((Scriptable) val1).getDefaultValue(null);
-        if (!(val1 instanceof String))
+        if (!(val1 instanceof CharSequence))
             return wrapDouble(toNumber(val1) + val2);
-        return ((String)val1).concat(toString(val2));
+        return ConsString.concat((CharSequence)val1, toString(val2));
     }
 
     public static Object add(double val1, Object val2)
     {
         if (val2 instanceof Scriptable)
             val2 = ((Scriptable) val2).getDefaultValue(null);
-        if (!(val2 instanceof String))
+        if (!(val2 instanceof CharSequence))
             return wrapDouble(toNumber(val2) + val1);
-        return toString(val1).concat((String)val2);
+        return ConsString.concat(toString(val1), (CharSequence)val2);
     }
 
     public static Object elemIncrDecr(Object obj, double index,
@@ -144,6 +150,40 @@ public final class OptRuntime extends ScriptRuntime
                                           incrDecrMask);
     }
 
+    public static Object getObjectIndex(Object obj, int index, Context cx)
+    {
+        Scriptable sobj = toObjectOrNull(cx, obj);
+        if (sobj == null) {
+            throw undefReadError(obj, String.valueOf(index));
+        }
+        return getObjectIndex(sobj, index, cx);
+    }
+
+    public static Object setObjectIndex(Object obj, int index, Object value,
+                                        Context cx)
+    {
+        Scriptable sobj = toObjectOrNull(cx, obj);
+        if (sobj == null) {
+            throw undefWriteError(obj, String.valueOf(index), value);
+        }
+        return setObjectIndex(sobj, index, value, cx);
+    }
+
+    /**
+     * Returns the int value of num if it is an int32 other than -0 and
+     * Integer.MIN_VALUE otherwise. Compiled code keeps the int view of
+     * integer typed variables this way, with MIN_VALUE meaning that only
+     * the double holds the value.
+     */
+    public static int toInt32OrMinValue(double num)
+    {
+        int i = (int)num;
+        if (i == num && (i != 0 || 1 / num > 0)) {
+            return i;
+        }
+        return Integer.MIN_VALUE;
+    }
+
     public static Object[] padStart(Object[] currentArgs, int count) {
         Object[] result = new Object[currentArgs.length + count];
         System.arraycopy(currentArgs, 0, result, count, currentArgs.length);
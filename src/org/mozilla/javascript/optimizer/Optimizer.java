@@ -46,10 +46,29 @@ class Optimizer
 {
 
     static final int NoType = 0;
-    static final int NumberType = 1;
-    static final int AnyType = 3;
+    static final int Int32Type = 1;      // always an int32 value, never -0
+    static final int IntegerType = 3;    // integral, but may leave int32
+    static final int NumberType = 7;
+    static final int BooleanType = 8;
+    static final int AnyType = 15;
 
-    // It is assumed that (NumberType | AnyType) == AnyType
+    // The numeric types form a chain, so for them (a | b) is the join.
+    // BooleanType is disjoint from the numeric types: joining it with
+    // any of them gives AnyType, see join().
+
+    static int join(int a, int b)
+    {
+        int type = a | b;
+        if ((type & BooleanType) != 0 && type != BooleanType) {
+            return AnyType;
+        }
+        return type;
+    }
+
+    static boolean isNumberType(int type)
+    {
+        return type != NoType && (type & ~NumberType) == 0;
+    }
 
     void optimize(ScriptNode scriptOrFn)
     {
@@ -326,6 +345,7 @@ class Optimizer
             case Token.BITOR :
             case Token.BITAND :
             case Token.RSH :
+            case Token.URSH :
             case Token.LSH :
             case Token.SUB :
             case Token.MUL :
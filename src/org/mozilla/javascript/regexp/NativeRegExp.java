@@ -41,8 +41,6 @@
 
 package org.mozilla.javascript.regexp;
 
-import java.io.Serializable;
-
 import org.mozilla.javascript.Context;
 import org.mozilla.javascript.Function;
 import org.mozilla.javascript.IdFunctionObject;
@@ -87,60 +85,60 @@ public class NativeRegExp extends IdScriptableObject implements Function
 
     private static final boolean debug = false;
 
-    private static final byte REOP_EMPTY         = 0;  /* match rest of input against rest of r.e. */
-    private static final byte REOP_ALT           = 1;  /* alternative subexpressions in kid and next */
-    private static final byte REOP_BOL           = 2;  /* beginning of input (or line if multiline) */
-    private static final byte REOP_EOL           = 3;  /* end of input (or line if multiline) */
-    private static final byte REOP_WBDRY         = 4;  /* match "" at word boundary */
-    private static final byte REOP_WNONBDRY      = 5;  /* match "" at word non-boundary */
-    private static final byte REOP_QUANT         = 6;  /* quantified atom: atom{1,2} */
-    private static final byte REOP_STAR          = 7;  /* zero or more occurrences of kid */
-    private static final byte REOP_PLUS          = 8;  /* one or more occurrences of kid */
-    private static final byte REOP_OPT           = 9;  /* optional subexpression in kid */
-    private static final byte REOP_LPAREN        = 10; /* left paren bytecode: kid is u.num'th sub-regexp */
-    private static final byte REOP_RPAREN        = 11; /* right paren bytecode */
-    private static final byte REOP_DOT           = 12; /* stands for any character */
+    static final byte REOP_EMPTY         = 0;  /* match rest of input against rest of r.e. */
+    static final byte REOP_ALT           = 1;  /* alternative subexpressions in kid and next */
+    static final byte REOP_BOL           = 2;  /* beginning of input (or line if multiline) */
+    static final byte REOP_EOL           = 3;  /* end of input (or line if multiline) */
+    static final byte REOP_WBDRY         = 4;  /* match "" at word boundary */
+    static final byte REOP_WNONBDRY      = 5;  /* match "" at word non-boundary */
+    static final byte REOP_QUANT         = 6;  /* quantified atom: atom{1,2} */
+    static final byte REOP_STAR          = 7;  /* zero or more occurrences of kid */
+    static final byte REOP_PLUS          = 8;  /* one or more occurrences of kid */
+    static final byte REOP_OPT           = 9;  /* optional subexpression in kid */
+    static final byte REOP_LPAREN        = 10; /* left paren bytecode: kid is u.num'th sub-regexp */
+    static final byte REOP_RPAREN        = 11; /* right paren bytecode */
+    static final byte REOP_DOT           = 12; /* stands for any character */
 //    private static final byte REOP_CCLASS        = 13; /* character class: [a-f] */
-    private static final byte REOP_DIGIT         = 14; /* match a digit char: [0-9] */
-    private static final byte REOP_NONDIGIT      = 15; /* match a non-digit char: [^0-9] */
-    private static final byte REOP_ALNUM         = 16; /* match an alphanumeric char: [0-9a-z_A-Z] */
-    private static final byte REOP_NONALNUM      = 17; /* match a non-alphanumeric char: [^0-9a-z_A-Z] */
-    private static final byte REOP_SPACE         = 18; /* match a whitespace char */
-    private static final byte REOP_NONSPACE      = 19; /* match a non-whitespace char */
-    private static final byte REOP_BACKREF       = 20; /* back-reference (e.g., \1) to a parenthetical */
-    private static final byte REOP_FLAT          = 21; /* match a flat string */
-    private static final byte REOP_FLAT1         = 22; /* match a single char */
-    private static final byte REOP_JUMP          = 23; /* for deoptimized closure loops */
+    static final byte REOP_DIGIT         = 14; /* match a digit char: [0-9] */
+    static final byte REOP_NONDIGIT      = 15; /* match a non-digit char: [^0-9] */
+    static final byte REOP_ALNUM         = 16; /* match an alphanumeric char: [0-9a-z_A-Z] */
+    static final byte REOP_NONALNUM      = 17; /* match a non-alphanumeric char: [^0-9a-z_A-Z] */
+    static final byte REOP_SPACE         = 18; /* match a whitespace char */
+    static final byte REOP_NONSPACE      = 19; /* match a non-whitespace char */
+    static final byte REOP_BACKREF       = 20; /* back-reference (e.g., \1) to a parenthetical */
+    static final byte REOP_FLAT          = 21; /* match a flat string */
+    static final byte REOP_FLAT1         = 22; /* match a single char */
+    static final byte REOP_JUMP          = 23; /* for deoptimized closure loops */
 //    private static final byte REOP_DOTSTAR       = 24; /* optimize .* to use a single opcode */
 //    private static final byte REOP_ANCHOR        = 25; /* like .* but skips left context to unanchored r.e. */
 //    private static final byte REOP_EOLONLY       = 26; /* $ not preceded by any pattern */
 //    private static final byte REOP_UCFLAT        = 27; /* flat Unicode string; len immediate counts chars */
-    private static final byte REOP_UCFLAT1       = 28; /* single Unicode char */
+    static final byte REOP_UCFLAT1       = 28; /* single Unicode char */
 //    private static final byte REOP_UCCLASS       = 29; /* Unicode character class, vector of chars to match */
 //    private static final byte REOP_NUCCLASS      = 30; /* negated Unicode character class */
 //    private static final byte REOP_BACKREFi      = 31; /* case-independent REOP_BACKREF */
-    private static final byte REOP_FLATi         = 32; /* case-independent REOP_FLAT */
-    private static final byte REOP_FLAT1i        = 33; /* case-independent REOP_FLAT1 */
+    static final byte REOP_FLATi         = 32; /* case-independent REOP_FLAT */
+    static final byte REOP_FLAT1i        = 33; /* case-independent REOP_FLAT1 */
 //    private static final byte REOP_UCFLATi       = 34; /* case-independent REOP_UCFLAT */
-    private static final byte REOP_UCFLAT1i      = 35; /* case-independent REOP_UCFLAT1 */
+    static final byte REOP_UCFLAT1i      = 35; /* case-independent REOP_UCFLAT1 */
 //    private static final byte REOP_ANCHOR1       = 36; /* first-char discriminating REOP_ANCHOR */
 //    private static final byte REOP_NCCLASS       = 37; /* negated 8-bit character class */
 //    private static final byte REOP_DOTSTARMIN    = 38; /* ungreedy version of REOP_DOTSTAR */
 //    private static final byte REOP_LPARENNON     = 39; /* non-capturing version of REOP_LPAREN */
 //    private static final byte REOP_RPARENNON     = 40; /* non-capturing version of REOP_RPAREN */
-    private static final byte REOP_ASSERT        = 41; /* zero width positive lookahead assertion */
-    private static final byte REOP_ASSERT_NOT    = 42; /* zero width negative lookahead assertion */
-    private static final byte REOP_ASSERTTEST    = 43; /* sentinel at end of assertion child */
-    private static final byte REOP_ASSERTNOTTEST = 44; /* sentinel at end of !assertion child */
-    private static final byte REOP_MINIMALSTAR   = 45; /* non-greedy version of * */
-    private static final byte REOP_MINIMALPLUS   = 46; /* non-greedy version of + */
-    private static final byte REOP_MINIMALOPT    = 47; /* non-greedy version of ? */
-    private static final byte REOP_MINIMALQUANT  = 48; /* non-greedy version of {} */
-    private static final byte REOP_ENDCHILD      = 49; /* sentinel at end of quantifier child */
-    private static final byte REOP_CLASS         = 50; /* character class with index */
-    private static final byte REOP_REPEAT        = 51; /* directs execution of greedy quantifier */
-    private static final byte REOP_MINIMALREPEAT = 52; /* directs execution of non-greedy quantifier */
-    private static final byte REOP_END           = 53;
+    static final byte REOP_ASSERT        = 41; /* zero width positive lookahead assertion */
+    static final byte REOP_ASSERT_NOT    = 42; /* zero width negative lookahead assertion */
+    static final byte REOP_ASSERTTEST    = 43; /* sentinel at end of assertion child */
+    static final byte REOP_ASSERTNOTTEST = 44; /* sentinel at end of !assertion child */
+    static final byte REOP_MINIMALSTAR   = 45; /* non-greedy version of * */
+    static final byte REOP_MINIMALPLUS   = 46; /* non-greedy version of + */
+    static final byte REOP_MINIMALOPT    = 47; /* non-greedy version of ? */
+    static final byte REOP_MINIMALQUANT  = 48; /* non-greedy version of {} */
+    static final byte REOP_ENDCHILD      = 49; /* sentinel at end of quantifier child */
+    static final byte REOP_CLASS         = 50; /* character class with index */
+    static final byte REOP_REPEAT        = 51; /* directs execution of greedy quantifier */
+    static final byte REOP_MINIMALREPEAT = 52; /* directs execution of non-greedy quantifier */
+    static final byte REOP_END           = 53;
      
 
 
@@ -287,10 +285,6 @@ public class NativeRegExp extends IdScriptableObject implements Function
 
     static Object compileRE(Context cx, String str, String global, boolean flat)
     {
-        RECompiled regexp = new RECompiled();
-        regexp.source = str.toCharArray();
-        int length = str.length();
-
         int flags = 0;
         if (global != null) {
             for (int i = 0; i < global.length(); i++) {
@@ -306,6 +300,27 @@ public class NativeRegExp extends IdScriptableObject implements Function
                 }
             }
         }
+        if (cx.hasFeature(Context.FEATURE_STRICT_MODE)) {
+            // report the warnings of every compilation
+            return compileRE(cx, str, flags, flat);
+        }
+        String key = RegExpCache.makeKey(str, flags, flat);
+        Object compiled = RegExpCache.get(key);
+        if (compiled == null) {
+            compiled = compileRE(cx, str, flags, flat);
+            if (compiled != null) {
+                RegExpCache.put(key, compiled);
+            }
+        }
+        return compiled;
+    }
+
+    private static RECompiled compileRE(Context cx, String str, int flags,
+                                        boolean flat)
+    {
+        RECompiled regexp = new RECompiled();
+        regexp.source = str.toCharArray();
+        int length = str.length();
         regexp.flags = flags;
 
         CompilerState state = new CompilerState(cx, regexp.source, length, flags);
@@ -363,25 +378,254 @@ if (regexp.anchorCh >= 0) {
     System.out.println("Anchor ch = '" + (char)regexp.anchorCh + "'");
 }
 }
+        initStartScan(regexp, state.result);
         return regexp;
     }
 
+    /*
+     * Find what any match must start with, so matchRegExp can skip the
+     * positions where the program cannot match without running it.
+     */
+    private static void initStartScan(RECompiled regexp, RENode result)
+    {
+        regexp.minLength = (int)Math.min(minLength(result), Integer.MAX_VALUE);
+        regexp.startAnchored = startsWithBOL(result);
+
+        if ((regexp.flags & JSREG_FOLD) == 0) {
+            StringBuilder prefix = new StringBuilder();
+            addPrefix(regexp, result, prefix);
+            int m = prefix.length();
+            if (m > 1) {
+                regexp.prefix = new char[m];
+                prefix.getChars(0, m, regexp.prefix, 0);
+                // Boyer-Moore-Horspool shifts by the low byte of the char
+                // at the end of the window
+                int[] shift = new int[256];
+                java.util.Arrays.fill(shift, m);
+                for (int k = 0; k < m - 1; k++) {
+                    shift[regexp.prefix[k] & 0xFF] = m - 1 - k;
+                }
+                regexp.prefixShift = shift;
+                return;
+            }
+        }
+
+        if (regexp.anchorCh < 0) {
+            RECharSet firstChars = new RECharSet(255, 0, 0);
+            firstChars.bits = new byte[32];
+            REGlobalData gData = new REGlobalData();
+            gData.regexp = regexp;
+            if (addFirstChars(gData, result, firstChars) == FIRST_CHARS_KNOWN) {
+                regexp.firstChars = firstChars.bits;
+                regexp.firstCharsHigh = firstChars.sense;
+            }
+        }
+    }
+
+    private static long minLength(RENode t)
+    {
+        long length = 0;
+        for (; t != null; t = t.next) {
+            switch (t.op) {
+            case REOP_FLAT:
+                length += t.length;
+                break;
+            case REOP_DOT:
+            case REOP_DIGIT:
+            case REOP_NONDIGIT:
+            case REOP_ALNUM:
+            case REOP_NONALNUM:
+            case REOP_SPACE:
+            case REOP_NONSPACE:
+            case REOP_CLASS:
+                length++;
+                break;
+            case REOP_LPAREN:
+                length += minLength(t.kid);
+                break;
+            case REOP_ALT:
+                length += Math.min(minLength(t.kid), minLength(t.kid2));
+                break;
+            case REOP_QUANT:
+                length += t.min * minLength(t.kid);
+                break;
+            default:
+                // assertions and back references may match ""
+                break;
+            }
+        }
+        return length;
+    }
+
+    private static boolean startsWithBOL(RENode t)
+    {
+        for (; t != null; t = t.next) {
+            switch (t.op) {
+            case REOP_BOL:
+                return true;
+            case REOP_EMPTY:
+            case REOP_WBDRY:
+            case REOP_WNONBDRY:
+            case REOP_ASSERT:
+            case REOP_ASSERT_NOT:
+                break;
+            case REOP_LPAREN:
+                return startsWithBOL(t.kid);
+            default:
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /*
+     * Append the literal text every match starts with, return true if t
+     * was all literal so the text may go on after it.
+     */
+    private static boolean addPrefix(RECompiled regexp, RENode t,
+                                     StringBuilder prefix)
+    {
+        for (; t != null; t = t.next) {
+            switch (t.op) {
+            case REOP_FLAT:
+                if (t.flatIndex == -1) {
+                    prefix.append(t.chr);
+                } else {
+                    prefix.append(regexp.source, t.flatIndex, t.length);
+                }
+                break;
+            case REOP_EMPTY:
+            case REOP_BOL:
+            case REOP_EOL:
+            case REOP_WBDRY:
+            case REOP_WNONBDRY:
+            case REOP_ASSERT:
+            case REOP_ASSERT_NOT:
+                break;
+            case REOP_LPAREN:
+                if (!addPrefix(regexp, t.kid, prefix))
+                    return false;
+                break;
+            default:
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static final int FIRST_CHARS_EMPTY = 0;  // t may match ""
+    private static final int FIRST_CHARS_KNOWN = 1;
+    private static final int FIRST_CHARS_ANY   = 2;
+
+    /*
+     * Add the chars a match of t can start with to the bitmap of set,
+     * using set.sense for chars above 255.
+     */
+    private static int addFirstChars(REGlobalData gData, RENode t,
+                                     RECharSet set)
+    {
+        for (; t != null; t = t.next) {
+            int c;
+            switch (t.op) {
+            case REOP_FLAT:
+                c = (t.flatIndex == -1) ? t.chr
+                                        : gData.regexp.source[t.flatIndex];
+                if ((gData.regexp.flags & JSREG_FOLD) != 0) {
+                    if (c >= 128)
+                        return FIRST_CHARS_ANY;
+                    addCharacterToCharSet(set, upcase((char)c));
+                    addCharacterToCharSet(set, downcase((char)c));
+                } else if (c > set.length) {
+                    set.sense = true;
+                } else {
+                    addCharacterToCharSet(set, (char)c);
+                }
+                return FIRST_CHARS_KNOWN;
+            case REOP_DIGIT:
+                addCharacterRangeToCharSet(set, '0', '9');
+                return FIRST_CHARS_KNOWN;
+            case REOP_ALNUM:
+            case REOP_SPACE:
+                for (c = 0; c <= set.length; c++) {
+                    if (t.op == REOP_ALNUM ? isWord((char)c)
+                                           : isREWhiteSpace(c))
+                        addCharacterToCharSet(set, (char)c);
+                }
+                set.sense = true;
+                return FIRST_CHARS_KNOWN;
+            case REOP_CLASS:
+                {
+                    RECharSet charSet = gData.regexp.classList[t.index];
+                    processCharSet(gData, charSet);
+                    if (!charSet.sense)
+                        return FIRST_CHARS_ANY;
+                    int max = Math.min(charSet.length, set.length);
+                    for (c = 0; c <= max; c++) {
+                        if ((charSet.bits[c >> 3] & (1 << (c & 0x7))) != 0)
+                            addCharacterToCharSet(set, (char)c);
+                    }
+                    if (charSet.length > set.length)
+                        set.sense = true;
+                }
+                return FIRST_CHARS_KNOWN;
+            case REOP_EMPTY:
+            case REOP_BOL:
+            case REOP_EOL:
+            case REOP_WBDRY:
+            case REOP_WNONBDRY:
+            case REOP_ASSERT:
+            case REOP_ASSERT_NOT:
+                break;
+            case REOP_LPAREN:
+                {
+                    int kid = addFirstChars(gData, t.kid, set);
+                    if (kid != FIRST_CHARS_EMPTY)
+                        return kid;
+                }
+                break;
+            case REOP_ALT:
+                {
+                    int kid = addFirstChars(gData, t.kid, set);
+                    if (kid == FIRST_CHARS_ANY)
+                        return kid;
+                    int kid2 = addFirstChars(gData, t.kid2, set);
+                    if (kid2 == FIRST_CHARS_ANY)
+                        return kid2;
+                    if (kid == FIRST_CHARS_KNOWN && kid2 == FIRST_CHARS_KNOWN)
+                        return FIRST_CHARS_KNOWN;
+                }
+                break;
+            case REOP_QUANT:
+                {
+                    int kid = addFirstChars(gData, t.kid, set);
+                    if (kid == FIRST_CHARS_ANY
+                        || (kid == FIRST_CHARS_KNOWN && t.min != 0))
+                        return kid;
+                }
+                break;
+            default:
+                return FIRST_CHARS_ANY;
+            }
+        }
+        return FIRST_CHARS_EMPTY;
+    }
+
     static boolean isDigit(char c)
     {
         return '0' <= c && c <= '9';
     }
 
-    private static boolean isWord(char c)
+    static boolean isWord(char c)
     {
         return Character.isLetter(c) || isDigit(c) || c == '_';
     }
 
-    private static boolean isLineTerm(char c)
+    static boolean isLineTerm(char c)
     {
         return ScriptRuntime.isJSLineTerminator(c);
     }
 
-    private static boolean isREWhiteSpace(int c)
+    static boolean isREWhiteSpace(int c)
     {
         return ScriptRuntime.isJSWhitespaceOrLineTerminator(c);
     }
@@ -397,7 +641,7 @@ if (regexp.anchorCh >= 0) {
      *    code point value is less than decimal 128, then return ch.
      * 6. Return cu.
      */
-    private static char upcase(char ch)
+    static char upcase(char ch)
     {
         if (ch < 128) {
             if ('a' <= ch && ch <= 'z') {
@@ -1150,7 +1394,7 @@ if (regexp.anchorCh >= 0) {
         addIndex(array, from, pc - from);
     }
 
-    private static int getOffset(byte[] array, int pc)
+    static int getOffset(byte[] array, int pc)
     {
         return getIndex(array, pc);
     }
@@ -1165,13 +1409,13 @@ if (regexp.anchorCh >= 0) {
         return pc + 2;
     }
 
-    private static int getIndex(byte[] array, int pc)
+    static int getIndex(byte[] array, int pc)
     {
         return ((array[pc] & 0xFF) << 8) | (array[pc + 1] & 0xFF);
     }
 
-    private static final int OFFSET_LEN = 2;
-    private static final int INDEX_LEN  = 2;
+    static final int OFFSET_LEN = 2;
+    static final int INDEX_LEN  = 2;
 
     private static int
     emitREBytecode(CompilerState state, RECompiled re, int pc, RENode t)
@@ -1452,7 +1696,7 @@ if (regexp.anchorCh >= 0) {
     }
 
     /* Compile the source of the class into a RECharSet */
-    private static void
+    static void
     processCharSet(REGlobalData gData, RECharSet charSet)
     {
         synchronized (charSet) {
@@ -2201,13 +2445,17 @@ System.out.println("Testing at " + gData.cp + ", op = " + op);
 
     private static boolean
     matchRegExp(REGlobalData gData, RECompiled re,
-                char[] chars, int start, int end, boolean multiline)
+                char[] chars, int start, int end, boolean multiline,
+                RegExpMatcher matcher)
     {
         if (re.parenCount != 0) {
             gData.parens = new long[re.parenCount];
         } else {
             gData.parens = null;
         }
+        if (matcher != null) {
+            matcher = matcher.newMatcher(chars, end, multiline, gData.parens);
+        }
 
         gData.backTrackStackTop = null;
 
@@ -2220,17 +2468,32 @@ System.out.println("Testing at " + gData.cp + ", op = " + op);
         int anchorCh = gData.regexp.anchorCh;
         //
         // have to include the position beyond the last character
-        //  in order to detect end-of-input/line condition
+        //  in order to detect end-of-input/line condition, but no match
+        //  shorter than minLength is possible
         //
-        for (int i = start; i <= end; ++i) {
+        int last = end - re.minLength;
+        if (re.startAnchored && !multiline
+            && (re.flags & JSREG_MULTILINE) == 0)
+        {
+            if (start != 0) {
+                return false;
+            }
+            last = Math.min(last, 0);
+        }
+        for (int i = start; i <= last; ++i) {
             //
             // If the first node is a literal match, step the index into
             // the string until that match is made, or fail if it can't be
             // found at all.
             //
-            if (anchorCh >= 0) {
+            if (re.prefix != null) {
+                i = indexOfPrefix(re, chars, i, end);
+                if (i < 0 || i > last) {
+                    return false;
+                }
+            } else if (anchorCh >= 0) {
                 for (;;) {
-                    if (i == end) {
+                    if (i > last) {
                         return false;
                     }
                     char matchCh = chars[i];
@@ -2242,12 +2505,34 @@ System.out.println("Testing at " + gData.cp + ", op = " + op);
                     }
                     ++i;
                 }
+            } else if (re.firstChars != null) {
+                // skip the chars no match can start with
+                for (;;) {
+                    char c = chars[i];
+                    if (c < 256 ? (re.firstChars[c >> 3] & (1 << (c & 0x7))) != 0
+                                : re.firstCharsHigh)
+                    {
+                        break;
+                    }
+                    if (++i > last) {
+                        return false;
+                    }
+                }
             }
             gData.cp = i;
             for (int j = 0; j < re.parenCount; j++) {
                 gData.set_parens(j, -1, 0);
             }
-            boolean result = executeREBytecode(gData, chars, end);
+            boolean result;
+            if (matcher != null) {
+                int cp = matcher.match(i);
+                result = (cp >= 0);
+                if (result) {
+                    gData.cp = cp;
+                }
+            } else {
+                result = executeREBytecode(gData, chars, end);
+            }
 
             gData.backTrackStackTop = null;
             gData.stateStackTop = null;
@@ -2259,6 +2544,32 @@ System.out.println("Testing at " + gData.cp + ", op = " + op);
         return false;
     }
 
+    /*
+     * Find the prefix of re in chars with Boyer-Moore-Horspool.
+     */
+    private static int indexOfPrefix(RECompiled re, char[] chars,
+                                     int from, int end)
+    {
+        char[] prefix = re.prefix;
+        int[] shift = re.prefixShift;
+        int m = prefix.length;
+        char lastCh = prefix[m - 1];
+        for (int i = from; i <= end - m; ) {
+            char c = chars[i + m - 1];
+            if (c == lastCh) {
+                int k = m - 2;
+                while (k >= 0 && chars[i + k] == prefix[k]) {
+                    --k;
+                }
+                if (k < 0) {
+                    return i;
+                }
+            }
+            i += shift[c & 0xFF];
+        }
+        return -1;
+    }
+
     /*
      * indexp is assumed to be an array of length 1
      */
@@ -2275,8 +2586,18 @@ System.out.println("Testing at " + gData.cp + ", op = " + op);
         //
         // Call the recursive matcher to do the real work.
         //
-        boolean matches = matchRegExp(gData, re, charArray, start, end,
-                                      res.multiline);
+        RegExpMatcher matcher = RegExpCompiler.getMatcher(cx, re);
+        boolean matches;
+        try {
+            matches = matchRegExp(gData, re, charArray, start, end,
+                                  res.multiline, matcher);
+        } catch (StackOverflowError e) {
+            // The generated code backtracks by recursion, the interpreter
+            // keeps its backtracking state on the heap.
+            if (matcher == null) throw e;
+            matches = matchRegExp(gData, re, charArray, start, end,
+                                  res.multiline, null);
+        }
         if (!matches) {
             if (matchType != PREFIX) return null;
             return Undefined.instance;
@@ -2613,19 +2934,6 @@ System.out.println("Testing at " + gData.cp + ", op = " + op);
 
 }       // class NativeRegExp
 
-class RECompiled implements Serializable
-{
-    static final long serialVersionUID = -6144956577595844213L;
-
-    char []source;          /* locked source string, sans // */
-    int parenCount;         /* number of parenthesized submatches */
-    int flags;              /* flags  */
-    byte[] program;         /* regular expression bytecode */
-    int classCount;         /* count [...] bitmaps */
-    RECharSet[] classList;  /* list of [...] bitmaps */
-    int anchorCh = -1;      /* if >= 0, then re starts with this literal char */
-}
-
 class RENode {
 
     RENode(byte op)
@@ -2684,120 +2992,3 @@ class CompilerState {
     int         progLength;   /* estimated bytecode length */
     RENode      result;
 }
-
-class REProgState
-{
-    REProgState(REProgState previous, int min, int max, int index,
-                REBackTrackData backTrack,
-                int continuation_pc, int continuation_op)
-    {
-        this.previous = previous;
-        this.min = min;
-        this.max = max;
-        this.index = index;
-        this.continuation_op = continuation_op;
-        this.continuation_pc = continuation_pc;
-        this.backTrack = backTrack;
-    }
-
-    REProgState previous; // previous state in stack
-
-    int min;                      /* current quantifier min */
-    int max;                      /* current quantifier max */
-    int index;                    /* progress in text */
-    int continuation_op;
-    int continuation_pc;
-    REBackTrackData backTrack; // used by ASSERT_  to recover state
-}
-
-class REBackTrackData {
-
-    REBackTrackData(REGlobalData gData, int op, int pc)
-    {
-        previous = gData.backTrackStackTop;
-        continuation_op = op;
-        continuation_pc = pc;
-        lastParen = gData.lastParen;
-        if (gData.parens != null) {
-            parens = gData.parens.clone();
-        }
-        cp = gData.cp;
-        stateStackTop = gData.stateStackTop;
-    }
-
-    REBackTrackData previous;
-
-    int continuation_op;                /* where to backtrack to */
-    int continuation_pc;
-    int lastParen;
-    long[] parens;                      /* parenthesis captures */
-    int cp;                             /* char buffer index */
-    REProgState stateStackTop;          /* state of op that backtracked */
-}
-
-class REGlobalData {
-    boolean multiline;
-    RECompiled regexp;              /* the RE in execution */
-    int lastParen;                  /* highest paren set so far */
-    int skipped;                    /* chars skipped anchoring this r.e. */
-
-    int cp;                         /* char buffer index */
-    long[] parens;                  /* parens captures */
-
-    REProgState stateStackTop;       /* stack of state of current ancestors */
-
-    REBackTrackData backTrackStackTop;  /* last matched-so-far position */
-
-
-    /**
-     * Get start of parenthesis capture contents, -1 for empty.
-     */
-    int parens_index(int i)
-    {
-        return (int)(parens[i]);
-    }
-
-    /**
-     * Get length of parenthesis capture contents.
-     */
-    int parens_length(int i)
-    {
-        return (int)(parens[i] >>> 32);
-    }
-
-    void set_parens(int i, int index, int length)
-    {
-        parens[i] = (index & 0xffffffffL) | ((long)length << 32);
-    }
-
-}
-
-/*
- * This struct holds a bitmap representation of a class from a regexp.
- * There's a list of these referenced by the classList field in the NativeRegExp
- * struct below. The initial state has startIndex set to the offset in the
- * original regexp source of the beginning of the class contents. The first
- * use of the class converts the source representation into a bitmap.
- *
- */
-final class RECharSet implements Serializable
-{
-    static final long serialVersionUID = 7931787979395898394L;
-
-    RECharSet(int length, int startIndex, int strlength)
-    {
-        this.length = length;
-        this.startIndex = startIndex;
-        this.strlength = strlength;
-    }
-
-    int length;
-    int startIndex;
-    int strlength;
-
-    volatile transient boolean converted;
-    volatile transient boolean sense;
-    volatile transient byte[] bits;
-}
-
-
@@ -0,0 +1,67 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is Rhino code, released
+ * May 6, 1998.
+ *
+ * The Initial Developer of the Original Code is
+ * Netscape Communications Corporation.
+ * Portions created by the Initial Developer are Copyright (C) 1997-1999
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *   Norris Boyd
+ *   Igor Bukanov
+ *   Brendan Eich
+ *   Matthias Radestock
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * the GNU General Public License Version 2 or later (the "GPL"), in which
+ * case the provisions of the GPL are applicable instead of those above. If
+ * you wish to allow use of your version of this file only under the terms of
+ * the GPL and not to allow others to use your version of this file under the
+ * MPL, indicate your decision by deleting the provisions above and replacing
+ * them with the notice and other provisions required by the GPL. If you do
+ * not delete the provisions above, a recipient may use your version of this
+ * file under either the MPL or the GPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.mozilla.javascript.regexp;
+
+class REBackTrackData {
+
+    REBackTrackData(REGlobalData gData, int op, int pc)
+    {
+        previous = gData.backTrackStackTop;
+        continuation_op = op;
+        continuation_pc = pc;
+        lastParen = gData.lastParen;
+        if (gData.parens != null) {
+            parens = gData.parens.clone();
+        }
+        cp = gData.cp;
+        stateStackTop = gData.stateStackTop;
+    }
+
+    REBackTrackData previous;
+
+    int continuation_op;                /* where to backtrack to */
+    int continuation_pc;
+    int lastParen;
+    long[] parens;                      /* parenthesis captures */
+    int cp;                             /* char buffer index */
+    REProgState stateStackTop;          /* state of op that backtracked */
+}
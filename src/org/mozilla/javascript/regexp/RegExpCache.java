@@ -0,0 +1,194 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is Rhino code, released
+ * May 6, 1998.
+ *
+ * The Initial Developer of the Original Code is
+ * Netscape Communications Corporation.
+ * Portions created by the Initial Developer are Copyright (C) 1997-1999
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * the GNU General Public License Version 2 or later (the "GPL"), in which
+ * case the provisions of the GPL are applicable instead of those above. If
+ * you wish to allow use of your version of this file only under the terms of
+ * the GPL and not to allow others to use your version of this file under the
+ * MPL, indicate your decision by deleting the provisions above and replacing
+ * them with the notice and other provisions required by the GPL. If you do
+ * not delete the provisions above, a recipient may use your version of this
+ * file under either the MPL or the GPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.mozilla.javascript.regexp;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Process-wide cache of compiled regular expressions.
+ * <p>
+ * Patterns compiled from strings by the RegExp constructor,
+ * RegExp.prototype.compile and the String methods taking a pattern,
+ * as well as regular expression literals, are looked up here by their
+ * source and flags, so a pattern built repeatedly at runtime is only
+ * compiled once. The compiled programs are immutable and shared by all
+ * RegExp objects using them. The least recently used patterns are dropped
+ * once the cache holds {@link #getMaximumSize()} of them.
+ * <p>
+ * Patterns are compiled without the cache while
+ * {@link org.mozilla.javascript.Context#FEATURE_STRICT_MODE} is on so that
+ * their warnings are reported each time.
+ */
+public final class RegExpCache
+{
+    private static final Object lock = new Object();
+
+    private static int maximumSize = 512;
+    private static long hitCount;
+    private static long missCount;
+    private static long evictionCount;
+
+    private static final LinkedHashMap<String,Object> cache =
+        new LinkedHashMap<String,Object>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String,Object> e) {
+                if (size() > maximumSize) {
+                    ++evictionCount;
+                    return true;
+                }
+                return false;
+            }
+        };
+
+    private RegExpCache()
+    {
+    }
+
+    /**
+     * Return the maximum number of patterns kept.
+     */
+    public static int getMaximumSize()
+    {
+        synchronized (lock) {
+            return maximumSize;
+        }
+    }
+
+    /**
+     * Set the maximum number of patterns kept. Zero turns the cache off.
+     */
+    public static void setMaximumSize(int size)
+    {
+        if (size < 0) throw new IllegalArgumentException();
+        synchronized (lock) {
+            maximumSize = size;
+            while (cache.size() > size) {
+                String eldest = cache.keySet().iterator().next();
+                cache.remove(eldest);
+                ++evictionCount;
+            }
+        }
+    }
+
+    /**
+     * Return the number of patterns currently kept.
+     */
+    public static int getSize()
+    {
+        synchronized (lock) {
+            return cache.size();
+        }
+    }
+
+    /**
+     * Return the number of compilations avoided so far.
+     */
+    public static long getHitCount()
+    {
+        synchronized (lock) {
+            return hitCount;
+        }
+    }
+
+    /**
+     * Return the number of patterns compiled while the cache was on.
+     */
+    public static long getMissCount()
+    {
+        synchronized (lock) {
+            return missCount;
+        }
+    }
+
+    /**
+     * Return the number of patterns dropped to respect the maximum size.
+     */
+    public static long getEvictionCount()
+    {
+        synchronized (lock) {
+            return evictionCount;
+        }
+    }
+
+    /**
+     * Drop all patterns and reset the counts.
+     */
+    public static void clear()
+    {
+        synchronized (lock) {
+            cache.clear();
+            hitCount = missCount = evictionCount = 0;
+        }
+    }
+
+    static Object get(String key)
+    {
+        synchronized (lock) {
+            Object compiled = cache.get(key);
+            if (compiled != null) {
+                ++hitCount;
+            } else {
+                ++missCount;
+            }
+            return compiled;
+        }
+    }
+
+    static void put(String key, Object compiled)
+    {
+        synchronized (lock) {
+            if (maximumSize != 0) {
+                cache.put(key, compiled);
+            }
+        }
+    }
+
+    /**
+     * Return the key of a pattern compiled with the given flag bits.
+     */
+    static String makeKey(String source, int flags, boolean flat)
+    {
+        StringBuilder sb = new StringBuilder(source.length() + 1);
+        sb.append((char)(flat ? flags | 0x100 : flags));
+        sb.append(source);
+        return sb.toString();
+    }
+}
@@ -0,0 +1,1130 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is Rhino code, released
+ * May 6, 1998.
+ *
+ * The Initial Developer of the Original Code is
+ * Netscape Communications Corporation.
+ * Portions created by the Initial Developer are Copyright (C) 1997-1999
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * the GNU General Public License Version 2 or later (the "GPL"), in which
+ * case the provisions of the GPL are applicable instead of those above. If
+ * you wish to allow use of your version of this file only under the terms of
+ * the GPL and not to allow others to use your version of this file under the
+ * MPL, indicate your decision by deleting the provisions above and replacing
+ * them with the notice and other provisions required by the GPL. If you do
+ * not delete the provisions above, a recipient may use your version of this
+ * file under either the MPL or the GPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+package org.mozilla.javascript.regexp;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+
+import org.mozilla.classfile.ByteCode;
+import org.mozilla.classfile.ClassFileWriter;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.GeneratedClassLoader;
+import org.mozilla.javascript.SecurityController;
+
+import static org.mozilla.javascript.regexp.NativeRegExp.*;
+
+/**
+ * Translates the programs of regular expressions into JVM bytecode.
+ * <p>
+ * A program run {@link #COMPILE_THRESHOLD} times by a context with an
+ * optimization level of 0 or more is compiled into a subclass of
+ * {@link RegExpMatcher} so the JIT can optimize the matching of hot
+ * patterns. Programs the compiler cannot handle stay with the interpreter
+ * in NativeRegExp.
+ * <p>
+ * The generated code backtracks in continuation passing style: every
+ * method matches a part of the program followed by its continuation and
+ * returns the index after the whole match, or -1 after restoring nothing
+ * but its own state. Choice points (alternatives, quantifiers) try their
+ * first choice and then the others, saving the captures in between.
+ * Quantifiers over a single character are plain loops; other quantifiers
+ * keep their iteration counts in {@link RegExpMatcher#loopCounts}.
+ */
+final class RegExpCompiler
+{
+    /** Number of matches run by the interpreter before compiling. */
+    static final int COMPILE_THRESHOLD = 10;
+
+    private static final int MAX_PROGRAM_LENGTH = 4096;
+    private static final int MAX_METHODS = 1000;
+    private static final int MAX_UNROLLED_FLAT = 16;
+
+    private static final String MATCHER_CLASS =
+        "org.mozilla.javascript.regexp.RegExpMatcher";
+
+    // Method kinds
+    private static final int SEQUENCE = 0;
+    private static final int LOOP = 1;
+    private static final int LOOP_NEXT = 2;
+
+    // Continuation returning the index after the match
+    private static final int RETURN = -1;
+
+    // Local variables of the generated methods
+    private static final int CP = 1;
+    private static final int INPUT = 2;
+    private static final int END = 3;
+    private static final int CH = 4;
+    private static final int RESULT = 5;
+    private static final int SAVED = 6;
+    private static final int START = 7;
+    private static final int LIMIT = 8;
+    private static final int COUNT = 9;
+    private static final int SAVED_START = 10;
+    private static final short LOCALS_COUNT = 11;
+
+    private static int globalSerial;
+
+    private static final class Node
+    {
+        Node(byte op)
+        {
+            this.op = op;
+        }
+
+        byte op;
+        Node next;
+        Node kid;
+        Node kid2;      // second alternative
+        int index;      // paren, class or flat source index
+        int length;     // flat length
+        int chr;
+        int min;
+        int max;        // -1 for no limit
+        boolean greedy;
+        int parenIndex;
+        int parenCount;
+        int loopIndex;
+    }
+
+    private static final class MethodSpec
+    {
+        MethodSpec(int kind, Node node, int cont)
+        {
+            this.kind = kind;
+            this.node = node;
+            this.cont = cont;
+        }
+
+        int kind;
+        Node node;
+        int cont;
+    }
+
+    private final RECompiled re;
+    private final byte[] program;
+    private int pc;
+    private boolean unsupported;
+
+    private ClassFileWriter cfw;
+    private String className;
+    private ArrayList<MethodSpec> methods = new ArrayList<MethodSpec>();
+    private int loopCount;
+    private int failLabel;
+
+    private RegExpCompiler(RECompiled re)
+    {
+        this.re = re;
+        this.program = re.program;
+    }
+
+    /**
+     * Return the compiled matcher of the program, compiling it once the
+     * program is hot, or null to run the program with the interpreter.
+     */
+    static RegExpMatcher getMatcher(Context cx, RECompiled re)
+    {
+        if (cx.getOptimizationLevel() < 0) {
+            return null;
+        }
+        RegExpMatcher matcher = re.matcher;
+        if (matcher != null) {
+            return matcher;
+        }
+        int count = re.matchCount;
+        if (count < 0) {
+            return null;
+        }
+        re.matchCount = ++count;
+        if (count < COMPILE_THRESHOLD) {
+            return null;
+        }
+        synchronized (re) {
+            if (re.matcher == null && re.matchCount >= 0) {
+                matcher = compile(re);
+                if (matcher == null) {
+                    re.matchCount = -1;
+                } else {
+                    re.matcher = matcher;
+                }
+            }
+            return re.matcher;
+        }
+    }
+
+    private static RegExpMatcher compile(RECompiled re)
+    {
+        if (re.program.length > MAX_PROGRAM_LENGTH) {
+            return null;
+        }
+        RegExpCompiler compiler = new RegExpCompiler(re);
+        Node root = compiler.parseSequence(0);
+        if (compiler.unsupported || program(re, compiler.pc) != REOP_END) {
+            return null;
+        }
+        int serial;
+        synchronized (RegExpCompiler.class) {
+            serial = ++globalSerial;
+        }
+        String name = "org.mozilla.javascript.gen.RegExp_" + serial;
+        try {
+            // the generated code inlines the tests of the classes
+            byte[][] classBits = new byte[re.classCount][];
+            if (re.classCount != 0) {
+                REGlobalData gData = new REGlobalData();
+                gData.regexp = re;
+                for (int i = 0; i != re.classCount; ++i) {
+                    RECharSet charSet = re.classList[i];
+                    if (charSet != null) {
+                        NativeRegExp.processCharSet(gData, charSet);
+                        classBits[i] = charSet.bits;
+                    }
+                }
+            }
+            byte[] classBytes = compiler.generate(name, root);
+            if (classBytes == null) {
+                return null;
+            }
+            // the generated class refers only to RegExpMatcher
+            GeneratedClassLoader loader = SecurityController.createLoader(
+                RegExpCompiler.class.getClassLoader(), null);
+            Class<?> cl = loader.defineClass(name, classBytes);
+            loader.linkClass(cl);
+            RegExpMatcher matcher =
+                (RegExpMatcher)cl.getDeclaredConstructor().newInstance();
+            matcher.init(re.source, classBits, compiler.loopCount);
+            return matcher;
+        } catch (RuntimeException e) {
+        } catch (LinkageError e) {
+        } catch (InstantiationException e) {
+        } catch (IllegalAccessException e) {
+        } catch (InvocationTargetException e) {
+        } catch (NoSuchMethodException e) {
+        }
+        // the interpreter is always there to fall back to
+        return null;
+    }
+
+    private static byte program(RECompiled re, int pc)
+    {
+        return pc < re.program.length ? re.program[pc] : REOP_END;
+    }
+
+    /**
+     * Build the tree of the program from pc up to the op ending the
+     * sequence, which is left at {@link #pc}.
+     */
+    private Node parseSequence(int pc)
+    {
+        Node head = null, tail = null;
+        for (;;) {
+            byte op = program[pc];
+            switch (op) {
+              case REOP_END:
+              case REOP_JUMP:
+              case REOP_ENDCHILD:
+              case REOP_ASSERTTEST:
+              case REOP_ASSERTNOTTEST:
+                this.pc = pc;
+                return head;
+            }
+            Node n = new Node(op);
+            pc++;
+            switch (op) {
+              case REOP_EMPTY:
+              case REOP_BOL:
+              case REOP_EOL:
+              case REOP_WBDRY:
+              case REOP_WNONBDRY:
+              case REOP_DOT:
+              case REOP_DIGIT:
+              case REOP_NONDIGIT:
+              case REOP_ALNUM:
+              case REOP_NONALNUM:
+              case REOP_SPACE:
+              case REOP_NONSPACE:
+                break;
+              case REOP_FLAT:
+              case REOP_FLATi:
+                n.index = getIndex(program, pc);
+                n.length = getIndex(program, pc + INDEX_LEN);
+                pc += 2 * INDEX_LEN;
+                break;
+              case REOP_FLAT1:
+              case REOP_FLAT1i:
+                n.chr = program[pc++] & 0xFF;
+                break;
+              case REOP_UCFLAT1:
+              case REOP_UCFLAT1i:
+                n.chr = getIndex(program, pc);
+                pc += INDEX_LEN;
+                break;
+              case REOP_LPAREN:
+              case REOP_RPAREN:
+              case REOP_BACKREF:
+                n.index = getIndex(program, pc);
+                pc += INDEX_LEN;
+                break;
+              case REOP_CLASS:
+                n.index = getIndex(program, pc);
+                pc += INDEX_LEN;
+                RECharSet charSet = re.classList[n.index];
+                if (charSet.length == 0) {
+                    // The interpreter never matches a positive class of
+                    // only '\0', keep that in one place.
+                    unsupported = true;
+                }
+                break;
+              case REOP_ALT:
+                {
+                    int nextAlt = pc + getOffset(program, pc);
+                    n.kid = parseSequence(pc + OFFSET_LEN);
+                    if (program[this.pc] != REOP_JUMP) {
+                        unsupported = true;
+                        return head;
+                    }
+                    n.kid2 = parseSequence(nextAlt);
+                    int jump = this.pc + 1;
+                    if (program[this.pc] != REOP_JUMP) {
+                        unsupported = true;
+                        return head;
+                    }
+                    pc = jump + getOffset(program, jump);
+                }
+                break;
+              case REOP_ASSERT:
+              case REOP_ASSERT_NOT:
+                {
+                    int next = pc + getOffset(program, pc);
+                    n.kid = parseSequence(pc + OFFSET_LEN);
+                    byte testOp = (op == REOP_ASSERT) ? REOP_ASSERTTEST
+                                                      : REOP_ASSERTNOTTEST;
+                    if (program[this.pc] != testOp) {
+                        unsupported = true;
+                        return head;
+                    }
+                    pc = next;
+                }
+                break;
+              case REOP_STAR:
+              case REOP_PLUS:
+              case REOP_OPT:
+              case REOP_QUANT:
+              case REOP_MINIMALSTAR:
+              case REOP_MINIMALPLUS:
+              case REOP_MINIMALOPT:
+              case REOP_MINIMALQUANT:
+                {
+                    n.greedy = (op == REOP_STAR || op == REOP_PLUS
+                                || op == REOP_OPT || op == REOP_QUANT);
+                    n.max = -1;
+                    if (op == REOP_PLUS || op == REOP_MINIMALPLUS) {
+                        n.min = 1;
+                    } else if (op == REOP_OPT || op == REOP_MINIMALOPT) {
+                        n.max = 1;
+                    } else if (op == REOP_QUANT || op == REOP_MINIMALQUANT) {
+                        n.min = getIndex(program, pc);
+                        // See emitREBytecode for the " - 1"
+                        n.max = getIndex(program, pc + INDEX_LEN) - 1;
+                        pc += 2 * INDEX_LEN;
+                    }
+                    n.parenCount = getIndex(program, pc);
+                    n.parenIndex = getIndex(program, pc + INDEX_LEN);
+                    pc += 2 * INDEX_LEN;
+                    int next = pc + getOffset(program, pc);
+                    n.kid = parseSequence(pc + OFFSET_LEN);
+                    if (program[this.pc] != REOP_ENDCHILD) {
+                        unsupported = true;
+                        return head;
+                    }
+                    if (matchesEmpty(n.kid)) {
+                        // The interpreter does not follow ECMA 262 for
+                        // those, keep the results the same after compiling.
+                        unsupported = true;
+                        return head;
+                    }
+                    pc = next;
+                }
+                break;
+              default:
+                unsupported = true;
+                return head;
+            }
+            if (op == REOP_EMPTY) {
+                continue;
+            }
+            if (tail == null) {
+                head = n;
+            } else {
+                tail.next = n;
+            }
+            tail = n;
+        }
+    }
+
+    /**
+     * Check if the sequence starting at n can match the empty string.
+     */
+    private static boolean matchesEmpty(Node n)
+    {
+        for (; n != null; n = n.next) {
+            switch (n.op) {
+              case REOP_FLAT:
+              case REOP_FLATi:
+                return false;
+              case REOP_ALT:
+                if (!matchesEmpty(n.kid) && !matchesEmpty(n.kid2))
+                    return false;
+                break;
+              case REOP_STAR:
+              case REOP_PLUS:
+              case REOP_OPT:
+              case REOP_QUANT:
+              case REOP_MINIMALSTAR:
+              case REOP_MINIMALPLUS:
+              case REOP_MINIMALOPT:
+              case REOP_MINIMALQUANT:
+                if (n.min != 0 && !matchesEmpty(n.kid))
+                    return false;
+                break;
+              default:
+                if (isCharOp(n.op))
+                    return false;
+                break;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isCharOp(byte op)
+    {
+        switch (op) {
+          case REOP_DOT:
+          case REOP_DIGIT:
+          case REOP_NONDIGIT:
+          case REOP_ALNUM:
+          case REOP_NONALNUM:
+          case REOP_SPACE:
+          case REOP_NONSPACE:
+          case REOP_FLAT1:
+          case REOP_FLAT1i:
+          case REOP_UCFLAT1:
+          case REOP_UCFLAT1i:
+          case REOP_CLASS:
+            return true;
+        }
+        return false;
+    }
+
+    private byte[] generate(String name, Node root)
+    {
+        className = name;
+        cfw = new ClassFileWriter(className, MATCHER_CLASS, null);
+
+        cfw.startMethod("<init>", "()V", ClassFileWriter.ACC_PUBLIC);
+        cfw.addALoad(0);
+        cfw.addInvoke(ByteCode.INVOKESPECIAL, MATCHER_CLASS, "<init>", "()V");
+        cfw.add(ByteCode.RETURN);
+        cfw.stopMethod((short)1);
+
+        addMethod(SEQUENCE, root, RETURN);
+        for (int i = 0; i != methods.size(); ++i) {
+            if (i == MAX_METHODS) {
+                return null;
+            }
+            MethodSpec spec = methods.get(i);
+            cfw.startMethod(methodName(i), "(I)I",
+                            i == 0 ? ClassFileWriter.ACC_PROTECTED
+                                   : ClassFileWriter.ACC_PRIVATE);
+            failLabel = -1;
+            cfw.addALoad(0);
+            cfw.add(ByteCode.GETFIELD, MATCHER_CLASS, "input", "[C");
+            cfw.addAStore(INPUT);
+            cfw.addALoad(0);
+            cfw.add(ByteCode.GETFIELD, MATCHER_CLASS, "end", "I");
+            cfw.addIStore(END);
+            switch (spec.kind) {
+              case SEQUENCE:
+                generateSequence(spec.node, spec.cont);
+                break;
+              case LOOP:
+                generateLoop(spec.node, i, spec.cont);
+                break;
+              case LOOP_NEXT:
+                generateLoopNext(spec.node, spec.cont);
+                break;
+              default:
+                throw new IllegalStateException();
+            }
+            if (failLabel != -1) {
+                cfw.markLabel(failLabel);
+                cfw.add(ByteCode.ICONST_M1);
+                cfw.add(ByteCode.IRETURN);
+            }
+            cfw.stopMethod(LOCALS_COUNT);
+        }
+        return cfw.toByteArray();
+    }
+
+    private int addMethod(int kind, Node node, int cont)
+    {
+        methods.add(new MethodSpec(kind, node, cont));
+        return methods.size() - 1;
+    }
+
+    private static String methodName(int id)
+    {
+        return id == 0 ? "match" : "m" + id;
+    }
+
+    /**
+     * Return the continuation matching next and then cont.
+     */
+    private int addTail(Node next, int cont)
+    {
+        return next == null ? cont : addMethod(SEQUENCE, next, cont);
+    }
+
+    private int getFailLabel()
+    {
+        if (failLabel == -1) {
+            failLabel = cfw.acquireLabel();
+        }
+        return failLabel;
+    }
+
+    /**
+     * Push the result of matching the continuation at cp.
+     */
+    private void addContinue(int cont)
+    {
+        if (cont == RETURN) {
+            cfw.addILoad(CP);
+        } else {
+            cfw.addALoad(0);
+            cfw.addILoad(CP);
+            cfw.addInvoke(ByteCode.INVOKESPECIAL, className,
+                          methodName(cont), "(I)I");
+        }
+    }
+
+    /**
+     * Return the result on the stack if it is a match, otherwise go on.
+     */
+    private void addReturnIfMatch()
+    {
+        int next = cfw.acquireLabel();
+        cfw.addIStore(RESULT);
+        cfw.addILoad(RESULT);
+        cfw.add(ByteCode.IFLT, next);
+        cfw.addILoad(RESULT);
+        cfw.add(ByteCode.IRETURN);
+        cfw.markLabel(next);
+    }
+
+    private void addSaveParens()
+    {
+        if (re.parenCount != 0) {
+            cfw.addALoad(0);
+            cfw.addInvoke(ByteCode.INVOKEVIRTUAL, MATCHER_CLASS,
+                          "saveParens", "()[J");
+            cfw.addAStore(SAVED);
+        }
+    }
+
+    private void addRestoreParens()
+    {
+        if (re.parenCount != 0) {
+            cfw.addALoad(0);
+            cfw.addALoad(SAVED);
+            cfw.addInvoke(ByteCode.INVOKEVIRTUAL, MATCHER_CLASS,
+                          "restoreParens", "([J)V");
+        }
+    }
+
+    private void generateSequence(Node n, int cont)
+    {
+        for (; n != null; n = n.next) {
+            switch (n.op) {
+              case REOP_ALT:
+                generateAlternative(n, cont);
+                return;
+              case REOP_STAR:
+              case REOP_PLUS:
+              case REOP_OPT:
+              case REOP_QUANT:
+              case REOP_MINIMALSTAR:
+              case REOP_MINIMALPLUS:
+              case REOP_MINIMALOPT:
+              case REOP_MINIMALQUANT:
+                if (n.kid != null && n.kid.next == null
+                    && isCharOp(n.kid.op))
+                {
+                    if (n.greedy) {
+                        generateGreedyCharLoop(n, cont);
+                    } else {
+                        generateMinimalCharLoop(n, cont);
+                    }
+                } else {
+                    generateQuantifier(n, cont);
+                }
+                return;
+              case REOP_ASSERT:
+              case REOP_ASSERT_NOT:
+                generateAssertion(n);
+                break;
+              default:
+                generateAtom(n);
+                break;
+            }
+        }
+        addContinue(cont);
+        cfw.add(ByteCode.IRETURN);
+    }
+
+    private void generateAlternative(Node n, int cont)
+    {
+        int tail = addTail(n.next, cont);
+        int first = addMethod(SEQUENCE, n.kid, tail);
+        int second = addMethod(SEQUENCE, n.kid2, tail);
+        addSaveParens();
+        addContinue(first);
+        addReturnIfMatch();
+        addRestoreParens();
+        addContinue(second);
+        cfw.add(ByteCode.IRETURN);
+    }
+
+    private void generateAssertion(Node n)
+    {
+        int body = addMethod(SEQUENCE, n.kid, RETURN);
+        if (n.op == REOP_ASSERT) {
+            addContinue(body);
+            cfw.add(ByteCode.IFLT, getFailLabel());
+        } else {
+            addSaveParens();
+            addContinue(body);
+            cfw.add(ByteCode.IFGE, getFailLabel());
+            addRestoreParens();
+        }
+    }
+
+    /**
+     * Match one char at cp with the char op n and advance cp, or fail.
+     */
+    private void generateCharMatch(Node n)
+    {
+        cfw.addILoad(CP);
+        cfw.addILoad(END);
+        cfw.add(ByteCode.IF_ICMPGE, getFailLabel());
+        addLoadChar();
+        generateCharTest(n, getFailLabel());
+        cfw.add(ByteCode.IINC, CP, 1);
+    }
+
+    private void addLoadChar()
+    {
+        cfw.addALoad(INPUT);
+        cfw.addILoad(CP);
+        cfw.add(ByteCode.CALOAD);
+        cfw.addIStore(CH);
+    }
+
+    /**
+     * Go to noMatch unless the char in CH matches the char op n.
+     */
+    private void generateCharTest(Node n, int noMatch)
+    {
+        switch (n.op) {
+          case REOP_FLAT1:
+          case REOP_UCFLAT1:
+            cfw.addILoad(CH);
+            cfw.addPush(n.chr);
+            cfw.add(ByteCode.IF_ICMPNE, noMatch);
+            break;
+          case REOP_FLAT1i:
+          case REOP_UCFLAT1i:
+            cfw.addILoad(CH);
+            addInvokeStatic("upcase", "(C)C");
+            cfw.addPush(upcase((char)n.chr));
+            cfw.add(ByteCode.IF_ICMPNE, noMatch);
+            break;
+          case REOP_DOT:
+            cfw.addILoad(CH);
+            addInvokeStatic("isLineTerm", "(C)Z");
+            cfw.add(ByteCode.IFNE, noMatch);
+            break;
+          case REOP_DIGIT:
+            cfw.addILoad(CH);
+            cfw.addPush('0');
+            cfw.add(ByteCode.IF_ICMPLT, noMatch);
+            cfw.addILoad(CH);
+            cfw.addPush('9');
+            cfw.add(ByteCode.IF_ICMPGT, noMatch);
+            break;
+          case REOP_NONDIGIT:
+            {
+                int match = cfw.acquireLabel();
+                cfw.addILoad(CH);
+                cfw.addPush('0');
+                cfw.add(ByteCode.IF_ICMPLT, match);
+                cfw.addILoad(CH);
+                cfw.addPush('9');
+                cfw.add(ByteCode.IF_ICMPLE, noMatch);
+                cfw.markLabel(match);
+            }
+            break;
+          case REOP_ALNUM:
+          case REOP_NONALNUM:
+            cfw.addILoad(CH);
+            addInvokeStatic("isWord", "(C)Z");
+            cfw.add(n.op == REOP_ALNUM ? ByteCode.IFEQ : ByteCode.IFNE,
+                    noMatch);
+            break;
+          case REOP_SPACE:
+          case REOP_NONSPACE:
+            cfw.addILoad(CH);
+            addInvokeStatic("isREWhiteSpace", "(I)Z");
+            cfw.add(n.op == REOP_SPACE ? ByteCode.IFEQ : ByteCode.IFNE,
+                    noMatch);
+            break;
+          case REOP_CLASS:
+            {
+                // See classMatcher in NativeRegExp
+                RECharSet charSet = re.classList[n.index];
+                int outside = charSet.sense ? noMatch : cfw.acquireLabel();
+                cfw.addILoad(CH);
+                cfw.addPush(charSet.length);
+                cfw.add(ByteCode.IF_ICMPGT, outside);
+                cfw.addALoad(0);
+                cfw.add(ByteCode.GETFIELD, MATCHER_CLASS, "classBits",
+                        "[[B");
+                cfw.addPush(n.index);
+                cfw.add(ByteCode.AALOAD);
+                cfw.addILoad(CH);
+                cfw.add(ByteCode.ICONST_3);
+                cfw.add(ByteCode.ISHR);
+                cfw.add(ByteCode.BALOAD);
+                cfw.add(ByteCode.ICONST_1);
+                cfw.addILoad(CH);
+                cfw.addPush(7);
+                cfw.add(ByteCode.IAND);
+                cfw.add(ByteCode.ISHL);
+                cfw.add(ByteCode.IAND);
+                if (charSet.sense) {
+                    cfw.add(ByteCode.IFEQ, noMatch);
+                } else {
+                    cfw.add(ByteCode.IFNE, noMatch);
+                    cfw.markLabel(outside);
+                }
+            }
+            break;
+          default:
+            throw new IllegalStateException();
+        }
+    }
+
+    private void addInvokeStatic(String name, String type)
+    {
+        cfw.addInvoke(ByteCode.INVOKESTATIC, MATCHER_CLASS, name, type);
+    }
+
+    private void generateAtom(Node n)
+    {
+        if (isCharOp(n.op)) {
+            generateCharMatch(n);
+            return;
+        }
+        switch (n.op) {
+          case REOP_FLAT:
+          case REOP_FLATi:
+            generateFlat(n);
+            break;
+          case REOP_BOL:
+          case REOP_EOL:
+            {
+                int match = cfw.acquireLabel();
+                cfw.addILoad(CP);
+                if (n.op == REOP_BOL) {
+                    cfw.add(ByteCode.IFEQ, match);
+                } else {
+                    cfw.addILoad(END);
+                    cfw.add(ByteCode.IF_ICMPEQ, match);
+                }
+                if ((re.flags & JSREG_MULTILINE) == 0) {
+                    cfw.addALoad(0);
+                    cfw.add(ByteCode.GETFIELD, MATCHER_CLASS, "multiline",
+                            "Z");
+                    cfw.add(ByteCode.IFEQ, getFailLabel());
+                }
+                cfw.addALoad(INPUT);
+                cfw.addILoad(CP);
+                if (n.op == REOP_BOL) {
+                    cfw.add(ByteCode.ICONST_1);
+                    cfw.add(ByteCode.ISUB);
+                }
+                cfw.add(ByteCode.CALOAD);
+                addInvokeStatic("isLineTerm", "(C)Z");
+                cfw.add(ByteCode.IFEQ, getFailLabel());
+                cfw.markLabel(match);
+            }
+            break;
+          case REOP_WBDRY:
+          case REOP_WNONBDRY:
+            cfw.addALoad(0);
+            cfw.addILoad(CP);
+            cfw.addInvoke(ByteCode.INVOKEVIRTUAL, MATCHER_CLASS,
+                          "isWordBoundary", "(I)Z");
+            cfw.add(n.op == REOP_WBDRY ? ByteCode.IFEQ : ByteCode.IFNE,
+                    getFailLabel());
+            break;
+          case REOP_LPAREN:
+          case REOP_RPAREN:
+            cfw.addALoad(0);
+            cfw.addPush(n.index);
+            cfw.addILoad(CP);
+            cfw.addInvoke(ByteCode.INVOKEVIRTUAL, MATCHER_CLASS,
+                          n.op == REOP_LPAREN ? "openParen" : "closeParen",
+                          "(II)V");
+            break;
+          case REOP_BACKREF:
+            cfw.addALoad(0);
+            cfw.addPush(n.index);
+            cfw.addILoad(CP);
+            cfw.addPush((re.flags & JSREG_FOLD) != 0);
+            cfw.addInvoke(ByteCode.INVOKEVIRTUAL, MATCHER_CLASS,
+                          "backrefMatch", "(IIZ)I");
+            cfw.addIStore(CP);
+            cfw.addILoad(CP);
+            cfw.add(ByteCode.IFLT, getFailLabel());
+            break;
+          default:
+            throw new IllegalStateException();
+        }
+    }
+
+    private void generateFlat(Node n)
+    {
+        boolean fold = (n.op == REOP_FLATi);
+        if (n.length > MAX_UNROLLED_FLAT) {
+            cfw.addALoad(0);
+            cfw.addILoad(CP);
+            cfw.addPush(n.index);
+            cfw.addPush(n.length);
+            cfw.addInvoke(ByteCode.INVOKEVIRTUAL, MATCHER_CLASS,
+                          fold ? "flatMatchFold" : "flatMatch", "(III)I");
+            cfw.addIStore(CP);
+            cfw.addILoad(CP);
+            cfw.add(ByteCode.IFLT, getFailLabel());
+            return;
+        }
+        cfw.addILoad(CP);
+        cfw.addPush(n.length);
+        cfw.add(ByteCode.IADD);
+        cfw.addILoad(END);
+        cfw.add(ByteCode.IF_ICMPGT, getFailLabel());
+        for (int i = 0; i != n.length; ++i) {
+            char c = re.source[n.index + i];
+            cfw.addALoad(INPUT);
+            cfw.addILoad(CP);
+            if (i != 0) {
+                cfw.addPush(i);
+                cfw.add(ByteCode.IADD);
+            }
+            cfw.add(ByteCode.CALOAD);
+            if (fold) {
+                addInvokeStatic("upcase", "(C)C");
+                c = upcase(c);
+            }
+            cfw.addPush(c);
+            cfw.add(ByteCode.IF_ICMPNE, getFailLabel());
+        }
+        cfw.add(ByteCode.IINC, CP, n.length);
+    }
+
+    /**
+     * Match as many chars as possible and give them back one at a time
+     * until the rest of the program matches.
+     */
+    private void generateGreedyCharLoop(Node n, int cont)
+    {
+        int tail = addTail(n.next, cont);
+        cfw.addILoad(CP);
+        cfw.addIStore(START);
+        cfw.addILoad(END);
+        cfw.addIStore(LIMIT);
+        if (n.max != -1) {
+            int limited = cfw.acquireLabel();
+            cfw.addILoad(END);
+            cfw.addILoad(CP);
+            cfw.add(ByteCode.ISUB);
+            cfw.addPush(n.max);
+            cfw.add(ByteCode.IF_ICMPLE, limited);
+            cfw.addILoad(CP);
+            cfw.addPush(n.max);
+            cfw.add(ByteCode.IADD);
+            cfw.addIStore(LIMIT);
+            cfw.markLabel(limited);
+        }
+        int loop = cfw.acquireLabel();
+        int done = cfw.acquireLabel();
+        cfw.markLabel(loop);
+        cfw.addILoad(CP);
+        cfw.addILoad(LIMIT);
+        cfw.add(ByteCode.IF_ICMPGE, done);
+        addLoadChar();
+        generateCharTest(n.kid, done);
+        cfw.add(ByteCode.IINC, CP, 1);
+        cfw.add(ByteCode.GOTO, loop);
+        cfw.markLabel(done);
+        if (n.min != 0) {
+            addCompareCount(n.min);
+            cfw.add(ByteCode.IF_ICMPLT, getFailLabel());
+        }
+        if (tail == RETURN) {
+            cfw.addILoad(CP);
+            cfw.add(ByteCode.IRETURN);
+            return;
+        }
+        addSaveParens();
+        int backtrack = cfw.acquireLabel();
+        cfw.markLabel(backtrack);
+        addContinue(tail);
+        addReturnIfMatch();
+        addCompareCount(n.min);
+        cfw.add(ByteCode.IF_ICMPLE, getFailLabel());
+        addRestoreParens();
+        cfw.addILoad(CP);
+        cfw.add(ByteCode.ICONST_1);
+        cfw.add(ByteCode.ISUB);
+        cfw.addIStore(CP);
+        cfw.add(ByteCode.GOTO, backtrack);
+    }
+
+    /**
+     * Match the fewest chars needed and take one more at a time until
+     * the rest of the program matches.
+     */
+    private void generateMinimalCharLoop(Node n, int cont)
+    {
+        int tail = addTail(n.next, cont);
+        cfw.addILoad(CP);
+        cfw.addIStore(START);
+        if (n.min != 0) {
+            int loop = cfw.acquireLabel();
+            int done = cfw.acquireLabel();
+            cfw.markLabel(loop);
+            addCompareCount(n.min);
+            cfw.add(ByteCode.IF_ICMPGE, done);
+            generateCharMatch(n.kid);
+            cfw.add(ByteCode.GOTO, loop);
+            cfw.markLabel(done);
+        }
+        addSaveParens();
+        int backtrack = cfw.acquireLabel();
+        cfw.markLabel(backtrack);
+        addContinue(tail);
+        addReturnIfMatch();
+        addRestoreParens();
+        if (n.max != -1) {
+            addCompareCount(n.max);
+            cfw.add(ByteCode.IF_ICMPGE, getFailLabel());
+        }
+        generateCharMatch(n.kid);
+        cfw.add(ByteCode.GOTO, backtrack);
+    }
+
+    /**
+     * Push the number of chars matched by a char loop and the limit.
+     */
+    private void addCompareCount(int limit)
+    {
+        cfw.addILoad(CP);
+        cfw.addILoad(START);
+        cfw.add(ByteCode.ISUB);
+        cfw.addPush(limit);
+    }
+
+    private void addLoadLoopState(String field, int n)
+    {
+        cfw.addALoad(0);
+        cfw.add(ByteCode.GETFIELD, MATCHER_CLASS, field, "[I");
+        cfw.addPush(n);
+        cfw.add(ByteCode.IALOAD);
+    }
+
+    /**
+     * Store the local valueLocal in the slot n of a loop state array.
+     */
+    private void addStoreLoopState(String field, int n, int valueLocal)
+    {
+        cfw.addALoad(0);
+        cfw.add(ByteCode.GETFIELD, MATCHER_CLASS, field, "[I");
+        cfw.addPush(n);
+        cfw.addILoad(valueLocal);
+        cfw.add(ByteCode.IASTORE);
+    }
+
+    /**
+     * Start a quantifier over anything but a single char: run its loop
+     * with the iteration count and start of the enclosing run of the
+     * same quantifier saved, as that run continues after a failure.
+     */
+    private void generateQuantifier(Node n, int cont)
+    {
+        int tail = addTail(n.next, cont);
+        n.loopIndex = loopCount++;
+        int loop = addMethod(LOOP, n, tail);
+        addLoadLoopState("loopCounts", n.loopIndex);
+        cfw.addIStore(COUNT);
+        addLoadLoopState("loopStarts", n.loopIndex);
+        cfw.addIStore(SAVED_START);
+        cfw.addALoad(0);
+        cfw.add(ByteCode.GETFIELD, MATCHER_CLASS, "loopCounts", "[I");
+        cfw.addPush(n.loopIndex);
+        cfw.add(ByteCode.ICONST_0);
+        cfw.add(ByteCode.IASTORE);
+        addContinue(loop);
+        cfw.addIStore(RESULT);
+        addStoreLoopState("loopCounts", n.loopIndex, COUNT);
+        addStoreLoopState("loopStarts", n.loopIndex, SAVED_START);
+        cfw.addILoad(RESULT);
+        cfw.add(ByteCode.IRETURN);
+    }
+
+    /**
+     * Try one more iteration of the quantifier n and the rest of the
+     * program after it, in the order the quantifier prefers.
+     */
+    private void generateLoop(Node n, int self, int tail)
+    {
+        int next = addMethod(LOOP_NEXT, n, self);
+        int body = addMethod(SEQUENCE, n.kid, next);
+        addLoadLoopState("loopCounts", n.loopIndex);
+        cfw.addIStore(COUNT);
+        if (n.greedy) {
+            int skip = cfw.acquireLabel();
+            if (n.max != -1) {
+                cfw.addILoad(COUNT);
+                cfw.addPush(n.max);
+                cfw.add(ByteCode.IF_ICMPGE, skip);
+            }
+            addSaveParens();
+            generateIteration(n, body);
+            addRestoreParens();
+            cfw.markLabel(skip);
+            if (n.min != 0) {
+                cfw.addILoad(COUNT);
+                cfw.addPush(n.min);
+                cfw.add(ByteCode.IF_ICMPLT, getFailLabel());
+            }
+            addContinue(tail);
+            cfw.add(ByteCode.IRETURN);
+        } else {
+            int tryBody = cfw.acquireLabel();
+            if (n.min != 0) {
+                cfw.addILoad(COUNT);
+                cfw.addPush(n.min);
+                cfw.add(ByteCode.IF_ICMPLT, tryBody);
+            }
+            addSaveParens();
+            addContinue(tail);
+            addReturnIfMatch();
+            addRestoreParens();
+            cfw.markLabel(tryBody);
+            if (n.max != -1) {
+                cfw.addILoad(COUNT);
+                cfw.addPush(n.max);
+                cfw.add(ByteCode.IF_ICMPGE, getFailLabel());
+            }
+            generateIteration(n, body);
+            cfw.add(ByteCode.GOTO, getFailLabel());
+        }
+    }
+
+    private void generateIteration(Node n, int body)
+    {
+        addLoadLoopState("loopStarts", n.loopIndex);
+        cfw.addIStore(SAVED_START);
+        addStoreLoopState("loopStarts", n.loopIndex, CP);
+        if (n.parenCount != 0) {
+            cfw.addALoad(0);
+            cfw.addPush(n.parenIndex);
+            cfw.addPush(n.parenCount);
+            cfw.addInvoke(ByteCode.INVOKEVIRTUAL, MATCHER_CLASS,
+                          "clearParens", "(II)V");
+        }
+        addContinue(body);
+        addReturnIfMatch();
+        addStoreLoopState("loopStarts", n.loopIndex, SAVED_START);
+    }
+
+    /**
+     * Continue the quantifier n after an iteration: fail if it matched
+     * the empty string without being needed, otherwise count it and try
+     * the next one.
+     */
+    private void generateLoopNext(Node n, int loop)
+    {
+        addLoadLoopState("loopCounts", n.loopIndex);
+        cfw.addIStore(COUNT);
+        int counted = cfw.acquireLabel();
+        if (n.min != 0) {
+            cfw.addILoad(COUNT);
+            cfw.addPush(n.min);
+            cfw.add(ByteCode.IF_ICMPLT, counted);
+        }
+        cfw.addILoad(CP);
+        addLoadLoopState("loopStarts", n.loopIndex);
+        cfw.add(ByteCode.IF_ICMPEQ, getFailLabel());
+        cfw.markLabel(counted);
+        cfw.addALoad(0);
+        cfw.add(ByteCode.GETFIELD, MATCHER_CLASS, "loopCounts", "[I");
+        cfw.addPush(n.loopIndex);
+        cfw.addILoad(COUNT);
+        cfw.add(ByteCode.ICONST_1);
+        cfw.add(ByteCode.IADD);
+        cfw.add(ByteCode.IASTORE);
+        addContinue(loop);
+        cfw.addIStore(RESULT);
+        addStoreLoopState("loopCounts", n.loopIndex, COUNT);
+        cfw.addILoad(RESULT);
+        cfw.add(ByteCode.IRETURN);
+    }
+}
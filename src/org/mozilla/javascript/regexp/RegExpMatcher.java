@@ -0,0 +1,223 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is Rhino code, released
+ * May 6, 1998.
+ *
+ * The Initial Developer of the Original Code is
+ * Netscape Communications Corporation.
+ * Portions created by the Initial Developer are Copyright (C) 1997-1999
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * the GNU General Public License Version 2 or later (the "GPL"), in which
+ * case the provisions of the GPL are applicable instead of those above. If
+ * you wish to allow use of your version of this file only under the terms of
+ * the GPL and not to allow others to use your version of this file under the
+ * MPL, indicate your decision by deleting the provisions above and replacing
+ * them with the notice and other provisions required by the GPL. If you do
+ * not delete the provisions above, a recipient may use your version of this
+ * file under either the MPL or the GPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+package org.mozilla.javascript.regexp;
+
+/**
+ * Base class of the matchers that {@link RegExpCompiler} generates from
+ * regular expression programs.
+ * <p>
+ * The generated subclasses only implement {@link #match(int)}; the state
+ * of a single match and the helpers the generated code calls live here.
+ * This class is public because the generated classes are defined by
+ * their own class loader, it is not meant to be used directly.
+ */
+public abstract class RegExpMatcher implements Cloneable
+{
+    protected RegExpMatcher()
+    {
+    }
+
+    /**
+     * Match the expression at the given position of {@link #input}.
+     *
+     * @return the index after the match or -1 if there is no match
+     */
+    protected abstract int match(int cp);
+
+    /**
+     * Initialize the data the generated code reads but never changes.
+     */
+    final void init(char[] source, byte[][] classBits, int loopCount)
+    {
+        this.source = source;
+        this.classBits = classBits;
+        this.loopCount = loopCount;
+    }
+
+    /**
+     * Return a copy of this matcher ready to match the given input.
+     */
+    final RegExpMatcher newMatcher(char[] input, int end, boolean multiline,
+                                   long[] parens)
+    {
+        RegExpMatcher m;
+        try {
+            m = (RegExpMatcher)clone();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException();
+        }
+        m.input = input;
+        m.end = end;
+        m.multiline = multiline;
+        m.parens = parens;
+        if (loopCount != 0) {
+            m.loopCounts = new int[loopCount];
+            m.loopStarts = new int[loopCount];
+        }
+        return m;
+    }
+
+    protected static boolean isWord(char c)
+    {
+        return NativeRegExp.isWord(c);
+    }
+
+    protected static boolean isLineTerm(char c)
+    {
+        return NativeRegExp.isLineTerm(c);
+    }
+
+    protected static boolean isREWhiteSpace(int c)
+    {
+        return NativeRegExp.isREWhiteSpace(c);
+    }
+
+    protected static char upcase(char c)
+    {
+        return NativeRegExp.upcase(c);
+    }
+
+    /**
+     * Check for a word boundary at cp.
+     */
+    protected final boolean isWordBoundary(int cp)
+    {
+        return (cp == 0 || !isWord(input[cp - 1]))
+               ^ !(cp < end && isWord(input[cp]));
+    }
+
+    /**
+     * Match the length chars of the source starting at offset.
+     *
+     * @return the index after the match or -1
+     */
+    protected final int flatMatch(int cp, int offset, int length)
+    {
+        if (cp + length > end)
+            return -1;
+        for (int i = 0; i < length; i++) {
+            if (source[offset + i] != input[cp + i])
+                return -1;
+        }
+        return cp + length;
+    }
+
+    protected final int flatMatchFold(int cp, int offset, int length)
+    {
+        if (cp + length > end)
+            return -1;
+        for (int i = 0; i < length; i++) {
+            if (upcase(source[offset + i]) != upcase(input[cp + i]))
+                return -1;
+        }
+        return cp + length;
+    }
+
+    /**
+     * Match the text of the capture parenIndex.
+     *
+     * @return the index after the match or -1
+     */
+    protected final int backrefMatch(int parenIndex, int cp, boolean fold)
+    {
+        int parenContent = (int)parens[parenIndex];
+        if (parenContent == -1)
+            return cp;
+        int len = (int)(parens[parenIndex] >>> 32);
+        if (cp + len > end)
+            return -1;
+        if (fold) {
+            for (int i = 0; i < len; i++) {
+                if (upcase(input[parenContent + i]) != upcase(input[cp + i]))
+                    return -1;
+            }
+        } else {
+            for (int i = 0; i < len; i++) {
+                if (input[parenContent + i] != input[cp + i])
+                    return -1;
+            }
+        }
+        return cp + len;
+    }
+
+    protected final void openParen(int parenIndex, int cp)
+    {
+        parens[parenIndex] = cp & 0xffffffffL;
+    }
+
+    protected final void closeParen(int parenIndex, int cp)
+    {
+        int index = (int)parens[parenIndex];
+        parens[parenIndex] = (index & 0xffffffffL)
+                             | ((long)(cp - index) << 32);
+    }
+
+    protected final void clearParens(int parenIndex, int parenCount)
+    {
+        for (int i = 0; i < parenCount; i++) {
+            parens[parenIndex + i] = 0xffffffffL;
+        }
+    }
+
+    /**
+     * Save the captures before trying one of several alternatives.
+     */
+    protected final long[] saveParens()
+    {
+        return parens.clone();
+    }
+
+    protected final void restoreParens(long[] saved)
+    {
+        System.arraycopy(saved, 0, parens, 0, saved.length);
+    }
+
+    protected char[] input;
+    protected int end;
+    protected boolean multiline;
+    protected long[] parens;
+
+    /** Iteration count and start of the current iteration of each loop. */
+    protected int[] loopCounts;
+    protected int[] loopStarts;
+
+    protected char[] source;
+    protected byte[][] classBits;
+    private int loopCount;
+}
@@ -0,0 +1,61 @@
+/*
+ * Measures the cost of creating top-level scopes: the time to build each
+ * one and the heap retained while they are all alive. Compares calling
+ * initStandardObjects() for every scope with building one sealed scope
+ * through initSharedStandardObjects() and giving every scope an overlay
+ * from newOverlayScope().
+ *
+ * A few lazily loaded standard objects are looked up in every scope, as
+ * a script using them would, so their construction is counted as well.
+ *
+ * Run with the Rhino shell:
+ *   java -jar js.jar -opt 9 scope-creation.js [scopes]
+ */
+
+var count = arguments.length > 0 ? Number(arguments[0]) : 2000;
+var cx = org.mozilla.javascript.Context.getCurrentContext();
+var runtime = java.lang.Runtime.getRuntime();
+var ScriptableObject = org.mozilla.javascript.ScriptableObject;
+var used = ["JSON", "RegExp", "Date", "Math"];
+
+function use(scope) {
+    for (var i = 0; i < used.length; i++) {
+        ScriptableObject.getProperty(scope, used[i]);
+    }
+    return scope;
+}
+
+function usedMemory() {
+    for (var i = 0; i < 4; i++) {
+        java.lang.System.gc();
+        java.lang.Thread.sleep(20);
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+}
+
+function measure(name, create) {
+    // warm up
+    for (var i = 0; i < 100; i++) {
+        use(create());
+    }
+    var scopes = [];
+    var before = usedMemory();
+    var start = java.lang.System.nanoTime();
+    for (var i = 0; i < count; i++) {
+        scopes.push(use(create()));
+    }
+    var time = (java.lang.System.nanoTime() - start) / 1e3 / count;
+    var retained = (usedMemory() - before) / count;
+    print(name + ": " + time.toFixed(1) + " us, " +
+          Math.round(retained) + " bytes retained per scope");
+    return scopes.length;
+}
+
+measure("initStandardObjects", function() {
+    return cx.initStandardObjects();
+});
+
+var shared = cx.initSharedStandardObjects();
+measure("newOverlayScope", function() {
+    return cx.newOverlayScope(shared);
+});
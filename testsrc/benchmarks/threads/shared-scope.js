@@ -0,0 +1,61 @@
+/*
+ * Measures how property access on one shared scope scales with the number
+ * of threads. Every thread runs the same amount of work against the same
+ * global object and prototypes; with no contention the throughput grows
+ * linearly with the thread count up to the number of processors.
+ *
+ * Run with the Rhino shell, which provides spawn():
+ *   java -jar js.jar -opt 0 shared-scope.js [iterations]
+ */
+
+var iterations = arguments.length > 0 ? Number(arguments[0]) : 200000;
+var maxThreads = 2 * java.lang.Runtime.getRuntime().availableProcessors();
+if (maxThreads < 4) maxThreads = 4;
+
+var config = { scale: 3, offset: 1 };
+var total = 0;
+
+function Point(x, y) {
+    this.x = x;
+    this.y = y;
+}
+Point.prototype.length = function() {
+    return Math.sqrt(this.x * this.x + this.y * this.y);
+};
+
+function work() {
+    var sum = 0;
+    for (var i = 0; i < iterations; i++) {
+        // reads of the shared global, its prototypes and builtins
+        var p = new Point(i * config.scale, config.offset);
+        sum += Math.floor(p.length()) + String(i).length;
+        // store to an existing property of the shared global
+        total = i;
+    }
+    return sum;
+}
+
+function run(threads) {
+    var start = Date.now();
+    var workers = [];
+    for (var t = 0; t < threads; t++) {
+        workers.push(spawn(work));
+    }
+    for (var t = 0; t < threads; t++) {
+        workers[t].join();
+    }
+    return Date.now() - start;
+}
+
+// warm up
+run(1);
+
+var base = 0;
+for (var threads = 1; threads <= maxThreads; threads *= 2) {
+    var time = run(threads);
+    var throughput = threads * iterations / time;
+    if (threads == 1) base = throughput;
+    print(threads + " thread(s): " + time + " ms, " +
+          Math.round(throughput) + " iterations/ms, speedup " +
+          (throughput / base).toFixed(2));
+}
@@ -20,6 +20,13 @@ import junit.framework.TestCase;
  */
 public class RequireTests extends TestCase
 {
+    @Override
+    protected void tearDown() throws Exception
+    {
+        // every test enters a Context in createContext()
+        Context.exit();
+    }
+
     public void testSandboxed() throws Exception
     {
         final Context cx = createContext();
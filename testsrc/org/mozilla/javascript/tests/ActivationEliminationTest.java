@@ -0,0 +1,122 @@
+/*
+ * Tests for functions with nested functions that do not use their variables:
+ * such functions keep their variables in registers instead of an activation
+ * object, which must not be observable from scripts.
+ */
+package org.mozilla.javascript.tests;
+
+import junit.framework.TestCase;
+
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ContextAction;
+import org.mozilla.javascript.Scriptable;
+
+public class ActivationEliminationTest extends TestCase {
+
+    private void assertEvaluates(final String expected, final String source) {
+        Utils.runWithAllOptimizationLevels(new ContextAction() {
+            public Object run(Context cx) {
+                Scriptable scope = cx.initStandardObjects();
+                Object result = cx.evaluateString(scope, source, "test", 1,
+                                                  null);
+                assertEquals(source, expected, Context.toString(result));
+                return null;
+            }
+        });
+    }
+
+    public void testNestedHelpers() {
+        assertEvaluates("20,function,helper,hoisted",
+            "function f() {\n" +
+            "  var t = 0;\n" +
+            "  for (var i = 0; i < 5; i++) t += helper(i);\n" +
+            "  return [t, typeof helper, helper.name, late()].join();\n" +
+            "  function helper(x) { return x * 2; }\n" +
+            "  function late() { return 'hoisted'; }\n" +
+            "}\n" +
+            "f()");
+    }
+
+    public void testModulePattern() {
+        assertEvaluates("3,6,undefined",
+            "var counter = (function() {\n" +
+            "  var count = 0;\n" +
+            "  return { inc: function(n) { count += n; return count; } };\n" +
+            "})();\n" +
+            "var util = (function() {\n" +
+            "  var unused = 1;\n" +
+            "  return { twice: function(n) { return n * 2; } };\n" +
+            "})();\n" +
+            "[counter.inc(3), util.twice(counter.inc(0)),\n" +
+            " typeof unused].join()");
+    }
+
+    public void testCapturedVariables() {
+        assertEvaluates("5,7,120,3",
+            "function cap() {\n" +
+            "  var n = 1;\n" +
+            "  function inc() { return ++n; }\n" +
+            "  inc();\n" +
+            "  return n + inc();\n" +
+            "}\n" +
+            "function deep() {\n" +
+            "  var v = 7;\n" +
+            "  return function() { return function() { return v; }; };\n" +
+            "}\n" +
+            "function rec() {\n" +
+            "  function fact(n) { return n < 2 ? 1 : n * fact(n - 1); }\n" +
+            "  return fact(5);\n" +
+            "}\n" +
+            "function par(p) {\n" +
+            "  return (function() { return p; })();\n" +
+            "}\n" +
+            "[cap(), deep()()(), rec(), par(3)].join()");
+    }
+
+    public void testShadowingAndGlobals() {
+        assertEvaluates("1,object,g,function",
+            "var name = 'g';\n" +
+            "function f() {\n" +
+            "  var v = 7, name = 'local';\n" +
+            "  return function() {\n" +
+            "    var v = 1;\n" +
+            "    return [v, typeof Math, this.name].join();\n" +
+            "  };\n" +
+            "}\n" +
+            "function g(a) { function a() {} return typeof a; }\n" +
+            "f()() + ',' + g(3)");
+    }
+
+    public void testEvalInNestedFunction() {
+        assertEvaluates("5,6",
+            "function f() {\n" +
+            "  var q = 5;\n" +
+            "  return (function() { return eval('q'); })();\n" +
+            "}\n" +
+            "function g() {\n" +
+            "  var r = 6;\n" +
+            "  return (function() {\n" +
+            "    return (function() { return eval('r'); })();\n" +
+            "  })();\n" +
+            "}\n" +
+            "[f(), g()].join()");
+    }
+
+    public void testFunctionExpressionNames() {
+        assertEvaluates("3,function,undefined",
+            "function f() {\n" +
+            "  var g = function h(n) { return n ? h(n - 1) + 1 : 0; };\n" +
+            "  return [g(3), typeof g, typeof h].join();\n" +
+            "}\n" +
+            "f()");
+    }
+
+    public void testConditionalFunctionStatement() {
+        assertEvaluates("function,undefined",
+            "function f(c) {\n" +
+            "  if (c) { function z() { return 'z'; } }\n" +
+            "  return typeof z;\n" +
+            "}\n" +
+            "[f(true), f(false)].join()");
+    }
+}
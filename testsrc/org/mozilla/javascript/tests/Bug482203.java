@@ -13,20 +13,24 @@ import org.mozilla.javascript.ScriptableObject;
 public class Bug482203 extends TestCase {
     public void testJsApi() throws Exception {
         Context cx = Context.enter();
-        cx.setOptimizationLevel(-1);
-        Script script = cx.compileReader(new InputStreamReader(
-                Bug482203.class.getResourceAsStream("conttest.js")), 
-                "", 1, null);
-        Scriptable scope = cx.initStandardObjects();
-        script.exec(cx, scope);
-        for(;;)
-        {
-            Object cont = ScriptableObject.getProperty(scope, "c");
-            if(cont == null)
+        try {
+            cx.setOptimizationLevel(-1);
+            Script script = cx.compileReader(new InputStreamReader(
+                    Bug482203.class.getResourceAsStream("conttest.js")), 
+                    "", 1, null);
+            Scriptable scope = cx.initStandardObjects();
+            script.exec(cx, scope);
+            for(;;)
             {
-                break;
+                Object cont = ScriptableObject.getProperty(scope, "c");
+                if(cont == null)
+                {
+                    break;
+                }
+                ((Callable)cont).call(cx, scope, scope, new Object[] { null });
             }
-            ((Callable)cont).call(cx, scope, scope, new Object[] { null });
+        } finally {
+            Context.exit();
         }
     }
     public void testJavaApi() throws Exception {
@@ -0,0 +1,183 @@
+/*
+ * Tests for the persistent cache of generated class files.
+ */
+package org.mozilla.javascript.tests;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import junit.framework.TestCase;
+
+import org.mozilla.javascript.CodeCache;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ContextAction;
+import org.mozilla.javascript.ContextFactory;
+import org.mozilla.javascript.Function;
+import org.mozilla.javascript.Scriptable;
+
+public class CodeCacheTest extends TestCase {
+
+    private File dir;
+    private CodeCache cache;
+    private Context cx;
+    private Scriptable scope;
+
+    @Override
+    protected void setUp() throws Exception {
+        dir = File.createTempFile("codecache", "");
+        dir.delete();
+        cache = new CodeCache(dir);
+        cx = Context.enter();
+        cx.setOptimizationLevel(0);
+        cx.setCodeCache(cache);
+        scope = cx.initStandardObjects();
+    }
+
+    @Override
+    protected void tearDown() {
+        Context.exit();
+        cache.clear();
+        dir.delete();
+    }
+
+    private Object eval(String source) {
+        return cx.evaluateString(scope, source, "test", 1, null);
+    }
+
+    private File[] entries() {
+        File[] files = dir.listFiles();
+        return files == null ? new File[0] : files;
+    }
+
+    public void testMissThenHit() {
+        assertEquals("6", Context.toString(eval("var a = [1, 2, 3]; a[0] + a[1] + a[2]")));
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.getStoreCount());
+        assertEquals(0, cache.getHitCount());
+        assertEquals(1, entries().length);
+
+        // a new cache on the same directory stands for a later run
+        cache = new CodeCache(dir);
+        cx.setCodeCache(cache);
+        assertEquals("6", Context.toString(eval("var a = [1, 2, 3]; a[0] + a[1] + a[2]")));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(0, cache.getMissCount());
+        assertEquals(0, cache.getStoreCount());
+    }
+
+    public void testKeyIncludesSettings() {
+        eval("1 + 1");
+        cx.setOptimizationLevel(9);
+        eval("1 + 1");
+        cx.setLanguageVersion(Context.VERSION_1_8);
+        eval("1 + 1");
+        assertEquals(0, cache.getHitCount());
+        assertEquals(3, cache.getMissCount());
+        cx.evaluateString(scope, "1 + 1", "other", 1, null);
+        cx.evaluateString(scope, "1 + 1", "test", 2, null);
+        assertEquals(0, cache.getHitCount());
+        assertEquals(5, entries().length);
+    }
+
+    public void testFunctions() {
+        for (int i = 0; i != 2; ++i) {
+            Function f = cx.compileFunction(scope,
+                "function (x) { return x * 2; }", "test", 1, null);
+            assertEquals(42, ((Number) f.call(cx, scope, scope,
+                new Object[] { Integer.valueOf(21) })).intValue());
+        }
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    public void testCorruptEntryIsRecompiled() throws Exception {
+        eval("'abc'.length");
+        File entry = entries()[0];
+        RandomAccessFile file = new RandomAccessFile(entry, "rw");
+        try {
+            file.seek(file.length() / 2);
+            int b = file.read();
+            file.seek(file.length() / 2);
+            file.write(b ^ 0xFF);
+        } finally {
+            file.close();
+        }
+        assertEquals(3, ((Number) eval("'abc'.length")).intValue());
+        assertEquals(1, cache.getCorruptCount());
+        assertEquals(0, cache.getHitCount());
+        assertEquals(2, cache.getStoreCount());
+
+        // the entry was written again
+        eval("'abc'.length");
+        assertEquals(1, cache.getHitCount());
+    }
+
+    public void testTruncatedEntryIsRecompiled() throws Exception {
+        eval("'abc'.length");
+        RandomAccessFile file = new RandomAccessFile(entries()[0], "rw");
+        try {
+            file.setLength(10);
+        } finally {
+            file.close();
+        }
+        assertEquals(3, ((Number) eval("'abc'.length")).intValue());
+        assertEquals(1, cache.getCorruptCount());
+    }
+
+    public void testLeastRecentlyUsedAreEvicted() throws Exception {
+        eval("1");
+        File first = entries()[0];
+        long entrySize = first.length();
+        cache.setMaximumSize(entrySize * 2 + entrySize / 2);
+        first.setLastModified(System.currentTimeMillis() - 120000);
+        eval("2");
+        File second = entries()[0].equals(first) ? entries()[1] : entries()[0];
+        second.setLastModified(System.currentTimeMillis() - 60000);
+        // using the first entry again makes the second the oldest
+        eval("1");
+        eval("3");
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(2, entries().length);
+        assertTrue(first.exists());
+        assertFalse(second.exists());
+        eval("1");
+        eval("3");
+        assertEquals(3, cache.getHitCount());
+    }
+
+    public void testNotUsedWhenInterpreting() {
+        cx.setOptimizationLevel(-1);
+        eval("1 + 1");
+        assertEquals(0, cache.getMissCount());
+        assertEquals(0, entries().length);
+    }
+
+    public void testNotUsedInStrictMode() {
+        ContextFactory strict = new ContextFactory() {
+            @Override
+            protected boolean hasFeature(Context cx, int featureIndex) {
+                if (featureIndex == Context.FEATURE_STRICT_MODE) {
+                    return true;
+                }
+                return super.hasFeature(cx, featureIndex);
+            }
+        };
+        // leave the context of setUp() so that a strict one is entered
+        Context.exit();
+        try {
+            strict.call(new ContextAction() {
+                public Object run(Context cx) {
+                    cx.setOptimizationLevel(0);
+                    cx.setCodeCache(cache);
+                    Scriptable scope = cx.initStandardObjects();
+                    cx.evaluateString(scope, "1 + 1", "test", 1, null);
+                    return null;
+                }
+            });
+        } finally {
+            cx = Context.enter();
+        }
+        assertEquals(0, cache.getMissCount());
+        assertEquals(0, entries().length);
+    }
+}
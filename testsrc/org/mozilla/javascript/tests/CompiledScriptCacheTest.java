@@ -0,0 +1,181 @@
+/*
+ * Tests for sharing compiled scripts between Contexts of a ContextFactory.
+ */
+package org.mozilla.javascript.tests;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import junit.framework.TestCase;
+
+import org.mozilla.javascript.CompiledScriptCache;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ContextAction;
+import org.mozilla.javascript.ContextFactory;
+import org.mozilla.javascript.Script;
+import org.mozilla.javascript.Scriptable;
+
+public class CompiledScriptCacheTest extends TestCase {
+
+    private ContextFactory factory;
+    private CompiledScriptCache cache;
+
+    @Override
+    protected void setUp() {
+        factory = new ContextFactory();
+        cache = new CompiledScriptCache();
+        factory.setCompiledScriptCache(cache);
+    }
+
+    private Script compile(final String source, final String sourceName,
+                           int optimizationLevel)
+    {
+        final Script[] result = new Script[1];
+        Utils.runWithOptimizationLevel(factory, new ContextAction() {
+            public Object run(Context cx) {
+                result[0] = cx.compileString(source, sourceName, 1, null);
+                return null;
+            }
+        }, optimizationLevel);
+        return result[0];
+    }
+
+    private Object exec(final Script script) {
+        return factory.call(new ContextAction() {
+            public Object run(Context cx) {
+                Scriptable scope = cx.initStandardObjects();
+                return Context.toString(script.exec(cx, scope));
+            }
+        });
+    }
+
+    public void testSharedBetweenContexts() {
+        String source = "var x = 20; function f() { return x + 1; } f()";
+        for (int opt = -1; opt <= 9; opt += 10) {
+            cache.clear();
+            Script script = compile(source, "test", opt);
+            assertSame(script, compile(source, "test", opt));
+            assertEquals("21", exec(script));
+            assertEquals("21", exec(script));
+            assertEquals(1, cache.getHitCount());
+            assertEquals(1, cache.getMissCount());
+            assertEquals(1, cache.getScriptCount());
+            assertTrue(cache.getSize() > source.length());
+        }
+    }
+
+    public void testKey() {
+        Script script = compile("1", "a", -1);
+        assertNotSame(script, compile("1", "b", -1));
+        assertNotSame(script, compile("1", "a", 9));
+        assertNotSame(script, compile("2", "a", -1));
+        Utils.runWithOptimizationLevel(factory, new ContextAction() {
+            public Object run(Context cx) {
+                cx.setLanguageVersion(Context.VERSION_1_6);
+                cx.compileString("1", "a", 1, null);
+                // the line number is part of the key
+                cx.compileString("1", "a", 2, null);
+                return null;
+            }
+        }, -1);
+        assertEquals(0, cache.getHitCount());
+        assertEquals(6, cache.getScriptCount());
+    }
+
+    public void testEvaluateReader() {
+        factory.call(new ContextAction() {
+            public Object run(Context cx) {
+                Scriptable scope = cx.initStandardObjects();
+                try {
+                    for (int i = 0; i < 3; i++) {
+                        assertEquals("3", Context.toString(cx.evaluateReader(
+                            scope, new StringReader("1 + 2"), "test", 1,
+                            null)));
+                    }
+                } catch (IOException e) {
+                    fail(e.toString());
+                }
+                return null;
+            }
+        });
+        assertEquals(2, cache.getHitCount());
+    }
+
+    public void testNotCached() {
+        ContextFactory strict = new ContextFactory() {
+            @Override
+            protected boolean hasFeature(Context cx, int featureIndex) {
+                if (featureIndex == Context.FEATURE_STRICT_MODE) {
+                    return true;
+                }
+                return super.hasFeature(cx, featureIndex);
+            }
+        };
+        strict.setCompiledScriptCache(cache);
+        strict.call(new ContextAction() {
+            public Object run(Context cx) {
+                cx.compileString("1", "test", 1, null);
+                return null;
+            }
+        });
+        factory.call(new ContextAction() {
+            public Object run(Context cx) {
+                Scriptable scope = cx.initStandardObjects();
+                cx.compileFunction(scope, "function f() {}", "test", 1, null);
+                return null;
+            }
+        });
+        assertEquals(0, cache.getMissCount());
+        assertEquals(0, cache.getScriptCount());
+    }
+
+    public void testMaximumSize() {
+        cache.setMaximumSize(4000);
+        for (int i = 0; i < 50; i++) {
+            compile("var v" + i + " = " + i + ";", "test", -1);
+        }
+        assertTrue(cache.getSize() <= 4000);
+        assertTrue(cache.getEvictionCount() > 0);
+        assertEquals(50, cache.getScriptCount() + cache.getEvictionCount());
+        // the most recently used are kept
+        compile("var v49 = 49;", "test", -1);
+        assertEquals(1, cache.getHitCount());
+        cache.setMaximumSize(0);
+        assertEquals(0, cache.getScriptCount());
+        assertEquals(0, cache.getSize());
+        compile("var v49 = 49;", "test", -1);
+        assertEquals(0, cache.getScriptCount());
+    }
+
+    public void testConcurrentUse() throws InterruptedException {
+        final Throwable[] failure = new Throwable[1];
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < 100; i++) {
+                            int n = i % 10;
+                            Script script = compile("3 * " + n, "test", -1);
+                            assertEquals(String.valueOf(3 * n), exec(script));
+                        }
+                    } catch (Throwable e) {
+                        synchronized (failure) {
+                            failure[0] = e;
+                        }
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (failure[0] != null) {
+            throw new AssertionError(failure[0]);
+        }
+        assertEquals(800, cache.getHitCount() + cache.getMissCount());
+        assertEquals(10, cache.getScriptCount());
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Tests for strings built by concatenation without copying.
+ */
+package org.mozilla.javascript.tests;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import junit.framework.TestCase;
+
+import org.mozilla.javascript.ConsString;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ContextAction;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.ScriptableObject;
+
+public class ConsStringTest extends TestCase {
+
+    private static final String BUILD =
+        "var s = ''; for (var i = 0; i < 1000; i++) s += 'ab';\n";
+
+    public void testConcatenationBuildsRope() {
+        Object value = Utils.evaluate(BUILD + "s");
+        assertTrue(value instanceof ConsString);
+        assertEquals(2000, ((CharSequence) value).length());
+    }
+
+    public void testShortResultsStayFlat() {
+        assertTrue(Utils.evaluate("var a = 'x'; a + 1 + 'y'")
+                   instanceof String);
+    }
+
+    public void testStringOperations() {
+        assertEquals("string,2000,a,b,1999,true,false,true,abab",
+                     Utils.evaluate(BUILD +
+            "var t = ''; for (var i = 0; i < 1000; i++) t = t + 'ab';\n" +
+            "[typeof s, s.length, s.charAt(0), s[1], s.lastIndexOf('b'),\n" +
+            " s == t, s < t, s === t, s.substring(0, 4)].join();"));
+    }
+
+    public void testConversions() {
+        assertEquals("true,NaN,1,true,string", Utils.evaluate(BUILD +
+            "var n = ''; for (var i = 0; i < 300; i++) n = n + ' ';\n" +
+            "n = n + '1';\n" +
+            "[!!s, Number(s), Number(n), s.length == JSON.stringify(s).length - 2,\n" +
+            " typeof Object(s).valueOf()].join();"));
+    }
+
+    public void testPassedToJavaAsString() {
+        assertEquals("java.lang.String,2000", Utils.evaluate(BUILD +
+            "var sb = new java.lang.StringBuilder(s);\n" +
+            "[sb.toString().getClass().getName(), sb.length()].join();"));
+    }
+
+    public void testRoundTripThroughJava() {
+        Utils.runWithAllOptimizationLevels(new ContextAction() {
+            public Object run(Context cx) {
+                Scriptable scope = cx.initStandardObjects();
+                Object s = cx.evaluateString(scope, BUILD + "s", "test", 1,
+                                             null);
+                assertTrue(s instanceof ConsString);
+                ScriptableObject.putProperty(scope, "a",
+                    Context.javaToJS(s, scope));
+                ScriptableObject.putProperty(scope, "b",
+                    cx.getWrapFactory().wrap(cx, scope, s, Object.class));
+                assertEquals("string,string,true", cx.evaluateString(scope,
+                    "[typeof a, typeof b, a === s].join()", "test", 1, null));
+                return null;
+            }
+        });
+    }
+
+    public void testEvalOfRope() {
+        assertEquals("300", Utils.evaluate(
+            "var src = '0'; for (var i = 0; i < 300; i++) src = src + '+1';\n" +
+            "String(eval(src));"));
+    }
+
+    public void testDeepRopeFlattens() {
+        CharSequence s = "";
+        for (int i = 0; i != 100000; ++i) {
+            s = new ConsString(s, "x");
+        }
+        String flat = s.toString();
+        assertEquals(100000, flat.length());
+        assertSame(flat, s.toString());
+        assertEquals('x', s.charAt(99999));
+    }
+
+    public void testSharedParts() {
+        CharSequence a = new ConsString("ab", "cd");
+        CharSequence b = new ConsString(a, a);
+        CharSequence c = new ConsString(b, new ConsString("-", a));
+        assertEquals("abcd", a.toString());
+        assertEquals("abcdabcd-abcd", c.toString());
+    }
+
+    public void testSerializesAsString() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(new ConsString("ab", new ConsString("c", "d")));
+        out.close();
+        ObjectInputStream in = new ObjectInputStream(
+            new ByteArrayInputStream(bytes.toByteArray()));
+        assertEquals("abcd", in.readObject());
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Tests for reusing the code compiled for eval and the Function constructor.
+ */
+package org.mozilla.javascript.tests;
+
+import junit.framework.TestCase;
+
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ContextAction;
+import org.mozilla.javascript.ContextFactory;
+import org.mozilla.javascript.EcmaError;
+import org.mozilla.javascript.EvalCache;
+import org.mozilla.javascript.Scriptable;
+
+public class EvalCacheTest extends TestCase {
+
+    private ContextFactory factory;
+    private EvalCache cache;
+
+    @Override
+    protected void setUp() {
+        factory = new ContextFactory();
+        cache = factory.getEvalCache();
+    }
+
+    private String eval(final String source, int optimizationLevel) {
+        final String[] result = new String[1];
+        Utils.runWithOptimizationLevel(factory, new ContextAction() {
+            public Object run(Context cx) {
+                Scriptable scope = cx.initStandardObjects();
+                result[0] = Context.toString(
+                    cx.evaluateString(scope, source, "test", 1, null));
+                return null;
+            }
+        }, optimizationLevel);
+        return result[0];
+    }
+
+    public void testEval() {
+        String source =
+            "function twice(x) { return eval('x * 2'); }\n" +
+            "var r = [];\n" +
+            "for (var i = 0; i < 10; i++) r.push(twice(i));\n" +
+            "r.join()";
+        for (int opt = -1; opt <= 9; opt += 10) {
+            cache.clear();
+            assertEquals("0,2,4,6,8,10,12,14,16,18", eval(source, opt));
+            assertEquals(1, cache.getMissCount());
+            assertEquals(9, cache.getHitCount());
+            assertEquals(1, cache.getSize());
+        }
+    }
+
+    public void testFunctionConstructor() {
+        String source =
+            "var fs = [];\n" +
+            "for (var i = 0; i < 5; i++) fs.push(new Function('a', 'return a + 1'));\n" +
+            "fs[0].x = 1;\n" +
+            "[fs[0] !== fs[1], typeof fs[1].x, fs[4](2), String(fs[2]) == String(fs[3])].join()";
+        assertEquals("true,undefined,3,true", eval(source, -1));
+        assertEquals(1, cache.getMissCount());
+        assertEquals(4, cache.getHitCount());
+    }
+
+    public void testSharedAcrossContexts() {
+        eval("eval('1 + 1')", -1);
+        eval("eval('1 + 1')", -1);
+        assertEquals(1, cache.getHitCount());
+        // other settings compile again
+        eval("eval('1 + 1')", 9);
+        Utils.runWithOptimizationLevel(factory, new ContextAction() {
+            public Object run(Context cx) {
+                cx.setLanguageVersion(Context.VERSION_1_6);
+                Scriptable scope = cx.initStandardObjects();
+                cx.evaluateString(scope, "eval('1 + 1')", "test", 1, null);
+                return null;
+            }
+        }, -1);
+        assertEquals(1, cache.getHitCount());
+        assertEquals(3, cache.getMissCount());
+        // another factory has its own cache
+        assertEquals(0, new ContextFactory().getEvalCache().getSize());
+    }
+
+    public void testErrorsAreNotCached() {
+        for (int i = 0; i < 2; i++) {
+            try {
+                eval("eval('1 +')", -1);
+                fail();
+            } catch (EcmaError e) {
+                assertEquals("SyntaxError", e.getName());
+            }
+            try {
+                eval("new Function('return (')", -1);
+                fail();
+            } catch (EcmaError e) {
+                assertEquals("SyntaxError", e.getName());
+            }
+        }
+        assertEquals(0, cache.getSize());
+        assertEquals(0, cache.getHitCount());
+    }
+
+    public void testStrictModeBypassesCache() {
+        ContextFactory strict = new ContextFactory() {
+            @Override
+            protected boolean hasFeature(Context cx, int featureIndex) {
+                if (featureIndex == Context.FEATURE_STRICT_MODE) {
+                    return true;
+                }
+                return super.hasFeature(cx, featureIndex);
+            }
+        };
+        factory = strict;
+        cache = strict.getEvalCache();
+        eval("eval('1'); eval('1')", -1);
+        assertEquals(0, cache.getSize());
+        assertEquals(0, cache.getMissCount());
+    }
+
+    public void testMaximumSize() {
+        cache.setMaximumSize(2);
+        eval("eval('1'); eval('2'); eval('3'); eval('3')", -1);
+        assertEquals(2, cache.getSize());
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(1, cache.getHitCount());
+        cache.setMaximumSize(0);
+        assertEquals(0, cache.getSize());
+        eval("eval('3')", -1);
+        assertEquals(0, cache.getSize());
+        assertEquals(1, cache.getHitCount());
+        try {
+            cache.setMaximumSize(-1);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Tests for the int32, integer and boolean local variable types inferred by
+ * the optimizer: compiled code must give the same results as the interpreter,
+ * in particular where integer variables leave the int32 range.
+ */
+package org.mozilla.javascript.tests;
+
+import junit.framework.TestCase;
+
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ContextAction;
+import org.mozilla.javascript.Scriptable;
+
+public class Int32InferenceTest extends TestCase {
+
+    private void assertEvaluates(final String expected, final String source) {
+        Utils.runWithAllOptimizationLevels(new ContextAction() {
+            public Object run(Context cx) {
+                Scriptable scope = cx.initStandardObjects();
+                Object result = cx.evaluateString(scope, source, "test", 1,
+                                                  null);
+                assertEquals(source, expected, Context.toString(result));
+                return null;
+            }
+        });
+    }
+
+    public void testBitwiseHash() {
+        assertEvaluates("1794106052",
+            "function hash(s) {\n" +
+            "  var h = 0;\n" +
+            "  for (var i = 0; i < s.length; i++)\n" +
+            "    h = ((h << 5) - h + s.charCodeAt(i)) | 0;\n" +
+            "  return h;\n" +
+            "}\n" +
+            "hash('hello world')");
+    }
+
+    public void testCrc32() {
+        assertEvaluates("222957957",
+            "function crc(s) {\n" +
+            "  var c = -1;\n" +
+            "  for (var i = 0; i < s.length; i++) {\n" +
+            "    c = c ^ s.charCodeAt(i);\n" +
+            "    for (var k = 0; k < 8; k++)\n" +
+            "      c = (c & 1) ? (c >>> 1) ^ 0xEDB88320 : c >>> 1;\n" +
+            "  }\n" +
+            "  return (c ^ -1) >>> 0;\n" +
+            "}\n" +
+            "crc('hello world')");
+    }
+
+    public void testCounterOverflow() {
+        assertEvaluates("2147483650,5,-2147483646",
+            "function f() {\n" +
+            "  var i = 2147483645, n = 0;\n" +
+            "  for (; i < 2147483650; i++) n++;\n" +
+            "  return [i, n, i | 0].join();\n" +
+            "}\n" +
+            "f()");
+        assertEvaluates("-2147483651,-2147483648,5",
+            "function f() {\n" +
+            "  var i = -2147483646;\n" +
+            "  i--; i--;\n" +
+            "  var j = i;\n" +
+            "  i -= 3;\n" +
+            "  return [i, j, i & 7].join();\n" +
+            "}\n" +
+            "f()");
+        assertEvaluates("2147483646,-2147483652",
+            "function f() {\n" +
+            "  var i = 0, j = 0;\n" +
+            "  i += 2147483647; i += 2; i += -3;\n" +
+            "  j -= 5; j = j - 2147483647;\n" +
+            "  return [i, j].join();\n" +
+            "}\n" +
+            "f()");
+    }
+
+    public void testMinValue() {
+        assertEvaluates("-2147483649,-2147483648,2147483647,x",
+            "function f() {\n" +
+            "  var m = 0, a = [];\n" +
+            "  m = 1 << 31; m++; m--; a[m] = 'x'; m--;\n" +
+            "  var t = m + 1;\n" +
+            "  return [m, t, m | 0, a[t]].join();\n" +
+            "}\n" +
+            "f()");
+    }
+
+    public void testFractionsAndNegativeZero() {
+        assertEvaluates("1.5,2.5",
+            "function f() {\n" +
+            "  var i = 0, j = 1.5;\n" +
+            "  i = i + 1; i = 0.5; i++;\n" +
+            "  j = j + 1;\n" +
+            "  return [i, j].join();\n" +
+            "}\n" +
+            "f()");
+        assertEvaluates("-Infinity,Infinity,-Infinity",
+            "function f() {\n" +
+            "  var z = 0, q = 0, n = 0;\n" +
+            "  z = -0; q = q - 0; n++; n = n * -0;\n" +
+            "  return [1 / z, 1 / q, 1 / n].join();\n" +
+            "}\n" +
+            "f()");
+    }
+
+    public void testArrayIndexes() {
+        assertEvaluates("0,2,4,x,8|60|30",
+            "function f() {\n" +
+            "  var a = [], s = 0, i;\n" +
+            "  for (i = 0; i < 5; i++) a[i] = i * 2;\n" +
+            "  var k = 3;\n" +
+            "  a[k & 7] = 'x';\n" +
+            "  var b = [10, 20, 30];\n" +
+            "  for (i = 0; i < 4; i++) s += b[i] | 0;\n" +
+            "  return [a.join(), s, b[i - 2]].join('|');\n" +
+            "}\n" +
+            "f()");
+    }
+
+    public void testShifts() {
+        assertEvaluates("-2147483647,-1,2147483648,2147483646,3",
+            "function f() {\n" +
+            "  var x = 1 << 31, y = x >> 31, u = x >>> 0;\n" +
+            "  x++;\n" +
+            "  return [x, y, u, ~x, ~~3.7].join();\n" +
+            "}\n" +
+            "f()");
+    }
+
+    public void testIncrementValues() {
+        assertEvaluates("5,7,7,5,5",
+            "function f() {\n" +
+            "  var i = 5;\n" +
+            "  var a = i++, b = ++i, c = i--, d = --i;\n" +
+            "  return [a, b, c, d, i].join();\n" +
+            "}\n" +
+            "f()");
+    }
+
+    public void testBooleans() {
+        assertEvaluates("1,boolean,true,false,true|2,boolean,false,false,false",
+            "function f(n) {\n" +
+            "  var b = n > 3, c, r = 0;\n" +
+            "  c = !b;\n" +
+            "  if (b) r += 1;\n" +
+            "  if (c) r += 2;\n" +
+            "  return [r, typeof b, b, c && b, b == true].join();\n" +
+            "}\n" +
+            "f(5) + '|' + f(1)");
+    }
+
+    public void testNestedAssignments() {
+        // both used to be mistyped as numbers
+        assertEvaluates("a,7,7,number",
+            "function f() {\n" +
+            "  var s = 0, a = 0, b = 0, n = 1, t;\n" +
+            "  var x = (s = 'a');\n" +
+            "  a = (b = 7) | 1;\n" +
+            "  t = typeof (n + 1);\n" +
+            "  return [s, a, b, t].join();\n" +
+            "}\n" +
+            "f()");
+    }
+
+    public void testMixedTypes() {
+        assertEvaluates("s,1,true",
+            "function f() {\n" +
+            "  var x = 1, y, z = 1, b = true;\n" +
+            "  for (var k = 0; k < 2; k++) { y = x; x = 's'; }\n" +
+            "  z = z | 0; z = b; b = 1;\n" +
+            "  return [y, b, z].join();\n" +
+            "}\n" +
+            "f()");
+    }
+}
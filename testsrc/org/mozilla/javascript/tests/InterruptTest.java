@@ -0,0 +1,137 @@
+/*
+ * Tests for interrupting scripts with Context.requestInterrupt() and
+ * Context.setExecutionTimeout().
+ */
+package org.mozilla.javascript.tests;
+
+import junit.framework.TestCase;
+
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ContextAction;
+import org.mozilla.javascript.ContextFactory;
+import org.mozilla.javascript.EvaluatorException;
+import org.mozilla.javascript.ScriptInterruptedError;
+import org.mozilla.javascript.Scriptable;
+
+public class InterruptTest extends TestCase {
+
+    private static final String[] RUNAWAY = {
+        "while (true) {}",
+        "for (;;) { var x = 1; }",
+        "do { } while (true)",
+        "function f(n) { return n > 0 ? f(n - 1) : 0; } for (;;) f(10)",
+        "function g() { for (var i = 0; ; i++) {} } g()",
+        "while (true) { try { while (true) {} } catch (e) {} }"
+    };
+
+    private void runInterrupted(final String source) {
+        Utils.runWithAllOptimizationLevels(new ContextAction() {
+            public Object run(Context cx) {
+                Scriptable scope = cx.initStandardObjects();
+                cx.setExecutionTimeout(20);
+                try {
+                    cx.evaluateString(scope, source, "test", 1, null);
+                    fail(source);
+                } catch (ScriptInterruptedError e) {
+                    // expected
+                } finally {
+                    cx.clearInterruptRequest();
+                }
+                assertFalse(cx.isInterruptRequested());
+                // the request was consumed: scripts run normally again
+                assertEquals("3", Context.toString(cx.evaluateString(
+                    scope, "1 + 2", "test", 1, null)));
+                return null;
+            }
+        });
+    }
+
+    public void testRunawayScripts() {
+        for (String source : RUNAWAY) {
+            runInterrupted(source);
+        }
+    }
+
+    public void testFunctionEntry() {
+        Utils.runWithAllOptimizationLevels(new ContextAction() {
+            public Object run(Context cx) {
+                Scriptable scope = cx.initStandardObjects();
+                cx.evaluateString(scope, "function f() { return 1; }",
+                                  "test", 1, null);
+                cx.requestInterrupt();
+                try {
+                    cx.evaluateString(scope, "f()", "test", 1, null);
+                    fail();
+                } catch (ScriptInterruptedError e) {
+                    // expected
+                }
+                return null;
+            }
+        });
+    }
+
+    public void testRequestFromOtherThread() throws InterruptedException {
+        final Context[] holder = new Context[1];
+        final Throwable[] result = new Throwable[1];
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                Context cx = Context.enter();
+                try {
+                    synchronized (holder) {
+                        holder[0] = cx;
+                        holder.notifyAll();
+                    }
+                    Scriptable scope = cx.initStandardObjects();
+                    cx.evaluateString(scope, "for (;;) {}", "test", 1, null);
+                } catch (Throwable e) {
+                    result[0] = e;
+                } finally {
+                    Context.exit();
+                }
+            }
+        };
+        thread.start();
+        synchronized (holder) {
+            while (holder[0] == null) {
+                holder.wait();
+            }
+        }
+        holder[0].requestInterrupt();
+        thread.join(10000);
+        assertFalse(thread.isAlive());
+        assertTrue(result[0] instanceof ScriptInterruptedError);
+    }
+
+    public void testCatchableInterrupt() {
+        ContextFactory factory = new ContextFactory() {
+            @Override
+            protected void observeInterrupt(Context cx) {
+                throw new EvaluatorException("stop");
+            }
+        };
+        Utils.runWithAllOptimizationLevels(factory, new ContextAction() {
+            public Object run(Context cx) {
+                Scriptable scope = cx.initStandardObjects();
+                cx.setExecutionTimeout(20);
+                Object result = cx.evaluateString(scope,
+                    "var r; try { while (true) {} } catch (e) { r = 'caught'; } r",
+                    "test", 1, null);
+                assertEquals("caught", result);
+                return null;
+            }
+        });
+    }
+
+    public void testTimeoutCanBeCancelled() throws InterruptedException {
+        Context cx = Context.enter();
+        try {
+            cx.setExecutionTimeout(20);
+            cx.setExecutionTimeout(0);
+            Thread.sleep(60);
+            assertFalse(cx.isInterruptRequested());
+        } finally {
+            Context.exit();
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Tests for calling hot Java members through generated accessor classes.
+ */
+package org.mozilla.javascript.tests;
+
+import junit.framework.TestCase;
+
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.WrappedException;
+
+public class JavaMemberAccessorTest extends TestCase {
+
+    private Context cx;
+    private Scriptable scope;
+
+    @Override
+    protected void setUp() {
+        cx = Context.enter();
+        cx.setOptimizationLevel(9);
+        scope = cx.initStandardObjects();
+    }
+
+    @Override
+    protected void tearDown() {
+        Context.exit();
+    }
+
+    private String eval(String source) {
+        return Context.toString(
+            cx.evaluateString(scope, source, "test", 1, null));
+    }
+
+    public void testPrimitiveArgumentsAndResults() {
+        assertEquals("4950,81,7,true", eval(
+            "var m = java.lang.Math, s = 0, c, b;\n" +
+            "for (var i = 0; i < 100; i++) {\n" +
+            "  s += m.abs(-i);\n" +
+            "  c = java.lang.Character.toUpperCase('q'.charCodeAt(0));\n" +
+            "  b = java.lang.Boolean.logicalAnd(true, i >= 0);\n" +
+            "}\n" +
+            "[s, c, m.max(3, 7), b].join()"));
+    }
+
+    public void testVoidAndInterfaceMethods() {
+        assertEquals("100,99.0,abcabc", eval(
+            "var l = new java.util.ArrayList(), sb = new java.lang.StringBuilder();\n" +
+            "var list = java.util.Collections.synchronizedList(l);\n" +
+            "for (var i = 0; i < 100; i++) {\n" +
+            "  list.add(i);\n" +
+            "  if (i < 6) sb.append(String.fromCharCode(97 + i % 3));\n" +
+            "}\n" +
+            "[list.size(), list.get(99), sb.toString()].join()"));
+    }
+
+    public void testConstructors() {
+        assertEquals("4950", eval(
+            "var s = 0;\n" +
+            "for (var i = 0; i < 100; i++) {\n" +
+            "  s += new java.lang.StringBuilder(String(i)).length() > 0\n" +
+            "       ? new java.lang.Integer(i).intValue() : 0;\n" +
+            "}\n" +
+            "s"));
+    }
+
+    public void testExceptionsAreWrapped() {
+        eval("var n = 0;\n" +
+             "for (var i = 0; i < 50; i++) {\n" +
+             "  n += java.lang.Integer.parseInt(String(i));\n" +
+             "}");
+        try {
+            eval("java.lang.Integer.parseInt('x')");
+            fail();
+        } catch (WrappedException e) {
+            assertTrue(e.getWrappedException() instanceof NumberFormatException);
+        }
+        assertEquals("caught", eval(
+            "var r;\n" +
+            "for (var i = 0; i < 50; i++) {\n" +
+            "  try { java.lang.Integer.parseInt('x'); }\n" +
+            "  catch (e) { r = 'caught'; }\n" +
+            "}\n" +
+            "r"));
+    }
+
+    public void testInterpretedMode() {
+        cx.setOptimizationLevel(-1);
+        assertEquals("4950", eval(
+            "var s = 0;\n" +
+            "for (var i = 0; i < 100; i++) s += java.lang.Math.abs(-i);\n" +
+            "s"));
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Tests for remembering the overload chosen for Java method calls.
+ */
+package org.mozilla.javascript.tests;
+
+import junit.framework.TestCase;
+
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.EvaluatorException;
+import org.mozilla.javascript.Scriptable;
+
+public class JavaOverloadCacheTest extends TestCase {
+
+    private Context cx;
+    private Scriptable scope;
+
+    @Override
+    protected void setUp() {
+        cx = Context.enter();
+        scope = cx.initStandardObjects();
+    }
+
+    @Override
+    protected void tearDown() {
+        Context.exit();
+    }
+
+    private String eval(String source) {
+        return Context.toString(
+            cx.evaluateString(scope, source, "test", 1, null));
+    }
+
+    public void testChoiceFollowsArgumentTypes() {
+        for (int level = -1; level <= 9; level += 10) {
+            cx.setOptimizationLevel(level);
+            assertEquals("1.5|true|x|c|abc|[object Object]|1.5|true|x", eval(
+                "var chars = java.lang.String('abc').toCharArray();\n" +
+                "var values = [1.5, true, 'x', java.lang.Character('c'),\n" +
+                "              chars, {}, 1.5, true, 'x'];\n" +
+                "var r = [];\n" +
+                "for (var i = 0; i < values.length; i++) {\n" +
+                "  r.push(java.lang.String.valueOf(values[i]));\n" +
+                "}\n" +
+                "r.join('|')"));
+        }
+    }
+
+    public void testArgumentCount() {
+        assertEquals("bc,c", eval(
+            "var s = new java.lang.String('abc');\n" +
+            "[s.substring(1), s.substring(2, 3)].join()"));
+    }
+
+    public void testWrappedAndPlainObjects() {
+        assertEquals("1,1,1,1", eval(
+            "var list = new java.util.ArrayList();\n" +
+            "list.add('a');\n" +
+            "var r = [];\n" +
+            "for (var i = 0; i < 2; i++) {\n" +
+            "  list.add(list); r.push(list.indexOf(list) == 1 ? 1 : 0);\n" +
+            "  list.add(0, 'b'); r.push(list.indexOf('a'));\n" +
+            "  list.clear(); list.add('a');\n" +
+            "}\n" +
+            "r.join()"));
+    }
+
+    public void testErrorsAreReportedEveryTime() {
+        for (int i = 0; i != 3; ++i) {
+            try {
+                eval("java.lang.String.valueOf(1, 2, 3, 4)");
+                fail();
+            } catch (EvaluatorException e) {
+                // expected
+            }
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Tests for compiling function bodies on their first call.
+ */
+package org.mozilla.javascript.tests;
+
+import junit.framework.TestCase;
+
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ContextFactory;
+import org.mozilla.javascript.EcmaError;
+import org.mozilla.javascript.EvaluatorException;
+import org.mozilla.javascript.JavaScriptException;
+import org.mozilla.javascript.Scriptable;
+
+public class LazyFunctionParsingTest extends TestCase {
+
+    private static final ContextFactory LAZY_FACTORY = new ContextFactory() {
+        @Override
+        protected boolean hasFeature(Context cx, int featureIndex) {
+            if (featureIndex == Context.FEATURE_LAZY_FUNCTION_PARSING) {
+                return true;
+            }
+            return super.hasFeature(cx, featureIndex);
+        }
+    };
+
+    private Context cx;
+    private Scriptable scope;
+
+    @Override
+    protected void setUp() {
+        cx = LAZY_FACTORY.enterContext();
+        cx.setOptimizationLevel(-1);
+        scope = cx.initStandardObjects();
+    }
+
+    @Override
+    protected void tearDown() {
+        Context.exit();
+    }
+
+    private Object eval(String source) {
+        return cx.evaluateString(scope, source, "test", 1, null);
+    }
+
+    private String evalString(String source) {
+        return Context.toString(eval(source));
+    }
+
+    public void testBodiesKeepTheirText() {
+        eval("function f(a, b) { return a  +  b; }");
+        assertTrue(evalString("f.toString()").indexOf("a  +  b") >= 0);
+        assertEquals("3", evalString("f(1, 2)"));
+        // the text does not change once the body is compiled
+        assertTrue(evalString("f.toString()").indexOf("a  +  b") >= 0);
+    }
+
+    public void testCompiledUpFrontWithoutFeature() {
+        cx.setOptimizationLevel(0);
+        eval("function f(a, b) { return a  +  b; }");
+        assertTrue(evalString("f.toString()").indexOf("a + b") >= 0);
+        assertEquals("3", evalString("f(1, 2)"));
+    }
+
+    public void testSyntaxErrorsReportedWhenLoading() {
+        try {
+            eval("function f() {\n" +
+                 "  function never() {\n" +
+                 "    return 1 +;\n" +
+                 "  }\n" +
+                 "}");
+            fail();
+        } catch (EvaluatorException e) {
+            assertEquals(3, e.lineNumber());
+        }
+    }
+
+    public void testRuntimeErrorLines() {
+        eval("var x = 1;\n" +
+             "function f() {\n" +
+             "  var y = 2;\n" +
+             "  throw new Error('at line 4');\n" +
+             "}");
+        try {
+            eval("f()");
+            fail();
+        } catch (JavaScriptException e) {
+            assertEquals(4, e.lineNumber());
+            assertEquals("test", e.sourceName());
+        }
+    }
+
+    public void testClosuresAndNesting() {
+        assertEquals("1,2,101,3,102", evalString(
+            "function counter(start) {\n" +
+            "  var n = start;\n" +
+            "  function next() { return ++n; }\n" +
+            "  return next;\n" +
+            "}\n" +
+            "var a = counter(0), b = counter(100);\n" +
+            "[a(), a(), b(), a(), b()].join()"));
+    }
+
+    public void testClosureCreatedBeforeFirstCall() {
+        assertEquals("ab,ab", evalString(
+            "function outer() {\n" +
+            "  return [function(s) { return s.match(/a./)[0]; },\n" +
+            "          function(s) { return s.match(/a./)[0]; }];\n" +
+            "}\n" +
+            "var fs = outer();\n" +
+            "[fs[0]('xabc'), fs[1]('zab')].join()"));
+    }
+
+    public void testFunctionNames() {
+        assertEquals("120,original,function", evalString(
+            "var fact = function f(n) { return n <= 1 ? 1 : n * f(n - 1); };\n" +
+            "function g() { return g.tag; }\n" +
+            "g.tag = 'original';\n" +
+            "function h() { h = 1; return typeof h; }\n" +
+            "var hh = h; hh();\n" +
+            "[fact(5), g(), typeof hh].join()"));
+        assertEquals("1", evalString("h"));
+    }
+
+    public void testArgumentsAndHoisting() {
+        assertEquals("3,inner,undefined", evalString(
+            "function f() {\n" +
+            "  var r = [arguments.length, inner()];\n" +
+            "  r.push(typeof v);\n" +
+            "  var v = 1;\n" +
+            "  return r;\n" +
+            "  function inner() { return 'inner'; }\n" +
+            "}\n" +
+            "f(1, 2, 3).join()"));
+    }
+
+    public void testFunctionInBlock() {
+        assertEquals("5", evalString(
+            "if (true) { function k(x) { return x + 1; } }\n" +
+            "k(4)"));
+    }
+
+    public void testGeneratorsAndExpressionClosures() {
+        cx.setLanguageVersion(Context.VERSION_1_8);
+        assertEquals("1,2,9", evalString(
+            "function gen() { yield 1; yield 2; }\n" +
+            "var sq = function(x) x * x;\n" +
+            "var r = []; for (var v in gen()) r.push(v);\n" +
+            "r.push(sq(3)); r.join()"));
+    }
+
+    public void testCompileFunction() {
+        Object f = cx.compileFunction(scope,
+            "function (x) { function twice(y) { return y * 2; }\n" +
+            "  return twice(x); }", "test", 1, null);
+        scope.put("f", scope, f);
+        assertEquals("42", evalString("f(21)"));
+    }
+
+    public void testErrorsInLazyBodies() {
+        eval("function f() { return undefinedName; }");
+        try {
+            eval("f()");
+            fail();
+        } catch (EcmaError e) {
+            assertEquals("ReferenceError", e.getName());
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Tests for function and script bodies too large for a single JVM method:
+ * the optimizer splits them into several methods, which must give the same
+ * results as the interpreter.
+ */
+package org.mozilla.javascript.tests;
+
+import junit.framework.TestCase;
+
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ContextAction;
+import org.mozilla.javascript.Scriptable;
+
+public class MethodSplittingTest extends TestCase {
+
+    private void assertEvaluates(final String expected, final String source) {
+        Utils.runWithAllOptimizationLevels(new ContextAction() {
+            public Object run(Context cx) {
+                Scriptable scope = cx.initStandardObjects();
+                Object result = cx.evaluateString(scope, source, "test", 1,
+                                                  null);
+                assertEquals(expected, Context.toString(result));
+                return null;
+            }
+        });
+    }
+
+    private static String repeat(String statement, int count) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i != count; ++i) {
+            sb.append(statement.replace("#", String.valueOf(i))).append('\n');
+        }
+        return sb.toString();
+    }
+
+    public void testLargeScript() {
+        assertEvaluates("997290,4000,7",
+            "var acc = 0, list = [];\n" +
+            repeat("acc = (acc + #*3) % 1000003; list.push(# & 7);" +
+                   " if (acc > 999000) acc = 0;", 4000) +
+            "[acc, list.length, list[3999]].join()");
+    }
+
+    public void testTypedLocals() {
+        assertEvaluates("3000,4498500,true,2998.5,ok",
+            "function f(p) {\n" +
+            "  var n = 0, s = 0, b = false, d = 0.5, t = 'ok';\n" +
+            repeat("n = (n + 1) | 0; s = s + #; b = n > 2; d = d + 1;",
+                   3000) +
+            "  return [n, s, b, d - p, t].join();\n" +
+            "}\n" +
+            "f(2)");
+    }
+
+    public void testControlFlow() {
+        assertEvaluates("early:1200,done:1499,caught:2500",
+            "function f(stop) {\n" +
+            "  var i = 0, j, last = -1;\n" +
+            repeat("for (j = 0; j < 2; j++) i++;" +
+                   " if (i == stop) return 'early:' + #;" +
+                   " try { if (# == 2500) throw #; last = #; }" +
+                   " catch (e) { i += 0; }", 1500) +
+            "  return 'done:' + last;\n" +
+            "}\n" +
+            "function g() {\n" +
+            "  var r;\n" +
+            repeat("try { if (# == 2500) throw #; } catch (e) { r = e; }",
+                   3000) +
+            "  return 'caught:' + r;\n" +
+            "}\n" +
+            "[f(2402), f(-1), g()].join()");
+    }
+
+    public void testClosures() {
+        assertEvaluates("9000,2999,object",
+            "function f() {\n" +
+            "  var total = 0, last = -1;\n" +
+            "  function add(x) { total += x; return total; }\n" +
+            repeat("if (add(3) % 9 == 0) last = #;", 3000) +
+            "  return [total, (function() { return last; })()," +
+            " typeof arguments].join();\n" +
+            "}\n" +
+            "f()");
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Tests for arrays whose elements are kept as unboxed doubles.
+ */
+package org.mozilla.javascript.tests;
+
+import java.lang.reflect.Field;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ContextAction;
+import org.mozilla.javascript.EvaluatorException;
+import org.mozilla.javascript.NativeArray;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.ScriptableObject;
+
+public class NumberArrayTest extends TestCase {
+
+    public void testReadAndWrite() {
+        assertEquals("0,1.5,4.5,9", Utils.evaluate(
+            "var a = [];\n" +
+            "for (var i = 0; i < 4; i++) a[i] = i * 1.5;\n" +
+            "for (var i = 1; i < 4; i++) a[i] = a[i] + a[i - 1];\n" +
+            "a.join();"));
+    }
+
+    public void testHolesAndNaN() {
+        assertEquals("3,true,false,true,1,,NaN", Utils.evaluate(
+            "var a = new Array(3);\n" +
+            "a[0] = 1; a[2] = NaN;\n" +
+            "[a.length, isNaN(a[2]), 1 in a, a[1] === undefined, a].join();"));
+    }
+
+    public void testHoleReadsThroughPrototype() {
+        assertEquals("1,proto", Utils.evaluate(
+            "var a = new Array(2); a[0] = 1;\n" +
+            "Array.prototype[1] = 'proto';\n" +
+            "var s = [a[0], a[1]].join(); delete Array.prototype[1]; s;"));
+    }
+
+    public void testConversionToObjects() {
+        assertEquals("1,x,3,object", Utils.evaluate(
+            "var a = [];\n" +
+            "a[0] = 1; a[1] = 2; a[2] = 3;\n" +
+            "a[1] = 'x'; a[3] = {};\n" +
+            "[a[0], a[1], a[2], typeof a[3]].join();"));
+    }
+
+    public void testArrayMethods() {
+        assertEquals("5|4|3,2,1,5|1|2|2,0.5,1,5,9", Utils.evaluate(
+            "var a = [];\n" +
+            "a.push(1, 2, 3); a.unshift(5);\n" +
+            "var r = [a.push(4), a.pop(), a.reverse().join()];\n" +
+            "r.push(a.indexOf(2), a.lastIndexOf(1));\n" +
+            "a.shift(); a.splice(1, 0, 0.5); r.push(a.concat([9]).join());\n" +
+            "r.join('|');"));
+    }
+
+    public void testNullElementAccessThrows() {
+        assertEquals("TypeError,TypeError", Utils.evaluate(
+            "var r = [];\n" +
+            "try { null[0]; } catch (e) { r.push(e.name); }\n" +
+            "try { var n = null; n[0] = 1.5; } catch (e) { r.push(e.name); }\n" +
+            "r.join();"));
+    }
+
+    public void testJavaValuesKeepTheirClass() {
+        NativeArray array = new NativeArray(2);
+        array.put(0, array, Double.valueOf(1.5));
+        array.put(1, array, Long.valueOf(2));
+        assertEquals(Double.valueOf(1.5), array.get(0, array));
+        assertEquals(Long.valueOf(2), array.get(1, array));
+        assertFalse(array.has(2, array));
+    }
+
+    private static boolean hasNumberStorage(Object array) throws Exception {
+        Field field = NativeArray.class.getDeclaredField("denseDoubles");
+        field.setAccessible(true);
+        return field.get(array) != null;
+    }
+
+    public void testLiteralsAndCopiesStayNumeric() {
+        Utils.runWithAllOptimizationLevels(new ContextAction() {
+            public Object run(Context cx) {
+                Scriptable scope = cx.initStandardObjects();
+                String[] numeric = {
+                    "[1, 2.5, , 4]", "[1, 2, 3].slice(1)",
+                    "[1, 2].concat([3], 4)", "[1, 2, 3].map(function(x) {\n" +
+                    "  return x * 2; })"
+                };
+                try {
+                    for (String source : numeric) {
+                        Object array = cx.evaluateString(scope, source,
+                                                         "test", 1, null);
+                        assertTrue(source, hasNumberStorage(array));
+                    }
+                    Object mixed = cx.evaluateString(scope, "[1, 'x']",
+                                                     "test", 1, null);
+                    assertFalse(hasNumberStorage(mixed));
+                    Scriptable array = cx.newArray(scope, new Object[] {
+                        Double.valueOf(1.5), Integer.valueOf(2),
+                        Scriptable.NOT_FOUND });
+                    assertTrue(hasNumberStorage(array));
+                    assertEquals(Double.valueOf(1.5), array.get(0, array));
+                    assertEquals(Integer.valueOf(2), array.get(1, array));
+                    assertFalse(array.has(2, array));
+                    assertEquals(3.0, ((Number) ScriptableObject.getProperty(
+                                 array, "length")).doubleValue());
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+                return null;
+            }
+        });
+        assertEquals("1,2.5,,4|4,x|3,NaN", Utils.evaluate(
+            "var a = [1, 2.5, , 4], b = [1, NaN];\n" +
+            "a[1] = 'x';\n" +
+            "[[1, 2.5, , 4].join(), a.slice(3).concat('x').join(),\n" +
+            " [b.length + 1, b[1]].join()].join('|');"));
+    }
+
+    public void testListViewKeepsElementClasses() {
+        Utils.runWithAllOptimizationLevels(new ContextAction() {
+            public Object run(Context cx) {
+                Scriptable scope = cx.initStandardObjects();
+                List<?> list = (List<?>) cx.newArray(scope, new Object[] {
+                    Integer.valueOf(1), Integer.valueOf(2),
+                    Integer.valueOf(3) });
+                assertEquals(Integer.valueOf(1), list.get(0));
+                assertEquals(1, list.indexOf(Integer.valueOf(2)));
+                assertEquals(2, list.lastIndexOf(Integer.valueOf(3)));
+                assertTrue(list.contains(Integer.valueOf(3)));
+
+                List<?> parsed = (List<?>) cx.evaluateString(scope,
+                    "JSON.parse('[1, 2, 3]')", "test", 1, null);
+                assertEquals(0, parsed.indexOf(Integer.valueOf(1)));
+
+                List<?> copy = (List<?>) cx.evaluateString(scope,
+                    "var a = JSON.parse('[1, 2, 3]');\n" +
+                    "a.reverse(); a.unshift(0.5); a.concat([4])", "test", 1,
+                    null);
+                assertEquals(Double.valueOf(0.5), copy.get(0));
+                assertEquals(Integer.valueOf(3), copy.get(1));
+                assertEquals(3, copy.indexOf(Integer.valueOf(1)));
+
+                List<?> stored = (List<?>) cx.evaluateString(scope,
+                    "var a = JSON.parse('[1, 2]'); a[0] = a[0] + 0.5; a",
+                    "test", 1, null);
+                assertEquals(Double.valueOf(1.5), stored.get(0));
+                assertEquals(Integer.valueOf(2), stored.get(1));
+                return null;
+            }
+        });
+    }
+
+    public void testSealedArrayIgnoresStores() {
+        Context cx = Context.enter();
+        try {
+            Scriptable scope = cx.initStandardObjects();
+            NativeArray array = (NativeArray) cx.evaluateString(scope,
+                "var a = [1, 2]; a", "test", 1, null);
+            array.sealObject();
+            try {
+                cx.evaluateString(scope, "a[0] = 3.5", "test", 1, null);
+                fail();
+            } catch (EvaluatorException e) {
+                // sealed objects refuse changes
+            }
+            assertEquals(1.0, ((Number) array.get(0, array)).doubleValue());
+        } finally {
+            Context.exit();
+        }
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Tests for the inline property caches enabled by
+ * Context.FEATURE_PROPERTY_CACHE.
+ */
+package org.mozilla.javascript.tests;
+
+import junit.framework.TestCase;
+
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ContextAction;
+import org.mozilla.javascript.ContextFactory;
+import org.mozilla.javascript.PropertyCacheStats;
+import org.mozilla.javascript.Script;
+import org.mozilla.javascript.Scriptable;
+
+public class PropertyCacheTest extends TestCase {
+
+    private static final ContextFactory CACHING_FACTORY = new ContextFactory() {
+        @Override
+        protected boolean hasFeature(Context cx, int featureIndex) {
+            if (featureIndex == Context.FEATURE_PROPERTY_CACHE) {
+                return true;
+            }
+            return super.hasFeature(cx, featureIndex);
+        }
+    };
+
+    private Context cx;
+    private Scriptable scope;
+
+    @Override
+    protected void setUp() {
+        cx = CACHING_FACTORY.enterContext();
+        cx.setOptimizationLevel(-1);
+        scope = cx.initStandardObjects();
+    }
+
+    @Override
+    protected void tearDown() {
+        Context.exit();
+    }
+
+    private Object exec(Script script) {
+        return script.exec(cx, scope);
+    }
+
+    private Script compile(String source) {
+        return cx.compileString(source, "test", 1, null);
+    }
+
+    public void testMonomorphicSite() {
+        Script script = compile(
+            "function P(x) { this.x = x; }\n" +
+            "P.prototype.get = function() { return this.x; };\n" +
+            "var sum = 0;\n" +
+            "for (var i = 0; i < 100; i++) { var p = new P(i); sum += p.get(); }\n" +
+            "sum;");
+        assertEquals(Double.valueOf(4950), Context.jsToJava(exec(script), Double.class));
+        PropertyCacheStats stats = PropertyCacheStats.forScript(script);
+        assertNotNull(stats);
+        assertEquals("test", stats.getSourceName());
+        assertTrue(stats.getSiteCount() > 0);
+        assertTrue(stats.getHits() > 0);
+        assertEquals(0, stats.getMegamorphicCount());
+        PropertyCacheStats get = stats.getFunction(1);
+        assertTrue(get.getHitRate() > 0.9);
+    }
+
+    public void testShapeChanges() {
+        Script script = compile(
+            "function f(o) { return o.a; }\n" +
+            "var r = [];\n" +
+            "var o = {a: 1};\n" +
+            "r.push(f(o), f(o));\n" +
+            "o.a = 2; r.push(f(o));\n" +
+            "delete o.a; r.push(f(o));\n" +
+            "o.b = 0; o.a = 3; r.push(f(o));\n" +
+            "r.join();");
+        assertEquals("1,1,2,,3", exec(script));
+    }
+
+    public void testPrototypeChanges() {
+        Script script = compile(
+            "function C() {}\n" +
+            "C.prototype.m = function() { return 1; };\n" +
+            "var c = new C(), r = [];\n" +
+            "r.push(c.m(), c.m());\n" +
+            "C.prototype.m = function() { return 2; };\n" +
+            "r.push(c.m());\n" +
+            "c.m = function() { return 3; };\n" +
+            "r.push(c.m());\n" +
+            "r.join();");
+        assertEquals("1,1,2,3", exec(script));
+    }
+
+    public void testReadOnlyAndSealed() {
+        Script script = compile(
+            "function set(o, v) { o.a = v; return o.a; }\n" +
+            "var o = {a: 1}, r = [];\n" +
+            "r.push(set(o, 2), set(o, 3));\n" +
+            "Object.freeze(o);\n" +
+            "r.push(set(o, 4));\n" +
+            "r.join();");
+        assertEquals("2,3,3", exec(script));
+    }
+
+    public void testMegamorphicSite() {
+        Script script = compile(
+            "function f(o) { return o.a; }\n" +
+            "var sum = 0;\n" +
+            "for (var i = 0; i < 10; i++) {\n" +
+            "  var o = {}; o['p' + i] = 0; o.a = i; sum += f(o);\n" +
+            "}\n" +
+            "sum;");
+        assertEquals(Double.valueOf(45), Context.jsToJava(exec(script), Double.class));
+        PropertyCacheStats f = PropertyCacheStats.forScript(script).getFunction(0);
+        assertEquals(1, f.getMegamorphicCount());
+    }
+
+    public void testSameLayoutOnAnotherPrototype() {
+        Utils.runWithAllOptimizationLevels(CACHING_FACTORY, new ContextAction() {
+            public Object run(Context cx) {
+                Scriptable scope = cx.initStandardObjects();
+                Object result = cx.evaluateString(scope,
+                    "function f(o) { return o.m; }\n" +
+                    "function A() {} A.prototype.m = 1;\n" +
+                    "function B() {} B.prototype.m = 2;\n" +
+                    "var a = new A(), b = new B();\n" +
+                    "[f(a), f(b), f(a), f(b)].join();", "test", 1, null);
+                assertEquals("1,2,1,2", result);
+                return null;
+            }
+        });
+    }
+
+    public void testDisabledByDefault() {
+        // leave the context of setUp() so that a plain one is entered
+        Context.exit();
+        try {
+            Utils.runWithOptimizationLevel(new ContextAction() {
+                public Object run(Context cx) {
+                    Script script = cx.compileString(
+                        "var o = {a: 1}; o.a + o.a;", "test", 1, null);
+                    assertEquals(0, PropertyCacheStats.forScript(script)
+                                    .getSiteCount());
+                    return null;
+                }
+            }, -1);
+        } finally {
+            cx = CACHING_FACTORY.enterContext();
+        }
+    }
+
+    public void testCompiledScript() {
+        cx.setOptimizationLevel(0);
+        assertNull(PropertyCacheStats.forScript(compile("1")));
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * Tests for the shared property layout of ScriptableObject.
+ */
+package org.mozilla.javascript.tests;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.reflect.Method;
+
+import junit.framework.TestCase;
+
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ContextAction;
+import org.mozilla.javascript.NativeObject;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.ScriptableObject;
+
+public class PropertyLayoutTest extends TestCase {
+
+    public void testSameShapeObjects() {
+        assertEquals("1,2|3,4|b,a", Utils.evaluate(
+            "function P(x, y) { this.x = x; this.y = y; }\n" +
+            "var p = new P(1, 2), q = new P(3, 4), r = {b: 1, a: 2};\n" +
+            "[p.x, p.y].join() + '|' + [q.x, q.y].join() + '|' + Object.keys(r);"));
+    }
+
+    private static Object getPropertyMap(Scriptable object) throws Exception {
+        Method method =
+            ScriptableObject.class.getDeclaredMethod("getPropertyMap");
+        method.setAccessible(true);
+        return method.invoke(object);
+    }
+
+    private static Scriptable get(Scriptable scope, String name) {
+        return (Scriptable) ScriptableObject.getProperty(scope, name);
+    }
+
+    public void testSameShapeSharesLayout() {
+        Utils.runWithAllOptimizationLevels(new ContextAction() {
+            public Object run(Context cx) {
+                Scriptable scope = cx.initStandardObjects();
+                cx.evaluateString(scope,
+                    "function P(x, y) { this.x = x; this.y = y; }\n" +
+                    "var p = new P(1, 2), q = new P(3, 4), r = new P(5, 6);\n" +
+                    "var a = {m: 1, n: 2}, b = {m: 3, n: 4}, c = {n: 5, m: 6};",
+                    "test", 1, null);
+                try {
+                    Object shape = getPropertyMap(get(scope, "p"));
+                    assertNotNull(shape);
+                    assertSame(shape, getPropertyMap(get(scope, "q")));
+                    assertSame(shape, getPropertyMap(get(scope, "r")));
+
+                    // adding a property splits the layout of that object only
+                    cx.evaluateString(scope, "r.z = 7", "test", 1, null);
+                    Object extended = getPropertyMap(get(scope, "r"));
+                    assertNotSame(shape, extended);
+                    assertSame(shape, getPropertyMap(get(scope, "p")));
+                    // and the same addition leads to the same layout
+                    cx.evaluateString(scope, "q.z = 8", "test", 1, null);
+                    assertSame(extended, getPropertyMap(get(scope, "q")));
+
+                    Object literal = getPropertyMap(get(scope, "a"));
+                    assertSame(literal, getPropertyMap(get(scope, "b")));
+                    assertNotSame(literal, getPropertyMap(get(scope, "c")));
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+                assertEquals("1,2|3,4,8|5,6,7", Context.toString(
+                    cx.evaluateString(scope,
+                        "[p.x, p.y] + '|' + [q.x, q.y, q.z] + '|' +\n" +
+                        "[r.x, r.y, r.z]", "test", 1, null)));
+                return null;
+            }
+        });
+    }
+
+    public void testEnumerationOrderAfterDelete() {
+        assertEquals("a,c,b", Utils.evaluate(
+            "var o = {a: 1, b: 2, c: 3};\n" +
+            "delete o.b; o.b = 4;\n" +
+            "var keys = []; for (var k in o) keys.push(k); keys.join();"));
+    }
+
+    public void testIndexAndNameKeys() {
+        assertEquals("0,x,1:a|b|c", Utils.evaluate(
+            "var o = {}; o[0] = 'a'; o.x = 'b'; o[1] = 'c';\n" +
+            "Object.keys(o) + ':' + [o[0], o.x, o[1]].join('|');"));
+    }
+
+    public void testReadOnlyAndAccessors() {
+        assertEquals("1,2,true", Utils.evaluate(
+            "var o = {a: 1};\n" +
+            "Object.defineProperty(o, 'b', {value: 2, writable: false});\n" +
+            "o.b = 5;\n" +
+            "o.__defineGetter__('c', function() { return this.a == 1; });\n" +
+            "[o.a, o.b, o.c].join();"));
+    }
+
+    public void testManyProperties() {
+        assertEquals("200,0,199", Utils.evaluate(
+            "var o = {};\n" +
+            "for (var i = 0; i < 200; i++) o['p' + i] = i;\n" +
+            "var keys = Object.keys(o);\n" +
+            "[keys.length, o.p0, o.p199].join();"));
+    }
+
+    public void testDefinePropertyAttributes() {
+        NativeObject object = new NativeObject();
+        object.defineProperty("a", "1", ScriptableObject.EMPTY);
+        object.defineProperty("b", "2", ScriptableObject.DONTENUM);
+        object.defineProperty("c", "3", ScriptableObject.READONLY);
+        assertEquals(ScriptableObject.DONTENUM, object.getAttributes("b"));
+        assertEquals(ScriptableObject.READONLY, object.getAttributes("c"));
+        object.put("c", object, "4");
+        assertEquals("3", object.get("c", object));
+        assertEquals(2, object.getIds().length);
+        assertEquals(3, object.getAllIds().length);
+        object.setAttributes("a", ScriptableObject.READONLY);
+        object.put("a", object, "5");
+        assertEquals("1", object.get("a", object));
+    }
+
+    public void testConcurrentStoresAndAdditions() throws Exception {
+        final NativeObject object = new NativeObject();
+        object.put("value", object, Integer.valueOf(-1));
+        final int n = 20000;
+        Thread adder = new Thread() {
+            @Override
+            public void run() {
+                for (int i = 0; i != n; ++i) {
+                    object.put("p" + i, object, Integer.valueOf(i));
+                }
+            }
+        };
+        Thread[] readers = new Thread[2];
+        final boolean[] missed = new boolean[1];
+        for (int t = 0; t != readers.length; ++t) {
+            readers[t] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i != n; ++i) {
+                        if (object.get("value", object) == Scriptable.NOT_FOUND) {
+                            missed[0] = true;
+                        }
+                    }
+                }
+            };
+        }
+        adder.start();
+        for (Thread reader : readers) {
+            reader.start();
+        }
+        for (int i = 0; i != n; ++i) {
+            Integer value = Integer.valueOf(i);
+            object.put("value", object, value);
+            assertSame(value, object.get("value", object));
+        }
+        adder.join();
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        assertFalse(missed[0]);
+        assertEquals(Integer.valueOf(n - 1), object.get("value", object));
+        assertEquals(n + 1, object.getIds().length);
+        for (int i = 0; i != n; ++i) {
+            assertEquals(Integer.valueOf(i), object.get("p" + i, object));
+        }
+    }
+
+    public void testSerialization() throws Exception {
+        NativeObject object = new NativeObject();
+        object.put("a", object, "1");
+        object.put(3, object, "2");
+        object.defineProperty("b", "3", ScriptableObject.DONTENUM);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(object);
+        out.close();
+        ObjectInputStream in = new ObjectInputStream(
+            new ByteArrayInputStream(bytes.toByteArray()));
+        NativeObject copy = (NativeObject) in.readObject();
+
+        assertEquals("1", copy.get("a", copy));
+        assertEquals("2", copy.get(3, copy));
+        assertEquals("3", copy.get("b", copy));
+        assertEquals(ScriptableObject.DONTENUM, copy.getAttributes("b"));
+        Object[] ids = copy.getIds();
+        assertEquals(2, ids.length);
+        assertEquals("a", ids[0]);
+        assertEquals(Integer.valueOf(3), ids[1]);
+    }
+}
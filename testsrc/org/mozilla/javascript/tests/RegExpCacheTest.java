@@ -0,0 +1,130 @@
+/*
+ * Tests for the cache of compiled regular expressions.
+ */
+package org.mozilla.javascript.tests;
+
+import junit.framework.TestCase;
+
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ContextFactory;
+import org.mozilla.javascript.EcmaError;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.regexp.RegExpCache;
+
+public class RegExpCacheTest extends TestCase {
+
+    private Context cx;
+    private Scriptable scope;
+    private int savedMaximumSize;
+
+    @Override
+    protected void setUp() {
+        savedMaximumSize = RegExpCache.getMaximumSize();
+        cx = Context.enter();
+        scope = cx.initStandardObjects();
+        // the prototype compiles an empty pattern when first used
+        eval("RegExp.prototype");
+        RegExpCache.clear();
+    }
+
+    @Override
+    protected void tearDown() {
+        Context.exit();
+        RegExpCache.setMaximumSize(savedMaximumSize);
+        RegExpCache.clear();
+    }
+
+    private String eval(String source) {
+        return Context.toString(
+            cx.evaluateString(scope, source, "test", 1, null));
+    }
+
+    public void testRepeatedPatternsCompiledOnce() {
+        assertEquals("b1,b2,b3", eval(
+            "var r = [];\n" +
+            "for (var i = 1; i <= 3; i++) {\n" +
+            "  r.push(new RegExp('a(b\\\\d)', 'g').exec('xab' + i)[1]);\n" +
+            "}\n" +
+            "r.join()"));
+        assertEquals(1, RegExpCache.getMissCount());
+        assertEquals(2, RegExpCache.getHitCount());
+        assertEquals(1, RegExpCache.getSize());
+    }
+
+    public void testFlagsAreKept() {
+        assertEquals("true,false,true,false", eval(
+            "var a = new RegExp('x', 'i'), b = new RegExp('x');\n" +
+            "var c = new RegExp('x', 'i'), d = new RegExp('x', '');\n" +
+            "[a.test('X'), b.test('X'), c.test('X'), d.test('X')].join()"));
+        assertEquals(2, RegExpCache.getSize());
+        assertEquals(2, RegExpCache.getHitCount());
+    }
+
+    public void testStringMethods() {
+        assertEquals("a-b-c,3,a.b.c", eval(
+            "var s = 'a.b.c';\n" +
+            "[s.replace('.', '-').replace('.', '-'), s.split('.').length,\n" +
+            " s.match('.') + '.b.c'].join()"));
+        // replace uses the pattern literally, match does not
+        assertEquals("x.b.c", eval("'a.b.c'.replace('a', 'x')"));
+        assertEquals("a", eval("'a.b.c'.match('.')[0]"));
+        assertTrue(RegExpCache.getHitCount() > 0);
+    }
+
+    public void testStateIsNotShared() {
+        assertEquals("1,3,0", eval(
+            "var a = new RegExp('a', 'g'), b = new RegExp('a', 'g');\n" +
+            "a.exec('aaa'); b.exec('aaa'); b.exec('aaa'); b.exec('aaa');\n" +
+            "[a.lastIndex, b.lastIndex, new RegExp('a', 'g').lastIndex].join()"));
+    }
+
+    public void testLeastRecentlyUsedAreEvicted() {
+        RegExpCache.setMaximumSize(2);
+        eval("new RegExp('a'); new RegExp('b'); new RegExp('a'); new RegExp('c');");
+        assertEquals(2, RegExpCache.getSize());
+        assertEquals(1, RegExpCache.getEvictionCount());
+        eval("new RegExp('a')");
+        assertEquals(2, RegExpCache.getHitCount());
+        eval("new RegExp('b')");
+        assertEquals(2, RegExpCache.getHitCount());
+        assertEquals(2, RegExpCache.getEvictionCount());
+    }
+
+    public void testErrorsAreNotCached() {
+        for (int i = 0; i != 2; ++i) {
+            try {
+                eval("new RegExp('(')");
+                fail();
+            } catch (EcmaError e) {
+                assertEquals("SyntaxError", e.getName());
+            }
+        }
+        try {
+            eval("new RegExp('a', 'q')");
+            fail();
+        } catch (EcmaError e) {
+            assertEquals("SyntaxError", e.getName());
+        }
+        assertEquals(0, RegExpCache.getSize());
+    }
+
+    public void testNotUsedInStrictMode() {
+        Context.exit();
+        ContextFactory strict = new ContextFactory() {
+            @Override
+            protected boolean hasFeature(Context c, int featureIndex) {
+                if (featureIndex == Context.FEATURE_STRICT_MODE) {
+                    return true;
+                }
+                return super.hasFeature(c, featureIndex);
+            }
+        };
+        cx = strict.enterContext();
+        scope = cx.initStandardObjects();
+        eval("RegExp.prototype");
+        RegExpCache.clear();
+        eval("new RegExp('a'); new RegExp('a');");
+        assertEquals(0, RegExpCache.getSize());
+        assertEquals(0, RegExpCache.getHitCount());
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Tests for the compilation of hot regular expressions to JVM bytecode.
+ */
+package org.mozilla.javascript.tests;
+
+import junit.framework.TestCase;
+
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ContextFactory;
+import org.mozilla.javascript.GeneratedClassLoader;
+import org.mozilla.javascript.Scriptable;
+
+public class RegExpCompilerTest extends TestCase {
+
+    private int compiledCount;
+
+    private final ContextFactory factory = new ContextFactory() {
+        @Override
+        protected GeneratedClassLoader createClassLoader(ClassLoader parent) {
+            final GeneratedClassLoader loader =
+                super.createClassLoader(parent);
+            return new GeneratedClassLoader() {
+                public Class<?> defineClass(String name, byte[] data) {
+                    if (name.startsWith("org.mozilla.javascript.gen.RegExp_")) {
+                        ++compiledCount;
+                    }
+                    return loader.defineClass(name, data);
+                }
+
+                public void linkClass(Class<?> cl) {
+                    loader.linkClass(cl);
+                }
+            };
+        }
+    };
+
+    private Context cx;
+    private Scriptable scope;
+
+    @Override
+    protected void setUp() {
+        cx = factory.enterContext();
+        cx.setOptimizationLevel(0);
+        scope = cx.initStandardObjects();
+    }
+
+    @Override
+    protected void tearDown() {
+        Context.exit();
+    }
+
+    private String eval(String source) {
+        return Context.toString(
+            cx.evaluateString(scope, source, "test", 1, null));
+    }
+
+    /**
+     * Run the pattern over the input often enough to compile it and
+     * check that every run gives the same result.
+     */
+    private String repeat(String pattern, String input) {
+        scope.put("input", scope, input);
+        String results = eval(
+            "var re = " + pattern + ", r = [];\n" +
+            "for (var i = 0; i < 30; i++) {\n" +
+            "  re.lastIndex = 0;\n" +
+            "  var m = re.exec(input);\n" +
+            "  r.push(m ? m.index + ':' + m.join('|') : 'null');\n" +
+            "}\n" +
+            "r.join('\\n')");
+        String[] runs = results.split("\n");
+        for (int i = 1; i < runs.length; i++) {
+            assertEquals(pattern, runs[0], runs[i]);
+        }
+        return runs[0];
+    }
+
+    public void testHotPatternsAreCompiled() {
+        assertEquals("1:abbc|bb", repeat("/a(b+)c/", "xabbc"));
+        assertEquals(1, compiledCount);
+    }
+
+    public void testNotCompiledWhenInterpreting() {
+        cx.setOptimizationLevel(-1);
+        assertEquals("1:abbc|bb", repeat("/a(b+)c/", "xabbc"));
+        assertEquals(0, compiledCount);
+    }
+
+    public void testSameResultsAfterCompiling() {
+        assertEquals("0:b||b", repeat("/(a)|(b)/", "b"));
+        assertEquals("0:abcd|a|bcd|", repeat("/(a|ab)(c|bcd)(d*)/", "abcd"));
+        assertEquals("0:zaacbbbcac|z|ac|a||c",
+                     repeat("/(z)((a+)?(b+)?(c))*/", "zaacbbbcac"));
+        assertEquals("0:aaab", repeat("/a*?b/", "aaab"));
+        assertEquals("0:xfooyfoo", repeat("/.*foo/", "xfooyfooz"));
+        assertEquals("0:xfoo", repeat("/.*?foo/", "xfooyfooz"));
+        assertEquals("0:xxx", repeat("/x{2,3}/", "xxxx"));
+        assertEquals("0:xx", repeat("/x{2,}?/", "xxxx"));
+        assertEquals("2:ABCdef", repeat("/[a-z]+/i", "12ABCdef"));
+        assertEquals("3:123", repeat("/[^a-z]+/", "abc123def"));
+        assertEquals("2:cc|c", repeat("/(.)\\1/", "abccd"));
+        assertEquals("2:cC|c", repeat("/(.)\\1/i", "abcCd"));
+        assertEquals("3:aba|a", repeat("/(?=(a+))a*b\\1/", "baaabac"));
+        assertEquals("2:b", repeat("/(?!a)\\w/", "aab"));
+        assertEquals("2:abc", repeat("/^abc$/m", "x\nabc\ny"));
+        assertEquals("5:foo", repeat("/\\bfoo\\b/", "afoo foo"));
+        assertEquals("0:a = 'b c'|a|'b c'",
+                     repeat("/(\\w+)\\s*=\\s*('[^']*'|\"[^\"]*\"|\\S+)/",
+                            "a = 'b c' d=e"));
+        assertEquals("16:HELLO WORLD, THIS IS LONG TEXT",
+                     repeat("/hello world, this is long text/i",
+                            "hello world, oh HELLO WORLD, THIS IS LONG TEXT!"));
+        assertEquals("null", repeat("/(a+)+b/", "aaaaaaaaaaac"));
+    }
+
+    public void testEmptyLoopBodiesKeepInterpreterResults() {
+        repeat("/(?:)+x/", "ax");
+        repeat("/(?:a??)+/", "caaac");
+        repeat("/(a|)+b/", "aab");
+    }
+
+    public void testGlobalReplace() {
+        assertEquals("<a>-<bb>-<c>", eval(
+            "var s;\n" +
+            "for (var i = 0; i < 30; i++)\n" +
+            "  s = 'a-bb-c'.replace(/(\\w+)/g, '<$1>');\n" +
+            "s"));
+    }
+
+    public void testDeepBacktrackingFallsBack() {
+        StringBuilder input = new StringBuilder();
+        for (int i = 0; i < 100000; i++) {
+            input.append("ab");
+        }
+        input.append('c');
+        assertEquals("0", repeat("/(?:ab)*c/", input.toString())
+                              .substring(0, 1));
+    }
+}
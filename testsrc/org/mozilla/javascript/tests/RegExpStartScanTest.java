@@ -0,0 +1,89 @@
+/*
+ * Tests for skipping the input positions where a regexp cannot match.
+ */
+package org.mozilla.javascript.tests;
+
+import junit.framework.TestCase;
+
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Scriptable;
+
+public class RegExpStartScanTest extends TestCase {
+
+    private Context cx;
+    private Scriptable scope;
+
+    @Override
+    protected void setUp() {
+        cx = Context.enter();
+        cx.setOptimizationLevel(-1);
+        scope = cx.initStandardObjects();
+    }
+
+    @Override
+    protected void tearDown() {
+        Context.exit();
+    }
+
+    private String exec(String pattern, String input) {
+        scope.put("input", scope, input);
+        return Context.toString(cx.evaluateString(scope,
+            "var m = " + pattern + ".exec(input);\n" +
+            "m ? m.index + ':' + m.join('|') : 'null'", "test", 1, null));
+    }
+
+    public void testLiteralPrefix() {
+        assertEquals("8:xyzxyzxyz", exec("/xyzxyzxyz/", "xyzxyzxyxyzxyzxyz"));
+        assertEquals("5:abcd|abc|d", exec("/(abc)(d)/", "xxabcabcd"));
+        assertEquals("1:abc", exec("/(?=ab)abc/", "aabc"));
+        assertEquals("3:a\nb", exec("/a$\\nb/m", "xa\na\nb"));
+        assertEquals("null", exec("/ab\\bc/", "ab c"));
+        assertEquals("null", exec("/abcd/", "abc"));
+        assertEquals("3:\u0100\u0201",
+                     exec("/\u0100\u0201/", "\u0201\u0100x\u0100\u0201"));
+    }
+
+    public void testFirstChars() {
+        assertEquals("3:zq", exec("/[xyz]+q/", "aaazq"));
+        assertEquals("7:100px", exec("/\\d+px/", "width: 100px"));
+        assertEquals("4:ab\u0101", exec("/\\w+\u0101/", "x \u0101 ab\u0101"));
+        assertEquals("2:\u0105a", exec("/[\u0100-\u0110]a/", "xx\u0105a"));
+        assertEquals("1:\u3000b", exec("/\\s\\S/", "a\u3000b"));
+        assertEquals("2:bc", exec("/(?:a|b)c/", "xxbc"));
+        assertEquals("2:c", exec("/(?:a|)c/", "xxc"));
+        assertEquals("2:abc", exec("/ABC/i", "xxabcabc"));
+        assertEquals("0:\u00c9T\u00c9",
+                     exec("/\u00e9t\u00e9/i", "\u00c9T\u00c9"));
+        assertEquals("3:xbc", exec("/[^a]bc/", "abcxbc"));
+    }
+
+    public void testMinimumLength() {
+        assertEquals("3:aaa", exec("/a{3}/", "aaxaaa"));
+        assertEquals("null", exec("/a{3}/", "aaxaa"));
+        assertEquals("3:bac|a", exec("/(a|b){2}c/", "aaabac"));
+        assertEquals("5:", exec("/$/", "abcde"));
+        assertEquals("0:", exec("/x*/", ""));
+    }
+
+    public void testStartAnchor() {
+        assertEquals("0:abc", exec("/^abc/", "abcabc"));
+        assertEquals("null", exec("/^abc/", "xabc"));
+        assertEquals("2:abc", exec("/^abc/m", "x\nabc"));
+        assertEquals("null", Context.toString(cx.evaluateString(scope,
+            "var re = /^a/g; re.lastIndex = 1; re.exec('aa')", "test", 1,
+            null)));
+        assertEquals("true", Context.toString(cx.evaluateString(scope,
+            "RegExp.multiline = true;\n" +
+            "var found = /^b/.test('a\\nb');\n" +
+            "RegExp.multiline = false;\n" +
+            "found",
+            "test", 1, null)));
+    }
+
+    public void testStringMethods() {
+        assertEquals("a,b,c", Context.toString(cx.evaluateString(scope,
+            "'a--b--c'.split('--').join()", "test", 1, null)));
+        assertEquals("x-y-z", Context.toString(cx.evaluateString(scope,
+            "'x::y::z'.replace(/::/g, '-')", "test", 1, null)));
+    }
+}
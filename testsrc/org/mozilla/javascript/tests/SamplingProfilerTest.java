@@ -0,0 +1,107 @@
+/*
+ * Tests for sampling script stacks with SamplingProfiler.
+ */
+package org.mozilla.javascript.tests;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ContextAction;
+import org.mozilla.javascript.ContextFactory;
+import org.mozilla.javascript.SamplingProfiler;
+import org.mozilla.javascript.Scriptable;
+
+public class SamplingProfilerTest extends TestCase {
+
+    private static final String SOURCE =
+        "function hot() {\n" +
+        "    var s = 0;\n" +
+        "    for (var i = 0; i < 10000; i++) s += i % 7;\n" +
+        "    return s;\n" +
+        "}\n" +
+        "function outer(end) {\n" +
+        "    while (java.lang.System.currentTimeMillis() < end) hot();\n" +
+        "}\n" +
+        "outer(java.lang.System.currentTimeMillis() + 300);\n";
+
+    private SamplingProfiler profile(int optimizationLevel,
+                                     boolean includeLineNumbers)
+    {
+        ContextFactory factory = new ContextFactory();
+        SamplingProfiler profiler = new SamplingProfiler(factory);
+        profiler.setSampleInterval(1);
+        profiler.setIncludeLineNumbers(includeLineNumbers);
+        profiler.start();
+        try {
+            Utils.runWithOptimizationLevel(factory, new ContextAction() {
+                public Object run(Context cx) {
+                    cx.setGeneratingDebug(true);
+                    Scriptable scope = cx.initStandardObjects();
+                    return cx.evaluateString(scope, SOURCE, "profiled.js",
+                                             1, null);
+                }
+            }, optimizationLevel);
+        } finally {
+            profiler.stop();
+        }
+        assertFalse(profiler.isRunning());
+        return profiler;
+    }
+
+    private void checkStacks(SamplingProfiler profiler) {
+        assertTrue(profiler.getSampleCount() > 0);
+        int hot = 0;
+        for (Map.Entry<String,Integer> e :
+                 profiler.getFoldedStacks().entrySet()) {
+            String stack = e.getKey();
+            if (stack.endsWith("hot (profiled.js)")) {
+                assertEquals("<anonymous> (profiled.js);outer (profiled.js);" +
+                             "hot (profiled.js)", stack);
+                hot += e.getValue().intValue();
+            }
+        }
+        assertTrue(hot > 0);
+    }
+
+    public void testInterpreted() {
+        checkStacks(profile(-1, false));
+    }
+
+    public void testCompiled() {
+        checkStacks(profile(0, false));
+    }
+
+    public void testLineNumbers() throws IOException {
+        SamplingProfiler profiler = profile(-1, true);
+        StringWriter out = new StringWriter();
+        profiler.writeFoldedStacks(out);
+        String folded = out.toString();
+        assertTrue(folded, folded.indexOf(
+            "<anonymous> (profiled.js:9);outer (profiled.js:7);hot (profiled.js:3) ")
+            >= 0);
+        assertTrue(folded.endsWith("\n"));
+        profiler.reset();
+        assertEquals(0, profiler.getSampleCount());
+        assertTrue(profiler.getFoldedStacks().isEmpty());
+    }
+
+    public void testStartTwice() {
+        SamplingProfiler profiler =
+            new SamplingProfiler(new ContextFactory());
+        profiler.start();
+        try {
+            profiler.start();
+            fail();
+        } catch (IllegalStateException e) {
+            // expected
+        } finally {
+            profiler.stop();
+        }
+        // stopping again is harmless
+        profiler.stop();
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Tests for writing a top-level scope to a snapshot and restoring it.
+ */
+package org.mozilla.javascript.tests;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.NotSerializableException;
+
+import junit.framework.TestCase;
+
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ContextFactory;
+import org.mozilla.javascript.ScopeSnapshot;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.ScriptableObject;
+
+public class ScopeSnapshotTest extends TestCase {
+
+    private static final String SETUP =
+        "var counter = (function() {\n" +
+        "    var n = 0;\n" +
+        "    return { inc: function() { return ++n; } };\n" +
+        "})();\n" +
+        "function Point(x, y) { this.x = x; this.y = y; }\n" +
+        "Point.prototype.sum = function() { return this.x + this.y; };\n" +
+        "var p = new Point(1, 2);\n" +
+        "var ints = [1, 2, 3], doubles = [0.5, 1.5], mixed = ['a', {b: 1}];\n" +
+        "var sparse = []; sparse[1000] = 'x';\n" +
+        "var date = new Date(12345), re = /ab+c/gi;\n" +
+        "var o = { get g() { return 7; } };\n" +
+        "var List = java.util.ArrayList;\n" +
+        "Array.prototype.total = function() {\n" +
+        "    var t = 0; for (var i = 0; i < this.length; i++) t += this[i];\n" +
+        "    return t;\n" +
+        "};\n" +
+        "function args() { return arguments; }\n" +
+        "var a = args(1, 2);\n" +
+        "counter.inc();\n";
+
+    private static final String CHECK =
+        "[counter.inc(), p.sum(), p instanceof Point, ints.total(),\n" +
+        " doubles.total(), mixed[1].b, sparse.length, sparse[1000],\n" +
+        " date.getTime(), re.test('xABBC'), re.source, o.g,\n" +
+        " new List().size(), a.length, a[1],\n" +
+        " Object.getPrototypeOf(ints) === Array.prototype].join()";
+
+    private static final String EXPECTED =
+        "2,3,true,6,2,1,1001,x,12345,true,ab+c,7,0,2,2,true";
+
+    private static final ContextFactory RETAINING = new ContextFactory() {
+        @Override
+        protected boolean hasFeature(Context cx, int featureIndex) {
+            if (featureIndex == Context.FEATURE_RETAIN_CLASS_FILES) {
+                return true;
+            }
+            return super.hasFeature(cx, featureIndex);
+        }
+    };
+
+    private Context cx;
+
+    @Override
+    protected void tearDown() {
+        Context.exit();
+    }
+
+    private String eval(Scriptable scope, String source) {
+        return Context.toString(
+            cx.evaluateString(scope, source, "test", 1, null));
+    }
+
+    private byte[] write(ScriptableObject scope) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ScopeSnapshot.write(cx, scope, out);
+        return out.toByteArray();
+    }
+
+    private ScriptableObject restore(byte[] snapshot) throws IOException {
+        return ScopeSnapshot.restore(cx, new ByteArrayInputStream(snapshot));
+    }
+
+    private ScriptableObject restoreWithClasses(byte[] snapshot)
+        throws IOException
+    {
+        ScriptableObject scope = cx.initStandardObjects();
+        ScopeSnapshot.restore(cx, scope, new ByteArrayInputStream(snapshot),
+                              true);
+        return scope;
+    }
+
+    private void roundTrip(ContextFactory factory, int optimizationLevel)
+        throws IOException
+    {
+        cx = factory.enterContext();
+        cx.setOptimizationLevel(optimizationLevel);
+        ScriptableObject scope = cx.initStandardObjects();
+        eval(scope, SETUP);
+        byte[] snapshot = write(scope);
+        assertEquals(EXPECTED, eval(restoreWithClasses(snapshot), CHECK));
+        // every restore gets its own copy of the state
+        assertEquals(EXPECTED, eval(restoreWithClasses(snapshot), CHECK));
+        assertEquals(EXPECTED, eval(scope, CHECK));
+    }
+
+    public void testInterpreted() throws IOException {
+        roundTrip(new ContextFactory(), -1);
+    }
+
+    public void testCompiled() throws IOException {
+        roundTrip(RETAINING, 9);
+    }
+
+    public void testCompiledNeedsClassFiles() throws IOException {
+        cx = new ContextFactory().enterContext();
+        cx.setOptimizationLevel(9);
+        ScriptableObject scope = cx.initStandardObjects();
+        eval(scope, "function f() { return 1; }");
+        try {
+            write(scope);
+            fail();
+        } catch (NotSerializableException e) {
+            // expected
+        }
+    }
+
+    public void testClassFilesNeedOptIn() throws IOException {
+        cx = RETAINING.enterContext();
+        cx.setOptimizationLevel(9);
+        ScriptableObject scope = cx.initStandardObjects();
+        eval(scope, "function f() { return 1; }");
+        byte[] snapshot = write(scope);
+        try {
+            restore(snapshot);
+            fail();
+        } catch (IOException e) {
+            // class files are only defined when allowed
+        }
+        assertEquals("1", eval(restoreWithClasses(snapshot), "f()"));
+    }
+
+    public void testStandardObjectsAreNotCopied() throws IOException {
+        cx = Context.enter();
+        cx.setOptimizationLevel(-1);
+        ScriptableObject scope = cx.initStandardObjects();
+        int empty = write(scope).length;
+        eval(scope, "var x = [Object, Array.prototype, Math.max];");
+        ScriptableObject restored = restore(write(scope));
+        assertEquals("true,true,true", eval(restored,
+            "[x[0] === Object, x[1] === Array.prototype,\n" +
+            " x[2] === Math.max].join()"));
+        assertTrue(empty < 32);
+    }
+
+    public void testAttributesAndFlags() throws IOException {
+        cx = Context.enter();
+        cx.setOptimizationLevel(-1);
+        ScriptableObject scope = cx.initStandardObjects();
+        eval(scope,
+            "const c = 1;\n" +
+            "var frozen = Object.freeze({a: 1});\n" +
+            "var hidden = {};\n" +
+            "Object.defineProperty(hidden, 'h', {value: 2, enumerable: false});");
+        ScriptableObject restored = restore(write(scope));
+        assertEquals("1,true,2,", eval(restored,
+            "c = 2; frozen.a = 5; frozen.b = 1;\n" +
+            "[c, Object.isFrozen(frozen), hidden.h, Object.keys(hidden)].join()"));
+    }
+
+    public void testRestoreIntoOverlayScope() throws IOException {
+        cx = Context.enter();
+        cx.setOptimizationLevel(-1);
+        ScriptableObject scope = cx.initStandardObjects();
+        eval(scope, "var v = 'saved'; function f() { return v; }");
+        byte[] snapshot = write(scope);
+        ScriptableObject shared = cx.initSharedStandardObjects();
+        ScriptableObject overlay =
+            (ScriptableObject)cx.newOverlayScope(shared);
+        ScopeSnapshot.restore(cx, overlay, new ByteArrayInputStream(snapshot));
+        assertEquals("saved", eval(overlay, "f()"));
+        assertEquals("undefined", eval(shared, "typeof f"));
+    }
+
+    public void testBadInput() {
+        cx = Context.enter();
+        try {
+            restore(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 });
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+    }
+}
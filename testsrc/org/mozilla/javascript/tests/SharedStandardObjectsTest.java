@@ -0,0 +1,130 @@
+/*
+ * Tests for top-level scopes sharing one sealed set of standard objects.
+ */
+package org.mozilla.javascript.tests;
+
+import junit.framework.TestCase;
+
+import org.mozilla.javascript.ClassCache;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ContextAction;
+import org.mozilla.javascript.ContextFactory;
+import org.mozilla.javascript.EvaluatorException;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.ScriptableObject;
+
+public class SharedStandardObjectsTest extends TestCase {
+
+    private Context cx;
+    private ScriptableObject shared;
+
+    @Override
+    protected void setUp() {
+        cx = Context.enter();
+        shared = cx.initSharedStandardObjects();
+    }
+
+    @Override
+    protected void tearDown() {
+        Context.exit();
+    }
+
+    private String eval(Scriptable scope, String source) {
+        return Context.toString(
+            cx.evaluateString(scope, source, "test", 1, null));
+    }
+
+    public void testStandardObjects() {
+        Scriptable scope = cx.newOverlayScope(shared);
+        assertEquals("3,b,{\"a\":[1]},true,true,123", eval(scope,
+            "[[1, 2, 3].length, /a(b)/.exec('ab')[1],\n" +
+            " JSON.stringify(JSON.parse('{\"a\":[1]}')),\n" +
+            " Object.getPrototypeOf({}) === Object.prototype,\n" +
+            " new Date(0) instanceof Date, parseInt('123')].join()"));
+        assertEquals("1", eval(scope,
+            "var l = new java.util.ArrayList(); l.add('x'); l.size()"));
+    }
+
+    public void testGlobalsAreIsolated() {
+        Scriptable a = cx.newOverlayScope(shared);
+        Scriptable b = cx.newOverlayScope(shared);
+        eval(a, "var x = 1; function f() { return 'a'; } Object = 'replaced';");
+        assertEquals("undefined,undefined,function", eval(b,
+            "[typeof x, typeof f, typeof Object].join()"));
+        assertEquals("1,a,replaced", eval(a, "[x, f(), Object].join()"));
+        assertEquals("function", eval(shared, "typeof Object"));
+    }
+
+    public void testEvalAndFunctionUseOverlay() {
+        Scriptable a = cx.newOverlayScope(shared);
+        Scriptable b = cx.newOverlayScope(shared);
+        eval(a, "var v = 'a'");
+        eval(b, "var v = 'b'");
+        assertEquals("a,a", eval(a, "[eval('v'), new Function('return v')()].join()"));
+        assertEquals("b,b", eval(b, "[eval('v'), Function('return v')()].join()"));
+    }
+
+    public void testStandardObjectsCannotBeChanged() {
+        Scriptable a = cx.newOverlayScope(shared);
+        String[] changes = {
+            "Array.prototype.extra = 1",
+            "Array.prototype.push = null",
+            "Math.PI2 = 6.28"
+        };
+        for (String change : changes) {
+            try {
+                eval(a, change);
+                fail(change);
+            } catch (EvaluatorException e) {
+                // expected
+            }
+        }
+        assertEquals("false,function", eval(a,
+            "[delete String.prototype.trim, typeof ''.trim].join()"));
+        Scriptable b = cx.newOverlayScope(shared);
+        assertEquals("2,", eval(b,
+            "[[1].push(2), Array.prototype.extra].join()"));
+    }
+
+    public void testClassCacheIsShared() {
+        Scriptable a = cx.newOverlayScope(shared);
+        Scriptable b = cx.newOverlayScope(shared);
+        assertSame(ClassCache.get(shared), ClassCache.get(a));
+        assertSame(ClassCache.get(a), ClassCache.get(b));
+    }
+
+    public void testConcurrentScopes() throws Exception {
+        final String[] results = new String[4];
+        Thread[] threads = new Thread[results.length];
+        for (int i = 0; i != threads.length; ++i) {
+            final int n = i;
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    results[n] = (String) new ContextFactory().call(
+                        new ContextAction() {
+                            public Object run(Context c) {
+                                String last = null;
+                                for (int j = 0; j != 50; ++j) {
+                                    Scriptable s = c.newOverlayScope(shared);
+                                    s.put("n", s, Integer.valueOf(n));
+                                    last = Context.toString(c.evaluateString(s,
+                                        "var r = [];\n" +
+                                        "for (var k = 0; k < 20; k++) r.push(n);\n" +
+                                        "JSON.stringify(r.slice(0, 2)) +\n" +
+                                        "  new java.lang.StringBuilder('!')",
+                                        "test", 1, null));
+                                }
+                                return last;
+                            }
+                        });
+                }
+            };
+            threads[i].start();
+        }
+        for (int i = 0; i != threads.length; ++i) {
+            threads[i].join();
+            assertEquals("[" + i + "," + i + "]!", results[i]);
+        }
+    }
+}
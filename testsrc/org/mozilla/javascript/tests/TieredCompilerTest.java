@@ -0,0 +1,163 @@
+/*
+ * Tests for the promotion of hot interpreted functions to compiled code.
+ */
+package org.mozilla.javascript.tests;
+
+import junit.framework.TestCase;
+
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Function;
+import org.mozilla.javascript.JavaScriptException;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.TieredCompiler;
+
+public class TieredCompilerTest extends TestCase {
+
+    private TieredCompiler tieredCompiler;
+    private Context cx;
+    private Scriptable scope;
+
+    @Override
+    protected void setUp() {
+        tieredCompiler = new TieredCompiler();
+        tieredCompiler.setInvocationThreshold(5);
+        tieredCompiler.setBackwardBranchThreshold(100);
+        cx = Context.enter();
+        cx.setOptimizationLevel(9);
+        cx.setTieredCompiler(tieredCompiler);
+        scope = cx.initStandardObjects();
+    }
+
+    @Override
+    protected void tearDown() {
+        Context.exit();
+        tieredCompiler.shutdown();
+    }
+
+    private Object eval(String source) {
+        return cx.evaluateString(scope, source, "test", 1, null);
+    }
+
+    /**
+     * Call the named global function until the given number of functions
+     * has been promoted, and return its last result.
+     */
+    private Object callUntilPromoted(String name, int promoted)
+        throws InterruptedException
+    {
+        Function f = (Function) scope.get(name, scope);
+        Object result = null;
+        for (int i = 0; i != 1000; ++i) {
+            result = f.call(cx, scope, scope, new Object[0]);
+            if (tieredCompiler.getPromotedFunctionCount() >= promoted) {
+                return f.call(cx, scope, scope, new Object[0]);
+            }
+            Thread.sleep(10);
+        }
+        fail("not promoted: " + tieredCompiler);
+        return result;
+    }
+
+    public void testScriptsStartInterpreted() {
+        eval("function f() { return 1; }");
+        Object f = scope.get("f", scope);
+        assertEquals("org.mozilla.javascript.InterpretedFunction",
+                     f.getClass().getName());
+        assertEquals(0, tieredCompiler.getQueuedFunctionCount());
+    }
+
+    public void testHotFunctionIsPromoted() throws Exception {
+        eval("var calls = 0;\n" +
+             "function f() { return ++calls; }");
+        Object result = callUntilPromoted("f", 1);
+        assertEquals(((Number) eval("calls")).doubleValue(),
+                     ((Number) result).doubleValue());
+        assertEquals(1, tieredCompiler.getQueuedFunctionCount());
+        assertEquals(0, tieredCompiler.getFailedFunctionCount());
+    }
+
+    public void testClosuresKeepTheirScopes() throws Exception {
+        eval("function counter(start) {\n" +
+             "  var n = start;\n" +
+             "  return function() { return n++; };\n" +
+             "}\n" +
+             "var a = counter(0), b = counter(100);\n" +
+             "function f() { return a() + ',' + b(); }");
+        callUntilPromoted("f", 2);
+        Object before = eval("a() + ',' + b()");
+        Object after = eval("a() + ',' + b()");
+        String[] x = before.toString().split(",");
+        String[] y = after.toString().split(",");
+        assertEquals(Integer.parseInt(x[0]) + 1, Integer.parseInt(y[0]));
+        assertEquals(Integer.parseInt(x[1]) + 1, Integer.parseInt(y[1]));
+        assertTrue(Integer.parseInt(y[1]) >= 100);
+    }
+
+    public void testLoopsCountTowardsPromotion() throws Exception {
+        tieredCompiler.setInvocationThreshold(1000000);
+        eval("function f() {\n" +
+             "  var s = 0;\n" +
+             "  for (var i = 0; i < 200; i++) s += i;\n" +
+             "  return s;\n" +
+             "}");
+        assertEquals(19900, ((Number) callUntilPromoted("f", 1)).intValue());
+    }
+
+    public void testConstructorsAfterPromotion() throws Exception {
+        eval("function P(x) { this.x = x; }\n" +
+             "P.prototype.twice = function() { return this.x * 2; };\n" +
+             "function f() { var p = new P(21); return p.twice(); }");
+        callUntilPromoted("f", 1);
+        assertEquals("42,true", eval(
+            "var p = new P(21); [p.twice(), p instanceof P].join()"));
+    }
+
+    public void testOwnNameRefersToOriginal() throws Exception {
+        eval("function f() { return f.tag; }\n" +
+             "f.tag = 'original';");
+        assertEquals("original", callUntilPromoted("f", 1));
+    }
+
+    public void testCalleeIsTheFunction() throws Exception {
+        eval("function f() {\n" +
+             "  var c = arguments.callee;\n" +
+             "  c.count = (c.count || 0) + 1;\n" +
+             "  return c === f;\n" +
+             "}\n" +
+             "function g() { return eval('arguments.callee') === g; }\n" +
+             "var same = true;\n" +
+             "for (var i = 0; i < 50; i++) same = same && f() && g();");
+        assertEquals("true,50", eval("[same, f.count].join()"));
+        assertEquals(0, tieredCompiler.getQueuedFunctionCount());
+    }
+
+    public void testErrorLinesArePreserved() throws Exception {
+        eval("var fail = false;\n" +
+             "function f() {\n" +
+             "  if (fail)\n" +
+             "    throw new Error('x');\n" +
+             "  return 1;\n" +
+             "}");
+        callUntilPromoted("f", 1);
+        eval("fail = true");
+        try {
+            eval("f()");
+            fail();
+        } catch (JavaScriptException e) {
+            assertEquals(4, e.lineNumber());
+        }
+    }
+
+    public void testNamedFunctionExpressionsStayInterpreted() {
+        eval("var g = function h(n) { return n > 0 ? h(n - 1) : 0; };\n" +
+             "for (var i = 0; i < 50; i++) g(3);");
+        assertEquals(0, tieredCompiler.getQueuedFunctionCount());
+    }
+
+    public void testNoTieringWhenInterpreting() {
+        cx.setOptimizationLevel(-1);
+        eval("function f() { return 1; }\n" +
+             "for (var i = 0; i < 50; i++) f();");
+        assertEquals(0, tieredCompiler.getQueuedFunctionCount());
+    }
+}
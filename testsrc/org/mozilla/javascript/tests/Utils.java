@@ -1,5 +1,7 @@
 package org.mozilla.javascript.tests;
 
+import junit.framework.Assert;
+
 import org.mozilla.javascript.Context;
 import org.mozilla.javascript.ContextAction;
 import org.mozilla.javascript.ContextFactory;
@@ -57,6 +59,29 @@ public class Utils
     	}
 	}
 
+	/**
+	 * Evaluates the source in a fresh scope with all available optimization
+	 * levels and returns the result, failing if the levels disagree.
+	 */
+	public static Object evaluate(final String source)
+	{
+		final Object[] result = new Object[1];
+		runWithAllOptimizationLevels(new ContextAction() {
+			public Object run(Context cx) {
+				Scriptable scope = cx.initStandardObjects();
+				Object value = cx.evaluateString(scope, source, "test", 1, null);
+				if (result[0] != null
+					&& !result[0].toString().equals(value.toString()))
+				{
+					Assert.fail(value + " differs from " + result[0]);
+				}
+				result[0] = value;
+				return null;
+			}
+		});
+		return result[0];
+	}
+
 	/**
 	 * Execute the provided script in a fresh context as "myScript.js".
 	 * @param script the script code
@@ -1,6 +1,13 @@
 package org.mozilla.javascript.tests.json;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.Arrays;
 
 import org.mozilla.javascript.Context;
 import org.mozilla.javascript.NativeArray;
@@ -192,6 +199,72 @@ public class JsonParserTest {
         parser.parseValue("[1 ");
     }
 
+    @Test
+    public void shouldParseFromReader() throws Exception {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < 2000; i++) {
+            json.append("{\"id\": ").append(i).append(", \"s\": \"a\\u0062\\n\"},");
+        }
+        json.append("\"").append(repeat('x', 20000)).append("\"]");
+        NativeArray actual = (NativeArray) parser.parseStream(
+            new StringReader(json.toString()));
+        assertEquals(2001, actual.getLength());
+        NativeObject last = (NativeObject) actual.get(1999, actual);
+        assertEquals(1999, last.get("id", last));
+        assertEquals("ab\n", last.get("s", last));
+        assertEquals(20000, ((String) actual.get(2000, actual)).length());
+    }
+
+    @Test
+    public void shouldParseCharSequence() throws Exception {
+        assertEquals("x", parser.parseValue(new StringBuilder("\"x\"")));
+    }
+
+    @Test
+    public void shouldReuseRepeatedKeys() throws Exception {
+        NativeArray actual = (NativeArray) parser.parseValue(
+            "[{\"name\": 1}, {\"name\": 2}]");
+        Object[] a = ((NativeObject) actual.get(0, actual)).getIds();
+        Object[] b = ((NativeObject) actual.get(1, actual)).getIds();
+        assertSame(a[0], b[0]);
+    }
+
+    @Test
+    public void shouldStoreIndexKeysAsIndexes() throws Exception {
+        NativeObject actual = (NativeObject) parser.parseValue(
+            "{\"1\": \"a\", \"01\": \"b\", \"-0\": \"c\", \"1.0\": \"d\"}");
+        assertEquals("a", actual.get(1, actual));
+        assertEquals("b", actual.get("01", actual));
+        assertEquals("c", actual.get("-0", actual));
+        assertEquals("d", actual.get("1.0", actual));
+    }
+
+    @Test
+    public void shouldReportReadErrors() throws Exception {
+        final IOException failure = new IOException();
+        Reader reader = new Reader() {
+            @Override
+            public int read(char[] buf, int off, int len) throws IOException {
+                throw failure;
+            }
+            @Override
+            public void close() {
+            }
+        };
+        try {
+            parser.parseStream(reader);
+            fail();
+        } catch (ParseException e) {
+            assertSame(failure, e.getCause());
+        }
+    }
+
+    private String repeat(char c, int count) {
+        char[] chars = new char[count];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+
     private String str(char... chars) {
         return new String(chars);
     }
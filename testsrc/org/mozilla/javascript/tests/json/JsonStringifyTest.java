@@ -0,0 +1,109 @@
+package org.mozilla.javascript.tests.json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.NativeJSON;
+import org.mozilla.javascript.Scriptable;
+
+import org.junit.Before;
+import org.junit.After;
+import org.junit.Test;
+
+public class JsonStringifyTest {
+    private Context cx;
+    private Scriptable scope;
+
+    @Before
+    public void setUp() {
+        cx = Context.enter();
+        scope = cx.initStandardObjects();
+    }
+
+    @After
+    public void tearDown() {
+        Context.exit();
+    }
+
+    private Object eval(String source) {
+        return cx.evaluateString(scope, source, "test", 1, null);
+    }
+
+    private String write(Object value, Object replacer, Object space)
+        throws IOException
+    {
+        StringWriter writer = new StringWriter();
+        assertTrue(NativeJSON.stringify(cx, scope, value, replacer, space,
+                                        writer));
+        return writer.toString();
+    }
+
+    @Test
+    public void shouldWriteSameTextAsStringify() throws Exception {
+        Object value = eval(
+            "({a: [1, 1.5, -0, 1e21, NaN, 'q\"\\\\\\n\\u0001'],\n" +
+            "  b: {toJSON: function(k) { return 'key ' + k; }},\n" +
+            "  c: undefined, d: function() {}, e: [undefined, {}, []]})");
+        Object replacer = eval(
+            "(function(k, v) { return typeof v == 'number' ? v * 2 : v; })");
+        assertEquals(NativeJSON.stringify(cx, scope, value, null, null),
+                     write(value, null, null));
+        assertEquals(NativeJSON.stringify(cx, scope, value, replacer, "\t"),
+                     write(value, replacer, "\t"));
+        assertEquals(NativeJSON.stringify(cx, scope, value, eval("['a', 'e']"), 2),
+                     write(value, eval("['a', 'e']"), 2));
+        assertEquals("{\"a\":[1,1.5,0,1e+21,null,\"q\\\"\\\\\\n\\u0001\"]," +
+                     "\"b\":\"key b\",\"e\":[null,{},[]]}",
+                     write(value, null, null));
+    }
+
+    @Test
+    public void shouldWriteLargeValues() throws Exception {
+        Object value = eval(
+            "var a = []; for (var i = 0; i < 10000; i++) a.push({i: i}); a");
+        String text = write(value, null, null);
+        assertEquals(NativeJSON.stringify(cx, scope, value, null, null), text);
+        assertEquals(10000, ((Number) eval(
+            "JSON.parse('" + text + "').length")).intValue());
+    }
+
+    @Test
+    public void shouldWriteNothingForUndefined() throws Exception {
+        StringWriter writer = new StringWriter();
+        assertFalse(NativeJSON.stringify(cx, scope, eval("(function() {})"),
+                                         null, null, writer));
+        assertEquals("", writer.toString());
+    }
+
+    @Test
+    public void shouldReportWriteErrors() throws Exception {
+        final IOException failure = new IOException();
+        Writer writer = new Writer() {
+            @Override
+            public void write(char[] buf, int off, int len) throws IOException {
+                throw failure;
+            }
+            @Override
+            public void flush() {
+            }
+            @Override
+            public void close() {
+            }
+        };
+        try {
+            NativeJSON.stringify(cx, scope, eval("[1, 2, 3]"), null, null,
+                                 writer);
+            fail();
+        } catch (IOException e) {
+            assertSame(failure, e);
+        }
+    }
+}
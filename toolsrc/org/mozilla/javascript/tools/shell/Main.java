@@ -44,10 +44,13 @@
 package org.mozilla.javascript.tools.shell;
 
 import java.io.BufferedReader;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
 import java.io.PrintStream;
+import java.io.Writer;
 import java.io.UnsupportedEncodingException;
 import java.lang.ref.ReferenceQueue;
 import java.lang.ref.SoftReference;
@@ -68,6 +71,7 @@ import org.mozilla.javascript.GeneratedClassLoader;
 import org.mozilla.javascript.Kit;
 import org.mozilla.javascript.NativeArray;
 import org.mozilla.javascript.RhinoException;
+import org.mozilla.javascript.SamplingProfiler;
 import org.mozilla.javascript.Script;
 import org.mozilla.javascript.Scriptable;
 import org.mozilla.javascript.ScriptableObject;
@@ -96,6 +100,8 @@ public class Main
     static boolean processStdin = true;
     static List<String> fileList = new ArrayList<String>();
     private static SecurityProxy securityImpl;
+    private static SamplingProfiler profiler;
+    private static String profileFile;
     private final static ScriptCache scriptCache = new ScriptCache(32);
 
     static {
@@ -139,6 +145,7 @@ public class Main
         public void quit(Context cx, int exitCode)
         {
             if (type == SYSTEM_EXIT) {
+                writeProfile();
                 System.exit(exitCode);
                 return;
             }
@@ -186,10 +193,32 @@ public class Main
         IProxy iproxy = new IProxy(IProxy.PROCESS_FILES);
         iproxy.args = args;
         shellContextFactory.call(iproxy);
+        writeProfile();
 
         return exitCode;
     }
 
+    private static void writeProfile()
+    {
+        if (profiler == null) {
+            return;
+        }
+        profiler.stop();
+        try {
+            Writer out = new OutputStreamWriter(
+                new FileOutputStream(profileFile), "UTF-8");
+            try {
+                profiler.writeFoldedStacks(out);
+            } finally {
+                out.close();
+            }
+        } catch (IOException ioe) {
+            global.getErr().println(ToolErrorReporter.getMessage(
+                "msg.couldnt.write.profile", profileFile, ioe.getMessage()));
+        }
+        profiler = null;
+    }
+
     static void processFiles(Context cx, String[] args)
     {
         // define "arguments" array in the top-level object:
@@ -323,6 +352,16 @@ public class Main
                 shellContextFactory.setGeneratingDebug(true);
                 continue;
             }
+            if (arg.equals("-profile")) {
+                if (++i == args.length || profiler != null) {
+                    usageError = arg;
+                    break goodUsage;
+                }
+                profileFile = args[i];
+                profiler = new SamplingProfiler(shellContextFactory);
+                profiler.start();
+                continue;
+            }
             if (arg.equals("-?") ||
                 arg.equals("-help")) {
                 // print usage message
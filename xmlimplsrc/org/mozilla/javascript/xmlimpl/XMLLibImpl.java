@@ -206,8 +206,8 @@ public final class XMLLibImpl extends XMLLib implements Serializable {
         } else if (nameValue instanceof QName) {
             QName qname = (QName)nameValue;
             result = XMLName.formProperty(qname.uri(), qname.localName());
-        } else if (nameValue instanceof String) {
-            result = toXMLNameFromString(cx, (String)nameValue);
+        } else if (nameValue instanceof CharSequence) {
+            result = toXMLNameFromString(cx, nameValue.toString());
         } else if (nameValue instanceof Boolean
             || nameValue instanceof Number
             || nameValue == Undefined.instance
@@ -232,8 +232,8 @@ public final class XMLLibImpl extends XMLLib implements Serializable {
 
         if (value instanceof XMLName) {
             result = (XMLName)value;
-        } else if (value instanceof String) {
-            String str = (String)value;
+        } else if (value instanceof CharSequence) {
+            String str = value.toString();
             long test = ScriptRuntime.testUint32String(str);
             if (test >= 0) {
                 ScriptRuntime.storeUint32Result(cx, test);